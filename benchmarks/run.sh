@@ -0,0 +1,69 @@
+#!/bin/sh
+# build and run the desktop benchmarks, 
+# the classes and the data files are written to a temporary directory
+#
+# usage: benchmarks/run.sh [benchmark class name]...
+#
+# the benchmarks that use the database need the sqlite-jdbc driver, set SQLITE_JDBC to the path of its jar to run them
+
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+SRC=$ROOT/src/org/servalproject/maps
+OUT=${TMPDIR:-/tmp}/servalmaps-benchmarks
+MAPSFORGE=$ROOT/libs/mapsforge-map-0.3.0-jar-with-dependencies.jar
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+
+# the vendored protobuf and csv libraries, the classes being measured and the stand ins for the Android classes
+javac -nowarn -encoding UTF-8 -cp "$MAPSFORGE" -d "$OUT" \
+	$(find "$ROOT/src/com/google/protobuf" "$ROOT/src/org/apache/commons/csv" -name '*.java') \
+	$(find "$ROOT/benchmarks/stubs" "$ROOT/benchmarks/src" -name '*.java') \
+	"$SRC"/export/BinaryExportWriter.java \
+	"$SRC"/export/CheckpointExportWriter.java \
+	"$SRC"/export/CsvExportWriter.java \
+	"$SRC"/export/ExportEngine.java \
+	"$SRC"/export/ExportListener.java \
+	"$SRC"/export/ExportWriter.java \
+	"$SRC"/export/GeoJsonExportWriter.java \
+	"$SRC"/export/GpxExportWriter.java \
+	"$SRC"/mapsforge/MarkerClusterer.java \
+	"$SRC"/mapsforge/OverlayItem.java \
+	"$SRC"/mapsforge/OverlayItems.java \
+	"$SRC"/mapsforge/OverlayList.java \
+	"$SRC"/mapsforge/OverlaySnapshot.java \
+	"$SRC"/mapsforge/SimplifiedTrack.java \
+	"$SRC"/protobuf/BinaryFileContract.java \
+	"$SRC"/protobuf/BinaryRecordReader.java \
+	"$SRC"/protobuf/BlockOutputStream.java \
+	"$SRC"/protobuf/ImportPipeline.java \
+	"$SRC"/protobuf/ImportScheduler.java \
+	"$SRC"/protobuf/KnownRecords.java \
+	"$SRC"/protobuf/LocationBatch.java \
+	"$SRC"/protobuf/LocationMessage.java \
+	"$SRC"/protobuf/ParallelRecordReader.java \
+	"$SRC"/protobuf/PointOfInterestMessage.java \
+	"$SRC"/protobuf/RecordSource.java \
+	"$SRC"/provider/LocationsContract.java \
+	"$SRC"/provider/PointsOfInterestContract.java \
+	"$SRC"/utils/BloomFilter.java \
+	"$SRC"/utils/ByteBufferInputStream.java \
+	"$SRC"/utils/FileUtils.java \
+	"$SRC"/utils/HashUtils.java \
+	"$SRC"/utils/TimeUtils.java
+
+if [ $# -eq 0 ]; then
+	set -- ReaderBenchmark LocationBatchBenchmark CompressionBenchmark CorruptionBenchmark PipelineBenchmark OverlayBenchmark TrackBenchmark ClusterBenchmark
+	
+	if [ -n "$SQLITE_JDBC" ]; then
+		set -- "$@" ImportBenchmark BoundingBoxBenchmark DedupBenchmark ExportBenchmark ContentionBenchmark
+	fi
+fi
+
+cd "$OUT"
+
+for BENCHMARK in "$@"; do
+	echo "== $BENCHMARK"
+	java -cp "$OUT:$MAPSFORGE${SQLITE_JDBC:+:$SQLITE_JDBC}" org.servalproject.maps.benchmarks.$BENCHMARK
+done
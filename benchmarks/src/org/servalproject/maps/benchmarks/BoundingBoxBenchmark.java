@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.servalproject.maps.provider.PointsOfInterestContract;
+
+/**
+ * query 100,000 points of interest spread over one degree of latitude and longitude in a real SQLite database, 
+ * comparing the query of the whole table made before the bounding box queries with the bounding box query 
+ * using the r*tree index and using the coordinate index created where the r*tree module isn't available
+ * 
+ * each query reads every column of every row as the map does
+ */
+public class BoundingBoxBenchmark {
+	
+	private static final int POI_COUNT = 100000;
+	
+	// the south west corner of the area holding the points of interest
+	private static final double LATITUDE = -35.5;
+	private static final double LONGITUDE = 138.0;
+	
+	// sides of the queried boxes in degrees, about the visible map and half a screen on each side at zoom levels 15 and 12
+	private static final double[] BOX_SIZES = {0.04, 0.32};
+	
+	// number of queries of each kind, at different places
+	private static final int QUERY_COUNT = 50;
+	private static final int TABLE_QUERY_COUNT = 10;
+	
+	private static final String DATABASE = "bbox.db";
+	
+	private static final String COLUMNS = PointsOfInterestContract.Table._ID + ", "
+			+ PointsOfInterestContract.Table.PHONE_NUMBER + ", "
+			+ PointsOfInterestContract.Table.LATITUDE + ", "
+			+ PointsOfInterestContract.Table.LONGITUDE + ", "
+			+ PointsOfInterestContract.Table.TIMESTAMP + ", "
+			+ PointsOfInterestContract.Table.TITLE + ", "
+			+ PointsOfInterestContract.Table.DESCRIPTION + ", "
+			+ PointsOfInterestContract.Table.CATEGORY;
+	
+	private static final String TABLE_QUERY = "SELECT " + COLUMNS + " FROM " + PointsOfInterestContract.Table.TABLE_NAME;
+	
+	// the selections used by the provider for the two kinds of index
+	private static final String RTREE_QUERY = TABLE_QUERY + " WHERE "
+			+ PointsOfInterestContract.Table._ID + " IN (SELECT " + PointsOfInterestContract.Table._ID 
+			+ " FROM " + MockDatabase.POI_SPATIAL_INDEX + " WHERE max_latitude >= ? AND min_latitude <= ? AND max_longitude >= ? AND min_longitude <= ?)";
+	
+	private static final String COORDINATE_QUERY = TABLE_QUERY + " WHERE "
+			+ PointsOfInterestContract.Table.LATITUDE + " >= ? AND "
+			+ PointsOfInterestContract.Table.LATITUDE + " <= ? AND "
+			+ PointsOfInterestContract.Table.LONGITUDE + " >= ? AND "
+			+ PointsOfInterestContract.Table.LONGITUDE + " <= ?";
+	
+	public static void main(String[] args) throws Exception {
+		
+		MockDatabase.delete(DATABASE);
+		
+		Connection mConnection = MockDatabase.open(DATABASE);
+		MockDatabase.createTables(mConnection);
+		
+		// the index created by MainDatabaseHelper when the r*tree module isn't available
+		Statement mStatement = mConnection.createStatement();
+		mStatement.executeUpdate("CREATE INDEX poi_coordinates ON " + PointsOfInterestContract.Table.TABLE_NAME + " ("
+				+ PointsOfInterestContract.Table.LATITUDE + " ASC, " + PointsOfInterestContract.Table.LONGITUDE + " ASC)");
+		mStatement.close();
+		
+		mConnection.setAutoCommit(false);
+		
+		Random mRandom = new Random(1);
+		double[] mLatitudes = new double[POI_COUNT];
+		double[] mLongitudes = new double[POI_COUNT];
+		long[] mTimestamps = new long[POI_COUNT];
+		
+		for(int i = 0; i < POI_COUNT; i++) {
+			mLatitudes[i] = LATITUDE + mRandom.nextDouble();
+			mLongitudes[i] = LONGITUDE + mRandom.nextDouble();
+			mTimestamps[i] = 1340000000000L + i * 1000L;
+		}
+		
+		MockDatabase.insertPointsOfInterest(mConnection, MockTrack.PHONE_NUMBER, mLatitudes, mLongitudes, mTimestamps);
+		mConnection.commit();
+		mConnection.setAutoCommit(true);
+		
+		// the first round warms up the JIT and the page cache
+		query(mConnection, TABLE_QUERY, 0, TABLE_QUERY_COUNT, false);
+		
+		query(mConnection, TABLE_QUERY, 0, TABLE_QUERY_COUNT, true);
+		
+		for(double mBoxSize : BOX_SIZES) {
+			query(mConnection, RTREE_QUERY, mBoxSize, QUERY_COUNT, false);
+			query(mConnection, RTREE_QUERY, mBoxSize, QUERY_COUNT, true);
+			query(mConnection, COORDINATE_QUERY, mBoxSize, QUERY_COUNT, false);
+			query(mConnection, COORDINATE_QUERY, mBoxSize, QUERY_COUNT, true);
+		}
+		
+		mConnection.close();
+	}
+	
+	/*
+	 * run a query the given number of times in boxes of the given size at random places, 
+	 * reading all of the rows
+	 */
+	private static void query(Connection connection, String sql, double boxSize, int count, boolean report) throws Exception {
+		
+		// the same places are used for each kind of query
+		Random mRandom = new Random(2);
+		
+		PreparedStatement mQuery = connection.prepareStatement(sql);
+		long mRows = 0;
+		
+		long mStart = System.nanoTime();
+		
+		for(int i = 0; i < count; i++) {
+			
+			if(boxSize > 0) {
+				double mSouth = LATITUDE + mRandom.nextDouble() * (1 - boxSize);
+				double mWest = LONGITUDE + mRandom.nextDouble() * (1 - boxSize);
+				
+				mQuery.setDouble(1, mSouth);
+				mQuery.setDouble(2, mSouth + boxSize);
+				mQuery.setDouble(3, mWest);
+				mQuery.setDouble(4, mWest + boxSize);
+			}
+			
+			ResultSet mResults = mQuery.executeQuery();
+			
+			while(mResults.next()) {
+				mResults.getLong(1);
+				mResults.getString(2);
+				mResults.getDouble(3);
+				mResults.getDouble(4);
+				mResults.getLong(5);
+				mResults.getString(6);
+				mResults.getString(7);
+				mResults.getInt(8);
+				mRows++;
+			}
+			
+			mResults.close();
+		}
+		
+		long mElapsed = System.nanoTime() - mStart;
+		mQuery.close();
+		
+		if(report == false) {
+			return;
+		}
+		
+		String mName;
+		
+		if(sql == RTREE_QUERY) {
+			mName = "r*tree index, " + boxSize + " degree box";
+		} else if(sql == COORDINATE_QUERY) {
+			mName = "coordinate index, " + boxSize + " degree box";
+		} else {
+			mName = "whole table";
+		}
+		
+		System.out.println(mName + ": " + String.format("%.2f", mElapsed / 1e6 / count) + "ms/query, " + (mRows / count) + " rows/query");
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.util.Random;
+
+import org.servalproject.maps.mapsforge.MarkerClusterer;
+import org.servalproject.maps.mapsforge.OverlayItems;
+import org.servalproject.maps.mapsforge.OverlaySnapshot;
+
+/**
+ * cluster 10,000 and 100,000 POIs and 50 peers spread at random over the area shown by the map at zoom level 12, 
+ * at zoom levels 12 and 15, timing the first pass at a zoom level, which builds the grid, 
+ * a pass with the same markers, and a pass with a POI delta snapshot that holds no POIs
+ */
+public class ClusterBenchmark {
+	
+	private static final int[] POI_COUNTS = {10000, 100000};
+	private static final int PEER_COUNT = 50;
+	
+	private static final byte[] ZOOM_LEVELS = {12, 15};
+	
+	// the area shown by the map at zoom level 12 and half a screen on each side
+	private static final double LATITUDE = -35.0;
+	private static final double LONGITUDE = 138.6;
+	private static final double SIZE = 0.32;
+	
+	// number of times each pass is timed
+	private static final int PASS_COUNT = 10;
+	
+	public static void main(String[] args) {
+		
+		// the first round warms up the JIT
+		for(int mRound = 0; mRound < 2; mRound++) {
+			for(int mPoiCount : POI_COUNTS) {
+				for(byte mZoomLevel : ZOOM_LEVELS) {
+					run(mPoiCount, mZoomLevel, mRound == 1);
+				}
+			}
+		}
+	}
+	
+	private static void run(int poiCount, byte zoomLevel, boolean report) {
+		
+		OverlaySnapshot mSnapshot = newSnapshot(poiCount, false);
+		OverlaySnapshot mDelta = newSnapshot(poiCount, true);
+		
+		long mFirst = 0;
+		long mSame = 0;
+		long mDeltaTime = 0;
+		OverlaySnapshot mClustered = null;
+		
+		for(int i = 0; i < PASS_COUNT; i++) {
+			
+			MarkerClusterer mClusterer = new MarkerClusterer();
+			
+			long mStart = System.nanoTime();
+			mClusterer.cluster(mSnapshot, zoomLevel);
+			mFirst += System.nanoTime() - mStart;
+			
+			mStart = System.nanoTime();
+			mClustered = mClusterer.cluster(mSnapshot, zoomLevel);
+			mSame += System.nanoTime() - mStart;
+			
+			mStart = System.nanoTime();
+			mClusterer.cluster(mDelta, zoomLevel);
+			mDeltaTime += System.nanoTime() - mStart;
+			
+			if(mClusterer.size() != poiCount + PEER_COUNT) {
+				throw new IllegalStateException("clustering " + mClusterer.size() + " markers");
+			}
+		}
+		
+		if(report == true) {
+			System.out.println((poiCount + PEER_COUNT) + " markers at zoom " + zoomLevel + ": " 
+					+ mClustered.getClusters().size() + " clusters and " 
+					+ (mClustered.getLocations().size() + mClustered.getPois().size()) + " markers shown, " 
+					+ "first pass " + millis(mFirst) + "ms, same markers " + millis(mSame) + "ms, POI delta " + millis(mDeltaTime) + "ms");
+		}
+	}
+	
+	/*
+	 * build the snapshot of the query results, the same seed always gives the same markers
+	 */
+	private static OverlaySnapshot newSnapshot(int poiCount, boolean poiDelta) {
+		
+		Random mRandom = new Random(poiCount);
+		OverlaySnapshot mSnapshot = new OverlaySnapshot();
+		
+		for(int i = 0; i < PEER_COUNT; i++) {
+			mSnapshot.addLocation(OverlayItems.PEER_LOCATION_ITEM, i, "04" + (12345600 + i), 
+					LATITUDE + mRandom.nextDouble() * SIZE, LONGITUDE + mRandom.nextDouble() * SIZE, 0);
+		}
+		
+		if(poiDelta == true) {
+			mSnapshot.setPoiDelta(Long.MIN_VALUE);
+		} else {
+			for(int i = 0; i < poiCount; i++) {
+				mSnapshot.addPoi(i, LATITUDE + mRandom.nextDouble() * SIZE, LONGITUDE + mRandom.nextDouble() * SIZE, 0);
+			}
+		}
+		
+		return mSnapshot;
+	}
+	
+	private static String millis(long total) {
+		return String.format("%.1f", total / 1e6 / PASS_COUNT);
+	}
+}
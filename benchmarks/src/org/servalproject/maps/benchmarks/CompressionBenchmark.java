@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.servalproject.maps.protobuf.BinaryRecordReader;
+import org.servalproject.maps.protobuf.BlockOutputStream;
+import org.servalproject.maps.protobuf.LocationBatch;
+
+import android.content.ContentValues;
+
+/**
+ * measure the size and the cost of DEFLATE blocks of 50 and 1000 records, 
+ * for legacy location messages and for location batches of 50 fixes, 
+ * then read a compressed file with an incomplete block at the end
+ */
+public class CompressionBenchmark {
+	
+	private static final int FIX_COUNT = 360000;
+	private static final int BATCH_SIZE = 50;
+	
+	private static MockTrack track;
+	
+	public static void main(String[] args) throws Exception {
+		
+		track = new MockTrack(FIX_COUNT, 1);
+		
+		// the first rounds warm up the JIT
+		for(int mRound = 0; mRound < 3; mRound++) {
+			for(boolean mBatched : new boolean[] {false, true}) {
+				
+				long mPlainEncode = System.nanoTime();
+				byte[] mPlain = encode(mBatched, 0);
+				mPlainEncode = System.nanoTime() - mPlainEncode;
+				
+				MockTrack.write("plain.bin", mPlain);
+				long mPlainRead = read("plain.bin");
+				
+				for(int mBlockSize : new int[] {50, 1000}) {
+					
+					long mEncode = System.nanoTime();
+					byte[] mCompressed = encode(mBatched, mBlockSize);
+					mEncode = System.nanoTime() - mEncode;
+					
+					MockTrack.write("compressed.bin", mCompressed);
+					long mRead = read("compressed.bin");
+					
+					double mMegabytes = mPlain.length / 1048576.0;
+					
+					if(mRound == 2) {
+						System.out.printf("%s %d records/block: %.1f -> %.1f bytes/fix, deflate +%.1f ms/MB, read %.1f -> %.1f ms/MB%n", 
+								mBatched ? "batched" : "legacy ", mBlockSize, 
+								mPlain.length / (double) FIX_COUNT, mCompressed.length / (double) FIX_COUNT, 
+								(mEncode - mPlainEncode) / 1e6 / mMegabytes, mPlainRead / 1e6 / mMegabytes, mRead / 1e6 / mMegabytes);
+					}
+				}
+			}
+		}
+		
+		byte[] mCompressed = encode(true, 1000);
+		MockTrack.write("truncated.bin", Arrays.copyOf(mCompressed, mCompressed.length - 7));
+		
+		BinaryRecordReader mReader = new BinaryRecordReader("truncated.bin", 0);
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		int mCount = 0;
+		
+		try {
+			while(mReader.readLocations(mRecords, 500) > 0) {
+				track.check(mRecords, mCount);
+				mCount += mRecords.size();
+				mRecords.clear();
+			}
+		} catch (IOException e) {
+			track.check(mRecords, mCount);
+			mCount += mRecords.size();
+			System.out.println("incomplete block: " + e.getMessage());
+		}
+		
+		System.out.println("truncated: " + mCount + " records, offset " + mReader.getOffset());
+		mReader.close();
+	}
+	
+	/*
+	 * write the track, in blocks of records if the block size isn't zero
+	 */
+	private static byte[] encode(boolean batched, int blockSize) throws IOException {
+		
+		ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		BlockOutputStream mBlocks = blockSize > 0 ? new BlockOutputStream(mBytes) : null;
+		OutputStream mOutput = mBlocks != null ? mBlocks : mBytes;
+		
+		LocationBatch mBatch = new LocationBatch();
+		int mInBlock = 0;
+		
+		for(int i = 0; i < FIX_COUNT; i++) {
+			
+			if(batched == true) {
+				if(mBatch.size() == 0) {
+					mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+				}
+				
+				mBatch.add(track.latitudes[i], track.longitudes[i], track.timestamps[i]);
+				
+				if(mBatch.size() == BATCH_SIZE || i == FIX_COUNT - 1) {
+					mBatch.writeDelimitedTo(mOutput);
+					mBatch.reset(null, null, null);
+					
+					if(mBlocks != null) {
+						mBlocks.recordWritten();
+					}
+				}
+			} else {
+				track.message(i).writeDelimitedTo(mOutput);
+				
+				if(mBlocks != null) {
+					mBlocks.recordWritten();
+				}
+			}
+			
+			// a block is counted in fixes so both kinds of record are flushed at the same points
+			if(mBlocks != null && ++mInBlock == blockSize) {
+				mBlocks.flush();
+				mInBlock = 0;
+			}
+		}
+		
+		if(mBlocks != null) {
+			mBlocks.close();
+		}
+		
+		return mBytes.toByteArray();
+	}
+	
+	/*
+	 * read all of the fixes in a file, checking them against the track, returning the nanoseconds taken
+	 */
+	private static long read(String fileName) throws IOException {
+		
+		long mStartTime = System.nanoTime();
+		
+		BinaryRecordReader mReader = new BinaryRecordReader(fileName, 0);
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		int mCount = 0;
+		
+		while(mReader.readLocations(mRecords, 500) > 0) {
+			track.check(mRecords, mCount);
+			mCount += mRecords.size();
+			mRecords.clear();
+		}
+		
+		mReader.close();
+		
+		if(mCount != FIX_COUNT) {
+			throw new IllegalStateException("read " + mCount + " of " + FIX_COUNT + " fixes");
+		}
+		
+		return System.nanoTime() - mStartTime;
+	}
+}
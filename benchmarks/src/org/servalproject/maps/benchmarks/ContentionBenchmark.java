@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+
+/**
+ * import location records while map refresh queries run at the same time, 
+ * using the locking of the MapItems provider before and after it kept one database open
+ * 
+ * the database is a real SQLite database with the application's tables and indexes
+ * 
+ * the providers compared are:
+ * 
+ * synchronized - every provider method holds the provider lock, 
+ * each record is inserted on its own and the database is closed after each insert
+ * 
+ * shared - one database kept open without write-ahead logging, as on API 8 to 10, 
+ * each batch is inserted in one transaction and the database's own lock is held for the whole transaction 
+ * and for each query, as the SQLiteDatabase lock is
+ * 
+ * wal - one database kept open in write-ahead logging mode, as on API 11 and later, 
+ * writes are serialised by the provider's write lock and each query thread has its own connection
+ */
+public class ContentionBenchmark {
+	
+	// location history already in the database
+	private static final int PRELOAD_PHONES = 20;
+	private static final int PRELOAD_FIXES = 2500;
+	private static final int PRELOAD_POIS = 2000;
+	
+	// location history imported while the queries run, the synchronized provider is too slow to import as much
+	private static final int IMPORT_PHONES = 4;
+	private static final int IMPORT_FIXES = 25000;
+	private static final int SYNCHRONIZED_IMPORT_FIXES = 250;
+	private static final int BATCH_SIZE = 500;
+	
+	// time between map refreshes on each query thread
+	private static final int REFRESH_PAUSE = 5;
+	
+	private static final String TEMPLATE = "contention-template.db";
+	private static final String DATABASE = "contention.db";
+	
+	// the two queries made by each map refresh
+	private static final String LATEST_QUERY = "SELECT "
+			+ LocationsContract.Table._ID + ", "
+			+ LocationsContract.Table.PHONE_NUMBER + ", "
+			+ LocationsContract.Table.LATITUDE + ", "
+			+ LocationsContract.Table.LONGITUDE + ", "
+			+ LocationsContract.Table.TIMESTAMP + " FROM " + LocationsContract.LATEST_TABLE_NAME + " WHERE "
+			+ LocationsContract.Table.LATITUDE + " >= ? AND "
+			+ LocationsContract.Table.LATITUDE + " <= ? AND "
+			+ LocationsContract.Table.LONGITUDE + " >= ? AND "
+			+ LocationsContract.Table.LONGITUDE + " <= ?";
+	
+	private static final String POI_QUERY = "SELECT "
+			+ PointsOfInterestContract.Table._ID + ", "
+			+ PointsOfInterestContract.Table.PHONE_NUMBER + ", "
+			+ PointsOfInterestContract.Table.LATITUDE + ", "
+			+ PointsOfInterestContract.Table.LONGITUDE + ", "
+			+ PointsOfInterestContract.Table.TIMESTAMP + ", "
+			+ PointsOfInterestContract.Table.TITLE + ", "
+			+ PointsOfInterestContract.Table.CATEGORY + ", "
+			+ PointsOfInterestContract.Table.PHOTO + " FROM " + PointsOfInterestContract.Table.TABLE_NAME + " WHERE "
+			+ PointsOfInterestContract.Table._ID + " IN (SELECT " + PointsOfInterestContract.Table._ID 
+			+ " FROM " + MockDatabase.POI_SPATIAL_INDEX + " WHERE max_latitude >= ? AND min_latitude <= ? AND max_longitude >= ? AND min_longitude <= ?)";
+	
+	// the visible part of the map, around the middle of the mock tracks
+	private static final double[] BOUNDS = {-35.02, 138.59, -35.00, 138.61};
+	
+	public static void main(String[] args) throws Exception {
+		
+		createTemplate();
+		
+		for(String mProvider : new String[] {"synchronized", "shared", "wal"}) {
+			
+			int mFixes = mProvider.equals("synchronized") == true ? SYNCHRONIZED_IMPORT_FIXES : IMPORT_FIXES;
+			
+			// the first round warms up the JIT
+			run(mProvider, 1, 1, BATCH_SIZE, false);
+			
+			for(int mQueryThreads : new int[] {0, 1, 4}) {
+				run(mProvider, mQueryThreads, IMPORT_PHONES, mFixes, true);
+			}
+		}
+	}
+	
+	/*
+	 * import the records with the given number of query threads refreshing the map
+	 */
+	private static void run(String provider, int queryThreads, int phones, int fixes, boolean report) throws Exception {
+		
+		MockDatabase.delete(DATABASE);
+		
+		Files.copy(new File(TEMPLATE).toPath(), new File(DATABASE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		final Provider mProvider;
+		
+		if(provider.equals("synchronized") == true) {
+			mProvider = new SynchronizedProvider();
+		} else if(provider.equals("shared") == true) {
+			mProvider = new SharedProvider();
+		} else {
+			mProvider = new WalProvider();
+		}
+		
+		// the query threads refresh the map until the import has finished
+		final boolean[] mFinished = new boolean[1];
+		final ArrayList<long[]> mLatencies = new ArrayList<long[]>();
+		Thread[] mThreads = new Thread[queryThreads];
+		
+		for(int i = 0; i < queryThreads; i++) {
+			
+			final long[] mTimes = new long[100000];
+			mLatencies.add(mTimes);
+			
+			mThreads[i] = new Thread(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						for(int mCount = 0; mCount < mTimes.length; mCount++) {
+							
+							synchronized(mFinished) {
+								if(mFinished[0] == true) {
+									break;
+								}
+							}
+							
+							long mStart = System.nanoTime();
+							mProvider.refreshMap();
+							mTimes[mCount] = System.nanoTime() - mStart;
+							
+							Thread.sleep(REFRESH_PAUSE);
+						}
+						
+						mProvider.closeQueries();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			
+			mThreads[i].start();
+		}
+		
+		long mStart = System.nanoTime();
+		int mImported = importRecords(mProvider, phones, fixes);
+		long mElapsed = System.nanoTime() - mStart;
+		
+		synchronized(mFinished) {
+			mFinished[0] = true;
+		}
+		
+		for(Thread mThread : mThreads) {
+			mThread.join();
+		}
+		
+		mProvider.close();
+		
+		if(mImported != phones * fixes) {
+			throw new IllegalStateException("imported " + mImported + " records");
+		}
+		
+		if(report == false) {
+			return;
+		}
+		
+		// the latency of every refresh on every thread
+		int mCount = 0;
+		
+		for(long[] mTimes : mLatencies) {
+			for(long mTime : mTimes) {
+				if(mTime > 0) {
+					mCount++;
+				}
+			}
+		}
+		
+		long[] mAll = new long[mCount];
+		mCount = 0;
+		
+		for(long[] mTimes : mLatencies) {
+			for(long mTime : mTimes) {
+				if(mTime > 0) {
+					mAll[mCount++] = mTime;
+				}
+			}
+		}
+		
+		Arrays.sort(mAll);
+		
+		String mResult = provider + ", " + queryThreads + " query threads: import " 
+				+ (long) (mImported / (mElapsed / 1e9)) + " records/s";
+		
+		if(mAll.length > 0) {
+			mResult += ", " + mAll.length + " refreshes, latency p50 " + millis(mAll, 0.5) 
+					+ " p90 " + millis(mAll, 0.9) 
+					+ " p99 " + millis(mAll, 0.99) 
+					+ " max " + millis(mAll, 1) + "ms";
+		}
+		
+		System.out.println(mResult);
+	}
+	
+	/*
+	 * import the tracks of the import phones a batch at a time, as the location read worker does
+	 */
+	private static int importRecords(Provider provider, int phones, int fixes) throws SQLException {
+		
+		int mImported = 0;
+		
+		for(int mPhone = 0; mPhone < phones; mPhone++) {
+			
+			MockTrack mTrack = new MockTrack(fixes, 1000 + mPhone);
+			String mPhoneNumber = "import-" + mPhone;
+			
+			for(int mFirst = 0; mFirst < fixes; mFirst += BATCH_SIZE) {
+				mImported += provider.bulkInsert(mPhoneNumber, mTrack, mFirst, Math.min(BATCH_SIZE, fixes - mFirst));
+			}
+		}
+		
+		return mImported;
+	}
+	
+	private static String millis(long[] sorted, double percentile) {
+		int mIndex = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1);
+		return String.format("%.1f", sorted[Math.max(0, mIndex)] / 1e6);
+	}
+	
+	/*
+	 * create the database copied by each run, holding the history of the other phones with POIs along their tracks
+	 */
+	private static void createTemplate() throws SQLException {
+		
+		MockDatabase.delete(TEMPLATE);
+		
+		Connection mConnection = MockDatabase.open(TEMPLATE);
+		MockDatabase.createTables(mConnection);
+		mConnection.setAutoCommit(false);
+		
+		for(int mPhone = 0; mPhone < PRELOAD_PHONES; mPhone++) {
+			
+			MockTrack mTrack = new MockTrack(PRELOAD_FIXES, mPhone);
+			String mPhoneNumber = "preload-" + mPhone;
+			
+			MockDatabase.insertLocations(mConnection, mPhoneNumber, mTrack, 0, PRELOAD_FIXES);
+			MockDatabase.insertPointsOfInterest(mConnection, mPhoneNumber, mTrack, PRELOAD_POIS / PRELOAD_PHONES);
+		}
+		
+		mConnection.commit();
+		mConnection.close();
+	}
+	
+	/*
+	 * run the two queries of a map refresh and read all of their rows
+	 */
+	private static void query(Connection connection) throws SQLException {
+		
+		for(String mSql : new String[] {LATEST_QUERY, POI_QUERY}) {
+			
+			PreparedStatement mQuery = connection.prepareStatement(mSql);
+			
+			for(int i = 0; i < BOUNDS.length; i++) {
+				mQuery.setDouble(i + 1, BOUNDS[i]);
+			}
+			
+			ResultSet mRows = mQuery.executeQuery();
+			
+			while(mRows.next()) {
+				mRows.getLong(1);
+				mRows.getString(2);
+				mRows.getDouble(3);
+				mRows.getDouble(4);
+			}
+			
+			mRows.close();
+			mQuery.close();
+		}
+	}
+	
+	/*
+	 * the locking used by a version of the MapItems provider
+	 */
+	private interface Provider {
+		
+		int bulkInsert(String phoneNumber, MockTrack track, int first, int count) throws SQLException;
+		
+		void refreshMap() throws SQLException;
+		
+		void closeQueries() throws SQLException;
+		
+		void close() throws SQLException;
+	}
+	
+	/*
+	 * the provider with every method synchronized, which closed the database after each insert
+	 */
+	private static class SynchronizedProvider implements Provider {
+		
+		private Connection connection;
+		
+		private synchronized Connection getDatabase() throws SQLException {
+			if(connection == null) {
+				connection = MockDatabase.open(DATABASE);
+			}
+			return connection;
+		}
+		
+		@Override
+		public int bulkInsert(String phoneNumber, MockTrack track, int first, int count) throws SQLException {
+			
+			// the import workers inserted one record at a time
+			int mInserted = 0;
+			
+			for(int i = first; i < first + count; i++) {
+				mInserted += insert(phoneNumber, track, i);
+			}
+			
+			return mInserted;
+		}
+		
+		private synchronized int insert(String phoneNumber, MockTrack track, int index) throws SQLException {
+			
+			Connection mDatabase = getDatabase();
+			int mInserted = MockDatabase.insertLocations(mDatabase, phoneNumber, track, index, 1);
+			
+			// play nice and tidy up
+			mDatabase.close();
+			connection = null;
+			
+			return mInserted;
+		}
+		
+		@Override
+		public synchronized void refreshMap() throws SQLException {
+			query(getDatabase());
+		}
+		
+		@Override
+		public void closeQueries() {
+			// the queries use the shared connection
+		}
+		
+		@Override
+		public synchronized void close() throws SQLException {
+			if(connection != null) {
+				connection.close();
+			}
+		}
+	}
+	
+	/*
+	 * one database kept open without write-ahead logging, 
+	 * the lock stands in for the SQLiteDatabase lock held for each query and for the whole of each transaction
+	 */
+	private static class SharedProvider implements Provider {
+		
+		private final Connection connection;
+		private final ReentrantLock databaseLock = new ReentrantLock();
+		
+		private SharedProvider() throws SQLException {
+			connection = MockDatabase.open(DATABASE);
+			connection.setAutoCommit(false);
+		}
+		
+		@Override
+		public int bulkInsert(String phoneNumber, MockTrack track, int first, int count) throws SQLException {
+			
+			databaseLock.lock();
+			try {
+				int mInserted = MockDatabase.insertLocations(connection, phoneNumber, track, first, count);
+				connection.commit();
+				return mInserted;
+			} finally {
+				databaseLock.unlock();
+			}
+		}
+		
+		@Override
+		public void refreshMap() throws SQLException {
+			
+			databaseLock.lock();
+			try {
+				query(connection);
+				connection.commit();
+			} finally {
+				databaseLock.unlock();
+			}
+		}
+		
+		@Override
+		public void closeQueries() {
+			// the queries use the shared connection
+		}
+		
+		@Override
+		public void close() throws SQLException {
+			connection.close();
+		}
+	}
+	
+	/*
+	 * one database kept open in write-ahead logging mode, writes are serialised by the write lock 
+	 * and the queries run on their own connections at the same time as a write
+	 */
+	private static class WalProvider implements Provider {
+		
+		private final Connection connection;
+		private final Object writeLock = new Object();
+		
+		private final ThreadLocal<Connection> queryConnection = new ThreadLocal<Connection>();
+		
+		private WalProvider() throws SQLException {
+			connection = MockDatabase.open(DATABASE);
+			
+			Statement mStatement = connection.createStatement();
+			mStatement.execute("PRAGMA journal_mode = WAL");
+			mStatement.close();
+			
+			connection.setAutoCommit(false);
+		}
+		
+		@Override
+		public int bulkInsert(String phoneNumber, MockTrack track, int first, int count) throws SQLException {
+			
+			synchronized(writeLock) {
+				int mInserted = MockDatabase.insertLocations(connection, phoneNumber, track, first, count);
+				connection.commit();
+				return mInserted;
+			}
+		}
+		
+		@Override
+		public void refreshMap() throws SQLException {
+			
+			Connection mConnection = queryConnection.get();
+			
+			if(mConnection == null) {
+				mConnection = MockDatabase.open(DATABASE);
+				queryConnection.set(mConnection);
+			}
+			
+			query(mConnection);
+		}
+		
+		@Override
+		public void closeQueries() throws SQLException {
+			
+			Connection mConnection = queryConnection.get();
+			
+			if(mConnection != null) {
+				mConnection.close();
+			}
+		}
+		
+		@Override
+		public void close() throws SQLException {
+			connection.close();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+
+import org.servalproject.maps.protobuf.BinaryRecordReader;
+import org.servalproject.maps.protobuf.BlockOutputStream;
+import org.servalproject.maps.protobuf.LocationBatch;
+import org.servalproject.maps.protobuf.ParallelRecordReader;
+import org.servalproject.maps.provider.LocationsContract;
+
+import android.content.ContentValues;
+
+/**
+ * read files with corrupt blocks and a truncated tail on one and two threads, 
+ * measure the read speed on one, two and four threads, 
+ * and read a file of location batches in stored blocks with one corrupt byte
+ */
+public class CorruptionBenchmark {
+	
+	private static final int FIX_COUNT = 360000;
+	private static final int STORED_FIX_COUNT = 100000;
+	
+	// the same as the parallel record reader
+	private static final int PIECE_SIZE = 16 * 1024;
+	
+	private static final ExecutorService pool = MockTrack.newPool(4);
+	
+	public static void main(String[] args) throws Exception {
+		
+		MockTrack mTrack = new MockTrack(FIX_COUNT, 1);
+		
+		// legacy records in blocks of 1000, as written by the binary export
+		ArrayList<Integer> mBlockEnds = new ArrayList<Integer>();
+		byte[] mFile = mTrack.legacyBlocks(1000, mBlockEnds);
+		MockTrack.write("blocks.bin", mFile);
+		
+		System.out.println("file " + mFile.length + " bytes, " 
+				+ (BinaryRecordReader.split("blocks.bin", 0, PIECE_SIZE).length - 1) + " pieces");
+		
+		// corrupt one byte in the middle of block 100 and the length of block 200
+		byte[] mCorrupt = mFile.clone();
+		mCorrupt[mBlockEnds.get(99) + 500] ^= 0x55;
+		mCorrupt[mBlockEnds.get(199) + 18] = (byte) 0xff;
+		MockTrack.write("corrupt.bin", mCorrupt);
+		
+		for(int mThreads : new int[] {1, 2}) {
+			ParallelRecordReader mReader = new ParallelRecordReader("corrupt.bin", 0, true, pool, mThreads);
+			int mMissing = countMissing(mReader, mTrack.timestamps);
+			
+			System.out.println("two corrupt blocks, " + mThreads + " threads: " + mMissing + " missing, skipped " 
+					+ mReader.getSkippedBytes() + " bytes, offset " + mReader.getOffset() + " of " + mCorrupt.length);
+			mReader.close();
+		}
+		
+		// the records before the last complete block are read and the error is reported
+		MockTrack.write("truncated.bin", Arrays.copyOf(mFile, mFile.length - 9));
+		
+		for(int mThreads : new int[] {1, 2}) {
+			ParallelRecordReader mReader = new ParallelRecordReader("truncated.bin", 0, true, pool, mThreads);
+			ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+			int mCount = 0;
+			
+			try {
+				while(mReader.read(mRecords, 500) > 0) {
+					mTrack.check(mRecords, mCount);
+					mCount += mRecords.size();
+					mRecords.clear();
+				}
+			} catch (IOException e) {
+				mTrack.check(mRecords, mCount);
+				mCount += mRecords.size();
+			}
+			
+			System.out.println("truncated, " + mThreads + " threads: " + mCount + " records, offset " 
+					+ mReader.getOffset() + ", last complete block ends at " + mBlockEnds.get(mBlockEnds.size() - 2));
+			mReader.close();
+		}
+		
+		// the first rounds warm up the JIT
+		for(int mRound = 0; mRound < 3; mRound++) {
+			for(int mThreads : new int[] {1, 2, 4}) {
+				
+				long mStartTime = System.nanoTime();
+				
+				ParallelRecordReader mReader = new ParallelRecordReader("blocks.bin", 0, true, pool, mThreads);
+				ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+				int mCount = 0;
+				
+				while(mReader.read(mRecords, 500) > 0) {
+					mTrack.check(mRecords, mCount);
+					mCount += mRecords.size();
+					mRecords.clear();
+				}
+				
+				mReader.close();
+				
+				if(mCount != FIX_COUNT) {
+					throw new IllegalStateException("read " + mCount + " of " + FIX_COUNT + " fixes");
+				}
+				
+				if(mRound == 2) {
+					System.out.println(mThreads + " threads: " + (FIX_COUNT * 1000000L / (System.nanoTime() - mStartTime)) + "k records/s");
+				}
+			}
+		}
+		
+		readStored();
+	}
+	
+	/*
+	 * location batches of 50 fixes in stored blocks, as written with batching on and compression off
+	 */
+	private static void readStored() throws IOException {
+		
+		MockTrack mTrack = new MockTrack(STORED_FIX_COUNT, 1);
+		
+		ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		BlockOutputStream mOutput = new BlockOutputStream(mBytes, BlockOutputStream.CODEC_STORED);
+		LocationBatch mBatch = new LocationBatch();
+		ArrayList<Integer> mBlockEnds = new ArrayList<Integer>();
+		
+		mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+		
+		for(int i = 0; i < STORED_FIX_COUNT; i++) {
+			
+			mBatch.add(mTrack.latitudes[i], mTrack.longitudes[i], mTrack.timestamps[i]);
+			
+			if(mBatch.size() == 50) {
+				mBatch.writeDelimitedTo(mOutput);
+				mOutput.recordWritten();
+				mOutput.flush();
+				mBlockEnds.add(mBytes.size());
+				
+				mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+			}
+		}
+		
+		mOutput.close();
+		
+		byte[] mFile = mBytes.toByteArray();
+		MockTrack.write("stored.bin", mFile);
+		
+		System.out.printf("stored: %.2f bytes/fix, %d pieces%n", mFile.length / (double) STORED_FIX_COUNT, 
+				BinaryRecordReader.split("stored.bin", 0, PIECE_SIZE).length - 1);
+		
+		byte[] mCorrupt = mFile.clone();
+		mCorrupt[mBlockEnds.get(499) + 40] ^= 0x55;
+		MockTrack.write("stored-corrupt.bin", mCorrupt);
+		
+		for(int mThreads : new int[] {1, 2}) {
+			ParallelRecordReader mReader = new ParallelRecordReader("stored-corrupt.bin", 0, true, pool, mThreads);
+			int mMissing = countMissing(mReader, mTrack.timestamps);
+			
+			System.out.println("one corrupt stored byte, " + mThreads + " threads: " + mMissing + " missing, skipped " 
+					+ mReader.getSkippedBytes() + " bytes");
+			mReader.close();
+		}
+	}
+	
+	/*
+	 * read all of the records, returning the number of fixes in the track that weren't read
+	 */
+	private static int countMissing(ParallelRecordReader reader, long[] timestamps) throws IOException {
+		
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		HashSet<Long> mRead = new HashSet<Long>();
+		
+		while(reader.read(mRecords, 500) > 0) {
+			for(ContentValues mValues : mRecords) {
+				mRead.add(mValues.getAsLong(LocationsContract.Table.TIMESTAMP));
+			}
+			
+			mRecords.clear();
+		}
+		
+		int mMissing = 0;
+		
+		for(long mTimestamp : timestamps) {
+			if(mRead.contains(mTimestamp) == false) {
+				mMissing++;
+			}
+		}
+		
+		return mMissing;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * a content resolver for a MockDatabase, shared by the benchmarks that use the classes that query the provider
+ * 
+ * queries select from the table of the uri and copy all of their rows, as a cursor window does, 
+ * bulk inserts of location records work as the provider's do, 
+ * the threads using the resolver take turns with the connection as they do with the provider's database
+ */
+public class DatabaseResolver extends ContentResolver {
+	
+	private final Connection connection;
+	
+	// the table queried for each uri, each stub uri is different
+	private final HashMap<Uri, String> tables = new HashMap<Uri, String>();
+	
+	/**
+	 * construct a resolver for the tables of the contracts
+	 * 
+	 * @param connection the connection to the database, which is used in manual commit mode
+	 */
+	public DatabaseResolver(Connection connection) throws SQLException {
+		
+		this.connection = connection;
+		connection.setAutoCommit(false);
+		
+		addTable(LocationsContract.CONTENT_URI, LocationsContract.Table.TABLE_NAME);
+		addTable(LocationsContract.LATEST_CONTENT_URI, LocationsContract.LATEST_TABLE_NAME);
+		addTable(PointsOfInterestContract.CONTENT_URI, PointsOfInterestContract.Table.TABLE_NAME);
+	}
+	
+	/**
+	 * query a table with another uri
+	 */
+	public void addTable(Uri uri, String tableName) {
+		tables.put(uri, tableName);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.content.ContentResolver#query(android.net.Uri, java.lang.String[], java.lang.String, java.lang.String[], java.lang.String)
+	 */
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		
+		StringBuilder mSql = new StringBuilder("SELECT ");
+		
+		for(int i = 0; i < projection.length; i++) {
+			mSql.append(i == 0 ? "" : ", ").append(projection[i]);
+		}
+		
+		mSql.append(" FROM ").append(getTable(uri));
+		
+		if(selection != null) {
+			mSql.append(" WHERE ").append(selection);
+		}
+		
+		if(sortOrder != null) {
+			mSql.append(" ORDER BY ").append(sortOrder);
+		}
+		
+		synchronized(connection) {
+			return query(mSql.toString(), selectionArgs);
+		}
+	}
+	
+	/*
+	 * run a query and copy all of its rows
+	 */
+	private Cursor query(String sql, String[] selectionArgs) {
+		
+		try {
+			PreparedStatement mQuery = connection.prepareStatement(sql);
+			
+			for(int i = 0; selectionArgs != null && i < selectionArgs.length; i++) {
+				mQuery.setString(i + 1, selectionArgs[i]);
+			}
+			
+			ResultSet mResults = mQuery.executeQuery();
+			ResultSetMetaData mMetaData = mResults.getMetaData();
+			
+			String[] mColumns = new String[mMetaData.getColumnCount()];
+			
+			for(int i = 0; i < mColumns.length; i++) {
+				mColumns[i] = mMetaData.getColumnLabel(i + 1);
+			}
+			
+			ArrayList<Object[]> mRows = new ArrayList<Object[]>();
+			
+			while(mResults.next()) {
+				Object[] mRow = new Object[mColumns.length];
+				
+				for(int i = 0; i < mRow.length; i++) {
+					mRow[i] = mResults.getObject(i + 1);
+				}
+				
+				mRows.add(mRow);
+			}
+			
+			mResults.close();
+			mQuery.close();
+			connection.commit();
+			
+			return new RowCursor(mColumns, mRows);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.content.ContentResolver#bulkInsert(android.net.Uri, android.content.ContentValues[])
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		
+		if(getTable(uri).equals(LocationsContract.Table.TABLE_NAME) == false) {
+			throw new IllegalArgumentException("only location records can be inserted");
+		}
+		
+		synchronized(connection) {
+			try {
+				int mInserted = MockDatabase.insertLocations(connection, Arrays.asList(values));
+				connection.commit();
+				
+				inserted += mInserted;
+				return mInserted;
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * close the connection to the database
+	 */
+	public void close() throws SQLException {
+		connection.close();
+	}
+	
+	private String getTable(Uri uri) {
+		
+		String mTable = tables.get(uri);
+		
+		if(mTable == null) {
+			throw new IllegalArgumentException("unknown uri");
+		}
+		
+		return mTable;
+	}
+	
+	/*
+	 * a cursor over rows copied from a query, with the conversions between types of an Android cursor
+	 */
+	private static class RowCursor implements Cursor {
+		
+		private final String[] columns;
+		private final ArrayList<Object[]> rows;
+		private int position = -1;
+		
+		private RowCursor(String[] columns, ArrayList<Object[]> rows) {
+			this.columns = columns;
+			this.rows = rows;
+		}
+		
+		public int getColumnIndex(String name) {
+			return Arrays.asList(columns).indexOf(name);
+		}
+		
+		public int getColumnIndexOrThrow(String name) {
+			
+			int mIndex = getColumnIndex(name);
+			
+			if(mIndex == -1) {
+				throw new IllegalArgumentException("column '" + name + "' does not exist");
+			}
+			
+			return mIndex;
+		}
+		
+		public double getDouble(int index) {
+			Object mValue = rows.get(position)[index];
+			return mValue == null ? 0 : ((Number) mValue).doubleValue();
+		}
+		
+		public int getInt(int index) {
+			return (int) getLong(index);
+		}
+		
+		public long getLong(int index) {
+			Object mValue = rows.get(position)[index];
+			return mValue == null ? 0 : ((Number) mValue).longValue();
+		}
+		
+		public String getString(int index) {
+			Object mValue = rows.get(position)[index];
+			return mValue == null ? null : mValue.toString();
+		}
+		
+		public int getCount() {
+			return rows.size();
+		}
+		
+		public boolean moveToFirst() {
+			position = 0;
+			return rows.size() > 0;
+		}
+		
+		public boolean moveToNext() {
+			return ++position < rows.size();
+		}
+		
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.servalproject.maps.protobuf.KnownRecords;
+import org.servalproject.maps.protobuf.ParallelRecordReader;
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.utils.BloomFilter;
+import org.servalproject.maps.utils.HashUtils;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+/**
+ * measure the false positive rate of the bloom filter, then import location files into a real SQLite database 
+ * holding 100,000 records, either sending every record to the provider and letting the unique hash index 
+ * ignore the records already stored, or first removing the known records with KnownRecords
+ * 
+ * the files are a peer's file received again with 10,000 new records at the end, and a file of 20,000 new records
+ */
+public class DedupBenchmark {
+	
+	private static final int PRELOAD_FIXES = 100000;
+	private static final int ADDED_FIXES = 10000;
+	private static final int NEW_FIXES = 20000;
+	
+	private static final int BATCH_SIZE = 500;
+	
+	// the filter is rebuilt once it holds twice the number of hashes it was sized for
+	private static final int FILTER_CAPACITY = 100000;
+	private static final int FILTER_PROBES = 1000000;
+	
+	private static final String TEMPLATE = "dedup-template.db";
+	private static final String DATABASE = "dedup.db";
+	
+	public static void main(String[] args) throws Exception {
+		
+		measureFilter();
+		
+		// the database holds the start of the peer's track
+		MockDatabase.delete(TEMPLATE);
+		
+		Connection mConnection = MockDatabase.open(TEMPLATE);
+		MockDatabase.createTables(mConnection);
+		mConnection.setAutoCommit(false);
+		MockDatabase.insertLocations(mConnection, MockTrack.PHONE_NUMBER, new MockTrack(PRELOAD_FIXES, 1), 0, PRELOAD_FIXES);
+		mConnection.commit();
+		mConnection.close();
+		
+		// the same seed always gives the same track, so the received file starts with the records in the database
+		MockTrack.write("received.bin", new MockTrack(PRELOAD_FIXES + ADDED_FIXES, 1).legacyBlocks(1000, new ArrayList<Integer>()));
+		MockTrack.write("new.bin", new MockTrack(NEW_FIXES, 2).legacyBlocks(1000, new ArrayList<Integer>()));
+		
+		// the first round warms up the JIT
+		run("new.bin", false, false);
+		run("new.bin", true, false);
+		
+		for(String mFile : new String[] {"received.bin", "new.bin"}) {
+			run(mFile, false, true);
+			run(mFile, true, true);
+		}
+	}
+	
+	/*
+	 * measure the false positive rate of a filter holding as many hashes as it was sized for and twice as many
+	 */
+	private static void measureFilter() {
+		
+		BloomFilter mFilter = new BloomFilter(FILTER_CAPACITY, 0.01);
+		Random mRandom = new Random(1);
+		
+		for(int mFill = 1; mFill <= 2; mFill++) {
+			
+			while(mFilter.getCount() < FILTER_CAPACITY * mFill) {
+				mFilter.add(HashUtils.hashLocationMessage(MockTrack.PHONE_NUMBER, mRandom.nextDouble(), mRandom.nextDouble(), mFilter.getCount()));
+			}
+			
+			int mFalsePositives = 0;
+			
+			for(int i = 0; i < FILTER_PROBES; i++) {
+				if(mFilter.mightContain(HashUtils.hashLocationMessage("probe", mRandom.nextDouble(), mRandom.nextDouble(), i)) == true) {
+					mFalsePositives++;
+				}
+			}
+			
+			System.out.println("bloom filter sized for " + FILTER_CAPACITY + " hashes holding " + mFilter.getCount() + ": " 
+					+ String.format("%.2f", mFalsePositives * 100.0 / FILTER_PROBES) + "% false positives");
+		}
+	}
+	
+	/*
+	 * import a file into a copy of the database a batch at a time
+	 */
+	private static void run(String fileName, boolean removeKnown, boolean report) throws Exception {
+		
+		MockDatabase.delete(DATABASE);
+		Files.copy(new File(TEMPLATE).toPath(), new File(DATABASE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		DatabaseResolver mResolver = new DatabaseResolver(MockDatabase.open(DATABASE));
+		
+		// each stub uri is different, so each run has its own known records
+		Uri mUri = Uri.parse("content://" + LocationsContract.CONTENT_URI_PATH);
+		mResolver.addTable(mUri, LocationsContract.Table.TABLE_NAME);
+		KnownRecords mKnownRecords = KnownRecords.getInstance(mUri, LocationsContract.Table.HASH);
+		
+		long mStart = System.nanoTime();
+		long mLoad = 0;
+		
+		// an empty batch loads the filter from the database
+		if(removeKnown == true) {
+			mKnownRecords.removeKnown(mResolver, new ArrayList<ContentValues>());
+			mLoad = System.nanoTime() - mStart;
+		}
+		
+		ParallelRecordReader mReader = new ParallelRecordReader(fileName, 0, true, null, 1);
+		ArrayList<ContentValues> mBatch = new ArrayList<ContentValues>();
+		
+		int mRead = 0;
+		int mRemoved = 0;
+		int mInserted = 0;
+		
+		while(mReader.read(mBatch, BATCH_SIZE) > 0) {
+			
+			mRead += mBatch.size();
+			
+			if(removeKnown == true) {
+				mRemoved += mKnownRecords.removeKnown(mResolver, mBatch);
+			}
+			
+			if(mBatch.size() > 0) {
+				mInserted += mResolver.bulkInsert(mUri, mBatch.toArray(new ContentValues[mBatch.size()]));
+			}
+			
+			mBatch.clear();
+		}
+		
+		mReader.close();
+		long mElapsed = System.nanoTime() - mStart;
+		
+		mResolver.close();
+		
+		int mExpected = fileName.equals("new.bin") ? NEW_FIXES : ADDED_FIXES;
+		
+		if(mInserted != mExpected) {
+			throw new IllegalStateException("inserted " + mInserted + " of " + mExpected + " new records");
+		}
+		
+		if(report == true) {
+			String mResult = fileName + (removeKnown ? ", known records removed first" : ", every record sent to the provider") 
+					+ ": read " + mRead + ", inserted " + mInserted + ", " + (mElapsed / 1000000) + "ms, " 
+					+ (long) (mRead / (mElapsed / 1e9)) + " records/s";
+			
+			if(removeKnown == true) {
+				mResult += ", removed " + mRemoved + " before the insert, filter loaded in " + (mLoad / 1000000) + "ms, " 
+						+ String.format("%.2f", mKnownRecords.getFalsePositiveRate() * 100) + "% false positives";
+			}
+			
+			System.out.println(mResult);
+		}
+	}
+}
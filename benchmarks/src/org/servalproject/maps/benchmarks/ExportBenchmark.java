@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+
+import org.servalproject.maps.export.ExportEngine;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+/**
+ * export a real SQLite database holding 1,000,000 location records from 20 phones and 10,000 POIs 
+ * with the export engine, into each format on its own and into all four formats at once
+ * 
+ * the export into all four formats is run a second time while another thread collects the garbage 
+ * and samples the heap every 100ms, so that the peak heap used by the live objects is measured 
+ * without slowing down the timed exports
+ */
+public class ExportBenchmark {
+	
+	private static final int PHONES = 20;
+	private static final int FIXES = 50000;
+	private static final int POIS = 10000;
+	
+	private static final String DATABASE = "export.db";
+	private static final String OUTPUT = "export";
+	
+	private static final int ALL_FORMATS = ExportEngine.FORMAT_BINARY | ExportEngine.FORMAT_CSV 
+			| ExportEngine.FORMAT_GEOJSON | ExportEngine.FORMAT_GPX;
+	
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	
+	public static void main(String[] args) throws Exception {
+		
+		MockDatabase.delete(DATABASE);
+		
+		Connection mConnection = MockDatabase.open(DATABASE);
+		MockDatabase.createTables(mConnection);
+		mConnection.setAutoCommit(false);
+		
+		for(int mPhone = 0; mPhone < PHONES; mPhone++) {
+			
+			MockTrack mTrack = new MockTrack(FIXES, mPhone);
+			String mPhoneNumber = "04" + (12345600 + mPhone);
+			
+			MockDatabase.insertLocations(mConnection, mPhoneNumber, mTrack, 0, FIXES);
+			MockDatabase.insertPointsOfInterest(mConnection, mPhoneNumber, mTrack, POIS / PHONES);
+			mConnection.commit();
+		}
+		
+		mConnection.close();
+		
+		new File(OUTPUT).mkdir();
+		
+		final DatabaseResolver mResolver = new DatabaseResolver(MockDatabase.open(DATABASE));
+		
+		Context mContext = new Context() {
+			@Override
+			public ContentResolver getContentResolver() {
+				return mResolver;
+			}
+		};
+		
+		// the first round warms up the JIT
+		export(mContext, ExportEngine.FORMAT_CSV, false);
+		
+		export(mContext, ExportEngine.FORMAT_BINARY, false);
+		export(mContext, ExportEngine.FORMAT_CSV, false);
+		export(mContext, ExportEngine.FORMAT_GEOJSON, false);
+		export(mContext, ExportEngine.FORMAT_GPX, false);
+		export(mContext, ALL_FORMATS, false);
+		export(mContext, ALL_FORMATS, true);
+		
+		mResolver.close();
+	}
+	
+	/*
+	 * export both tables into the given formats
+	 */
+	private static void export(Context context, int formats, boolean sampleHeap) throws Exception {
+		
+		ExportEngine mEngine = new ExportEngine(context, OUTPUT + File.separator);
+		
+		System.gc();
+		long mBefore = memory.getHeapMemoryUsage().getUsed();
+		
+		HeapSampler mSampler = null;
+		
+		if(sampleHeap == true) {
+			mSampler = new HeapSampler();
+			mSampler.start();
+		}
+		
+		long mStart = System.nanoTime();
+		int mCount = mEngine.export(ExportEngine.TABLE_LOCATIONS | ExportEngine.TABLE_POIS, formats, null);
+		long mElapsed = System.nanoTime() - mStart;
+		
+		if(mCount != PHONES * FIXES + POIS) {
+			throw new IllegalStateException("exported " + mCount + " records");
+		}
+		
+		if(mSampler != null) {
+			mSampler.interrupt();
+			mSampler.join();
+			
+			System.out.println("all formats, heap sampled: peak live heap " + (mSampler.peak / 1024 / 1024) + "MB, " 
+					+ (mBefore / 1024 / 1024) + "MB before the export");
+			return;
+		}
+		
+		// the size of the files written
+		long mBytes = 0;
+		
+		for(File mFile : new File(OUTPUT).listFiles()) {
+			mBytes += mFile.length();
+			mFile.delete();
+		}
+		
+		System.out.println(formatName(formats) + ": " + mCount + " rows in " + (mElapsed / 1000000) + "ms, " 
+				+ (long) (mCount / (mElapsed / 1e9)) + " rows/s, " + (mBytes / 1024 / 1024) + "MB written");
+	}
+	
+	private static String formatName(int formats) {
+		
+		switch(formats) {
+		case ExportEngine.FORMAT_BINARY:
+			return "binary";
+		case ExportEngine.FORMAT_CSV:
+			return "csv";
+		case ExportEngine.FORMAT_GEOJSON:
+			return "geojson";
+		case ExportEngine.FORMAT_GPX:
+			return "gpx";
+		default:
+			return "all formats";
+		}
+	}
+	
+	/*
+	 * collect the garbage and sample the heap used until interrupted
+	 */
+	private static class HeapSampler extends Thread {
+		
+		volatile long peak = 0;
+		
+		HeapSampler() {
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while(isInterrupted() == false) {
+				
+				System.gc();
+				peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+				
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.servalproject.maps.protobuf.ParallelRecordReader;
+
+import android.content.ContentValues;
+
+/**
+ * import location files of 1,000, 10,000 and 100,000 records into a real SQLite database, 
+ * inserting each record in its own transaction as the import workers did, 
+ * and inserting 500 records in each transaction as the provider's bulk insert does
+ * 
+ * the import workers also slept for 300ms after each record, which limited them to 3 records a second, 
+ * the sleep isn't included here so the per record figures only show the cost of a transaction for each record
+ */
+public class ImportBenchmark {
+	
+	private static final int[] FIX_COUNTS = {1000, 10000, 100000};
+	
+	// inserting each record on its own is too slow to import the largest file
+	private static final int MAX_PER_RECORD = 10000;
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private static final String DATABASE = "import.db";
+	
+	public static void main(String[] args) throws Exception {
+		
+		// the first round warms up the JIT
+		run(BATCH_SIZE, 1, false);
+		run(BATCH_SIZE, BATCH_SIZE, false);
+		
+		for(int mFixCount : FIX_COUNTS) {
+			
+			if(mFixCount <= MAX_PER_RECORD) {
+				run(mFixCount, 1, true);
+			}
+			
+			run(mFixCount, BATCH_SIZE, true);
+		}
+	}
+	
+	/*
+	 * import a file of the given number of records with the given number of records in each transaction
+	 */
+	private static void run(int fixCount, int batchSize, boolean report) throws Exception {
+		
+		MockTrack mTrack = new MockTrack(fixCount, fixCount);
+		MockTrack.write("import.bin", mTrack.legacyBlocks(1000, new ArrayList<Integer>()));
+		
+		MockDatabase.delete(DATABASE);
+		
+		Connection mConnection = MockDatabase.open(DATABASE);
+		MockDatabase.createTables(mConnection);
+		mConnection.setAutoCommit(false);
+		
+		long mStart = System.nanoTime();
+		
+		ParallelRecordReader mReader = new ParallelRecordReader("import.bin", 0, true, null, 1);
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		int mInserted = 0;
+		
+		while(mReader.read(mRecords, batchSize) > 0) {
+			
+			if(batchSize == 1) {
+				// one transaction for each record, as the provider's insert uses
+				for(ContentValues mValues : mRecords) {
+					mInserted += MockDatabase.insertLocations(mConnection, Collections.singletonList(mValues));
+					mConnection.commit();
+				}
+			} else {
+				mInserted += MockDatabase.insertLocations(mConnection, mRecords);
+				mConnection.commit();
+			}
+			
+			mRecords.clear();
+		}
+		
+		mReader.close();
+		long mElapsed = System.nanoTime() - mStart;
+		
+		mConnection.close();
+		
+		if(mInserted != fixCount) {
+			throw new IllegalStateException("imported " + mInserted + " of " + fixCount + " records");
+		}
+		
+		if(report == true) {
+			System.out.println(fixCount + " records, " + (batchSize == 1 ? "one transaction per record" : batchSize + " records per transaction") 
+					+ ": " + (mElapsed / 1000000) + "ms, " + (long) (fixCount / (mElapsed / 1e9)) + " records/s");
+		}
+	}
+}
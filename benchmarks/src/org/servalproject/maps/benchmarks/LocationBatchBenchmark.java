@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.servalproject.maps.protobuf.BinaryRecordReader;
+import org.servalproject.maps.protobuf.LocationBatch;
+
+import android.content.ContentValues;
+
+/**
+ * compare the size and speed of legacy location messages with location batches of 50 fixes, 
+ * then read a file mixing both kinds of record with an incomplete batch at the end
+ */
+public class LocationBatchBenchmark {
+	
+	private static final int FIX_COUNT = 360000;
+	private static final int BATCH_SIZE = 50;
+	
+	public static void main(String[] args) throws Exception {
+		
+		MockTrack mTrack = new MockTrack(FIX_COUNT, 1);
+		
+		// the first rounds warm up the JIT
+		for(int mRound = 0; mRound < 3; mRound++) {
+			
+			long mStartTime = System.nanoTime();
+			ByteArrayOutputStream mLegacy = new ByteArrayOutputStream();
+			
+			for(int i = 0; i < FIX_COUNT; i++) {
+				mTrack.message(i).writeDelimitedTo(mLegacy);
+			}
+			
+			long mLegacyEncode = System.nanoTime() - mStartTime;
+			
+			mStartTime = System.nanoTime();
+			ByteArrayOutputStream mBatched = new ByteArrayOutputStream();
+			LocationBatch mBatch = new LocationBatch();
+			
+			for(int i = 0; i < FIX_COUNT; i++) {
+				
+				if(mBatch.size() == 0) {
+					mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+				}
+				
+				mBatch.add(mTrack.latitudes[i], mTrack.longitudes[i], mTrack.timestamps[i]);
+				
+				if(mBatch.size() == BATCH_SIZE) {
+					mBatch.writeDelimitedTo(mBatched);
+					mBatch.reset(null, null, null);
+				}
+			}
+			
+			long mBatchedEncode = System.nanoTime() - mStartTime;
+			
+			MockTrack.write("legacy.bin", mLegacy.toByteArray());
+			MockTrack.write("batched.bin", mBatched.toByteArray());
+			
+			long mLegacyDecode = read("legacy.bin", mTrack);
+			long mBatchedDecode = read("batched.bin", mTrack);
+			
+			if(mRound == 2) {
+				System.out.printf("legacy : %.1f bytes/fix, encode %d k fixes/s, decode %d k fixes/s%n", 
+						mLegacy.size() / (double) FIX_COUNT, FIX_COUNT * 1000000L / mLegacyEncode, FIX_COUNT * 1000000L / mLegacyDecode);
+				System.out.printf("batched: %.1f bytes/fix, encode %d k fixes/s, decode %d k fixes/s%n", 
+						mBatched.size() / (double) FIX_COUNT, FIX_COUNT * 1000000L / mBatchedEncode, FIX_COUNT * 1000000L / mBatchedDecode);
+			}
+		}
+		
+		// messages, a batch, a message and then a batch that is cut short
+		ByteArrayOutputStream mMixed = new ByteArrayOutputStream();
+		LocationBatch mBatch = new LocationBatch();
+		
+		for(int i = 0; i < 100; i++) {
+			mTrack.message(i).writeDelimitedTo(mMixed);
+		}
+		
+		mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+		
+		for(int i = 100; i < 1037; i++) {
+			mBatch.add(mTrack.latitudes[i], mTrack.longitudes[i], mTrack.timestamps[i]);
+		}
+		
+		mBatch.writeDelimitedTo(mMixed);
+		mTrack.message(1037).writeDelimitedTo(mMixed);
+		
+		long mComplete = mMixed.size();
+		
+		mBatch.reset(MockTrack.PHONE_NUMBER, MockTrack.SUBSCRIBER_ID, MockTrack.TIME_ZONE);
+		
+		for(int i = 1038; i < 1100; i++) {
+			mBatch.add(mTrack.latitudes[i], mTrack.longitudes[i], mTrack.timestamps[i]);
+		}
+		
+		mBatch.writeDelimitedTo(mMixed);
+		
+		MockTrack.write("mixed.bin", Arrays.copyOf(mMixed.toByteArray(), mMixed.size() - 5));
+		
+		BinaryRecordReader mReader = new BinaryRecordReader("mixed.bin", 0);
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		int mCount = 0;
+		
+		try {
+			while(mReader.readLocations(mRecords, 500) > 0) {
+				mTrack.check(mRecords, mCount);
+				mCount += mRecords.size();
+				mRecords.clear();
+			}
+		} catch (IOException e) {
+			mTrack.check(mRecords, mCount);
+			mCount += mRecords.size();
+			System.out.println("incomplete batch: " + e.getMessage());
+		}
+		
+		System.out.println("mixed: " + mCount + " records, offset " + mReader.getOffset() + " expected " + mComplete);
+		mReader.close();
+	}
+	
+	/*
+	 * read all of the fixes in a file, checking them against the track, returning the nanoseconds taken
+	 */
+	private static long read(String fileName, MockTrack track) throws IOException {
+		
+		long mStartTime = System.nanoTime();
+		
+		BinaryRecordReader mReader = new BinaryRecordReader(fileName, 0);
+		ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+		int mCount = 0;
+		
+		while(mReader.readLocations(mRecords, 500) > 0) {
+			track.check(mRecords, mCount);
+			mCount += mRecords.size();
+			mRecords.clear();
+		}
+		
+		mReader.close();
+		
+		if(mCount != track.size) {
+			throw new IllegalStateException("read " + mCount + " of " + track.size + " fixes");
+		}
+		
+		return System.nanoTime() - mStartTime;
+	}
+}
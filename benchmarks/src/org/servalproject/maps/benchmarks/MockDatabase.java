@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+import org.servalproject.maps.utils.HashUtils;
+
+import android.content.ContentValues;
+
+/**
+ * a SQLite database with the tables and indexes created by MainDatabaseHelper, shared by the benchmarks 
+ * that measure the database, opened through the sqlite-jdbc driver which must be on the class path
+ */
+public class MockDatabase {
+	
+	/**
+	 * the name of the POI spatial index, as created by MainDatabaseHelper
+	 */
+	public static final String POI_SPATIAL_INDEX = "poi_spatial_index";
+	
+	private static final String LOCATION_INSERT = "INSERT OR IGNORE INTO " + LocationsContract.Table.TABLE_NAME + " ("
+			+ LocationsContract.Table.PHONE_NUMBER + ", "
+			+ LocationsContract.Table.SUBSCRIBER_ID + ", "
+			+ LocationsContract.Table.LATITUDE + ", "
+			+ LocationsContract.Table.LONGITUDE + ", "
+			+ LocationsContract.Table.TIMESTAMP + ", "
+			+ LocationsContract.Table.TIMEZONE + ", "
+			+ LocationsContract.Table.HASH + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+	
+	private static final String LATEST_COLUMNS = LocationsContract.Table._ID + ", "
+			+ LocationsContract.Table.PHONE_NUMBER + ", "
+			+ LocationsContract.Table.SUBSCRIBER_ID + ", "
+			+ LocationsContract.Table.LATITUDE + ", "
+			+ LocationsContract.Table.LONGITUDE + ", "
+			+ LocationsContract.Table.TIMESTAMP + ", "
+			+ LocationsContract.Table.TIMEZONE;
+	
+	private static final String LATEST_REFRESH = "INSERT OR REPLACE INTO "
+			+ LocationsContract.LATEST_TABLE_NAME + " (" + LATEST_COLUMNS + ") "
+			+ "SELECT " + LATEST_COLUMNS + " FROM " + LocationsContract.Table.TABLE_NAME
+			+ " WHERE " + LocationsContract.Table.PHONE_NUMBER + " = ?"
+			+ " ORDER BY " + LocationsContract.Table.TIMESTAMP + " DESC, " + LocationsContract.Table._ID + " DESC LIMIT 1";
+	
+	private static final String POI_INSERT = "INSERT INTO " + PointsOfInterestContract.Table.TABLE_NAME + " ("
+			+ PointsOfInterestContract.Table.PHONE_NUMBER + ", "
+			+ PointsOfInterestContract.Table.SUBSCRIBER_ID + ", "
+			+ PointsOfInterestContract.Table.LATITUDE + ", "
+			+ PointsOfInterestContract.Table.LONGITUDE + ", "
+			+ PointsOfInterestContract.Table.TIMESTAMP + ", "
+			+ PointsOfInterestContract.Table.TIMEZONE + ", "
+			+ PointsOfInterestContract.Table.TITLE + ", "
+			+ PointsOfInterestContract.Table.DESCRIPTION + ", "
+			+ PointsOfInterestContract.Table.HASH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	static {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("the sqlite-jdbc driver isn't on the class path", e);
+		}
+	}
+	
+	/*
+	 * open the database with the journal mode and synchronous setting of the android defaults
+	 */
+	public static Connection open(String path) throws SQLException {
+		
+		Connection mConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+		
+		// wait for another connection's lock as SQLiteDatabase does rather than failing
+		Statement mStatement = mConnection.createStatement();
+		mStatement.execute("PRAGMA busy_timeout = 30000");
+		mStatement.execute("PRAGMA synchronous = FULL");
+		mStatement.close();
+		
+		return mConnection;
+	}
+	
+	/**
+	 * delete a database and its journal files
+	 */
+	public static void delete(String path) {
+		for(String mSuffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+			new File(path + mSuffix).delete();
+		}
+	}
+	
+	/**
+	 * create the tables, indexes and triggers of MainDatabaseHelper
+	 */
+	public static void createTables(Connection connection) throws SQLException {
+		
+		Statement mStatement = connection.createStatement();
+		
+		mStatement.executeUpdate("CREATE TABLE " + LocationsContract.Table.TABLE_NAME + " ("
+				+ LocationsContract.Table._ID + " INTEGER PRIMARY KEY, "
+				+ LocationsContract.Table.PHONE_NUMBER + " TEXT, "
+				+ LocationsContract.Table.SUBSCRIBER_ID + " TEXT, "
+				+ LocationsContract.Table.LATITUDE + " REAL, "
+				+ LocationsContract.Table.LONGITUDE + " REAL, "
+				+ LocationsContract.Table.TIMESTAMP + " INTEGER, "
+				+ LocationsContract.Table.TIMEZONE + " TEXT, "
+				+ LocationsContract.Table.HASH + " TEXT)");
+		
+		mStatement.executeUpdate("CREATE TABLE " + LocationsContract.LATEST_TABLE_NAME + " ("
+				+ LocationsContract.Table._ID + " INTEGER, "
+				+ LocationsContract.Table.PHONE_NUMBER + " TEXT PRIMARY KEY, "
+				+ LocationsContract.Table.SUBSCRIBER_ID + " TEXT, "
+				+ LocationsContract.Table.LATITUDE + " REAL, "
+				+ LocationsContract.Table.LONGITUDE + " REAL, "
+				+ LocationsContract.Table.TIMESTAMP + " INTEGER, "
+				+ LocationsContract.Table.TIMEZONE + " TEXT)");
+		
+		mStatement.executeUpdate("CREATE TABLE " + PointsOfInterestContract.Table.TABLE_NAME + " ("
+				+ PointsOfInterestContract.Table._ID +" INTEGER PRIMARY KEY, "
+				+ PointsOfInterestContract.Table.PHONE_NUMBER + " TEXT, "
+				+ PointsOfInterestContract.Table.SUBSCRIBER_ID + " TEXT, "
+				+ PointsOfInterestContract.Table.LATITUDE + " REAL, "
+				+ PointsOfInterestContract.Table.LONGITUDE + " REAL, "
+				+ PointsOfInterestContract.Table.TIMESTAMP + " INTEGER, "
+				+ PointsOfInterestContract.Table.TIMEZONE + " TEXT, "
+				+ PointsOfInterestContract.Table.TITLE + " TEXT, "
+				+ PointsOfInterestContract.Table.DESCRIPTION + " TEXT, "
+				+ PointsOfInterestContract.Table.CATEGORY + " INTEGER DEFAULT " + PointsOfInterestContract.DEFAULT_CATEGORY + ", "
+				+ PointsOfInterestContract.Table.PHOTO + " TEXT, "
+				+ PointsOfInterestContract.Table.HASH + " TEXT)");
+		
+		mStatement.executeUpdate("CREATE INDEX locations_timestamp_desc ON " + LocationsContract.Table.TABLE_NAME + " ("
+				+ LocationsContract.Table.PHONE_NUMBER + " ASC, " + LocationsContract.Table.TIMESTAMP + " DESC)");
+		mStatement.executeUpdate("CREATE INDEX poi_timestamp_desc ON " + PointsOfInterestContract.Table.TABLE_NAME + " ("
+				+ PointsOfInterestContract.Table.PHONE_NUMBER + " ASC, " + PointsOfInterestContract.Table.TIMESTAMP + " DESC)");
+		mStatement.executeUpdate("CREATE UNIQUE INDEX locations_hash ON " + LocationsContract.Table.TABLE_NAME + " (" 
+				+ LocationsContract.Table.HASH + ")");
+		mStatement.executeUpdate("CREATE UNIQUE INDEX poi_hash ON " + PointsOfInterestContract.Table.TABLE_NAME + " (" 
+				+ PointsOfInterestContract.Table.HASH + ")");
+		
+		mStatement.executeUpdate("CREATE VIRTUAL TABLE " + POI_SPATIAL_INDEX + " USING rtree("
+				+ PointsOfInterestContract.Table._ID + ", min_latitude, max_latitude, min_longitude, max_longitude)");
+		mStatement.executeUpdate("CREATE TRIGGER poi_spatial_insert AFTER INSERT ON " + PointsOfInterestContract.Table.TABLE_NAME 
+				+ " BEGIN INSERT INTO " + POI_SPATIAL_INDEX + " VALUES (NEW." + PointsOfInterestContract.Table._ID + ", "
+				+ "NEW." + PointsOfInterestContract.Table.LATITUDE + ", NEW." + PointsOfInterestContract.Table.LATITUDE + ", "
+				+ "NEW." + PointsOfInterestContract.Table.LONGITUDE + ", NEW." + PointsOfInterestContract.Table.LONGITUDE + "); END");
+		mStatement.close();
+	}
+	
+	/**
+	 * insert part of a track and refresh the latest location of its phone, in the current transaction
+	 * 
+	 * @return the number of records inserted, records already in the database are ignored
+	 */
+	public static int insertLocations(Connection connection, String phoneNumber, MockTrack track, int first, int count) throws SQLException {
+		
+		int mInserted = 0;
+		PreparedStatement mInsert = connection.prepareStatement(LOCATION_INSERT);
+		
+		for(int i = first; i < first + count; i++) {
+			mInsert.setString(1, phoneNumber);
+			mInsert.setString(2, MockTrack.SUBSCRIBER_ID);
+			mInsert.setDouble(3, track.latitudes[i]);
+			mInsert.setDouble(4, track.longitudes[i]);
+			mInsert.setLong(5, track.timestamps[i]);
+			mInsert.setString(6, MockTrack.TIME_ZONE);
+			mInsert.setString(7, HashUtils.hashLocationMessage(phoneNumber, track.latitudes[i], track.longitudes[i], track.timestamps[i]));
+			mInserted += mInsert.executeUpdate();
+		}
+		
+		mInsert.close();
+		
+		PreparedStatement mRefresh = connection.prepareStatement(LATEST_REFRESH);
+		mRefresh.setString(1, phoneNumber);
+		mRefresh.executeUpdate();
+		mRefresh.close();
+		
+		return mInserted;
+	}
+	
+	/**
+	 * insert location records read from a binary file and refresh the latest location of each of their phones, 
+	 * in the current transaction, as the provider's bulk insert does
+	 * 
+	 * @return the number of records inserted, records already in the database are ignored
+	 */
+	public static int insertLocations(Connection connection, List<ContentValues> records) throws SQLException {
+		
+		int mInserted = 0;
+		HashSet<String> mPhoneNumbers = new HashSet<String>();
+		
+		PreparedStatement mInsert = connection.prepareStatement(LOCATION_INSERT);
+		
+		for(ContentValues mValues : records) {
+			mInsert.setString(1, mValues.getAsString(LocationsContract.Table.PHONE_NUMBER));
+			mInsert.setString(2, mValues.getAsString(LocationsContract.Table.SUBSCRIBER_ID));
+			mInsert.setDouble(3, mValues.getAsDouble(LocationsContract.Table.LATITUDE));
+			mInsert.setDouble(4, mValues.getAsDouble(LocationsContract.Table.LONGITUDE));
+			mInsert.setLong(5, mValues.getAsLong(LocationsContract.Table.TIMESTAMP));
+			mInsert.setString(6, mValues.getAsString(LocationsContract.Table.TIMEZONE));
+			mInsert.setString(7, mValues.getAsString(LocationsContract.Table.HASH));
+			mInserted += mInsert.executeUpdate();
+			
+			mPhoneNumbers.add(mValues.getAsString(LocationsContract.Table.PHONE_NUMBER));
+		}
+		
+		mInsert.close();
+		
+		PreparedStatement mRefresh = connection.prepareStatement(LATEST_REFRESH);
+		
+		for(String mPhoneNumber : mPhoneNumbers) {
+			mRefresh.setString(1, mPhoneNumber);
+			mRefresh.executeUpdate();
+		}
+		
+		mRefresh.close();
+		
+		return mInserted;
+	}
+	
+	/**
+	 * insert points of interest spread evenly along a track, in the current transaction
+	 */
+	public static void insertPointsOfInterest(Connection connection, String phoneNumber, MockTrack track, int count) throws SQLException {
+		
+		double[] mLatitudes = new double[count];
+		double[] mLongitudes = new double[count];
+		long[] mTimestamps = new long[count];
+		
+		for(int i = 0; i < count; i++) {
+			
+			int mFix = (int) ((long) i * track.size / count);
+			
+			mLatitudes[i] = track.latitudes[mFix];
+			mLongitudes[i] = track.longitudes[mFix];
+			mTimestamps[i] = track.timestamps[mFix];
+		}
+		
+		insertPointsOfInterest(connection, phoneNumber, mLatitudes, mLongitudes, mTimestamps);
+	}
+	
+	/**
+	 * insert points of interest at the given places and times, in the current transaction
+	 */
+	public static void insertPointsOfInterest(Connection connection, String phoneNumber, double[] latitudes, double[] longitudes, long[] timestamps) throws SQLException {
+		
+		PreparedStatement mInsert = connection.prepareStatement(POI_INSERT);
+		
+		for(int i = 0; i < latitudes.length; i++) {
+			mInsert.setString(1, phoneNumber);
+			mInsert.setString(2, MockTrack.SUBSCRIBER_ID);
+			mInsert.setDouble(3, latitudes[i]);
+			mInsert.setDouble(4, longitudes[i]);
+			mInsert.setLong(5, timestamps[i]);
+			mInsert.setString(6, MockTrack.TIME_ZONE);
+			mInsert.setString(7, "point of interest " + i);
+			mInsert.setString(8, "a point of interest added by " + phoneNumber);
+			mInsert.setString(9, phoneNumber + "-" + i);
+			mInsert.executeUpdate();
+		}
+		
+		mInsert.close();
+	}
+}
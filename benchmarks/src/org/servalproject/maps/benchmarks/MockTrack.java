@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.servalproject.maps.protobuf.BlockOutputStream;
+import org.servalproject.maps.protobuf.LocationBatch;
+import org.servalproject.maps.protobuf.LocationMessage;
+import org.servalproject.maps.provider.LocationsContract;
+
+import android.content.ContentValues;
+
+/**
+ * a mock location history shared by the benchmarks, 
+ * one phone moving in a random walk with a fix about every second
+ */
+public class MockTrack {
+	
+	public static final String PHONE_NUMBER = "0412345678";
+	public static final String SUBSCRIBER_ID = "A1B2C3D4E5F60718293A4B5C6D7E8F90A1B2C3D4E5F60718293A4B5C6D7E8F90";
+	public static final String TIME_ZONE = "Australia/Adelaide";
+	
+	public final int size;
+	public final double[] latitudes;
+	public final double[] longitudes;
+	public final long[] timestamps;
+	
+	/**
+	 * generate a track, the same seed always gives the same track
+	 * 
+	 * @param size the number of fixes
+	 * @param seed the seed of the random walk
+	 */
+	public MockTrack(int size, long seed) {
+		
+		this.size = size;
+		
+		latitudes = new double[size];
+		longitudes = new double[size];
+		timestamps = new long[size];
+		
+		Random mRandom = new Random(seed);
+		
+		double mLatitude = -35.0123456;
+		double mLongitude = 138.5987654;
+		long mTimestamp = 1340000000000L;
+		
+		for(int i = 0; i < size; i++) {
+			mLatitude += (mRandom.nextDouble() - 0.5) * 0.0001;
+			mLongitude += (mRandom.nextDouble() - 0.5) * 0.0001;
+			mTimestamp += 1000 + mRandom.nextInt(20);
+			
+			// rounded as the location collector does so the fixes survive a batch unchanged
+			latitudes[i] = LocationBatch.round(mLatitude);
+			longitudes[i] = LocationBatch.round(mLongitude);
+			timestamps[i] = mTimestamp;
+		}
+	}
+	
+	/**
+	 * @return a fix as a legacy location message
+	 */
+	public LocationMessage.Message message(int index) {
+		return LocationMessage.Message.newBuilder()
+				.setPhoneNumber(PHONE_NUMBER)
+				.setSubsciberId(SUBSCRIBER_ID)
+				.setLatitude(latitudes[index])
+				.setLongitude(longitudes[index])
+				.setTimestamp(timestamps[index])
+				.setTimeZone(TIME_ZONE)
+				.build();
+	}
+	
+	/**
+	 * write the track as legacy location messages in compressed blocks, as the binary export does
+	 * 
+	 * @param recordsPerBlock the number of messages in each block
+	 * @param blockEnds filled with the offset of the end of each block
+	 */
+	public byte[] legacyBlocks(int recordsPerBlock, List<Integer> blockEnds) throws IOException {
+		
+		ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		BlockOutputStream mOutput = new BlockOutputStream(mBytes);
+		
+		for(int i = 0; i < size; i++) {
+			message(i).writeDelimitedTo(mOutput);
+			mOutput.recordWritten();
+			
+			if((i + 1) % recordsPerBlock == 0) {
+				mOutput.flush();
+				blockEnds.add(mBytes.size());
+			}
+		}
+		
+		mOutput.close();
+		
+		return mBytes.toByteArray();
+	}
+	
+	/**
+	 * check that a batch of records read back matches the track
+	 * 
+	 * @param batch the records
+	 * @param first the index of the fix of the first record
+	 */
+	public void check(ArrayList<ContentValues> batch, int first) {
+		
+		for(int i = 0; i < batch.size(); i++) {
+			ContentValues mValues = batch.get(i);
+			
+			if(mValues.getAsDouble(LocationsContract.Table.LATITUDE) != latitudes[first + i] 
+					|| mValues.getAsDouble(LocationsContract.Table.LONGITUDE) != longitudes[first + i] 
+					|| mValues.getAsLong(LocationsContract.Table.TIMESTAMP) != timestamps[first + i]) {
+				throw new IllegalStateException("record " + (first + i) + " doesn't match the track");
+			}
+		}
+	}
+	
+	/**
+	 * write a file in the working directory
+	 */
+	public static void write(String fileName, byte[] bytes) throws IOException {
+		
+		FileOutputStream mOutput = new FileOutputStream(new File(fileName));
+		
+		try {
+			mOutput.write(bytes);
+		} finally {
+			mOutput.close();
+		}
+	}
+	
+	/**
+	 * create threads that don't stop the benchmark from exiting, standing in for the import scheduler's threads
+	 */
+	public static ExecutorService newPool(int threadCount) {
+		return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread mThread = new Thread(runnable);
+				mThread.setDaemon(true);
+				return mThread;
+			}
+		});
+	}
+}
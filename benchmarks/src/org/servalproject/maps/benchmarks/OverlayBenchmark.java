@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.mapsforge.android.maps.overlay.ArrayItemizedOverlay;
+import org.mapsforge.core.GeoPoint;
+import org.servalproject.maps.mapsforge.OverlayItem;
+import org.servalproject.maps.mapsforge.OverlayItems;
+import org.servalproject.maps.mapsforge.OverlayList;
+import org.servalproject.maps.mapsforge.OverlaySnapshot;
+
+import android.content.Context;
+
+/**
+ * compare refreshing the map markers by rebuilding every item, as the map did before the overlay list kept its items, 
+ * with applying a snapshot of the markers to the overlay list, which only adds, moves and removes the items that changed
+ * 
+ * the markers are the user, 50 peers and 1000 POIs, the refreshes either change nothing or move 5 peers, 
+ * and the snapshot of a POI delta query holds no POIs
+ * 
+ * the overlays are never drawn, the allocation counts use the HotSpot ThreadMXBean
+ */
+public class OverlayBenchmark {
+	
+	private static final int PEER_COUNT = 50;
+	private static final int POI_COUNT = 1000;
+	private static final int MOVED_COUNT = 5;
+	
+	private static final int REFRESH_COUNT = 2000;
+	
+	private static final com.sun.management.ThreadMXBean threads = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	// the markers shown by the map
+	private static final String[] phoneNumbers = new String[PEER_COUNT + 1];
+	private static final double[] locationLatitudes = new double[PEER_COUNT + 1];
+	private static final double[] locationLongitudes = new double[PEER_COUNT + 1];
+	private static final double[] poiLatitudes = new double[POI_COUNT];
+	private static final double[] poiLongitudes = new double[POI_COUNT];
+	
+	private static final Random random = new Random(1);
+	
+	public static void main(String[] args) {
+		
+		for(int i = 0; i < locationLatitudes.length; i++) {
+			phoneNumbers[i] = "04" + (12345600 + i);
+			locationLatitudes[i] = -35 + random.nextDouble() * 0.04;
+			locationLongitudes[i] = 138.6 + random.nextDouble() * 0.04;
+		}
+		
+		for(int i = 0; i < POI_COUNT; i++) {
+			poiLatitudes[i] = -35 + random.nextDouble() * 0.04;
+			poiLongitudes[i] = 138.6 + random.nextDouble() * 0.04;
+		}
+		
+		// the first round warms up the JIT
+		for(int mRound = 0; mRound < 2; mRound++) {
+			for(int mMoved : new int[] {0, MOVED_COUNT}) {
+				rebuild(mMoved, mRound == 1);
+				snapshot(mMoved, false, mRound == 1);
+				snapshot(mMoved, true, mRound == 1);
+			}
+		}
+	}
+	
+	/*
+	 * refresh the markers by creating a new item for each marker and replacing all of the items
+	 */
+	private static void rebuild(int moved, boolean report) {
+		
+		ArrayItemizedOverlay mOverlay = new ArrayItemizedOverlay(null);
+		
+		long mAllocated = allocated();
+		long mStart = System.nanoTime();
+		
+		for(int mRefresh = 0; mRefresh < REFRESH_COUNT; mRefresh++) {
+			
+			move(moved);
+			
+			ArrayList<org.mapsforge.android.maps.overlay.OverlayItem> mItems = new ArrayList<org.mapsforge.android.maps.overlay.OverlayItem>();
+			OverlayItem mItem;
+			
+			for(int i = 0; i < locationLatitudes.length; i++) {
+				mItem = new OverlayItem(new GeoPoint(locationLatitudes[i], locationLongitudes[i]), null, null, null);
+				mItem.setType(i == 0 ? OverlayItems.SELF_LOCATION_ITEM : OverlayItems.PEER_LOCATION_ITEM);
+				mItem.setRecordId(i);
+				mItems.add(mItem);
+			}
+			
+			for(int i = 0; i < POI_COUNT; i++) {
+				mItem = new OverlayItem(new GeoPoint(poiLatitudes[i], poiLongitudes[i]), null, null, null);
+				mItem.setType(OverlayItems.POI_ITEM);
+				mItem.setRecordId(i);
+				mItems.add(mItem);
+			}
+			
+			mOverlay.clear();
+			mOverlay.addItems(mItems);
+			mOverlay.requestRedraw();
+		}
+		
+		report("rebuild, " + moved + " moved", mStart, mAllocated, mOverlay.size(), report);
+	}
+	
+	/*
+	 * refresh the markers by applying a snapshot of the markers to the overlay list, 
+	 * optionally with a snapshot of a POI delta query which has no new POIs
+	 */
+	private static void snapshot(int moved, boolean poiDelta, boolean report) {
+		
+		OverlayList mOverlay = new OverlayList(null, new Context());
+		
+		// the first refresh adds all of the markers
+		mOverlay.applySnapshot(newSnapshot(false), null, null, null);
+		
+		long mAllocated = allocated();
+		long mStart = System.nanoTime();
+		int mChanged = 0;
+		
+		for(int mRefresh = 0; mRefresh < REFRESH_COUNT; mRefresh++) {
+			
+			move(moved);
+			
+			if(mOverlay.applySnapshot(newSnapshot(poiDelta), null, null, null) == true) {
+				mChanged++;
+			}
+		}
+		
+		if(moved > 0 && mChanged != REFRESH_COUNT || moved == 0 && mChanged != 0) {
+			throw new IllegalStateException(mChanged + " refreshes changed the overlay");
+		}
+		
+		report("snapshot" + (poiDelta ? " with a POI delta" : "") + ", " + moved + " moved", mStart, mAllocated, mOverlay.size(), report);
+	}
+	
+	/*
+	 * build the snapshot made by the loader thread from the query results
+	 */
+	private static OverlaySnapshot newSnapshot(boolean poiDelta) {
+		
+		OverlaySnapshot mSnapshot = new OverlaySnapshot();
+		
+		for(int i = 0; i < locationLatitudes.length; i++) {
+			mSnapshot.addLocation(i == 0 ? OverlayItems.SELF_LOCATION_ITEM : OverlayItems.PEER_LOCATION_ITEM, 
+					i, phoneNumbers[i], locationLatitudes[i], locationLongitudes[i], 0);
+		}
+		
+		if(poiDelta == true) {
+			mSnapshot.setPoiDelta(Long.MIN_VALUE);
+		} else {
+			for(int i = 0; i < POI_COUNT; i++) {
+				mSnapshot.addPoi(i, poiLatitudes[i], poiLongitudes[i], 0);
+			}
+		}
+		
+		return mSnapshot;
+	}
+	
+	/*
+	 * move some of the peers a little
+	 */
+	private static void move(int count) {
+		for(int i = 1; i <= count; i++) {
+			locationLatitudes[i] += (random.nextDouble() - 0.5) * 0.0001;
+			locationLongitudes[i] += (random.nextDouble() - 0.5) * 0.0001;
+		}
+	}
+	
+	private static void report(String name, long start, long allocated, int size, boolean report) {
+		
+		long mElapsed = System.nanoTime() - start;
+		allocated = allocated() - allocated;
+		
+		if(size != PEER_COUNT + 1 + POI_COUNT) {
+			throw new IllegalStateException(name + " has " + size + " items");
+		}
+		
+		if(report == true) {
+			System.out.println(name + ": " + String.format("%.1f", mElapsed / 1e3 / REFRESH_COUNT) + "us/refresh, " 
+					+ (allocated / REFRESH_COUNT) + " bytes allocated/refresh");
+		}
+	}
+	
+	private static long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import org.servalproject.maps.protobuf.ImportPipeline;
+import org.servalproject.maps.protobuf.ParallelRecordReader;
+import org.servalproject.maps.protobuf.RecordSource;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+/**
+ * compare reading and then writing each batch on one thread with the import pipeline, 
+ * using a stub bulk insert that takes a fixed time for each record, 
+ * then check that a parse error and a parser failure both end the import
+ */
+public class PipelineBenchmark {
+	
+	private static final int FIX_COUNT = 360000;
+	private static final int BATCH_SIZE = 500;
+	
+	private static final ExecutorService pool = MockTrack.newPool(4);
+	
+	public static void main(String[] args) throws Exception {
+		
+		MockTrack mTrack = new MockTrack(FIX_COUNT, 1);
+		
+		byte[] mFile = mTrack.legacyBlocks(1000, new ArrayList<Integer>());
+		MockTrack.write("blocks.bin", mFile);
+		MockTrack.write("truncated.bin", Arrays.copyOf(mFile, mFile.length - 9));
+		
+		for(long mInsertNanos : new long[] {0, 2000, 10000}) {
+			
+			ContentResolver.insertNanosPerRecord = mInsertNanos;
+			
+			// the first round warms up the JIT
+			for(int mRound = 0; mRound < 2; mRound++) {
+				
+				ContentResolver mResolver = new ContentResolver();
+				long mStartTime = System.currentTimeMillis();
+				
+				ParallelRecordReader mReader = new ParallelRecordReader("blocks.bin", 0, true, null, 1);
+				ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+				
+				while(mReader.read(mRecords, BATCH_SIZE) > 0) {
+					mResolver.bulkInsert(null, mRecords.toArray(new ContentValues[mRecords.size()]));
+					mRecords.clear();
+				}
+				
+				mReader.close();
+				long mSerial = System.currentTimeMillis() - mStartTime;
+				
+				// each stub uri has its own known records so nothing is skipped
+				mResolver = new ContentResolver();
+				mStartTime = System.currentTimeMillis();
+				
+				mReader = new ParallelRecordReader("blocks.bin", 0, true, null, 1);
+				ImportPipeline mPipeline = new ImportPipeline(mResolver, Uri.parse("pipeline"), "hash", BATCH_SIZE, pool);
+				mPipeline.run(mReader);
+				mReader.close();
+				
+				long mPiped = System.currentTimeMillis() - mStartTime;
+				
+				if(mResolver.inserted != FIX_COUNT || mPipeline.getOffset() != new File("blocks.bin").length()) {
+					throw new IllegalStateException("inserted " + mResolver.inserted + " records to offset " + mPipeline.getOffset());
+				}
+				
+				if(mRound == 1) {
+					System.out.println("insert " + mInsertNanos / 1000.0 + "us/record: serial " + mSerial + "ms, pipeline " 
+							+ mPiped + "ms, " + mPipeline);
+				}
+			}
+		}
+		
+		ContentResolver.insertNanosPerRecord = 0;
+		
+		// the records before the error are written and the offset is the end of the last complete block
+		ContentResolver mResolver = new ContentResolver();
+		ParallelRecordReader mReader = new ParallelRecordReader("truncated.bin", 0, true, null, 1);
+		ImportPipeline mPipeline = new ImportPipeline(mResolver, Uri.parse("truncated"), "hash", BATCH_SIZE, pool);
+		
+		try {
+			mPipeline.run(mReader);
+			System.out.println("truncated: no error reported");
+		} catch (IOException e) {
+			System.out.println("truncated: inserted " + mResolver.inserted + ", offset " + mPipeline.getOffset());
+		} finally {
+			mReader.close();
+		}
+		
+		// a runtime exception in the parser, such as a file shrinking after it has been split
+		mResolver = new ContentResolver();
+		final ParallelRecordReader mSource = new ParallelRecordReader("blocks.bin", 0, true, null, 1);
+		
+		RecordSource mFailing = new RecordSource() {
+			
+			private int reads = 0;
+			
+			public long getOffset() {
+				return mSource.getOffset();
+			}
+			
+			public int read(ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+				
+				if(++reads == 5) {
+					throw new IllegalArgumentException("the file is shorter than the piece");
+				}
+				
+				return mSource.read(batch, maxRecords);
+			}
+		};
+		
+		mPipeline = new ImportPipeline(mResolver, Uri.parse("failing"), "hash", BATCH_SIZE, pool);
+		
+		try {
+			mPipeline.run(mFailing);
+			System.out.println("parser failure: no error reported");
+		} catch (IllegalArgumentException e) {
+			System.out.println("parser failure: " + e.getMessage() + ", inserted " + mResolver.inserted + ", offset " + mPipeline.getOffset());
+		} finally {
+			mSource.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.servalproject.maps.protobuf.BinaryRecordReader;
+import org.servalproject.maps.protobuf.LocationMessage;
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.utils.HashUtils;
+
+import android.content.ContentValues;
+
+/**
+ * compare reading location records with parseDelimitedFrom, as the workers used to, 
+ * and with BinaryRecordReader, building the same ContentValues and hash on both paths
+ * 
+ * the allocation counts use the HotSpot ThreadMXBean
+ */
+public class ReaderBenchmark {
+	
+	private static final String FILE_NAME = "reader.bin";
+	private static final int RECORD_COUNT = 200000;
+	private static final int BATCH_SIZE = 500;
+	
+	private static final com.sun.management.ThreadMXBean threads = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	public static void main(String[] args) throws Exception {
+		
+		// records with an incomplete record at the end, as a file being written by Rhizome has
+		ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		
+		for(int i = 0; i < RECORD_COUNT; i++) {
+			LocationMessage.Message.newBuilder()
+					.setPhoneNumber("555" + i)
+					.setSubsciberId("sid")
+					.setLatitude(i)
+					.setLongitude(-i)
+					.setTimestamp(i)
+					.setTimeZone("UTC")
+					.build()
+					.writeDelimitedTo(mBytes);
+		}
+		
+		mBytes.write(new byte[] {50, 10, 3});
+		MockTrack.write(FILE_NAME, mBytes.toByteArray());
+		
+		// the first round warms up the JIT
+		for(int mRound = 0; mRound < 4; mRound++) {
+			for(int mPath = 0; mPath < 2; mPath++) {
+				
+				long mAllocated = allocated();
+				long mStartTime = System.nanoTime();
+				
+				int mCount = mPath == 0 ? readParseDelimited() : readBinaryRecordReader();
+				
+				long mElapsed = Math.max((System.nanoTime() - mStartTime) / 1000000, 1);
+				mAllocated = allocated() - mAllocated;
+				
+				if(mRound > 0) {
+					System.out.println((mPath == 0 ? "parseDelimitedFrom " : "BinaryRecordReader ") 
+							+ mCount + " records " + mElapsed + "ms " + (mCount * 1000L / mElapsed) + " records/s " 
+							+ (mAllocated / mCount) + " bytes allocated/record");
+				}
+			}
+		}
+	}
+	
+	private static long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	private static int readParseDelimited() throws IOException {
+		
+		FileInputStream mInput = new FileInputStream(FILE_NAME);
+		ArrayList<ContentValues> mBatch = new ArrayList<ContentValues>(BATCH_SIZE);
+		LocationMessage.Message mMessage;
+		int mCount = 0;
+		
+		try {
+			while((mMessage = LocationMessage.Message.parseDelimitedFrom(mInput)) != null) {
+				
+				ContentValues mValues = new ContentValues();
+				mValues.put(LocationsContract.Table.PHONE_NUMBER, mMessage.getPhoneNumber());
+				mValues.put(LocationsContract.Table.SUBSCRIBER_ID, mMessage.getSubsciberId());
+				mValues.put(LocationsContract.Table.LATITUDE, mMessage.getLatitude());
+				mValues.put(LocationsContract.Table.LONGITUDE, mMessage.getLongitude());
+				mValues.put(LocationsContract.Table.TIMESTAMP, mMessage.getTimestamp());
+				mValues.put(LocationsContract.Table.TIMEZONE, mMessage.getTimeZone());
+				mValues.put(LocationsContract.Table.HASH, HashUtils.hashLocationMessage(
+						mMessage.getPhoneNumber(), mMessage.getLatitude(), mMessage.getLongitude(), mMessage.getTimestamp()));
+				
+				mBatch.add(mValues);
+				mCount++;
+				
+				if(mBatch.size() == BATCH_SIZE) {
+					mBatch.clear();
+				}
+			}
+		} catch (IOException e) {
+			// the incomplete record at the end
+		} finally {
+			mInput.close();
+		}
+		
+		return mCount;
+	}
+	
+	private static int readBinaryRecordReader() throws IOException {
+		
+		BinaryRecordReader mReader = new BinaryRecordReader(FILE_NAME, 0);
+		ArrayList<ContentValues> mBatch = new ArrayList<ContentValues>(BATCH_SIZE);
+		int mCount = 0;
+		
+		try {
+			while(mReader.readLocations(mBatch, BATCH_SIZE) > 0) {
+				mCount += mBatch.size();
+				mBatch.clear();
+			}
+		} catch (IOException e) {
+			// the records before the incomplete record are returned with the error
+			mCount += mBatch.size();
+		} finally {
+			mReader.close();
+		}
+		
+		return mCount;
+	}
+}
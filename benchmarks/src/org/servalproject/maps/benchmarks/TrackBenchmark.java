@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.benchmarks;
+
+import org.servalproject.maps.mapsforge.SimplifiedTrack;
+
+/**
+ * simplify tracks of 10,000 and 100,000 fixes for a range of zoom levels, 
+ * before the change every fix in the track was drawn at every zoom level
+ * 
+ * the mock track is a random walk, which has detail at every scale, so it simplifies less than a real track
+ */
+public class TrackBenchmark {
+	
+	private static final int[] FIX_COUNTS = {10000, 100000};
+	
+	// number of fixes appended one at a time while the map shows the track
+	private static final int APPEND_COUNT = 1000;
+	
+	private static final byte APPEND_ZOOM_LEVEL = 15;
+	
+	public static void main(String[] args) {
+		
+		// the first round warms up the JIT
+		for(int mRound = 0; mRound < 2; mRound++) {
+			for(int mFixCount : FIX_COUNTS) {
+				run(mFixCount, mRound == 1);
+			}
+		}
+	}
+	
+	private static void run(int fixCount, boolean report) {
+		
+		MockTrack mFixes = new MockTrack(fixCount + APPEND_COUNT, fixCount);
+		SimplifiedTrack mTrack = new SimplifiedTrack();
+		
+		long mStart = System.nanoTime();
+		
+		for(int i = 0; i < fixCount; i++) {
+			mTrack.append(mFixes.latitudes[i], mFixes.longitudes[i], mFixes.timestamps[i]);
+		}
+		
+		long mLoad = System.nanoTime() - mStart;
+		
+		StringBuilder mLevels = new StringBuilder();
+		
+		for(byte i = 4; i <= SimplifiedTrack.MAX_ZOOM_LEVEL; i += 3) {
+			mStart = System.nanoTime();
+			int mCount = mTrack.getVertexCount(i);
+			mLevels.append("\n  zoom " + i + ": " + mCount + " points, " + String.format("%.1f", (System.nanoTime() - mStart) / 1e6) + "ms");
+		}
+		
+		// each new fix re-simplifies the last chunk and the points kept across the whole track
+		mStart = System.nanoTime();
+		
+		for(int i = fixCount; i < fixCount + APPEND_COUNT; i++) {
+			mTrack.append(mFixes.latitudes[i], mFixes.longitudes[i], mFixes.timestamps[i]);
+			mTrack.getWayNodes(APPEND_ZOOM_LEVEL);
+		}
+		
+		long mAppend = System.nanoTime() - mStart;
+		
+		if(report == true) {
+			System.out.println(fixCount + " fixes: loaded in " + (mLoad / 1000000) + "ms" + mLevels 
+					+ "\n  append one fix and simplify for zoom " + APPEND_ZOOM_LEVEL + ": " 
+					+ String.format("%.2f", mAppend / 1e6 / APPEND_COUNT) + "ms");
+		}
+	}
+}
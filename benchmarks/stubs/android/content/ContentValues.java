@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package android.content;
+
+import java.util.HashMap;
+
+/**
+ * desktop stand in for the Android class
+ */
+public class ContentValues {
+	
+	private final HashMap<String, Object> values = new HashMap<String, Object>(8);
+	
+	public void put(String key, String value) { values.put(key, value); }
+	public void put(String key, Double value) { values.put(key, value); }
+	public void put(String key, Long value) { values.put(key, value); }
+	
+	public String getAsString(String key) { return (String) values.get(key); }
+	public Double getAsDouble(String key) { return (Double) values.get(key); }
+	public Long getAsLong(String key) { return (Long) values.get(key); }
+	
+	public boolean containsKey(String key) { return values.containsKey(key); }
+}
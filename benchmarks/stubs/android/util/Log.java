@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package android.util;
+
+/**
+ * desktop stand in for the Android class, warnings and errors are printed
+ */
+public class Log {
+	
+	public static int v(String tag, String message) { return 0; }
+	
+	public static int w(String tag, String message) { return print("W", tag, message, null); }
+	public static int w(String tag, String message, Throwable t) { return print("W", tag, message, t); }
+	
+	public static int e(String tag, String message) { return print("E", tag, message, null); }
+	public static int e(String tag, String message, Throwable t) { return print("E", tag, message, t); }
+	
+	private static int print(String level, String tag, String message, Throwable t) {
+		System.out.println(level + "/" + tag + ": " + message + (t == null ? "" : ": " + t));
+		return 0;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * desktop stand in for the Android class, with the same sorted arrays of keys and values
+ */
+public class SparseArray<E> {
+	
+	private int[] keys = new int[10];
+	private Object[] values = new Object[10];
+	private int size = 0;
+	
+	@SuppressWarnings("unchecked")
+	public E get(int key) {
+		int mIndex = Arrays.binarySearch(keys, 0, size, key);
+		return mIndex < 0 ? null : (E) values[mIndex];
+	}
+	
+	public void put(int key, E value) {
+		
+		int mIndex = Arrays.binarySearch(keys, 0, size, key);
+		
+		if(mIndex >= 0) {
+			values[mIndex] = value;
+			return;
+		}
+		
+		mIndex = -mIndex - 1;
+		
+		if(size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		
+		System.arraycopy(keys, mIndex, keys, mIndex + 1, size - mIndex);
+		System.arraycopy(values, mIndex, values, mIndex + 1, size - mIndex);
+		keys[mIndex] = key;
+		values[mIndex] = value;
+		size++;
+	}
+	
+	public int size() { return size; }
+	
+	@SuppressWarnings("unchecked")
+	public E valueAt(int index) { return (E) values[index]; }
+	
+	public void removeAt(int index) {
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		values[size] = null;
+	}
+	
+	public void clear() {
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+}
@@ -20,8 +20,8 @@
 
 package org.servalproject.maps;
 
-import org.servalproject.maps.export.BinaryAsyncTask;
-import org.servalproject.maps.export.CsvAsyncTask;
+import org.servalproject.maps.export.ExportAsyncTask;
+import org.servalproject.maps.export.ExportEngine;
 
 import android.app.Activity;
 import android.os.AsyncTask;
@@ -56,8 +56,7 @@ public class ExportActivity extends Activity implements OnClickListener, OnItemS
 	private ProgressBar progressBar;
 	private TextView progressLabel;
 	
-	private BinaryAsyncTask binaryTask = null;
-	private CsvAsyncTask csvTask = null;
+	private ExportAsyncTask exportTask = null;
 	
 	/*
 	 * (non-Javadoc)
@@ -118,15 +117,35 @@ public class ExportActivity extends Activity implements OnClickListener, OnItemS
 		// determine which button was selected
 		switch(v.getId()) {
 		case R.id.export_ui_btn_export:
-			// undertake the export
+			// determine the formats to export to
+			int mFormats;
+			
 			if(selectedFormat.equals("Serval Maps Binary File") == true) {
-				binaryTask = new BinaryAsyncTask(this, progressBar, progressLabel);
-				binaryTask.execute(selectedData);
+				mFormats = ExportEngine.FORMAT_BINARY;
+			} else if(selectedFormat.equals("CSV Text File") == true) {
+				mFormats = ExportEngine.FORMAT_CSV;
+			} else if(selectedFormat.equals("GeoJSON File") == true) {
+				mFormats = ExportEngine.FORMAT_GEOJSON;
+			} else if(selectedFormat.equals("GPX File") == true) {
+				mFormats = ExportEngine.FORMAT_GPX;
+			} else {
+				mFormats = ExportEngine.FORMAT_BINARY | ExportEngine.FORMAT_CSV;
+			}
+			
+			// determine the data to export
+			int mTables;
+			
+			if(selectedData.equals("All Data") == true) {
+				mTables = ExportEngine.TABLE_LOCATIONS | ExportEngine.TABLE_POIS;
+			} else if(selectedData.equals("All Location Records") == true) {
+				mTables = ExportEngine.TABLE_LOCATIONS;
 			} else {
-				// export in csv format
-				csvTask = new CsvAsyncTask(this, progressBar, progressLabel);
-				csvTask.execute(selectedData);
+				mTables = ExportEngine.TABLE_POIS;
 			}
+			
+			// undertake the export
+			exportTask = new ExportAsyncTask(this, progressBar, progressLabel, mTables, mFormats);
+			exportTask.execute();
 			Log.v(TAG, "selectedFormat: " + selectedFormat);
 			Log.v(TAG, "selectedData:   " + selectedData);
 			break;
@@ -141,15 +160,9 @@ public class ExportActivity extends Activity implements OnClickListener, OnItemS
 	 */
 	@Override
 	public void onDestroy() {
-		if(binaryTask != null) {
-			if(binaryTask.getStatus() != AsyncTask.Status.FINISHED) {
-				binaryTask.cancel(true);
-			}
-		}
-		
-		if(csvTask != null) {
-			if(csvTask.getStatus() != AsyncTask.Status.FINISHED) {
-				csvTask.cancel(true);
+		if(exportTask != null) {
+			if(exportTask.getStatus() != AsyncTask.Status.FINISHED) {
+				exportTask.cancel(true);
 			}
 		}
 		
@@ -20,18 +20,22 @@
 package org.servalproject.maps;
 
 import java.io.File;
-import java.util.ArrayList;
 
 import org.mapsforge.android.maps.overlay.ArrayWayOverlay;
 import org.mapsforge.core.GeoPoint;
 import org.mapsforge.android.maps.overlay.ItemizedOverlay;
 import org.mapsforge.android.maps.MapView;
+import org.mapsforge.android.maps.Projection;
 import org.mapsforge.android.maps.overlay.OverlayWay;
 import org.servalproject.maps.location.LocationCollector;
+import org.servalproject.maps.mapsforge.MapUtils;
+import org.servalproject.maps.mapsforge.MarkerClusterer;
 import org.servalproject.maps.mapsforge.NewPoiOverlay;
-import org.servalproject.maps.mapsforge.OverlayItem;
 import org.servalproject.maps.mapsforge.OverlayItems;
 import org.servalproject.maps.mapsforge.OverlayList;
+import org.servalproject.maps.mapsforge.OverlaySnapshot;
+import org.servalproject.maps.mapsforge.SimplifiedTrack;
+import org.servalproject.maps.mapsforge.ViewportOverlay;
 import org.servalproject.maps.provider.LocationsContract;
 import org.servalproject.maps.provider.PointsOfInterestContract;
 import org.servalproject.maps.utils.FileUtils;
@@ -39,13 +43,17 @@ import org.servalproject.maps.utils.FileUtils;
 import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Menu;
@@ -68,6 +76,15 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	private final boolean V_LOG = false;
 	private final String  TAG = "MapActivity";
 	
+	// extra area around the visible map to include in queries, as a fraction of the visible span on each side
+	private final double VIEWPORT_MARGIN = 0.5;
+	
+	// minimum number of milliseconds between updates caused by changes in the data, so a burst of changes causes a single update
+	private final int MIN_UPDATE_INTERVAL = 250;
+	
+	// number of milliseconds between updates when polling is turned off, so that old markers are still removed
+	private final int IDLE_UPDATE_DELAY = 5 * 60 * 1000;
+	
 	/*
 	 * private class level variables
 	 */
@@ -76,9 +93,14 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	
 	private Handler updateHandler = new Handler();
 	
+	// thread used to query for map data away from the ui thread
+	private HandlerThread loaderThread;
+	private Handler loaderHandler;
+	
 	// number of seconds to delay between map updates
 	private int defaultUpdateDelay = 10 * 1000;
 	private volatile int updateDelay = defaultUpdateDelay;
+	private volatile boolean pollingEnabled = false;
 	private volatile boolean keepCentered = false;
 	
 	private long defaultPoiMaxAge = 43200 * 1000;
@@ -99,11 +121,43 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	private MapView mapView;
 	private ArrayWayOverlay arrayWayOverlay = null;
 	
+	// the way drawn on the way overlay, and the simplified nodes it was given
+	private OverlayWay trackWay = null;
+	private GeoPoint[][] trackNodes = null;
+	
+	// the users gps track, only used on the loader thread
+	private SimplifiedTrack track = null;
+	private long trackMaxAge = 0;
+	private int trackLastId = -1;
+	
+	// groups markers into clusters, only used on the loader thread
+	private MarkerClusterer markerClusterer = new MarkerClusterer();
+	private int clusterGeneration = 0;
+	
 	// phone number and sid
 	private String meshPhoneNumber = null;
 	
-	// check to know if a map update is running
-	private volatile boolean updateRunning = false;
+	// incremented each time a map update starts so that stale updates can be cancelled
+	private volatile int updateGeneration = 0;
+	
+	// the generation of the update that is shown on the map
+	private int appliedGeneration = 0;
+	
+	// check to know if a map update has been requested but not yet run
+	private boolean updatePending = false;
+	private long lastUpdateTime = 0;
+	
+	// the map is still drawn while the activity is paused, but isn't updated
+	private boolean resumed = false;
+	
+	// the area and zoom level used in the most recent update
+	private double[] lastMapBounds = null;
+	private byte lastZoomLevel = -1;
+	
+	// state used to only query for new POIs where possible
+	private double[] lastPoiBounds = null;
+	private long lastPoiMaxAge = -1;
+	private int lastPoiId = -1;
 	
 	
 	/*
@@ -153,6 +207,14 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
         // add the long press detecting overlay for adding new POIs
         mapView.getOverlays().add(new NewPoiOverlay(this));
         
+        // check the area last queried each time the map is moved or zoomed
+        mapView.getOverlays().add(new ViewportOverlay(updateHandler, viewportCheckTask));
+        
+        // start the thread used to load map data
+        loaderThread = new HandlerThread("MapLoader", Process.THREAD_PRIORITY_BACKGROUND);
+        loaderThread.start();
+        loaderHandler = new Handler(loaderThread.getLooper());
+        
         // get the preferences
      	preferences = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
      	
@@ -165,6 +227,9 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
  			updateDelay = Integer.parseInt(mPreference);
  		}
  		
+ 		// determine if the map should also update on a fixed interval
+ 		pollingEnabled = preferences.getBoolean("preferences_map_update_polling", false);
+ 		
  		// get the max poi and location age preferences
  		mPreference = preferences.getString("preferences_map_max_poi_age", null);
 		if(mPreference != null) {
@@ -201,9 +266,6 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
      	meshPhoneNumber = mApplication.getPhoneNumber();
      	mApplication = null;
      	
-		// update the map without delay
-		updateHandler.post(updateMapTask);
-		
 		if(V_LOG) {
 			Log.v(TAG, "activity created");
 		}
@@ -236,6 +298,16 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 					Log.v(TAG, "new map update delay is '" + updateDelay + "'");
 				}
 				
+			} else if(key.equals("preferences_map_update_polling") == true) {
+				pollingEnabled = preferences.getBoolean("preferences_map_update_polling", false);
+				
+				if(V_LOG) {
+					if(pollingEnabled) {
+						Log.v(TAG, "map will update on a fixed interval as well as when data changes");
+					} else {
+						Log.v(TAG, "map will only update when data changes");
+					}
+				}
 			} else if(key.equals("preferences_map_follow") == true) {
 				keepCentered = preferences.getBoolean("preferences_category_map", false);
 				
@@ -287,6 +359,10 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 		 			arrayWayOverlay = null;
 		 		}
 				
+				trackWay = null;
+				trackNodes = null;
+				requestUpdate();
+				
 			}
 			
 			
@@ -370,6 +446,11 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 		
 		// stop the handle / runnable looping action
 		updateHandler.removeCallbacks(updateMapTask);
+		updateHandler.removeCallbacks(viewportCheckTask);
+		
+		// cancel any update that is loading and stop the loader thread
+		updateGeneration++;
+		loaderThread.quit();
 		
 		super.onDestroy();
 		
@@ -386,8 +467,18 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	@Override
 	public void onPause() {
 		
+		// stop listening for changes in the data
+		getContentResolver().unregisterContentObserver(dataObserver);
+		
 		// stop the updating of the map
 		updateHandler.removeCallbacks(updateMapTask);
+		updateHandler.removeCallbacks(viewportCheckTask);
+		updatePending = false;
+		resumed = false;
+		
+		// cancel any update that is loading
+		updateGeneration++;
+		loaderHandler.removeCallbacksAndMessages(null);
 		
 		super.onPause();
 	}
@@ -398,8 +489,16 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	 */
 	public void onResume() {
 		
+		// new POIs may have arrived while paused so start with a full query
+		lastPoiId = -1;
+		
+		// listen for changes in the data
+		getContentResolver().registerContentObserver(LocationsContract.CONTENT_URI, true, dataObserver);
+		getContentResolver().registerContentObserver(PointsOfInterestContract.CONTENT_URI, true, dataObserver);
+		
 		// restart the updating of the map
-		updateHandler.post(updateMapTask);
+		resumed = true;
+		requestUpdate();
 		
 		super.onResume();
 	}
@@ -417,7 +516,106 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 	 *  methods and variables used to update the map
 	 */
 	
-	// task used to update the map ui with new markers
+	// get the area of the visible map plus a margin as min lat, min lng, max lat, max lng or null if not known
+	private double[] getMapBounds(double margin) {
+		
+		if(mapView.getMapPosition().isValid() == false || mapView.getWidth() == 0 || mapView.getHeight() == 0) {
+			return null;
+		}
+		
+		GeoPoint mCentre = mapView.getMapPosition().getMapCenter();
+		Projection mProjection = mapView.getProjection();
+		
+		double mLatitudeDelta = MapUtils.microDegreesToDegrees(mProjection.getLatitudeSpan()) * (0.5 + margin);
+		double mLongitudeDelta = MapUtils.microDegreesToDegrees(mProjection.getLongitudeSpan()) * (0.5 + margin);
+		
+		double[] mBounds = new double[4];
+		mBounds[0] = mCentre.getLatitude() - mLatitudeDelta;
+		mBounds[1] = mCentre.getLongitude() - mLongitudeDelta;
+		mBounds[2] = mCentre.getLatitude() + mLatitudeDelta;
+		mBounds[3] = mCentre.getLongitude() + mLongitudeDelta;
+		
+		return mBounds;
+	}
+	
+	// check to see if the inner bounding box is inside the outer bounding box
+	private boolean isInside(double[] inner, double[] outer) {
+		
+		if(inner == null || outer == null) {
+			return inner == outer;
+		}
+		
+		return inner[0] >= outer[0] && inner[1] >= outer[1] && inner[2] <= outer[2] && inner[3] <= outer[3];
+	}
+	
+	// schedule a map update, coalescing requests that arrive close together
+	private void requestUpdate() {
+		
+		if(updatePending) {
+			// an update is already on the way
+			return;
+		}
+		
+		updatePending = true;
+		
+		long mDelay = lastUpdateTime + MIN_UPDATE_INTERVAL - System.currentTimeMillis();
+		
+		if(mDelay < 0) {
+			mDelay = 0;
+		}
+		
+		// replace any scheduled fallback update with this one
+		updateHandler.removeCallbacks(updateMapTask);
+		updateHandler.postDelayed(updateMapTask, mDelay);
+	}
+	
+	// observer used to update the map when locations or POIs change
+	private ContentObserver dataObserver = new ContentObserver(updateHandler) {
+		
+		/*
+		 * (non-Javadoc)
+		 * @see android.database.ContentObserver#onChange(boolean)
+		 */
+		@Override
+		public void onChange(boolean selfChange) {
+			if(V_LOG) {
+				Log.v(TAG, "change in map data detected");
+			}
+			
+			requestUpdate();
+		}
+	};
+	
+	// task used to update the map when it is moved outside of the area last queried or zoomed, 
+	// run by the viewport overlay each time the map is redrawn after it has moved
+	private Runnable viewportCheckTask = new Runnable() {
+		
+		public void run() {
+			
+			if(resumed == false) {
+				return;
+			}
+			
+			double[] mVisible = getMapBounds(0);
+			
+			if(mVisible != null && lastMapBounds != null && isInside(mVisible, lastMapBounds) == false) {
+				if(V_LOG) {
+					Log.v(TAG, "map moved outside of the area last queried");
+				}
+				
+				requestUpdate();
+			} else if(mVisible != null && mapView.getMapPosition().getZoomLevel() != lastZoomLevel) {
+				if(V_LOG) {
+					Log.v(TAG, "map zoom level changed");
+				}
+				
+				// the track is simplified for each zoom level
+				requestUpdate();
+			}
+		}
+	};
+	
+	// task used to start an update of the map ui with new markers
 	private Runnable updateMapTask = new Runnable() {
 		
 		public void run() {
@@ -425,26 +623,191 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 				Log.v(TAG, "update map task running");
 			}
 			
-			if(updateRunning) {
-				// an update is already running so just return
+			updatePending = false;
+			lastUpdateTime = System.currentTimeMillis();
+			
+			// the area to query depends on the map view so is determined on the ui thread
+			double[] mBounds = getMapBounds(VIEWPORT_MARGIN);
+			lastMapBounds = mBounds;
+			lastZoomLevel = mapView.getMapPosition().getZoomLevel();
+			
+			// only new POIs need to be queried if the map is still inside the area covered by the last full query
+			boolean mPoiDelta = lastPoiId != -1 && lastPoiMaxAge == poiMaxAge && isInside(mBounds, lastPoiBounds);
+			
+			// any update that is still loading is now stale
+			updateGeneration++;
+			loaderHandler.removeCallbacksAndMessages(null);
+			
+			if(mPoiDelta) {
+				loaderHandler.post(new MapLoadTask(updateGeneration, mBounds, lastPoiBounds, lastPoiId));
+			} else {
+				loaderHandler.post(new MapLoadTask(updateGeneration, mBounds, mBounds, -1));
+			}
+		}
+	};
+	
+	// apply a loaded snapshot to the map, called on the ui thread
+	private void applyUpdate(MapLoadTask task, OverlaySnapshot snapshot) {
+		
+		if(task.generation != updateGeneration) {
+			// a newer update has started so ignore this one
+			if(V_LOG) {
+				Log.v(TAG, "discarding stale map update");
+			}
+			return;
+		}
+		
+		// swap in the new markers, the overlay is only redrawn if something changed
+		overlayList.applySnapshot(snapshot, selfLocationMarker, peerLocationMarker, poiLocationMarker);
+		appliedGeneration = task.generation;
+		
+		// remember what the POI query covered so the next query can be a delta query
+		lastPoiBounds = task.poiBounds;
+		lastPoiMaxAge = task.poiMaxAge;
+		lastPoiId = task.lastPoiId;
+		
+		// recenter the map if required
+		if(keepCentered && snapshot.getSelfLocation() != null) {
+			mapView.getController().setCenter(new GeoPoint(snapshot.getSelfLocation().latitude, snapshot.getSelfLocation().longitude));
+			if(V_LOG) {
+				Log.v(TAG, "map was recentered");
+			}
+		}
+		
+		// update the gps track overlay if it has changed
+		if(arrayWayOverlay != null && snapshot.getTrack() != trackNodes) {
+			
+			trackNodes = snapshot.getTrack();
+			
+			if(trackNodes == null) {
+				arrayWayOverlay.clear();
+				trackWay = null;
+			} else if(trackWay == null) {
+				trackWay = new OverlayWay(trackNodes);
+				arrayWayOverlay.addWay(trackWay);
+			} else {
+				trackWay.setWayNodes(trackNodes);
+			}
+			
+			arrayWayOverlay.requestRedraw();
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, "map update took " + (System.currentTimeMillis() - task.startTime) + "ms" 
+					+ " added: " + overlayList.getAddedCount() 
+					+ " moved: " + overlayList.getMovedCount() 
+					+ " removed: " + overlayList.getRemovedCount());
+		}
+		
+		// add the task back onto the queue as a fallback to the data observer
+		if(updatePending == false) {
+			if(pollingEnabled) {
+				updateHandler.postDelayed(updateMapTask, updateDelay);
+			} else {
+				updateHandler.postDelayed(updateMapTask, IDLE_UPDATE_DELAY);
+			}
+		}
+	}
+	
+	/*
+	 * task used to query for the map data on the loader thread,
+	 * all of the settings are copied when the task is created so they don't change while it runs
+	 */
+	private class MapLoadTask implements Runnable {
+		
+		// settings for this update
+		private final int generation;
+		private final int baseGeneration = appliedGeneration;
+		private final long startTime = System.currentTimeMillis();
+		private final double[] mapBounds;
+		private double[] poiBounds;
+		private final long poiMaxAge = MapActivity.this.poiMaxAge;
+		private final long locationMaxAge = MapActivity.this.locationMaxAge;
+		private final boolean keepCentered = MapActivity.this.keepCentered;
+		private final boolean showTrack = arrayWayOverlay != null;
+		private final byte zoomLevel = mapView.getMapPosition().getZoomLevel();
+		private final String phoneNumber = meshPhoneNumber;
+		
+		// the id of the newest POI queried, starts with the id of the newest POI already shown
+		private int lastPoiId;
+		
+		private MapLoadTask(int generation, double[] mapBounds, double[] poiBounds, int lastPoiId) {
+			this.generation = generation;
+			this.mapBounds = mapBounds;
+			this.poiBounds = poiBounds;
+			this.lastPoiId = lastPoiId;
+		}
+		
+		// check to see if a newer update has started, or the activity has paused
+		private boolean isCancelled() {
+			return generation != updateGeneration;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			
+			final OverlaySnapshot mSnapshot = load();
+			
+			if(mSnapshot == null) {
+				if(V_LOG) {
+					Log.v(TAG, "map update cancelled");
+				}
 				return;
 			}
 			
-			// indicate the map update is underway
-			updateRunning = true;
+			// hand the snapshot to the ui thread
+			updateHandler.post(new Runnable() {
+				public void run() {
+					applyUpdate(MapLoadTask.this, mSnapshot);
+				}
+			});
+		}
+		
+		// query for the map data, returns null if the update is cancelled or fails
+		private OverlaySnapshot load() {
+			
+			OverlaySnapshot mSnapshot = new OverlaySnapshot();
+			
+			// the clusterer keeps the POIs from the last update that it grouped,
+			// so only query for new POIs if that update is the one shown on the map
+			if(lastPoiId != -1 && clusterGeneration != baseGeneration) {
+				lastPoiId = -1;
+				poiBounds = mapBounds;
+			}
 			
 			// resolve the content uri
 			ContentResolver mContentResolver = getApplicationContext().getContentResolver();
 			
+			// only ask for items in and around the visible part of the map
+			Uri mLocationUri = LocationsContract.LATEST_CONTENT_URI;
+			Uri mPoiUri = PointsOfInterestContract.CONTENT_URI;
+			
+			if(poiBounds != null) {
+				mPoiUri = PointsOfInterestContract.buildBoundingBoxUri(poiBounds[0], poiBounds[1], poiBounds[2], poiBounds[3]);
+			}
+			
+			// the users own location is needed to keep the map centered even when it is off screen
+			if(mapBounds != null && keepCentered == false) {
+				mLocationUri = LocationsContract.buildLatestBoundingBoxUri(mapBounds[0], mapBounds[1], mapBounds[2], mapBounds[3]);
+			}
+			
 			// get the location marker content
-			Cursor mCursor = mContentResolver.query(LocationsContract.LATEST_CONTENT_URI, null, null, null, null);
+			String[] mProjection = new String[5];
+			mProjection[0] = LocationsContract.Table._ID;
+			mProjection[1] = LocationsContract.Table.PHONE_NUMBER;
+			mProjection[2] = LocationsContract.Table.LATITUDE;
+			mProjection[3] = LocationsContract.Table.LONGITUDE;
+			mProjection[4] = LocationsContract.Table.TIMESTAMP;
 			
-			// store the list of items
-			ArrayList<OverlayItem> mItems = new ArrayList<OverlayItem>();
+			Cursor mCursor = mContentResolver.query(mLocationUri, mProjection, null, null, null);
 			
 			if(mCursor == null) {
 				Log.i(TAG, "a null cursor was returned when looking up location info");
-				return;
+				return null;
 			}
 			
 			if(V_LOG) {
@@ -453,80 +816,97 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 			
 			if(mCursor.getCount() > 0) {
 				// process the location records
-				GeoPoint mGeoPoint;
+				int mIdColumn = mCursor.getColumnIndex(LocationsContract.Table._ID);
+				int mPhoneColumn = mCursor.getColumnIndex(LocationsContract.Table.PHONE_NUMBER);
+				int mLatitudeColumn = mCursor.getColumnIndex(LocationsContract.Table.LATITUDE);
+				int mLongitudeColumn = mCursor.getColumnIndex(LocationsContract.Table.LONGITUDE);
+				int mTimestampColumn = mCursor.getColumnIndex(LocationsContract.Table.TIMESTAMP);
+				
 				String mPhoneNumber;
-				OverlayItem mOverlayItem;
-				long mLocationAge;
+				long mTimestamp;
 				long mCompareTime = System.currentTimeMillis() - locationMaxAge;
 				
 				while(mCursor.moveToNext()) {
 					
+					if(isCancelled()) {
+						mCursor.close();
+						return null;
+					}
+					
+					mTimestamp = mCursor.getLong(mTimestampColumn);
+					
 					// check on the age of the info if required
 					if(locationMaxAge != -1000) {
-						mLocationAge = mCursor.getLong(mCursor.getColumnIndex(LocationsContract.Table.TIMESTAMP));
-						
-						if(mLocationAge < mCompareTime) {
+						if(mTimestamp < mCompareTime) {
 							// skip this record
 							continue;
 						}
 					}
-
-					// get the basic information
-					mPhoneNumber = mCursor.getString(mCursor.getColumnIndex(LocationsContract.Table.PHONE_NUMBER));
 					
-					// get the geographic coordinates
-					mGeoPoint = new GeoPoint(mCursor.getDouble(mCursor.getColumnIndex(LocationsContract.Table.LATITUDE)), mCursor.getDouble(mCursor.getColumnIndex(LocationsContract.Table.LONGITUDE)));
+					mPhoneNumber = mCursor.getString(mPhoneColumn);
 					
 					// determine what type of marker to create
-					if(mPhoneNumber.equals(meshPhoneNumber) == true) {
-						// this is a self marker
-						mOverlayItem = new OverlayItem(mGeoPoint, null, null, selfLocationMarker);
-						mOverlayItem.setType(OverlayItems.SELF_LOCATION_ITEM);
-						mOverlayItem.setRecordId(mCursor.getInt(mCursor.getColumnIndex(LocationsContract.Table._ID)));
-						
-						// recenter the map if required
-						if(keepCentered) {
-							mapView.getController().setCenter(mGeoPoint);
-							if(V_LOG) {
-								Log.v(TAG, "map was recentered");
-							}
-						}
+					if(mPhoneNumber.equals(phoneNumber) == true) {
+						mSnapshot.addLocation(
+								OverlayItems.SELF_LOCATION_ITEM, 
+								mCursor.getInt(mIdColumn), 
+								mPhoneNumber, 
+								mCursor.getDouble(mLatitudeColumn), 
+								mCursor.getDouble(mLongitudeColumn), 
+								mTimestamp);
 					} else {
-						// this is a peer marker
-						mOverlayItem = new OverlayItem(mGeoPoint, null, null, peerLocationMarker);
-						mOverlayItem.setType(OverlayItems.PEER_LOCATION_ITEM);
-						mOverlayItem.setRecordId(mCursor.getInt(mCursor.getColumnIndex(LocationsContract.Table._ID)));
-
+						mSnapshot.addLocation(
+								OverlayItems.PEER_LOCATION_ITEM, 
+								mCursor.getInt(mIdColumn), 
+								mPhoneNumber, 
+								mCursor.getDouble(mLatitudeColumn), 
+								mCursor.getDouble(mLongitudeColumn), 
+								mTimestamp);
 					}
-					
-					mItems.add(mOverlayItem);
-					
 				}
-				
 			}
 			
 			// play nice and tidy up
 			mCursor.close();
 			
+			if(isCancelled()) {
+				return null;
+			}
+			
 			// get the POI content
-			String[] mProjection = new String[3];
+			mProjection = new String[4];
 			mProjection[0] = PointsOfInterestContract.Table._ID;
 			mProjection[1] = PointsOfInterestContract.Table.LATITUDE;
 			mProjection[2] = PointsOfInterestContract.Table.LONGITUDE;
+			mProjection[3] = PointsOfInterestContract.Table.TIMESTAMP;
 			
 			// determine if we need to restrict the list of POIs
 			String mSelection = null;
 			String[] mSelectionArgs = null;
+			long mPoiCompareTime = Long.MIN_VALUE;
 			
 			// restrict the poi content returned if required
 			if(poiMaxAge != -1000) {
+				mPoiCompareTime = System.currentTimeMillis() - poiMaxAge;
 				mSelection = PointsOfInterestContract.Table.TIMESTAMP + " > ? ";
 				mSelectionArgs = new String[1];
-				mSelectionArgs[0] = Long.toString(System.currentTimeMillis() - poiMaxAge);
+				mSelectionArgs[0] = Long.toString(mPoiCompareTime);
+			}
+			
+			// only get the POIs added since the last query if possible
+			if(lastPoiId != -1) {
+				if(mSelection == null) {
+					mSelection = PointsOfInterestContract.Table._ID + " > " + lastPoiId;
+				} else {
+					mSelection += " AND " + PointsOfInterestContract.Table._ID + " > " + lastPoiId;
+				}
+				
+				// existing POIs stay unless they have become too old
+				mSnapshot.setPoiDelta(mPoiCompareTime + 1);
 			}
 			
 			mCursor = mContentResolver.query(
-					PointsOfInterestContract.CONTENT_URI, 
+					mPoiUri, 
 					mProjection, 
 					mSelection, 
 					mSelectionArgs,
@@ -534,111 +914,186 @@ public class MapActivity extends org.mapsforge.android.maps.MapActivity {
 			
 			if(mCursor == null) {
 				Log.i(TAG, "a null cursor was returned when looking up POI info");
-				return;
+				return null;
 			}
 			
 			if(V_LOG) {
-				Log.v(TAG, "rows in POI cursor: " + mCursor.getCount());
+				Log.v(TAG, "rows in POI cursor: " + mCursor.getCount() + " delta query: " + mSnapshot.isPoiDelta());
 			}
 			
 			// process the list of poi records
 			if(mCursor.getCount() > 0) {
-				// process the location records
-				GeoPoint mGeoPoint;
-				OverlayItem mOverlayItem;
+				int mIdColumn = mCursor.getColumnIndex(PointsOfInterestContract.Table._ID);
+				int mLatitudeColumn = mCursor.getColumnIndex(PointsOfInterestContract.Table.LATITUDE);
+				int mLongitudeColumn = mCursor.getColumnIndex(PointsOfInterestContract.Table.LONGITUDE);
+				int mTimestampColumn = mCursor.getColumnIndex(PointsOfInterestContract.Table.TIMESTAMP);
+				
+				int mRecordId;
 				
 				while(mCursor.moveToNext()) {
 					
-					// get the geographic coordinates
-					mGeoPoint = new GeoPoint(mCursor.getDouble(mCursor.getColumnIndex(PointsOfInterestContract.Table.LATITUDE)), mCursor.getDouble(mCursor.getColumnIndex(PointsOfInterestContract.Table.LONGITUDE)));
+					if(isCancelled()) {
+						mCursor.close();
+						return null;
+					}
+					
+					mRecordId = mCursor.getInt(mIdColumn);
 					
-					mOverlayItem = new OverlayItem(mGeoPoint, null, null, poiLocationMarker);
-					mOverlayItem.setType(OverlayItems.POI_ITEM);
-					mOverlayItem.setRecordId(mCursor.getInt(mCursor.getColumnIndex(PointsOfInterestContract.Table._ID)));
+					mSnapshot.addPoi(
+							mRecordId, 
+							mCursor.getDouble(mLatitudeColumn), 
+							mCursor.getDouble(mLongitudeColumn), 
+							mCursor.getLong(mTimestampColumn));
 					
-					mItems.add(mOverlayItem);
+					if(mRecordId > lastPoiId) {
+						lastPoiId = mRecordId;
+					}
 				}
 			}
 			
+			// make sure the next query can be a delta query even if there are no POIs
+			if(lastPoiId == -1) {
+				lastPoiId = 0;
+			}
+			
 			// play nice and tidy up
 			mCursor.close();
 			
-			// build the gps track overlay if required
-			if(arrayWayOverlay != null) {
-				
-				// determine which fields to return
-				mProjection = new String[2];
-				mProjection[0] = LocationsContract.Table.LATITUDE;
-				mProjection[1] = LocationsContract.Table.LONGITUDE;
+			// add any new points to the gps track if required
+			if(showTrack && phoneNumber != null) {
 				
-				// check if we need to take into account the age of the information
-				if(locationMaxAge != -1000) {
+				if(isCancelled()) {
+					return null;
+				}
 				
-					mSelection = LocationsContract.Table.PHONE_NUMBER + " = ? AND "
-							+ LocationsContract.Table.TIMESTAMP + " > ?";
-					
-					mSelectionArgs = new String[2];
-					mSelectionArgs[0] = meshPhoneNumber;
-					mSelectionArgs[1] = Long.toString(System.currentTimeMillis() - locationMaxAge);
-				} else {
-					
-					mSelection = LocationsContract.Table.PHONE_NUMBER + " = ?";
-					
-					mSelectionArgs = new String[1];
-					mSelectionArgs[0] = meshPhoneNumber;
+				if(loadTrack(mContentResolver, mSnapshot) == false) {
+					return null;
 				}
+			} else {
+				// free the memory used by the track
+				track = null;
+			}
+			
+			// group markers that are close together
+			long mStart = System.currentTimeMillis();
+			
+			OverlaySnapshot mClustered = markerClusterer.cluster(mSnapshot, zoomLevel);
+			clusterGeneration = generation;
+			
+			if(V_LOG) {
+				Log.v(TAG, "clustering " + markerClusterer.size() + " markers into " 
+						+ (mClustered.getLocations().size() + mClustered.getPois().size() + mClustered.getClusters().size()) 
+						+ " took " + (System.currentTimeMillis() - mStart) + "ms");
+			}
+			
+			return mClustered;
+		}
+		
+		// add any new points to the gps track, returns false if the update is cancelled or fails
+		private boolean loadTrack(ContentResolver contentResolver, OverlaySnapshot snapshot) {
+			
+			// start again if the maximum age has changed as older points may be needed
+			if(track == null || trackMaxAge != locationMaxAge) {
+				track = new SimplifiedTrack();
+				trackMaxAge = locationMaxAge;
+				trackLastId = -1;
+			}
+			
+			// determine which fields to return
+			String[] mProjection = new String[4];
+			mProjection[0] = LocationsContract.Table._ID;
+			mProjection[1] = LocationsContract.Table.LATITUDE;
+			mProjection[2] = LocationsContract.Table.LONGITUDE;
+			mProjection[3] = LocationsContract.Table.TIMESTAMP;
+			
+			String mSelection;
+			String[] mSelectionArgs;
+			
+			// only get the points added since the last update
+			// and check if we need to take into account the age of the information
+			if(locationMaxAge != -1000) {
+			
+				mSelection = LocationsContract.Table.PHONE_NUMBER + " = ? AND "
+						+ LocationsContract.Table._ID + " > ? AND "
+						+ LocationsContract.Table.TIMESTAMP + " > ?";
 				
-				// get the data
-				mCursor = mContentResolver.query(
-						LocationsContract.CONTENT_URI, 
-						mProjection, 
-						mSelection,
-						mSelectionArgs,
-						LocationsContract.Table.TIMESTAMP);
+				mSelectionArgs = new String[3];
+				mSelectionArgs[0] = phoneNumber;
+				mSelectionArgs[1] = Integer.toString(trackLastId);
+				mSelectionArgs[2] = Long.toString(System.currentTimeMillis() - locationMaxAge);
+			} else {
 				
-				if(mCursor.getCount() > 0) {
-					if(V_LOG) {
-						Log.v(TAG, "gps track contains: '" + mCursor.getCount() + "' points");
-					}
-					
-					// declare array to hold our list of points
-					GeoPoint[][] mWayPoints = new GeoPoint[1][mCursor.getCount()];
-					int mCount = 0;
-					GeoPoint mGeoPoint;
-					
-					// populate the array
-					while(mCursor.moveToNext()) {
-						mGeoPoint = new GeoPoint(mCursor.getDouble(mCursor.getColumnIndex(LocationsContract.Table.LATITUDE)), mCursor.getDouble(mCursor.getColumnIndex(LocationsContract.Table.LONGITUDE)));
-						mWayPoints[0][mCount] = mGeoPoint;
-						mCount++;
-					}
-					
-					// play nice and tidy up
+				mSelection = LocationsContract.Table.PHONE_NUMBER + " = ? AND "
+						+ LocationsContract.Table._ID + " > ?";
+				
+				mSelectionArgs = new String[2];
+				mSelectionArgs[0] = phoneNumber;
+				mSelectionArgs[1] = Integer.toString(trackLastId);
+			}
+			
+			// get the data
+			Cursor mCursor = contentResolver.query(
+					LocationsContract.CONTENT_URI, 
+					mProjection, 
+					mSelection,
+					mSelectionArgs,
+					LocationsContract.Table.TIMESTAMP);
+			
+			if(mCursor == null) {
+				Log.i(TAG, "a null cursor was returned when looking up the gps track");
+				return false;
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "new gps track points: '" + mCursor.getCount() + "'");
+			}
+			
+			int mIdColumn = mCursor.getColumnIndex(LocationsContract.Table._ID);
+			int mLatitudeColumn = mCursor.getColumnIndex(LocationsContract.Table.LATITUDE);
+			int mLongitudeColumn = mCursor.getColumnIndex(LocationsContract.Table.LONGITUDE);
+			int mTimestampColumn = mCursor.getColumnIndex(LocationsContract.Table.TIMESTAMP);
+			
+			// add the new points to the end of the track
+			while(mCursor.moveToNext()) {
+				
+				if(isCancelled()) {
+					// the points already added are kept for the next update
 					mCursor.close();
-					
-					OverlayWay mOverlayWay = new OverlayWay(mWayPoints, null, null);
-					
-					// update the overlay
-					arrayWayOverlay.clear();
-					arrayWayOverlay.addWay(mOverlayWay);
+					return false;
+				}
+				
+				if(track.append(mCursor.getDouble(mLatitudeColumn), mCursor.getDouble(mLongitudeColumn), mCursor.getLong(mTimestampColumn)) == false) {
+					// a point older than the end of the track has arrived so load the whole track again
+					mCursor.close();
+					track = null;
+					return loadTrack(contentResolver, snapshot);
 				}
 				
+				trackLastId = Math.max(trackLastId, mCursor.getInt(mIdColumn));
 			}
 			
-			// update and redraw the overlay
-			overlayList.clear();
-			overlayList.addItems(mItems);
-			overlayList.requestRedraw();
+			// play nice and tidy up
+			mCursor.close();
 			
-			if(arrayWayOverlay != null) {
-				arrayWayOverlay.requestRedraw();
+			// remove the points that are now too old
+			if(locationMaxAge != -1000) {
+				track.removeBefore(System.currentTimeMillis() - locationMaxAge + 1);
 			}
 			
-			// indicate that a map update is finished
-			updateRunning = false;
+			snapshot.setTrack(track.getWayNodes(zoomLevel));
 			
-			// add the task back onto the queue
-			updateHandler.postDelayed(updateMapTask, updateDelay);
+			if(V_LOG) {
+				// report on how well the track is simplified at a range of zoom levels
+				long mStart;
+				
+				for(byte i = 4; i <= SimplifiedTrack.MAX_ZOOM_LEVEL; i += 3) {
+					mStart = System.currentTimeMillis();
+					Log.v(TAG, "gps track at zoom level " + i + " has " + track.getVertexCount(i) 
+							+ " of " + track.size() + " points, took " + (System.currentTimeMillis() - mStart) + "ms");
+				}
+			}
+			
+			return true;
 		}
-	};	
+	}
 }
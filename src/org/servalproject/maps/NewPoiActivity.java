@@ -331,12 +331,15 @@ public class NewPoiActivity extends Activity implements OnClickListener{
 			return false;
 		}
 		
+		// the timestamp is part of the hash so that POIs with the same details are kept apart
+		long mTimestamp = System.currentTimeMillis();
+		
 		// add rest of the fields
 		mValues.put(PointsOfInterestContract.Table.PHONE_NUMBER, phoneNumber);
 		mValues.put(PointsOfInterestContract.Table.SUBSCRIBER_ID, subscriberId);
 		mValues.put(PointsOfInterestContract.Table.LATITUDE, latitude);
 		mValues.put(PointsOfInterestContract.Table.LONGITUDE, longitude);
-		mValues.put(PointsOfInterestContract.Table.TIMESTAMP, System.currentTimeMillis());
+		mValues.put(PointsOfInterestContract.Table.TIMESTAMP, mTimestamp);
 		mValues.put(PointsOfInterestContract.Table.TIMEZONE, TimeZone.getDefault().getID());
 		mValues.put(PointsOfInterestContract.Table.TITLE, title);
 		mValues.put(PointsOfInterestContract.Table.DESCRIPTION, description);
@@ -349,6 +352,7 @@ public class NewPoiActivity extends Activity implements OnClickListener{
 					phoneNumber, 
 					latitude, 
 					longitude, 
+					mTimestamp, 
 					title, 
 					description);
 			
@@ -370,7 +374,14 @@ public class NewPoiActivity extends Activity implements OnClickListener{
 		try {
 			Uri newRecord = getContentResolver().insert(PointsOfInterestContract.CONTENT_URI, mValues);
 			
-			BinaryFileWriter.writePointOfInterest(this, newRecord.getLastPathSegment());
+			// a null uri means the record is already in the database
+			if(newRecord == null) {
+				Log.e(TAG, "the new POI record is a duplicate of an existing record");
+				Toast.makeText(this, R.string.new_poi_toast_save_error, Toast.LENGTH_SHORT).show();
+				return false;
+			}
+			
+			BinaryFileWriter.writePointOfInterest(this, mValues);
 			if(V_LOG) {
 				Log.v(TAG, "new POI record created with id: " + newRecord.getLastPathSegment());
 			}
@@ -20,15 +20,12 @@
 package org.servalproject.maps;
 
 import java.io.File;
-import java.io.IOException;
 import java.text.DecimalFormat;
 
 import org.servalproject.maps.location.LocationCollector;
+import org.servalproject.maps.photos.PhotoLoader;
 import org.servalproject.maps.provider.PointsOfInterestContract;
-import org.servalproject.maps.rhizome.Rhizome;
-import org.servalproject.maps.utils.FileUtils;
 import org.servalproject.maps.utils.GeoUtils;
-import org.servalproject.maps.utils.MediaUtils;
 import org.servalproject.maps.utils.TimeUtils;
 
 import android.app.Activity;
@@ -44,6 +41,7 @@ import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -62,6 +60,7 @@ public class PoiInfoActivity extends Activity implements OnClickListener {
 	 * private class level variables
 	 */
 	private String photoName = null;
+	private ImageView photoView = null;
 	
 	/*
 	 * create the activity
@@ -110,6 +109,16 @@ public class PoiInfoActivity extends Activity implements OnClickListener {
 				mButton.setVisibility(View.GONE);
 			} else {
 				mButton.setOnClickListener(this);
+				
+				// show the photo once it has been decoded in the background at the size of the view
+				photoView = (ImageView) findViewById(R.id.poi_info_ui_img_photo);
+				photoView.setVisibility(View.VISIBLE);
+				
+				PhotoLoader.getInstance(this).load(
+						photoName, 
+						photoView, 
+						getResources().getDisplayMetrics().widthPixels, 
+						getResources().getDimensionPixelSize(R.dimen.poi_info_photo_height));
 			}
 			
 			// calculate the distance between user and POI if possible
@@ -196,37 +205,38 @@ public class PoiInfoActivity extends Activity implements OnClickListener {
 		mCursor.close();
     }
 
+	/*
+	 * stop loading the photo if the activity is closed first
+	 * 
+	 * (non-Javadoc)
+	 * @see android.app.Activity#onDestroy()
+	 */
+	@Override
+	protected void onDestroy() {
+		
+		if(photoView != null) {
+			PhotoLoader.getInstance(this).cancel(photoView);
+		}
+		
+		super.onDestroy();
+	}
+
 	@Override
 	public void onClick(View v) {
 		
 		// check which button was pressed
 		switch(v.getId()) {
 		case R.id.poi_info_ui_btn_photo:
-			// show the photo to the user
-			File mFile = new File(MediaUtils.getMediaStore() + photoName);
+			// show the full size photo to the user, reading it from Rhizome if it isn't in the media store
+			String mPath = PhotoLoader.findPhoto(this, photoName);
 			
-			try {
-				if(FileUtils.isFileReadable(mFile.getCanonicalPath()) == true) {
-					// show the file
-					Intent mIntent = new Intent();
-					mIntent.setAction(android.content.Intent.ACTION_VIEW);
-					mIntent.setDataAndType(Uri.fromFile(mFile), "image/jpg");
-					startActivity(mIntent);
-				} else {
-					// see if the file is in Rhizome
-					if(Rhizome.checkForFile(this, photoName) != null) {
-						// copy the file to the media directory
-						mFile = new File(FileUtils.copyFileToDir(Rhizome.checkForFile(this, photoName), MediaUtils.getMediaStore()));
-						Intent mIntent = new Intent();
-						mIntent.setAction(android.content.Intent.ACTION_VIEW);
-						mIntent.setDataAndType(Uri.fromFile(mFile), "image/jpg");
-						startActivity(mIntent);
-					} else {
-						// report an error
-						Toast.makeText(getApplicationContext(), R.string.poi_into_toast_no_photo, Toast.LENGTH_LONG).show();
-					}
-				}
-			} catch (IOException e) {
+			if(mPath != null) {
+				// show the file
+				Intent mIntent = new Intent();
+				mIntent.setAction(android.content.Intent.ACTION_VIEW);
+				mIntent.setDataAndType(Uri.fromFile(new File(mPath)), "image/jpg");
+				startActivity(mIntent);
+			} else {
 				// report an error
 				Toast.makeText(getApplicationContext(), R.string.poi_into_toast_no_photo, Toast.LENGTH_LONG).show();
 			}
@@ -21,6 +21,7 @@ package org.servalproject.maps;
 
 import org.servalproject.maps.provider.LocationsContract;
 import org.servalproject.maps.provider.PointsOfInterestContract;
+import org.servalproject.maps.rhizome.RhizomePublisher;
 import org.servalproject.maps.services.CoreService;
 import org.servalproject.maps.stats.StatsAsyncTask;
 import org.servalproject.maps.utils.HttpUtils;
@@ -57,7 +58,7 @@ public class StatsActivity extends Activity implements OnClickListener {
 	/*
 	 * private class level variables
 	 */
-	private String[] dataElems = new String[6];
+	private String[] dataElems = new String[8];
 
 	private String[] dataLabels = {
 			"Version number:",
@@ -65,7 +66,9 @@ public class StatsActivity extends Activity implements OnClickListener {
 			"POI records:", 
 			"Total photos:", 
 			"Photos taken by user:", 
-			"Core service uptime:"};
+			"Core service uptime:",
+			"Rhizome publishes:",
+			"Coalesced publishes:"};
 	
 	/*
 	 * (non-Javadoc)
@@ -170,6 +173,17 @@ public class StatsActivity extends Activity implements OnClickListener {
         	dataElems[5] = "0";
         }
         
+        // rhizome publishing
+        RhizomePublisher mPublisher = RhizomePublisher.getInstance(this);
+        
+        mTextView = (TextView) findViewById(R.id.stats_ui_txt_rhizome_publishes);
+        dataElems[6] = Long.toString(mPublisher.getPublishCount());
+        mTextView.setText(dataElems[6]);
+        
+        mTextView = (TextView) findViewById(R.id.stats_ui_txt_rhizome_coalesced);
+        dataElems[7] = Long.toString(mPublisher.getCoalescedCount());
+        mTextView.setText(dataElems[7]);
+        
         // add a click listener to the button
         Button mButton = (Button) findViewById(R.id.stats_ui_btn_send);
         mButton.setOnClickListener(this);
@@ -23,6 +23,7 @@ package org.servalproject.maps.delete;
 import java.io.IOException;
 
 import org.servalproject.maps.R;
+import org.servalproject.maps.photos.PhotoLoader;
 import org.servalproject.maps.protobuf.BinaryFileContract;
 import org.servalproject.maps.provider.LocationsContract;
 import org.servalproject.maps.utils.FileUtils;
@@ -253,7 +254,7 @@ public class DeleteAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 			String mExternal = Environment.getExternalStorageDirectory().getCanonicalPath() + "/";
 			
 			// build a list of extensions
-			String[] mExtensions = new String[BinaryFileContract.EXTENSIONS.length + 2];
+			String[] mExtensions = new String[BinaryFileContract.EXTENSIONS.length + 3];
 			
 			for(int i = 0; i < BinaryFileContract.EXTENSIONS.length; i++) {
 				mExtensions[i] = BinaryFileContract.EXTENSIONS[i];
@@ -262,6 +263,9 @@ public class DeleteAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 			mExtensions[mExtensions.length -1] = ".json";
 			mExtensions[mExtensions.length -2] = ".zip";
 			
+			// the photos and thumbnails published to Rhizome
+			mExtensions[mExtensions.length -3] = ".jpg";
+			
 			FileUtils.deleteFilesInDir(mExternal + context.getString(R.string.system_path_binary_data), mExtensions);
 			
 		} catch(IOException e) {
@@ -286,6 +290,9 @@ public class DeleteAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 			
 			FileUtils.deleteFilesInDir(MediaUtils.getMediaStore(), null);
 			
+			// remove the thumbnails of the deleted photos
+			PhotoLoader.getInstance(context).clear();
+			
 		} catch(IOException e) {
 			Log.e(TAG, "unable to delete a data file", e);
 			
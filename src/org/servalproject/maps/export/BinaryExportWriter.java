@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.servalproject.maps.protobuf.BinaryFileContract;
+import org.servalproject.maps.protobuf.BlockOutputStream;
+
+import android.database.Cursor;
+
+/**
+ * write records to a serval maps binary file, optionally compressed into blocks
+ */
+public class BinaryExportWriter implements ExportWriter {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// size of the buffer used when writing the output file
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	
+	// number of records in each compressed block
+	private static final int BLOCK_RECORDS = 1000;
+	
+	/*
+	 * private class level variables
+	 */
+	private final OutputStream output;
+	private final BlockOutputStream blockOutput;
+	private final boolean locations;
+	
+	/**
+	 * open a new binary file
+	 * 
+	 * @param filePath the full path of the file
+	 * @param locations true if location records are written, false if point of interest records are written
+	 * @param compress true if the records are compressed into blocks
+	 * @throws IOException if the file can't be opened
+	 */
+	public BinaryExportWriter(String filePath, boolean locations, boolean compress) throws IOException {
+		
+		if(filePath == null) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		this.locations = locations;
+		
+		OutputStream mOutput = new BufferedOutputStream(new FileOutputStream(filePath, false), OUTPUT_BUFFER_SIZE);
+		
+		if(compress == true) {
+			blockOutput = new BlockOutputStream(mOutput);
+			output = blockOutput;
+		} else {
+			blockOutput = null;
+			output = mOutput;
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#write(android.database.Cursor)
+	 */
+	@Override
+	public void write(Cursor cursor) throws IOException {
+		
+		if(locations) {
+			BinaryFileContract.writeLocationRecord(cursor, output);
+		} else {
+			BinaryFileContract.writePointOfInterestRecord(cursor, output);
+		}
+		
+		// compress the records a block at a time
+		if(blockOutput != null) {
+			blockOutput.recordWritten();
+			
+			if(blockOutput.getRecordCount() >= BLOCK_RECORDS) {
+				blockOutput.flush();
+			}
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+import android.database.Cursor;
+
+/**
+ * base class for writers of formats that need a footer to be valid, 
+ * records are held in memory and written at regular checkpoints together with the footer, 
+ * replacing the footer written at the previous checkpoint, 
+ * so that the file is valid up to the last checkpoint if the export is interrupted
+ */
+public abstract class CheckpointExportWriter implements ExportWriter {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// initial size of the buffer used to hold the records between checkpoints
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	
+	// number of records written between checkpoints
+	private static final int CHECKPOINT_RECORDS = 1000;
+	
+	/*
+	 * private class level variables
+	 */
+	private final FileOutputStream file;
+	private final FileChannel channel;
+	private final StringBuilder output = new StringBuilder(OUTPUT_BUFFER_SIZE);
+	
+	// coordinates are written in fixed point as xml decimals can't use exponents, 
+	// with the precision of the coordinates in the binary files
+	private final DecimalFormat coordinateFormat = new DecimalFormat("0.0######", new DecimalFormatSymbols(Locale.US));
+	
+	// position of the footer written at the last checkpoint
+	private long footerPosition = 0;
+	private int recordCount = 0;
+	
+	/**
+	 * open a new file
+	 * 
+	 * @param filePath the full path of the file
+	 * @throws IOException if the file can't be opened
+	 */
+	protected CheckpointExportWriter(String filePath) throws IOException {
+		
+		if(filePath == null) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		file = new FileOutputStream(filePath, false);
+		channel = file.getChannel();
+	}
+	
+	/**
+	 * write text to the file
+	 * 
+	 * @param text the text to write
+	 */
+	protected void print(String text) {
+		output.append(text);
+	}
+	
+	/**
+	 * write the record at the current position of the cursor
+	 * 
+	 * @param cursor the cursor containing the record
+	 * @throws IOException if the write operation fails
+	 */
+	protected abstract void writeRecord(Cursor cursor) throws IOException;
+	
+	/**
+	 * get the text that closes all of the structures open after the last record written
+	 * 
+	 * @return the footer text
+	 */
+	protected abstract String getFooter();
+	
+	/**
+	 * write the records held in memory over the previous footer, followed by a new footer, 
+	 * so that the file is valid as it stands
+	 * 
+	 * @throws IOException if the write operation fails
+	 */
+	protected void checkpoint() throws IOException {
+		
+		if(output.length() == 0 && channel.size() > 0) {
+			return;
+		}
+		
+		byte[] mRecords = output.toString().getBytes("UTF-8");
+		byte[] mFooter = getFooter().getBytes("UTF-8");
+		
+		output.setLength(0);
+		recordCount = 0;
+		
+		// a single write keeps the window where the file isn't valid as small as possible
+		ByteBuffer mBuffer = ByteBuffer.allocate(mRecords.length + mFooter.length);
+		mBuffer.put(mRecords);
+		mBuffer.put(mFooter);
+		mBuffer.flip();
+		
+		long mPosition = footerPosition;
+		
+		while(mBuffer.hasRemaining()) {
+			mPosition += channel.write(mBuffer, mPosition);
+		}
+		
+		footerPosition += mRecords.length;
+		channel.truncate(mPosition);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#write(android.database.Cursor)
+	 */
+	@Override
+	public void write(Cursor cursor) throws IOException {
+		
+		writeRecord(cursor);
+		
+		if(++recordCount >= CHECKPOINT_RECORDS) {
+			checkpoint();
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		
+		try {
+			checkpoint();
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * format a coordinate as a fixed point number
+	 * 
+	 * @param degrees the coordinate in degrees
+	 * @return the coordinate with up to seven decimal places and without an exponent
+	 */
+	protected String formatCoordinate(double degrees) {
+		return coordinateFormat.format(degrees);
+	}
+	
+	/**
+	 * escape a string for use in a json document
+	 * 
+	 * @param value the string to escape
+	 * @return the string as a json string literal, or the json null literal if the value is null
+	 */
+	protected static String toJsonString(String value) {
+		
+		if(value == null) {
+			return "null";
+		}
+		
+		StringBuilder mBuilder = new StringBuilder(value.length() + 2);
+		mBuilder.append('"');
+		
+		for(int i = 0; i < value.length(); i++) {
+			char mChar = value.charAt(i);
+			
+			switch(mChar) {
+			case '"':
+				mBuilder.append("\\\"");
+				break;
+			case '\\':
+				mBuilder.append("\\\\");
+				break;
+			case '\n':
+				mBuilder.append("\\n");
+				break;
+			case '\r':
+				mBuilder.append("\\r");
+				break;
+			case '\t':
+				mBuilder.append("\\t");
+				break;
+			default:
+				if(mChar < 0x20) {
+					mBuilder.append(String.format("\\u%04x", (int) mChar));
+				} else {
+					mBuilder.append(mChar);
+				}
+			}
+		}
+		
+		mBuilder.append('"');
+		
+		return mBuilder.toString();
+	}
+	
+	/**
+	 * escape a string for use in an xml document
+	 * 
+	 * @param value the string to escape
+	 * @return the escaped string, or an empty string if the value is null
+	 */
+	protected static String toXmlString(String value) {
+		
+		if(value == null) {
+			return "";
+		}
+		
+		StringBuilder mBuilder = new StringBuilder(value.length());
+		
+		for(int i = 0; i < value.length(); i++) {
+			char mChar = value.charAt(i);
+			
+			switch(mChar) {
+			case '<':
+				mBuilder.append("&lt;");
+				break;
+			case '>':
+				mBuilder.append("&gt;");
+				break;
+			case '&':
+				mBuilder.append("&amp;");
+				break;
+			case '"':
+				mBuilder.append("&quot;");
+				break;
+			default:
+				// characters not allowed in xml are dropped
+				if(mChar >= 0x20 || mChar == '\n' || mChar == '\r' || mChar == '\t') {
+					mBuilder.append(mChar);
+				}
+			}
+		}
+		
+		return mBuilder.toString();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.servalproject.maps.utils.TimeUtils;
+
+import android.database.Cursor;
+
+/**
+ * write records to a csv file
+ */
+public class CsvExportWriter implements ExportWriter {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// size of the buffer used when writing the output file
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	
+	/*
+	 * private class level variables
+	 */
+	private final BufferedWriter output;
+	private final CSVPrinter printer;
+	
+	private final String[] columns;
+	private final String[] line;
+	private int[] columnIndexes = null;
+	
+	/**
+	 * open a new csv file
+	 * 
+	 * @param filePath the full path of the file
+	 * @param columns the columns to write for each record
+	 * @throws IOException if the file can't be opened
+	 */
+	public CsvExportWriter(String filePath, String[] columns) throws IOException {
+		
+		if(filePath == null) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(columns == null || columns.length == 0) {
+			throw new IllegalArgumentException("the columns parameter is required");
+		}
+		
+		this.columns = columns;
+		this.line = new String[columns.length];
+		
+		CSVFormat mFormat = CSVFormat.DEFAULT;
+		mFormat.withEscape('\\');
+		mFormat.withCommentStart('#');
+		
+		output = new BufferedWriter(new FileWriter(filePath, false), OUTPUT_BUFFER_SIZE);
+		printer = new CSVPrinter(output, mFormat);
+		
+		// write the comment line
+		printer.printComment("Location data sourced from the Serval Maps application");
+		printer.printComment("File created: " + TimeUtils.getToday());
+		printer.printComment(Arrays.toString(columns));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#write(android.database.Cursor)
+	 */
+	@Override
+	public void write(Cursor cursor) throws IOException {
+		
+		// the cursor columns don't change so only look up the column indexes once
+		if(columnIndexes == null) {
+			columnIndexes = new int[columns.length];
+			
+			for(int i = 0; i < columns.length; i++) {
+				columnIndexes[i] = cursor.getColumnIndex(columns[i]);
+			}
+		}
+		
+		for(int i = 0; i < columnIndexes.length; i++) {
+			line[i] = cursor.getString(columnIndexes[i]);
+		}
+		
+		printer.println(line);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportWriter#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}
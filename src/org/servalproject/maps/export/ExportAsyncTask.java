@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import org.servalproject.maps.R;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+/**
+ * class to undertake an async task to export data using the export engine
+ */
+public class ExportAsyncTask extends AsyncTask<Void, Integer, Integer> implements ExportListener {
+	
+	/*
+	 * private class level constants
+	 */
+	private final boolean V_LOG = false;
+	private final String  TAG = "ExportAsyncTask";
+	
+	/*
+	 * private class level variables
+	 */
+	private ProgressBar progressBar;
+	private TextView    progressLabel;
+	private Activity    context;
+	
+	private int tables;
+	private int formats;
+	
+	private ExportEngine engine = null;
+	
+	/**
+	 * construct a new export task
+	 * 
+	 * @param context the activity that started the export
+	 * @param progressBar the progress bar used to show the progress of the export
+	 * @param progressLabel the label used to describe the export
+	 * @param tables the tables to export, a combination of the ExportEngine.TABLE_ constants
+	 * @param formats the formats to export to, a combination of the ExportEngine.FORMAT_ constants
+	 */
+	public ExportAsyncTask(Activity context, ProgressBar progressBar, TextView progressLabel, int tables, int formats) {
+		
+		// check the parameters
+		if(context == null || progressBar == null || progressLabel == null) {
+			throw new IllegalArgumentException("all parameters are required");
+		}
+		
+		this.context = context;
+		this.progressBar = progressBar;
+		this.progressLabel = progressLabel;
+		this.tables = tables;
+		this.formats = formats;
+		
+		if(V_LOG) {
+			Log.v(TAG, "class instantiated");
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.os.AsyncTask#onPreExecute()
+	 */
+	@Override
+	protected void onPreExecute() {
+		
+		if(V_LOG) {
+			Log.v(TAG, "onPreExecute called");
+		}
+		
+		// describe what is being exported
+		if(tables == ExportEngine.TABLE_LOCATIONS) {
+			progressLabel.setText(R.string.export_ui_progress_location);
+		} else if(tables == ExportEngine.TABLE_POIS) {
+			progressLabel.setText(R.string.export_ui_progress_poi);
+		} else {
+			progressLabel.setText(R.string.export_ui_progress_all);
+		}
+		
+		progressBar.setProgress(0);
+		progressLabel.setVisibility(View.VISIBLE);
+		progressBar.setVisibility(View.VISIBLE);
+		
+		Button mButton = (Button) context.findViewById(R.id.export_ui_btn_export);
+		mButton.setEnabled(false);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.os.AsyncTask#doInBackground(Params[])
+	 */
+	@Override
+	protected Integer doInBackground(Void... params) {
+		
+		if(V_LOG) {
+			Log.v(TAG, "doInBackground called");
+		}
+		
+		// get the path for the output files
+		String mOutputPath = Environment.getExternalStorageDirectory().getPath();
+		mOutputPath += context.getString(R.string.system_path_export_data);
+		
+		try {
+			engine = new ExportEngine(context, mOutputPath);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "unable to access the required output directory", e);
+			return 0;
+		}
+		
+		return engine.export(tables, formats, this);
+	}
+	
+	/*
+	 * called on the export threads by the export engine
+	 * 
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.ExportListener#onProgress(int, int)
+	 */
+	@Override
+	public void onProgress(int exported, int total) {
+		
+		// stop the export if the task has been cancelled
+		if(isCancelled() == true) {
+			engine.cancel();
+			return;
+		}
+		
+		publishProgress(exported, total);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.os.AsyncTask#onProgressUpdate(Progress[])
+	 */
+	@Override
+	protected void onProgressUpdate(Integer... progress) {
+		
+		if(V_LOG) {
+			Log.v(TAG, "onProgressUpdate called: " + progress[0].toString());
+		}
+		
+		// update the progress bar
+		super.onProgressUpdate(progress);
+		
+		progressBar.setMax(progress[1]);
+		progressBar.setProgress(progress[0]);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+	 */
+	@Override
+	protected void onPostExecute(Integer result) {
+		
+		if(V_LOG) {
+			Log.v(TAG, "onPostExecute called: ");
+		}
+		
+		// finalise the results
+		progressBar.setVisibility(View.INVISIBLE);
+		progressBar.setProgress(0);
+		progressLabel.setVisibility(View.INVISIBLE);
+		
+		// alert user to finalised export
+		Button mButton = (Button) context.findViewById(R.id.export_ui_btn_export);
+		mButton.setEnabled(true);
+		
+		String mMessage = String.format(
+				context.getString(R.string.export_ui_finished_msg),
+				result,
+				context.getString(R.string.system_path_export_data));
+		
+		AlertDialog.Builder mBuilder = new AlertDialog.Builder(context);
+		mBuilder.setMessage(mMessage)
+				.setCancelable(false)
+				.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int id) {
+						dialog.cancel();
+					}
+				});
+		AlertDialog mAlert = mBuilder.create();
+		mAlert.show();
+	}
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.servalproject.maps.protobuf.BinaryFileContract;
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+import org.servalproject.maps.utils.FileUtils;
+import org.servalproject.maps.utils.TimeUtils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+/**
+ * export the location and point of interest tables into one or more file formats
+ * 
+ * each table is read once, a page of rows at a time, and every row is written to each 
+ * of the requested formats, the tables are exported at the same time on separate threads
+ */
+public class ExportEngine {
+	
+	/**
+	 * export the location records
+	 */
+	public static final int TABLE_LOCATIONS = 1;
+	
+	/**
+	 * export the point of interest records
+	 */
+	public static final int TABLE_POIS = 2;
+	
+	/**
+	 * export in the serval maps binary format
+	 */
+	public static final int FORMAT_BINARY = 1;
+	
+	/**
+	 * export in csv format
+	 */
+	public static final int FORMAT_CSV = 2;
+	
+	/**
+	 * export in GeoJSON format
+	 */
+	public static final int FORMAT_GEOJSON = 4;
+	
+	/**
+	 * export in GPX format
+	 */
+	public static final int FORMAT_GPX = 8;
+	
+	// formats that need the location records of each peer together and in time order
+	private static final int TRACK_FORMATS = FORMAT_GEOJSON | FORMAT_GPX;
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "ExportEngine";
+	private static final boolean V_LOG = false;
+	
+	// maximum number of tables exported at the same time
+	private static final int THREAD_COUNT = 2;
+	
+	// number of rows read from the database at a time
+	private static final int PAGE_SIZE = 1000;
+	
+	// minimum number of milliseconds between progress updates
+	private static final long PROGRESS_INTERVAL = 250;
+	
+	/*
+	 * private class level variables
+	 */
+	private final ContentResolver contentResolver;
+	private final String outputPath;
+	
+	// compress binary files using the same preference as the binary log files
+	private final boolean compress;
+	
+	private volatile boolean cancelled = false;
+	
+	private final AtomicInteger exportedCount = new AtomicInteger();
+	private final AtomicLong lastProgress = new AtomicLong();
+	private int totalCount;
+	
+	// peak heap used during the export, only sampled when verbose logging is enabled
+	private volatile long peakMemory;
+	
+	/**
+	 * construct a new export engine
+	 * 
+	 * @param context a context used to get a content resolver
+	 * @param outputPath the path to the directory where the files are written
+	 */
+	public ExportEngine(Context context, String outputPath) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
+		
+		if(FileUtils.isDirectoryWritable(outputPath) == false) {
+			throw new IllegalArgumentException("unable to access the output directory '" + outputPath + "'");
+		}
+		
+		this.contentResolver = context.getApplicationContext().getContentResolver();
+		this.outputPath = outputPath;
+		this.compress = PreferenceManager.getDefaultSharedPreferences(context).getBoolean("preferences_rhizome_compress", false);
+	}
+	
+	/**
+	 * export the tables, returning when the export is complete
+	 * 
+	 * @param tables the tables to export, a combination of the TABLE_ constants
+	 * @param formats the formats to export to, a combination of the FORMAT_ constants
+	 * @param listener an optional listener for progress updates
+	 * @return the number of records exported from all of the tables
+	 */
+	public int export(int tables, int formats, ExportListener listener) {
+		
+		if(formats == 0) {
+			throw new IllegalArgumentException("at least one format is required");
+		}
+		
+		long mStartTime = System.currentTimeMillis();
+		
+		// prepare an export for each table
+		ArrayList<TableExport> mExports = new ArrayList<TableExport>();
+		
+		if((tables & TABLE_LOCATIONS) != 0) {
+			mExports.add(new TableExport(
+					LocationsContract.CONTENT_URI, 
+					LocationsContract.Table.COLUMNS, 
+					true, formats, listener));
+		}
+		
+		if((tables & TABLE_POIS) != 0) {
+			mExports.add(new TableExport(
+					PointsOfInterestContract.CONTENT_URI, 
+					PointsOfInterestContract.Table.COLUMNS, 
+					false, formats, listener));
+		}
+		
+		// count the rows for the progress updates
+		totalCount = 0;
+		exportedCount.set(0);
+		peakMemory = 0;
+		
+		for(TableExport mExport : mExports) {
+			totalCount += mExport.count();
+		}
+		
+		if(totalCount == 0) {
+			return 0;
+		}
+		
+		// export the tables at the same time
+		ExecutorService mExecutor = Executors.newFixedThreadPool(Math.min(THREAD_COUNT, mExports.size()));
+		int mRecordCount = 0;
+		
+		try {
+			ArrayList<Future<Integer>> mResults = new ArrayList<Future<Integer>>();
+			
+			for(TableExport mExport : mExports) {
+				mResults.add(mExecutor.submit(mExport));
+			}
+			
+			for(Future<Integer> mResult : mResults) {
+				mRecordCount += mResult.get();
+			}
+		} catch (InterruptedException e) {
+			// the caller has been cancelled
+			cancel();
+		} catch (ExecutionException e) {
+			Log.e(TAG, "unable to complete the export", e.getCause());
+			cancel();
+		} finally {
+			mExecutor.shutdown();
+		}
+		
+		if(listener != null) {
+			listener.onProgress(exportedCount.get(), totalCount);
+		}
+		
+		if(V_LOG) {
+			long mElapsed = Math.max(System.currentTimeMillis() - mStartTime, 1);
+			Log.v(TAG, "exported " + mRecordCount + " rows in " + mElapsed + "ms (" + (mRecordCount * 1000l / mElapsed) + " rows/sec)");
+			Log.v(TAG, "peak heap used during the export: " + (peakMemory / 1024) + "KB");
+		}
+		
+		return mRecordCount;
+	}
+	
+	/**
+	 * stop the export as soon as possible, the records already exported are kept
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * check to see if the export has been cancelled
+	 * 
+	 * @return true if the export has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	// record that a row has been exported and update the listener if it is time to do so
+	private void rowExported(ExportListener listener) {
+		
+		int mExported = exportedCount.incrementAndGet();
+		
+		long mNow = System.currentTimeMillis();
+		long mLast = lastProgress.get();
+		
+		// only one of the threads reports each update
+		if(mNow - mLast >= PROGRESS_INTERVAL && lastProgress.compareAndSet(mLast, mNow)) {
+			
+			if(V_LOG) {
+				Runtime mRuntime = Runtime.getRuntime();
+				peakMemory = Math.max(peakMemory, mRuntime.totalMemory() - mRuntime.freeMemory());
+			}
+			
+			if(listener != null) {
+				listener.onProgress(mExported, totalCount);
+			}
+		}
+	}
+	
+	/*
+	 * export a single table into each of the requested formats
+	 */
+	private class TableExport implements Callable<Integer> {
+		
+		private final Uri contentUri;
+		private final String[] columns;
+		private final boolean locations;
+		private final int formats;
+		private final ExportListener listener;
+		
+		private TableExport(Uri contentUri, String[] columns, boolean locations, int formats, ExportListener listener) {
+			this.contentUri = contentUri;
+			this.columns = columns;
+			this.locations = locations;
+			this.formats = formats;
+			this.listener = listener;
+		}
+		
+		// count the number of rows in the table
+		private int count() {
+			
+			int mCount = 0;
+			
+			Cursor mCursor = contentResolver.query(
+					contentUri, 
+					new String[] {"count(*)"}, 
+					null, 
+					null, 
+					null);
+			
+			if(mCursor != null) {
+				if(mCursor.moveToFirst()) {
+					mCount = mCursor.getInt(0);
+				}
+				mCursor.close();
+			}
+			
+			return mCount;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Integer call() throws IOException {
+			
+			// don't compete with the UI thread for the CPU
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			
+			ArrayList<ExportWriter> mWriters = new ArrayList<ExportWriter>();
+			
+			String mTableName = locations ? "locations" : "pois";
+			
+			int mRecordCount = 0;
+			
+			try {
+				// open a file for each format
+				String mFileName = outputPath + "serval-maps-export-" + mTableName + "-" + TimeUtils.getToday();
+				
+				if((formats & FORMAT_BINARY) != 0) {
+					String mExtension = locations ? BinaryFileContract.LOCATION_EXT : BinaryFileContract.POI_EXT;
+					mWriters.add(new BinaryExportWriter(outputPath + "serval-maps-export-" + TimeUtils.getToday() + mExtension, locations, compress));
+				}
+				
+				if((formats & FORMAT_CSV) != 0) {
+					mWriters.add(new CsvExportWriter(mFileName + ".csv", columns));
+				}
+				
+				if((formats & FORMAT_GEOJSON) != 0) {
+					mWriters.add(new GeoJsonExportWriter(mFileName + ".geojson", locations));
+				}
+				
+				if((formats & FORMAT_GPX) != 0) {
+					mWriters.add(new GpxExportWriter(mFileName + ".gpx", locations));
+				}
+				
+				if(locations && (formats & TRACK_FORMATS) != 0) {
+					mRecordCount = exportByPeer(mWriters);
+				} else {
+					mRecordCount = exportById(mWriters);
+				}
+				
+			} finally {
+				// play nice and tidy up
+				for(ExportWriter mWriter : mWriters) {
+					try {
+						mWriter.close();
+					} catch (IOException e) {
+						Log.e(TAG, "unable to close the output file", e);
+					}
+				}
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "exported " + mRecordCount + " " + mTableName + " rows");
+			}
+			
+			return mRecordCount;
+		}
+		
+		// export the table a page at a time in _id order
+		private int exportById(ArrayList<ExportWriter> writers) throws IOException {
+			
+			int mRecordCount = 0;
+			long mLastId = -1;
+			
+			String mSelection = BaseColumns._ID + " > ?";
+			String[] mSelectionArgs = new String[1];
+			String mOrderBy = BaseColumns._ID + " ASC LIMIT " + PAGE_SIZE;
+			
+			int mPageCount;
+			int mIdIndex = -1;
+			
+			do {
+				mSelectionArgs[0] = Long.toString(mLastId);
+				
+				Cursor mCursor = contentResolver.query(
+						contentUri, 
+						columns, 
+						mSelection, 
+						mSelectionArgs, 
+						mOrderBy);
+				
+				if(mCursor == null) {
+					break;
+				}
+				
+				if(mIdIndex == -1) {
+					mIdIndex = mCursor.getColumnIndex(BaseColumns._ID);
+				}
+				
+				mPageCount = 0;
+				
+				try {
+					while(mCursor.moveToNext() && cancelled == false) {
+						
+						// write the row in each format
+						for(ExportWriter mWriter : writers) {
+							mWriter.write(mCursor);
+						}
+						
+						mLastId = mCursor.getLong(mIdIndex);
+						mPageCount++;
+						mRecordCount++;
+						
+						rowExported(listener);
+					}
+				} finally {
+					mCursor.close();
+				}
+				
+			} while(mPageCount == PAGE_SIZE && cancelled == false);
+			
+			return mRecordCount;
+		}
+		
+		/*
+		 * export the location records a page at a time, one peer after another in time order, 
+		 * using the phone number and timestamp index
+		 */
+		private int exportByPeer(ArrayList<ExportWriter> writers) throws IOException {
+			
+			int mRecordCount = 0;
+			
+			// the latest locations table has one row for each peer
+			ArrayList<String> mPhoneNumbers = new ArrayList<String>();
+			
+			Cursor mCursor = contentResolver.query(
+					LocationsContract.LATEST_CONTENT_URI, 
+					new String[] {LocationsContract.Table.PHONE_NUMBER}, 
+					null, 
+					null, 
+					LocationsContract.Table.PHONE_NUMBER + " ASC");
+			
+			if(mCursor == null) {
+				return 0;
+			}
+			
+			try {
+				while(mCursor.moveToNext()) {
+					mPhoneNumbers.add(mCursor.getString(0));
+				}
+			} finally {
+				mCursor.close();
+			}
+			
+			// each page starts after the last row written, rows with the same timestamp are in _id order, 
+			// the timestamp >= ? lets the phone number and timestamp index start at the last timestamp
+			String mSelection = LocationsContract.Table.PHONE_NUMBER + " = ? AND " 
+					+ LocationsContract.Table.TIMESTAMP + " >= ? AND (" 
+					+ LocationsContract.Table.TIMESTAMP + " > ? OR " 
+					+ LocationsContract.Table._ID + " > ?)";
+			String mOrderBy = LocationsContract.Table.TIMESTAMP + " ASC, " + LocationsContract.Table._ID + " ASC LIMIT " + PAGE_SIZE;
+			String[] mSelectionArgs = new String[4];
+			int mTimestampIndex = -1;
+			int mIdIndex = -1;
+			
+			for(String mPhoneNumber : mPhoneNumbers) {
+				
+				if(cancelled == true) {
+					break;
+				}
+				
+				mSelectionArgs[0] = mPhoneNumber;
+				
+				long mLastTimestamp = Long.MIN_VALUE;
+				long mLastId = -1;
+				int mPageCount;
+				
+				do {
+					mSelectionArgs[1] = Long.toString(mLastTimestamp);
+					mSelectionArgs[2] = Long.toString(mLastTimestamp);
+					mSelectionArgs[3] = Long.toString(mLastId);
+					
+					mCursor = contentResolver.query(
+							contentUri, 
+							columns, 
+							mSelection, 
+							mSelectionArgs, 
+							mOrderBy);
+					
+					if(mCursor == null) {
+						break;
+					}
+					
+					if(mTimestampIndex == -1) {
+						mTimestampIndex = mCursor.getColumnIndex(LocationsContract.Table.TIMESTAMP);
+						mIdIndex = mCursor.getColumnIndex(LocationsContract.Table._ID);
+					}
+					
+					mPageCount = 0;
+					
+					try {
+						while(mCursor.moveToNext() && cancelled == false) {
+							
+							// write the row in each format
+							for(ExportWriter mWriter : writers) {
+								mWriter.write(mCursor);
+							}
+							
+							mLastTimestamp = mCursor.getLong(mTimestampIndex);
+							mLastId = mCursor.getLong(mIdIndex);
+							mPageCount++;
+							mRecordCount++;
+							
+							rowExported(listener);
+						}
+					} finally {
+						mCursor.close();
+					}
+					
+				} while(mPageCount == PAGE_SIZE && cancelled == false);
+			}
+			
+			return mRecordCount;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.IOException;
+
+import android.database.Cursor;
+
+/**
+ * writes the records from a table to a file in one export format
+ */
+public interface ExportWriter {
+	
+	/**
+	 * write the record at the current position of the cursor
+	 * 
+	 * @param cursor the cursor containing the record, the same cursor columns are used for every call
+	 * @throws IOException if the write operation fails
+	 */
+	public void write(Cursor cursor) throws IOException;
+	
+	/**
+	 * flush any buffered records and close the file
+	 * 
+	 * @throws IOException if the close operation fails
+	 */
+	public void close() throws IOException;
+}
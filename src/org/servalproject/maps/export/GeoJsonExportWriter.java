@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.IOException;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+
+import android.database.Cursor;
+
+/**
+ * write records to a GeoJSON feature collection, 
+ * location records become a line string feature for each peer and 
+ * point of interest records become a point feature each
+ * 
+ * location records must be ordered by phone number and then by time
+ */
+public class GeoJsonExportWriter extends CheckpointExportWriter {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String HEADER = "{\"type\":\"FeatureCollection\",\"features\":[";
+	private static final String FOOTER = "\n]}\n";
+	
+	/*
+	 * private class level variables
+	 */
+	private final boolean locations;
+	
+	private int featureCount = 0;
+	
+	// column indexes, looked up with the first record
+	private int phoneIndex = -1;
+	private int subscriberIndex;
+	private int latitudeIndex;
+	private int longitudeIndex;
+	private int timestampIndex;
+	private int timezoneIndex;
+	private int titleIndex;
+	private int descriptionIndex;
+	private int categoryIndex;
+	private int photoIndex;
+	
+	// the track of the current peer
+	private String trackPhone = null;
+	private String trackSubscriber = null;
+	private long trackStart;
+	private long trackEnd;
+	private int trackPoints;
+	private String trackFirstPoint;
+	
+	/**
+	 * open a new GeoJSON file
+	 * 
+	 * @param filePath the full path of the file
+	 * @param locations true if location records are written, false if point of interest records are written
+	 * @throws IOException if the file can't be opened
+	 */
+	public GeoJsonExportWriter(String filePath, boolean locations) throws IOException {
+		
+		super(filePath);
+		
+		this.locations = locations;
+		
+		print(HEADER);
+		checkpoint();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.CheckpointExportWriter#writeRecord(android.database.Cursor)
+	 */
+	@Override
+	protected void writeRecord(Cursor cursor) throws IOException {
+		
+		if(phoneIndex == -1) {
+			getColumnIndexes(cursor);
+		}
+		
+		String mPoint = "[" + formatCoordinate(cursor.getDouble(longitudeIndex)) + "," + formatCoordinate(cursor.getDouble(latitudeIndex)) + "]";
+		
+		if(locations) {
+			
+			String mPhone = cursor.getString(phoneIndex);
+			long mTimestamp = cursor.getLong(timestampIndex);
+			
+			// start a new track for each peer
+			if(trackPhone == null || trackPhone.equals(mPhone) == false) {
+				
+				if(trackPhone != null) {
+					print(getTrackEnd());
+				}
+				
+				print(featureCount == 0 ? "\n" : ",\n");
+				print("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+				featureCount++;
+				
+				trackPhone = mPhone;
+				trackSubscriber = cursor.getString(subscriberIndex);
+				trackStart = mTimestamp;
+				trackPoints = 0;
+				trackFirstPoint = mPoint;
+			}
+			
+			print(trackPoints == 0 ? mPoint : "," + mPoint);
+			
+			trackEnd = mTimestamp;
+			trackPoints++;
+			
+		} else {
+			
+			print(featureCount == 0 ? "\n" : ",\n");
+			print("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":" + mPoint + "},\"properties\":{"
+					+ "\"" + PointsOfInterestContract.Table.PHONE_NUMBER + "\":" + toJsonString(cursor.getString(phoneIndex)) + ","
+					+ "\"" + PointsOfInterestContract.Table.SUBSCRIBER_ID + "\":" + toJsonString(cursor.getString(subscriberIndex)) + ","
+					+ "\"" + PointsOfInterestContract.Table.TIMESTAMP + "\":" + cursor.getLong(timestampIndex) + ","
+					+ "\"" + PointsOfInterestContract.Table.TIMEZONE + "\":" + toJsonString(cursor.getString(timezoneIndex)) + ","
+					+ "\"" + PointsOfInterestContract.Table.TITLE + "\":" + toJsonString(cursor.getString(titleIndex)) + ","
+					+ "\"" + PointsOfInterestContract.Table.DESCRIPTION + "\":" + toJsonString(cursor.getString(descriptionIndex)) + ","
+					+ "\"" + PointsOfInterestContract.Table.CATEGORY + "\":" + cursor.getLong(categoryIndex) + ","
+					+ "\"" + PointsOfInterestContract.Table.PHOTO + "\":" + toJsonString(cursor.getString(photoIndex)) + "}}");
+			featureCount++;
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.CheckpointExportWriter#getFooter()
+	 */
+	@Override
+	protected String getFooter() {
+		
+		if(trackPhone != null) {
+			return getTrackEnd() + FOOTER;
+		}
+		
+		return FOOTER;
+	}
+	
+	// close the coordinates of the current track and add its properties
+	private String getTrackEnd() {
+		
+		// a line string needs at least two positions
+		String mEnd = trackPoints == 1 ? "," + trackFirstPoint : "";
+		
+		return mEnd + "]},\"properties\":{"
+				+ "\"" + LocationsContract.Table.PHONE_NUMBER + "\":" + toJsonString(trackPhone) + ","
+				+ "\"" + LocationsContract.Table.SUBSCRIBER_ID + "\":" + toJsonString(trackSubscriber) + ","
+				+ "\"start_time\":" + trackStart + ","
+				+ "\"end_time\":" + trackEnd + "}}";
+	}
+	
+	// look up the indexes of the columns used
+	private void getColumnIndexes(Cursor cursor) {
+		
+		phoneIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.PHONE_NUMBER);
+		subscriberIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.SUBSCRIBER_ID);
+		latitudeIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.LATITUDE);
+		longitudeIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.LONGITUDE);
+		timestampIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.TIMESTAMP);
+		timezoneIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.TIMEZONE);
+		
+		if(locations == false) {
+			titleIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.TITLE);
+			descriptionIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.DESCRIPTION);
+			categoryIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.CATEGORY);
+			photoIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.PHOTO);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.export;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+
+import android.database.Cursor;
+
+/**
+ * write records to a GPX file, 
+ * location records become a track for each peer and 
+ * point of interest records become a waypoint each
+ * 
+ * location records must be ordered by phone number and then by time
+ */
+public class GpxExportWriter extends CheckpointExportWriter {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<gpx version=\"1.1\" creator=\"Serval Maps\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n";
+	private static final String FOOTER = "</gpx>\n";
+	private static final String TRACK_FOOTER = "</trkseg></trk>\n";
+	
+	/*
+	 * private class level variables
+	 */
+	private final boolean locations;
+	
+	// gpx times are always in utc
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	private final Date time = new Date();
+	
+	// column indexes, looked up with the first record
+	private int phoneIndex = -1;
+	private int latitudeIndex;
+	private int longitudeIndex;
+	private int timestampIndex;
+	private int titleIndex;
+	private int descriptionIndex;
+	
+	// the phone number of the current track
+	private String trackPhone = null;
+	
+	/**
+	 * open a new GPX file
+	 * 
+	 * @param filePath the full path of the file
+	 * @param locations true if location records are written, false if point of interest records are written
+	 * @throws IOException if the file can't be opened
+	 */
+	public GpxExportWriter(String filePath, boolean locations) throws IOException {
+		
+		super(filePath);
+		
+		this.locations = locations;
+		
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		
+		print(HEADER);
+		checkpoint();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.CheckpointExportWriter#writeRecord(android.database.Cursor)
+	 */
+	@Override
+	protected void writeRecord(Cursor cursor) throws IOException {
+		
+		if(phoneIndex == -1) {
+			getColumnIndexes(cursor);
+		}
+		
+		time.setTime(cursor.getLong(timestampIndex));
+		
+		String mAttributes = " lat=\"" + formatCoordinate(cursor.getDouble(latitudeIndex)) + "\" lon=\"" + formatCoordinate(cursor.getDouble(longitudeIndex)) + "\"";
+		String mTime = "<time>" + timeFormat.format(time) + "</time>";
+		
+		if(locations) {
+			
+			String mPhone = cursor.getString(phoneIndex);
+			
+			// start a new track for each peer
+			if(trackPhone == null || trackPhone.equals(mPhone) == false) {
+				
+				if(trackPhone != null) {
+					print(TRACK_FOOTER);
+				}
+				
+				print("<trk><name>" + toXmlString(mPhone) + "</name><trkseg>\n");
+				trackPhone = mPhone;
+			}
+			
+			print("<trkpt" + mAttributes + ">" + mTime + "</trkpt>\n");
+			
+		} else {
+			print("<wpt" + mAttributes + ">" + mTime 
+					+ "<name>" + toXmlString(cursor.getString(titleIndex)) + "</name>"
+					+ "<desc>" + toXmlString(cursor.getString(descriptionIndex)) + "</desc>"
+					+ "<src>" + toXmlString(cursor.getString(phoneIndex)) + "</src></wpt>\n");
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.export.CheckpointExportWriter#getFooter()
+	 */
+	@Override
+	protected String getFooter() {
+		
+		if(trackPhone != null) {
+			return TRACK_FOOTER + FOOTER;
+		}
+		
+		return FOOTER;
+	}
+	
+	// look up the indexes of the columns used
+	private void getColumnIndexes(Cursor cursor) {
+		
+		phoneIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.PHONE_NUMBER);
+		latitudeIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.LATITUDE);
+		longitudeIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.LONGITUDE);
+		timestampIndex = cursor.getColumnIndexOrThrow(LocationsContract.Table.TIMESTAMP);
+		
+		if(locations == false) {
+			titleIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.TITLE);
+			descriptionIndex = cursor.getColumnIndexOrThrow(PointsOfInterestContract.Table.DESCRIPTION);
+		}
+	}
+}
@@ -24,6 +24,7 @@ import java.util.TimeZone;
 
 import org.servalproject.maps.ServalMaps;
 import org.servalproject.maps.protobuf.BinaryFileWriter;
+import org.servalproject.maps.protobuf.LocationBatch;
 import org.servalproject.maps.provider.LocationsContract;
 
 import android.content.ContentResolver;
@@ -121,16 +122,27 @@ public class LocationCollector implements LocationListener {
 			
 			long mTime = System.currentTimeMillis();
 			
+			// store the coordinates at the precision written to the binary file 
+			// so that the records imported by other phones are the same as this one
 			ContentValues mNewValues = new ContentValues();
 			mNewValues.put(LocationsContract.Table.PHONE_NUMBER, phoneNumber);
 			mNewValues.put(LocationsContract.Table.SUBSCRIBER_ID, subscriberId);
-			mNewValues.put(LocationsContract.Table.LATITUDE, location.getLatitude());
-			mNewValues.put(LocationsContract.Table.LONGITUDE, location.getLongitude());
+			mNewValues.put(LocationsContract.Table.LATITUDE, LocationBatch.round(location.getLatitude()));
+			mNewValues.put(LocationsContract.Table.LONGITUDE, LocationBatch.round(location.getLongitude()));
 			mNewValues.put(LocationsContract.Table.TIMEZONE, timeZone);
 			mNewValues.put(LocationsContract.Table.TIMESTAMP, mTime);
 
 			try {
 				Uri newRecord = contentResolver.insert(LocationsContract.CONTENT_URI, mNewValues);
+				
+				// a null uri means the record is already in the database, so it has already been written
+				if(newRecord == null) {
+					if(V_LOG) {
+						Log.v(TAG, "new location record is a duplicate of an existing record");
+					}
+					return;
+				}
+				
 				if(V_LOG) {
 					Log.v(TAG, "new location record created with id: " + newRecord.getLastPathSegment());
 				}
@@ -139,7 +151,7 @@ public class LocationCollector implements LocationListener {
 				//OutgoingMeshMS.sendLocationMessage(context, newRecord.getLastPathSegment());
 				
 				// write an entry to the binary log file
-				BinaryFileWriter.writeLocation(context,  newRecord.getLastPathSegment());
+				BinaryFileWriter.writeLocation(context, mNewValues);
 			}catch (SQLException e) {
 				Log.e(TAG, "unable to add new location record", e);
 			}
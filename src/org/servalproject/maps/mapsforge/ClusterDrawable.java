@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.mapsforge;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * a marker for a cluster of items that shows the number of items in the cluster,
+ * the marker is centered on the position of the cluster
+ */
+public class ClusterDrawable extends Drawable {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// size of the marker in density independent pixels
+	private static final float RADIUS = 16;
+	private static final float RADIUS_PER_DIGIT = 3;
+	private static final float TEXT_SIZE = 13;
+	private static final float OUTLINE_WIDTH = 2;
+	
+	/*
+	 * private class level variables
+	 */
+	private final String text;
+	private final int radius;
+	
+	private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	
+	/**
+	 * construct a new cluster marker
+	 * 
+	 * @param count the number of items in the cluster
+	 * @param density the logical density of the display
+	 */
+	public ClusterDrawable(int count, float density) {
+		
+		text = Integer.toString(count);
+		radius = Math.round((RADIUS + RADIUS_PER_DIGIT * (text.length() - 1)) * density);
+		
+		fillPaint.setARGB(200, 204, 0, 0);
+		fillPaint.setStyle(Paint.Style.FILL);
+		
+		outlinePaint.setARGB(255, 255, 255, 255);
+		outlinePaint.setStyle(Paint.Style.STROKE);
+		outlinePaint.setStrokeWidth(OUTLINE_WIDTH * density);
+		
+		textPaint.setARGB(255, 255, 255, 255);
+		textPaint.setTextAlign(Paint.Align.CENTER);
+		textPaint.setTextSize(TEXT_SIZE * density);
+		textPaint.setFakeBoldText(true);
+		
+		// center the marker on the position of the cluster
+		setBounds(-radius, -radius, radius, radius);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#draw(android.graphics.Canvas)
+	 */
+	@Override
+	public void draw(Canvas canvas) {
+		
+		Rect mBounds = getBounds();
+		
+		float mCentreX = mBounds.exactCenterX();
+		float mCentreY = mBounds.exactCenterY();
+		
+		canvas.drawCircle(mCentreX, mCentreY, radius, fillPaint);
+		canvas.drawCircle(mCentreX, mCentreY, radius - outlinePaint.getStrokeWidth() / 2, outlinePaint);
+		
+		// center the text vertically
+		canvas.drawText(text, mCentreX, mCentreY - (textPaint.ascent() + textPaint.descent()) / 2, textPaint);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#getIntrinsicWidth()
+	 */
+	@Override
+	public int getIntrinsicWidth() {
+		return radius * 2;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#getIntrinsicHeight()
+	 */
+	@Override
+	public int getIntrinsicHeight() {
+		return radius * 2;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#setAlpha(int)
+	 */
+	@Override
+	public void setAlpha(int alpha) {
+		fillPaint.setAlpha(alpha);
+		outlinePaint.setAlpha(alpha);
+		textPaint.setAlpha(alpha);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#setColorFilter(android.graphics.ColorFilter)
+	 */
+	@Override
+	public void setColorFilter(ColorFilter colorFilter) {
+		fillPaint.setColorFilter(colorFilter);
+		outlinePaint.setColorFilter(colorFilter);
+		textPaint.setColorFilter(colorFilter);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see android.graphics.drawable.Drawable#getOpacity()
+	 */
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+}
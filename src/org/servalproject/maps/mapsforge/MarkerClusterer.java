@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.mapsforge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.mapsforge.core.MercatorProjection;
+
+/**
+ * group POI and peer location markers that are close together on the map into cluster markers
+ * 
+ * markers are placed into a grid of cells for the current zoom level, any cell with enough markers
+ * is shown as a single cluster marker. the cells are kept between updates so that only the markers 
+ * that are added, moved or removed change the grid, the grid is only rebuilt when the zoom level changes
+ * 
+ * this class is not thread safe
+ */
+public class MarkerClusterer {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// size of each cell in the grid in pixels
+	private static final int CELL_PIXELS = 64;
+	
+	// minimum number of markers in a cell before they are shown as a cluster
+	private static final int MIN_CLUSTER_SIZE = 4;
+	
+	// highest zoom level that markers are clustered at
+	private static final byte MAX_CLUSTER_ZOOM_LEVEL = 17;
+	
+	/*
+	 * private class level variables
+	 */
+	private final HashMap<String, Member> locationMembers = new HashMap<String, Member>();
+	private final HashMap<Integer, Member> poiMembers = new HashMap<Integer, Member>();
+	
+	private final HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+	
+	private byte zoomLevel = -1;
+	private int generation = 0;
+	
+	/**
+	 * update the markers with the contents of a snapshot and build a new snapshot 
+	 * with markers that are close together replaced by clusters
+	 * 
+	 * @param snapshot the snapshot of markers from the database
+	 * @param zoomLevel the zoom level of the map
+	 * @return a new snapshot containing all of the markers to show
+	 */
+	public OverlaySnapshot cluster(OverlaySnapshot snapshot, byte zoomLevel) {
+		
+		if(snapshot == null) {
+			throw new IllegalArgumentException("the snapshot parameter is required");
+		}
+		
+		generation++;
+		
+		// the grid is different for each zoom level
+		if(zoomLevel != this.zoomLevel) {
+			this.zoomLevel = zoomLevel;
+			rebuildCells();
+		}
+		
+		OverlaySnapshot mClustered = new OverlaySnapshot();
+		Member mMember;
+		
+		// update the location markers, the users own location is never clustered
+		for(OverlaySnapshot.Marker mMarker : snapshot.getLocations()) {
+			
+			if(mMarker.type == OverlayItems.SELF_LOCATION_ITEM) {
+				mClustered.addLocation(mMarker.type, mMarker.recordId, mMarker.phoneNumber, mMarker.latitude, mMarker.longitude, mMarker.timestamp);
+				continue;
+			}
+			
+			mMember = locationMembers.get(mMarker.phoneNumber);
+			
+			if(mMember == null) {
+				mMember = new Member();
+				locationMembers.put(mMarker.phoneNumber, mMember);
+			}
+			
+			updateMember(mMember, mMarker);
+		}
+		
+		// existing POIs stay unless they have become too old
+		if(snapshot.isPoiDelta()) {
+			for(Member mPoi : poiMembers.values()) {
+				if(mPoi.marker.timestamp >= snapshot.getPoiMinTimestamp()) {
+					mPoi.generation = generation;
+				}
+			}
+		}
+		
+		// update the POI markers
+		for(OverlaySnapshot.Marker mMarker : snapshot.getPois()) {
+			
+			mMember = poiMembers.get(mMarker.recordId);
+			
+			if(mMember == null) {
+				mMember = new Member();
+				poiMembers.put(mMarker.recordId, mMember);
+			}
+			
+			updateMember(mMember, mMarker);
+		}
+		
+		// remove any markers that are no longer in the snapshot
+		removeStale(locationMembers.values().iterator());
+		removeStale(poiMembers.values().iterator());
+		
+		// build the new snapshot
+		OverlaySnapshot.Marker mMarker;
+		
+		for(Cell mCell : cells.values()) {
+			
+			if(mCell.members.size() >= MIN_CLUSTER_SIZE && zoomLevel <= MAX_CLUSTER_ZOOM_LEVEL) {
+				mClustered.addCluster(
+						mCell.key, 
+						mCell.members.size(), 
+						mCell.latitudeTotal / mCell.members.size(), 
+						mCell.longitudeTotal / mCell.members.size());
+				continue;
+			}
+			
+			for(int i = 0; i < mCell.members.size(); i++) {
+				mMarker = mCell.members.get(i).marker;
+				
+				if(mMarker.type == OverlayItems.POI_ITEM) {
+					mClustered.addPoi(mMarker.recordId, mMarker.latitude, mMarker.longitude, mMarker.timestamp);
+				} else {
+					mClustered.addLocation(mMarker.type, mMarker.recordId, mMarker.phoneNumber, mMarker.latitude, mMarker.longitude, mMarker.timestamp);
+				}
+			}
+		}
+		
+		mClustered.setTrack(snapshot.getTrack());
+		
+		return mClustered;
+	}
+	
+	/**
+	 * get the number of markers that are being clustered
+	 * 
+	 * @return the number of markers that are being clustered
+	 */
+	public int size() {
+		return locationMembers.size() + poiMembers.size();
+	}
+	
+	/**
+	 * remove all of the markers
+	 */
+	public void clear() {
+		locationMembers.clear();
+		poiMembers.clear();
+		cells.clear();
+	}
+	
+	// update a member with the latest marker, moving it between cells if required
+	private void updateMember(Member member, OverlaySnapshot.Marker marker) {
+		
+		member.generation = generation;
+		
+		if(member.marker != null 
+				&& member.marker.latitude == marker.latitude 
+				&& member.marker.longitude == marker.longitude) {
+			// the marker hasn't moved
+			member.marker = marker;
+			return;
+		}
+		
+		member.marker = marker;
+		member.x = MercatorProjection.longitudeToPixelX(marker.longitude, (byte) 0);
+		member.y = MercatorProjection.latitudeToPixelY(marker.latitude, (byte) 0);
+		
+		long mKey = getCellKey(member);
+		
+		if(member.cell != null) {
+			if(member.cell.key == mKey) {
+				// still in the same cell so just update the position
+				member.cell.move(member);
+				return;
+			}
+			
+			removeFromCell(member);
+		}
+		
+		addToCell(member, mKey);
+	}
+	
+	// remove all of the members that were not updated
+	private void removeStale(Iterator<Member> members) {
+		
+		Member mMember;
+		
+		while(members.hasNext()) {
+			mMember = members.next();
+			
+			if(mMember.generation != generation) {
+				removeFromCell(mMember);
+				members.remove();
+			}
+		}
+	}
+	
+	// place all of the members into the cells for the current zoom level
+	private void rebuildCells() {
+		
+		cells.clear();
+		
+		for(Member mMember : locationMembers.values()) {
+			addToCell(mMember, getCellKey(mMember));
+		}
+		
+		for(Member mMember : poiMembers.values()) {
+			addToCell(mMember, getCellKey(mMember));
+		}
+	}
+	
+	// determine the key of the cell for a member at the current zoom level
+	private long getCellKey(Member member) {
+		
+		double mScale = (double) (1L << zoomLevel) / CELL_PIXELS;
+		
+		long mCellX = (long) (member.x * mScale);
+		long mCellY = (long) (member.y * mScale);
+		
+		return (mCellX << 32) | mCellY;
+	}
+	
+	// add a member to a cell, creating the cell if required
+	private void addToCell(Member member, long key) {
+		
+		Cell mCell = cells.get(key);
+		
+		if(mCell == null) {
+			mCell = new Cell(key);
+			cells.put(key, mCell);
+		}
+		
+		mCell.add(member);
+		member.cell = mCell;
+	}
+	
+	// remove a member from its cell, removing the cell if it is empty
+	private void removeFromCell(Member member) {
+		
+		if(member.cell == null) {
+			return;
+		}
+		
+		member.cell.remove(member);
+		
+		if(member.cell.members.size() == 0) {
+			cells.remove(member.cell.key);
+		}
+		
+		member.cell = null;
+	}
+	
+	/*
+	 * a marker that is being clustered
+	 */
+	private static class Member {
+		
+		private OverlaySnapshot.Marker marker;
+		
+		// position in pixels at zoom level zero
+		private double x;
+		private double y;
+		
+		private Cell cell;
+		private int index;
+		private int generation;
+		
+		// position used in the totals of the cell
+		private double cellLatitude;
+		private double cellLongitude;
+	}
+	
+	/*
+	 * a cell in the grid and the markers inside it
+	 */
+	private static class Cell {
+		
+		private final long key;
+		private final ArrayList<Member> members = new ArrayList<Member>();
+		
+		// totals used to place the cluster marker in the middle of the markers
+		private double latitudeTotal = 0;
+		private double longitudeTotal = 0;
+		
+		private Cell(long key) {
+			this.key = key;
+		}
+		
+		private void add(Member member) {
+			member.index = members.size();
+			members.add(member);
+			
+			member.cellLatitude = member.marker.latitude;
+			member.cellLongitude = member.marker.longitude;
+			latitudeTotal += member.cellLatitude;
+			longitudeTotal += member.cellLongitude;
+		}
+		
+		// update the totals for a member that has moved within the cell
+		private void move(Member member) {
+			latitudeTotal += member.marker.latitude - member.cellLatitude;
+			longitudeTotal += member.marker.longitude - member.cellLongitude;
+			
+			member.cellLatitude = member.marker.latitude;
+			member.cellLongitude = member.marker.longitude;
+		}
+		
+		private void remove(Member member) {
+			
+			// move the last member into the place of the one being removed
+			Member mLast = members.remove(members.size() - 1);
+			
+			if(mLast != member) {
+				members.set(member.index, mLast);
+				mLast.index = member.index;
+			}
+			
+			latitudeTotal -= member.cellLatitude;
+			longitudeTotal -= member.cellLongitude;
+		}
+	}
+}
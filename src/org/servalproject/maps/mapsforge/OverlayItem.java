@@ -20,6 +20,7 @@
 package org.servalproject.maps.mapsforge;
 
 import org.mapsforge.core.GeoPoint;
+import org.mapsforge.core.MercatorProjection;
 import android.graphics.drawable.Drawable;
 
 /**
@@ -33,6 +34,10 @@ public class OverlayItem extends org.mapsforge.android.maps.overlay.OverlayItem
 	private int itemType = -1;
 	private int recordId = -1;
 	private GeoPoint geoPoint = null;
+	private long timestamp = -1;
+	
+	// the last overlay list update that included this item
+	int updateGeneration = -1;
 
 	/**
 	 * default constructor for this class
@@ -81,6 +86,9 @@ public class OverlayItem extends org.mapsforge.android.maps.overlay.OverlayItem
 		case OverlayItems.POI_ITEM:
 			itemType = type;
 			break;
+		case OverlayItems.CLUSTER_ITEM:
+			itemType = type;
+			break;
 		default:
 			throw new IllegalArgumentException("unknwon item type specified");
 		}
@@ -111,6 +119,47 @@ public class OverlayItem extends org.mapsforge.android.maps.overlay.OverlayItem
 		return this.recordId;
 	}
 	
+	/**
+	 * set the timestamp of the record represented by this item
+	 * 
+	 * @param timestamp the timestamp of the record
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	
+	/**
+	 * get the timestamp of the record represented by this item
+	 * 
+	 * @return the timestamp of the record
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * move this item to a new location if the location has changed
+	 * 
+	 * @param latitude the new latitude geo-coordinate
+	 * @param longitude the new longitude geo-coordinate
+	 * @return true if the item was moved
+	 */
+	public boolean moveTo(double latitude, double longitude) {
+		
+		// compare using the same precision as the GeoPoint to avoid creating a new one for every check
+		int mLatitudeE6 = (int) (MercatorProjection.limitLatitude(latitude) * 1000000);
+		int mLongitudeE6 = (int) (MercatorProjection.limitLongitude(longitude) * 1000000);
+		
+		if(geoPoint != null && geoPoint.latitudeE6 == mLatitudeE6 && geoPoint.longitudeE6 == mLongitudeE6) {
+			return false;
+		}
+		
+		geoPoint = new GeoPoint(mLatitudeE6, mLongitudeE6);
+		setPoint(geoPoint);
+		
+		return true;
+	}
+	
 	/**
 	 * get the latitude associated with this item
 	 * 
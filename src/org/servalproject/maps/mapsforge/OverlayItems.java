@@ -39,4 +39,9 @@ public interface OverlayItems {
 	 */
 	public static final int POI_ITEM = 2;
 	
+	/**
+	 * an overlay item representing a cluster of other items
+	 */
+	public static final int CLUSTER_ITEM = 3;
+	
 }
@@ -19,27 +19,52 @@
  */
 package org.servalproject.maps.mapsforge;
 
-import org.mapsforge.android.maps.overlay.ArrayItemizedOverlay;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.mapsforge.android.maps.overlay.ItemizedOverlay;
 import org.servalproject.maps.R;
 
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.Toast;
 
 /**
  * implement a Serval Maps specific overlay list
  */
-public class OverlayList extends ArrayItemizedOverlay {
+public class OverlayList extends ItemizedOverlay<OverlayItem> {
 	
 	// declare class level constants
 	private final String TAG = "OverlayList";
 	private final boolean V_LOG = false;
 	
+	// number of zoom levels to zoom in when a cluster is touched
+	private final int CLUSTER_ZOOM_STEP = 2;
+	
 	// declare class level variables
 	private Context context;
 	
+	// the list of items that are drawn, shared with the overlay drawing thread
+	private final ArrayList<OverlayItem> items = new ArrayList<OverlayItem>();
+	
+	// lookups used to find existing items when applying changes
+	private final HashMap<String, OverlayItem> locationItems = new HashMap<String, OverlayItem>();
+	private final SparseArray<OverlayItem> poiItems = new SparseArray<OverlayItem>();
+	private final HashMap<Long, OverlayItem> clusterItems = new HashMap<Long, OverlayItem>();
+	
+	// state of the current update
+	private int generation = 0;
+	private boolean changed = false;
+	
+	// statistics about the most recent update
+	private int addedCount = 0;
+	private int movedCount = 0;
+	private int removedCount = 0;
+	
 	
 	/**
 	 * construct a new overlay list
@@ -48,15 +73,354 @@ public class OverlayList extends ArrayItemizedOverlay {
 	 * @param context - the reference to the application context.
 	 */
 	public OverlayList(Drawable defaultMarker, Context context) {
-		super(defaultMarker);
+		super(defaultMarker == null ? null : ItemizedOverlay.boundCenterBottom(defaultMarker));
 		
 		this.context = context;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.mapsforge.android.maps.overlay.ItemizedOverlay#size()
+	 */
+	@Override
+	public int size() {
+		synchronized(items) {
+			return items.size();
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.mapsforge.android.maps.overlay.ItemizedOverlay#createItem(int)
+	 */
+	@Override
+	protected OverlayItem createItem(int index) {
+		synchronized(items) {
+			if(index >= items.size()) {
+				return null;
+			}
+			return items.get(index);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.mapsforge.android.maps.overlay.ItemizedOverlay#getThreadName()
+	 */
+	@Override
+	protected String getThreadName() {
+		return TAG;
+	}
+	
+	/**
+	 * start a new set of changes to the items in the list, 
+	 * any item not updated or kept before the call to {@link #endUpdate()} is removed
+	 */
+	public void beginUpdate() {
+		generation++;
+		changed = false;
+		addedCount = 0;
+		movedCount = 0;
+		removedCount = 0;
+	}
+	
+	/**
+	 * add a new location item or move the existing item for the phone number
+	 * 
+	 * @param phoneNumber the phone number that the location belongs to
+	 * @param type the type of item, either self or peer location
+	 * @param recordId the id of the location record
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 * @param marker the marker used to draw the item
+	 */
+	public void updateLocationItem(String phoneNumber, int type, int recordId, double latitude, double longitude, Drawable marker) {
+		
+		OverlayItem mItem = locationItems.get(phoneNumber);
+		
+		if(mItem == null) {
+			mItem = new OverlayItem();
+			mItem.setMarker(marker);
+			mItem.setType(type);
+			mItem.moveTo(latitude, longitude);
+			locationItems.put(phoneNumber, mItem);
+			addItem(mItem);
+		} else if(mItem.moveTo(latitude, longitude) == true) {
+			movedCount++;
+			changed = true;
+		}
+		
+		// the item may have changed between a self and peer marker
+		if(mItem.getType() != type) {
+			mItem.setType(type);
+			mItem.setMarker(marker);
+			changed = true;
+		}
+		
+		mItem.setRecordId(recordId);
+		mItem.updateGeneration = generation;
+	}
+	
+	/**
+	 * add a new POI item if it isn't already in the list
+	 * 
+	 * @param recordId the id of the POI record
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 * @param timestamp the timestamp of the POI record
+	 * @param marker the marker used to draw the item
+	 */
+	public void updatePoiItem(int recordId, double latitude, double longitude, long timestamp, Drawable marker) {
+		
+		OverlayItem mItem = poiItems.get(recordId);
+		
+		if(mItem == null) {
+			mItem = new OverlayItem();
+			mItem.setMarker(marker);
+			mItem.setType(OverlayItems.POI_ITEM);
+			mItem.setRecordId(recordId);
+			mItem.moveTo(latitude, longitude);
+			poiItems.put(recordId, mItem);
+			addItem(mItem);
+		} else if(mItem.moveTo(latitude, longitude) == true) {
+			movedCount++;
+			changed = true;
+		}
+		
+		mItem.setTimestamp(timestamp);
+		mItem.updateGeneration = generation;
+	}
+	
+	/**
+	 * add a new cluster item or update the existing item for the cluster key
+	 * 
+	 * @param key the key that identifies the cluster at the current zoom level
+	 * @param count the number of items in the cluster
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 */
+	public void updateClusterItem(long key, int count, double latitude, double longitude) {
+		
+		OverlayItem mItem = clusterItems.get(key);
+		
+		if(mItem == null) {
+			mItem = new OverlayItem();
+			mItem.setType(OverlayItems.CLUSTER_ITEM);
+			mItem.moveTo(latitude, longitude);
+			clusterItems.put(key, mItem);
+			addItem(mItem);
+		} else if(mItem.moveTo(latitude, longitude) == true) {
+			movedCount++;
+			changed = true;
+		}
+		
+		// the record id of a cluster item is the number of items in the cluster
+		if(mItem.getRecordId() != count) {
+			mItem.setRecordId(count);
+			mItem.setMarker(new ClusterDrawable(count, context.getResources().getDisplayMetrics().density));
+			changed = true;
+		}
+		
+		mItem.updateGeneration = generation;
+	}
+	
+	/**
+	 * keep all of the existing POI items that are not older than the given time,
+	 * used when only new POI records have been queried
+	 * 
+	 * @param minTimestamp the oldest timestamp to keep
+	 */
+	public void keepPoiItems(long minTimestamp) {
+		
+		OverlayItem mItem;
+		
+		for(int i = 0; i < poiItems.size(); i++) {
+			mItem = poiItems.valueAt(i);
+			
+			if(mItem.getTimestamp() >= minTimestamp) {
+				mItem.updateGeneration = generation;
+			}
+		}
+	}
+	
+	/**
+	 * finish the current set of changes, removing any items that weren't updated or kept,
+	 * and redraw the overlay if anything changed
+	 * 
+	 * @return true if the list of items changed
+	 */
+	public boolean endUpdate() {
+		
+		OverlayItem mItem;
+		
+		// remove any stale location items from the lookup
+		Iterator<OverlayItem> mIterator = locationItems.values().iterator();
+		
+		while(mIterator.hasNext()) {
+			mItem = mIterator.next();
+			
+			if(mItem.updateGeneration != generation) {
+				mIterator.remove();
+				removedCount++;
+			}
+		}
+		
+		// remove any stale cluster items from the lookup
+		mIterator = clusterItems.values().iterator();
+		
+		while(mIterator.hasNext()) {
+			mItem = mIterator.next();
+			
+			if(mItem.updateGeneration != generation) {
+				mIterator.remove();
+				removedCount++;
+			}
+		}
+		
+		// remove any stale poi items from the lookup
+		for(int i = poiItems.size() - 1; i >= 0; i--) {
+			mItem = poiItems.valueAt(i);
+			
+			if(mItem.updateGeneration != generation) {
+				poiItems.removeAt(i);
+				removedCount++;
+			}
+		}
+		
+		// compact the drawn list in a single pass
+		if(removedCount > 0) {
+			synchronized(items) {
+				int mKept = 0;
+				
+				for(int i = 0; i < items.size(); i++) {
+					mItem = items.get(i);
+					
+					if(mItem.updateGeneration == generation) {
+						items.set(mKept, mItem);
+						mKept++;
+					}
+				}
+				
+				for(int i = items.size() - 1; i >= mKept; i--) {
+					items.remove(i);
+				}
+			}
+			changed = true;
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, "update complete, added: " + addedCount + " moved: " + movedCount + " removed: " + removedCount);
+		}
+		
+		// only redraw when something has changed
+		if(changed) {
+			populate();
+		}
+		
+		return changed;
+	}
+	
+	/**
+	 * apply the differences between the current items and the markers in a snapshot,
+	 * and redraw the overlay if anything changed
+	 * 
+	 * @param snapshot the snapshot of markers to show
+	 * @param selfMarker the marker used to draw the users own location
+	 * @param peerMarker the marker used to draw peer locations
+	 * @param poiMarker the marker used to draw POIs
+	 * @return true if the list of items changed
+	 */
+	public boolean applySnapshot(OverlaySnapshot snapshot, Drawable selfMarker, Drawable peerMarker, Drawable poiMarker) {
+		
+		if(snapshot == null) {
+			throw new IllegalArgumentException("the snapshot parameter is required");
+		}
+		
+		beginUpdate();
+		
+		for(OverlaySnapshot.Marker mMarker : snapshot.getLocations()) {
+			
+			if(mMarker.type == OverlayItems.SELF_LOCATION_ITEM) {
+				updateLocationItem(mMarker.phoneNumber, mMarker.type, mMarker.recordId, mMarker.latitude, mMarker.longitude, selfMarker);
+			} else {
+				updateLocationItem(mMarker.phoneNumber, mMarker.type, mMarker.recordId, mMarker.latitude, mMarker.longitude, peerMarker);
+			}
+		}
+		
+		// existing POIs stay unless they have become too old
+		if(snapshot.isPoiDelta()) {
+			keepPoiItems(snapshot.getPoiMinTimestamp());
+		}
+		
+		for(OverlaySnapshot.Marker mMarker : snapshot.getPois()) {
+			updatePoiItem(mMarker.recordId, mMarker.latitude, mMarker.longitude, mMarker.timestamp, poiMarker);
+		}
+		
+		for(OverlaySnapshot.Cluster mCluster : snapshot.getClusters()) {
+			updateClusterItem(mCluster.key, mCluster.count, mCluster.latitude, mCluster.longitude);
+		}
+		
+		return endUpdate();
+	}
+	
+	/**
+	 * remove all of the items from the list
+	 */
+	public void clear() {
+		synchronized(items) {
+			items.clear();
+		}
+		locationItems.clear();
+		poiItems.clear();
+		clusterItems.clear();
+		
+		populate();
+	}
+	
+	// add an item to the drawn list
+	private void addItem(OverlayItem item) {
+		synchronized(items) {
+			items.add(item);
+		}
+		addedCount++;
+		changed = true;
+	}
+	
+	/**
+	 * get the number of items added by the most recent update
+	 * 
+	 * @return the number of items added
+	 */
+	public int getAddedCount() {
+		return addedCount;
+	}
+	
+	/**
+	 * get the number of items moved by the most recent update
+	 * 
+	 * @return the number of items moved
+	 */
+	public int getMovedCount() {
+		return movedCount;
+	}
+	
+	/**
+	 * get the number of items removed by the most recent update
+	 * 
+	 * @return the number of items removed
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+	
 	@Override
 	public boolean onTap(int index) {
 		
 		OverlayItem mItem = (OverlayItem)this.createItem(index);
+		
+		if(mItem == null) {
+			return false;
+		}
 		Intent mIntent;
 		//HashMap<String, String> mExtraInfo;
 		
@@ -94,6 +458,17 @@ public class OverlayList extends ArrayItemizedOverlay {
 			mIntent.putExtra("recordId", mItem.getRecordId());
 			context.startActivity(mIntent);
 			break;
+		case OverlayItems.CLUSTER_ITEM:
+			if(V_LOG){
+				Log.v(TAG, "user touched a cluster marker with " + mItem.getRecordId() + " items");
+			}
+			
+			// zoom in on the cluster so that the items can be seen
+			if(internalMapView != null) {
+				internalMapView.getController().setCenter(mItem.getPoint());
+				internalMapView.getController().setZoom(internalMapView.getMapPosition().getZoomLevel() + CLUSTER_ZOOM_STEP);
+			}
+			break;
 		default:
 			Log.e(TAG, "unknown marker type");
 			return false;
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.mapsforge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mapsforge.core.GeoPoint;
+
+/**
+ * a set of markers and an optional track loaded in the background for display on the map,
+ * once the snapshot has been handed to the UI thread it is not changed
+ */
+public class OverlaySnapshot {
+	
+	/**
+	 * a single marker in the snapshot
+	 */
+	public static final class Marker {
+		
+		/**
+		 * the type of the marker as defined in {@link OverlayItems}
+		 */
+		public final int type;
+		
+		/**
+		 * the id of the record that the marker represents
+		 */
+		public final int recordId;
+		
+		/**
+		 * the phone number for location markers, null for POI markers
+		 */
+		public final String phoneNumber;
+		
+		/**
+		 * the latitude geo-coordinate
+		 */
+		public final double latitude;
+		
+		/**
+		 * the longitude geo-coordinate
+		 */
+		public final double longitude;
+		
+		/**
+		 * the timestamp of the record
+		 */
+		public final long timestamp;
+		
+		private Marker(int type, int recordId, String phoneNumber, double latitude, double longitude, long timestamp) {
+			this.type = type;
+			this.recordId = recordId;
+			this.phoneNumber = phoneNumber;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	/**
+	 * a marker representing a group of markers that are close together
+	 */
+	public static final class Cluster {
+		
+		/**
+		 * a key that identifies the cluster at the current zoom level
+		 */
+		public final long key;
+		
+		/**
+		 * the number of markers in the cluster
+		 */
+		public final int count;
+		
+		/**
+		 * the latitude geo-coordinate
+		 */
+		public final double latitude;
+		
+		/**
+		 * the longitude geo-coordinate
+		 */
+		public final double longitude;
+		
+		private Cluster(long key, int count, double latitude, double longitude) {
+			this.key = key;
+			this.count = count;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+	
+	// declare class level variables
+	private final ArrayList<Marker> locations = new ArrayList<Marker>();
+	private final ArrayList<Marker> pois = new ArrayList<Marker>();
+	private final ArrayList<Cluster> clusters = new ArrayList<Cluster>();
+	
+	private Marker selfLocation = null;
+	
+	private boolean poiDelta = false;
+	private long poiMinTimestamp = Long.MIN_VALUE;
+	
+	private GeoPoint[][] track = null;
+	
+	/**
+	 * add a location marker to the snapshot
+	 * 
+	 * @param type the type of location marker, either self or peer location
+	 * @param recordId the id of the location record
+	 * @param phoneNumber the phone number that the location belongs to
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 * @param timestamp the timestamp of the location record
+	 */
+	public void addLocation(int type, int recordId, String phoneNumber, double latitude, double longitude, long timestamp) {
+		
+		if(phoneNumber == null) {
+			throw new IllegalArgumentException("the phoneNumber parameter is required");
+		}
+		
+		Marker mMarker = new Marker(type, recordId, phoneNumber, latitude, longitude, timestamp);
+		
+		locations.add(mMarker);
+		
+		if(type == OverlayItems.SELF_LOCATION_ITEM) {
+			selfLocation = mMarker;
+		}
+	}
+	
+	/**
+	 * add a POI marker to the snapshot
+	 * 
+	 * @param recordId the id of the POI record
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 * @param timestamp the timestamp of the POI record
+	 */
+	public void addPoi(int recordId, double latitude, double longitude, long timestamp) {
+		pois.add(new Marker(OverlayItems.POI_ITEM, recordId, null, latitude, longitude, timestamp));
+	}
+	
+	/**
+	 * add a cluster marker to the snapshot
+	 * 
+	 * @param key a key that identifies the cluster at the current zoom level
+	 * @param count the number of markers in the cluster
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 */
+	public void addCluster(long key, int count, double latitude, double longitude) {
+		clusters.add(new Cluster(key, count, latitude, longitude));
+	}
+	
+	/**
+	 * indicate that the snapshot only contains new POIs, and that existing POIs
+	 * not older than the given time should be kept
+	 * 
+	 * @param minTimestamp the oldest timestamp of existing POIs to keep
+	 */
+	public void setPoiDelta(long minTimestamp) {
+		poiDelta = true;
+		poiMinTimestamp = minTimestamp;
+	}
+	
+	/**
+	 * set the track to draw on the map
+	 * 
+	 * @param track the way nodes of the track to draw on the map
+	 */
+	public void setTrack(GeoPoint[][] track) {
+		this.track = track;
+	}
+	
+	/**
+	 * get the location markers
+	 * 
+	 * @return an unmodifiable list of location markers
+	 */
+	public List<Marker> getLocations() {
+		return Collections.unmodifiableList(locations);
+	}
+	
+	/**
+	 * get the POI markers
+	 * 
+	 * @return an unmodifiable list of POI markers
+	 */
+	public List<Marker> getPois() {
+		return Collections.unmodifiableList(pois);
+	}
+	
+	/**
+	 * get the cluster markers
+	 * 
+	 * @return an unmodifiable list of cluster markers
+	 */
+	public List<Cluster> getClusters() {
+		return Collections.unmodifiableList(clusters);
+	}
+	
+	/**
+	 * get the marker for the users own location
+	 * 
+	 * @return the marker for the users own location or null if it isn't in the snapshot
+	 */
+	public Marker getSelfLocation() {
+		return selfLocation;
+	}
+	
+	/**
+	 * check to see if the snapshot only contains new POIs
+	 * 
+	 * @return true if existing POIs should be kept
+	 */
+	public boolean isPoiDelta() {
+		return poiDelta;
+	}
+	
+	/**
+	 * get the oldest timestamp of existing POIs to keep
+	 * 
+	 * @return the oldest timestamp of existing POIs to keep
+	 */
+	public long getPoiMinTimestamp() {
+		return poiMinTimestamp;
+	}
+	
+	/**
+	 * get the track to draw on the map
+	 * 
+	 * @return the way nodes of the track to draw on the map or null if there is no track
+	 */
+	public GeoPoint[][] getTrack() {
+		return track;
+	}
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.mapsforge;
+
+import java.util.ArrayList;
+
+import org.mapsforge.core.GeoPoint;
+import org.mapsforge.core.MercatorProjection;
+
+/**
+ * a GPS track that is simplified using the Douglas-Peucker algorithm,
+ * with the simplified list of points for each zoom level kept until the track changes
+ * 
+ * points are held in chunks so that appending new points, or removing old points,
+ * only requires the first or last chunk to be simplified again
+ * 
+ * this class is not thread safe
+ */
+public class SimplifiedTrack {
+	
+	/**
+	 * the highest zoom level that the track is simplified for, 
+	 * higher zoom levels use the points for this zoom level
+	 */
+	public static final byte MAX_ZOOM_LEVEL = 22;
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// number of points in each chunk
+	private static final int CHUNK_SIZE = 256;
+	
+	// maximum distance in pixels between the simplified track and the original track
+	private static final double TOLERANCE_PIXELS = 1.0;
+	
+	/*
+	 * private class level variables
+	 */
+	private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+	
+	private int pointCount = 0;
+	private long lastTimestamp = Long.MIN_VALUE;
+	
+	// simplified list of points for each zoom level
+	private GeoPoint[][][] levels = new GeoPoint[MAX_ZOOM_LEVEL + 1][][];
+	
+	/**
+	 * add a point to the end of the track
+	 * 
+	 * @param latitude the latitude geo-coordinate
+	 * @param longitude the longitude geo-coordinate
+	 * @param timestamp the time the point was recorded
+	 * @return true if the point was added, false if it is older than the last point in the track
+	 */
+	public boolean append(double latitude, double longitude, long timestamp) {
+		
+		if(timestamp < lastTimestamp) {
+			return false;
+		}
+		
+		Chunk mChunk = null;
+		
+		if(chunks.size() > 0) {
+			mChunk = chunks.get(chunks.size() - 1);
+		}
+		
+		if(mChunk == null || mChunk.count == CHUNK_SIZE) {
+			mChunk = new Chunk(CHUNK_SIZE);
+			chunks.add(mChunk);
+		}
+		
+		mChunk.add(new GeoPoint(latitude, longitude), timestamp);
+		
+		pointCount++;
+		lastTimestamp = timestamp;
+		
+		invalidate();
+		
+		return true;
+	}
+	
+	/**
+	 * remove all of the points recorded before the given time
+	 * 
+	 * @param timestamp the time of the oldest point to keep
+	 * @return true if any points were removed
+	 */
+	public boolean removeBefore(long timestamp) {
+		
+		int mRemoved = 0;
+		
+		// remove whole chunks first
+		while(chunks.size() > 0 && chunks.get(0).timestamps[chunks.get(0).count - 1] < timestamp) {
+			mRemoved += chunks.remove(0).count;
+		}
+		
+		// remove the old points from the start of the first chunk
+		if(chunks.size() > 0 && chunks.get(0).timestamps[0] < timestamp) {
+			
+			Chunk mOld = chunks.get(0);
+			Chunk mNew = new Chunk(CHUNK_SIZE);
+			
+			for(int i = 0; i < mOld.count; i++) {
+				if(mOld.timestamps[i] >= timestamp) {
+					mNew.add(mOld.points[i], mOld.timestamps[i]);
+				} else {
+					mRemoved++;
+				}
+			}
+			
+			chunks.set(0, mNew);
+		}
+		
+		if(mRemoved > 0) {
+			pointCount -= mRemoved;
+			
+			if(pointCount == 0) {
+				lastTimestamp = Long.MIN_VALUE;
+			}
+			
+			invalidate();
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * remove all of the points from the track
+	 */
+	public void clear() {
+		chunks.clear();
+		pointCount = 0;
+		lastTimestamp = Long.MIN_VALUE;
+		invalidate();
+	}
+	
+	/**
+	 * get the number of points in the original track
+	 * 
+	 * @return the number of points in the original track
+	 */
+	public int size() {
+		return pointCount;
+	}
+	
+	/**
+	 * get the time of the last point in the track
+	 * 
+	 * @return the time of the last point in the track or Long.MIN_VALUE if the track is empty
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+	
+	/**
+	 * get the simplified track for a zoom level in a form suitable for an OverlayWay, 
+	 * the same array is returned for a zoom level until the track changes
+	 * 
+	 * @param zoomLevel the zoom level of the map
+	 * @return the simplified track or null if the track has less than two points
+	 */
+	public GeoPoint[][] getWayNodes(byte zoomLevel) {
+		
+		if(pointCount < 2) {
+			return null;
+		}
+		
+		if(zoomLevel < 0) {
+			zoomLevel = 0;
+		} else if(zoomLevel > MAX_ZOOM_LEVEL) {
+			zoomLevel = MAX_ZOOM_LEVEL;
+		}
+		
+		if(levels[zoomLevel] == null) {
+			
+			// half of the tolerance is used within each chunk, and half across the whole track 
+			// so that the track can be simplified past the ends of the chunks
+			double mTolerance = TOLERANCE_PIXELS / (1 << zoomLevel) / 2;
+			
+			// count the points first so the arrays are only allocated once
+			int mCount = 0;
+			
+			for(Chunk mChunk : chunks) {
+				mCount += mChunk.getVertexCount(mTolerance);
+			}
+			
+			GeoPoint[] mPoints = new GeoPoint[mCount];
+			double[] mX = new double[mCount];
+			double[] mY = new double[mCount];
+			mCount = 0;
+			
+			for(Chunk mChunk : chunks) {
+				for(int i = 0; i < mChunk.count; i++) {
+					if(mChunk.significance[i] > mTolerance) {
+						mPoints[mCount] = mChunk.points[i];
+						mX[mCount] = mChunk.x[i];
+						mY[mCount] = mChunk.y[i];
+						mCount++;
+					}
+				}
+			}
+			
+			// simplify the points kept by the chunks
+			double[] mSignificance = new double[mCount];
+			simplify(mX, mY, mSignificance, mCount);
+			
+			int mKept = 0;
+			
+			for(int i = 0; i < mCount; i++) {
+				if(mSignificance[i] > mTolerance) {
+					mKept++;
+				}
+			}
+			
+			GeoPoint[][] mWayNodes = new GeoPoint[1][mKept];
+			mKept = 0;
+			
+			for(int i = 0; i < mCount; i++) {
+				if(mSignificance[i] > mTolerance) {
+					mWayNodes[0][mKept] = mPoints[i];
+					mKept++;
+				}
+			}
+			
+			levels[zoomLevel] = mWayNodes;
+		}
+		
+		return levels[zoomLevel];
+	}
+	
+	/**
+	 * get the number of points in the simplified track for a zoom level
+	 * 
+	 * @param zoomLevel the zoom level of the map
+	 * @return the number of points in the simplified track
+	 */
+	public int getVertexCount(byte zoomLevel) {
+		
+		GeoPoint[][] mWayNodes = getWayNodes(zoomLevel);
+		
+		if(mWayNodes == null) {
+			return pointCount;
+		}
+		
+		return mWayNodes[0].length;
+	}
+	
+	/*
+	 * run the Douglas-Peucker algorithm over a list of points once with no tolerance, recording 
+	 * the distance at which each point was kept so that any tolerance can be applied later
+	 * 
+	 * a point is never more significant than the point that split the section containing it, 
+	 * so the points kept at a larger tolerance are always kept at a smaller one
+	 */
+	private static void simplify(double[] x, double[] y, double[] significance, int count) {
+		
+		if(count == 0) {
+			return;
+		}
+		
+		for(int i = 0; i < count; i++) {
+			significance[i] = 0;
+		}
+		
+		// the first and last points are always kept
+		significance[0] = Double.MAX_VALUE;
+		significance[count - 1] = Double.MAX_VALUE;
+		
+		// use a stack rather than recursion to handle long tracks
+		int[] mStack = new int[count * 2];
+		double[] mLimits = new double[count];
+		int mTop = 0;
+		
+		if(count > 2) {
+			mStack[0] = 0;
+			mStack[1] = count - 1;
+			mLimits[0] = Double.MAX_VALUE;
+			mTop = 1;
+		}
+		
+		int mFirst;
+		int mLast;
+		int mIndex;
+		double mLimit;
+		double mMaxDistance;
+		double mDistance;
+		
+		while(mTop > 0) {
+			
+			mTop--;
+			mFirst = mStack[mTop * 2];
+			mLast = mStack[mTop * 2 + 1];
+			mLimit = mLimits[mTop];
+			
+			mIndex = -1;
+			mMaxDistance = -1;
+			
+			for(int i = mFirst + 1; i < mLast; i++) {
+				mDistance = getDistance(x, y, i, mFirst, mLast);
+				
+				if(mDistance > mMaxDistance) {
+					mMaxDistance = mDistance;
+					mIndex = i;
+				}
+			}
+			
+			if(mIndex == -1) {
+				continue;
+			}
+			
+			significance[mIndex] = Math.min(mMaxDistance, mLimit);
+			
+			if(mIndex - mFirst > 1) {
+				mStack[mTop * 2] = mFirst;
+				mStack[mTop * 2 + 1] = mIndex;
+				mLimits[mTop] = significance[mIndex];
+				mTop++;
+			}
+			
+			if(mLast - mIndex > 1) {
+				mStack[mTop * 2] = mIndex;
+				mStack[mTop * 2 + 1] = mLast;
+				mLimits[mTop] = significance[mIndex];
+				mTop++;
+			}
+		}
+	}
+	
+	// get the distance from a point to the line segment between two other points
+	private static double getDistance(double[] x, double[] y, int point, int start, int end) {
+		
+		double mDeltaX = x[end] - x[start];
+		double mDeltaY = y[end] - y[start];
+		double mLengthSquared = mDeltaX * mDeltaX + mDeltaY * mDeltaY;
+		
+		double mPointX = x[start];
+		double mPointY = y[start];
+		
+		if(mLengthSquared > 0) {
+			double mPosition = ((x[point] - x[start]) * mDeltaX + (y[point] - y[start]) * mDeltaY) / mLengthSquared;
+			
+			if(mPosition > 1) {
+				mPointX = x[end];
+				mPointY = y[end];
+			} else if(mPosition > 0) {
+				mPointX += mPosition * mDeltaX;
+				mPointY += mPosition * mDeltaY;
+			}
+		}
+		
+		mDeltaX = x[point] - mPointX;
+		mDeltaY = y[point] - mPointY;
+		
+		return Math.sqrt(mDeltaX * mDeltaX + mDeltaY * mDeltaY);
+	}
+	
+	// throw away the simplified points for all zoom levels
+	private void invalidate() {
+		for(int i = 0; i < levels.length; i++) {
+			levels[i] = null;
+		}
+	}
+	
+	/*
+	 * a group of consecutive points in the track
+	 */
+	private static class Chunk {
+		
+		private final GeoPoint[] points;
+		private final long[] timestamps;
+		
+		// position of each point in pixels at zoom level zero
+		private final double[] x;
+		private final double[] y;
+		
+		// the largest tolerance at which each point is still part of the simplified track
+		private final double[] significance;
+		
+		private int count = 0;
+		private boolean simplified = false;
+		
+		private Chunk(int size) {
+			points = new GeoPoint[size];
+			timestamps = new long[size];
+			x = new double[size];
+			y = new double[size];
+			significance = new double[size];
+		}
+		
+		private void add(GeoPoint point, long timestamp) {
+			points[count] = point;
+			timestamps[count] = timestamp;
+			x[count] = MercatorProjection.longitudeToPixelX(point.getLongitude(), (byte) 0);
+			y[count] = MercatorProjection.latitudeToPixelY(point.getLatitude(), (byte) 0);
+			count++;
+			simplified = false;
+		}
+		
+		// count the points that are kept at the given tolerance
+		private int getVertexCount(double tolerance) {
+			
+			if(simplified == false) {
+				simplify();
+			}
+			
+			int mCount = 0;
+			
+			for(int i = 0; i < count; i++) {
+				if(significance[i] > tolerance) {
+					mCount++;
+				}
+			}
+			
+			return mCount;
+		}
+		
+		// work out the significance of each point in the chunk
+		private void simplify() {
+			SimplifiedTrack.simplify(x, y, significance, count);
+			simplified = true;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.mapsforge;
+
+import org.mapsforge.android.maps.Projection;
+import org.mapsforge.android.maps.overlay.Overlay;
+
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.os.Handler;
+
+/**
+ * an overlay without any UI that runs a task each time the map is moved or zoomed, 
+ * the map view redraws its overlays whenever the visible area changes so the task 
+ * runs in response to touch, zoom and trackball events without polling the map position
+ */
+public class ViewportOverlay extends Overlay {
+	
+	/*
+	 * private class level variables
+	 */
+	private final Handler handler;
+	private final Runnable task;
+	
+	/**
+	 * construct a new instance of this class
+	 * 
+	 * @param handler the handler used to run the task on its thread
+	 * @param task the task to run when the map has been moved or zoomed
+	 */
+	public ViewportOverlay(Handler handler, Runnable task) {
+		super();
+		
+		if(handler == null) {
+			throw new IllegalArgumentException("the handler parameter is required");
+		}
+		
+		if(task == null) {
+			throw new IllegalArgumentException("the task parameter is required");
+		}
+		
+		this.handler = handler;
+		this.task = task;
+	}
+	
+	/*
+	 * called on the overlay thread, a burst of redraws runs the task once
+	 * 
+	 * (non-Javadoc)
+	 * @see org.mapsforge.android.maps.overlay.Overlay#drawOverlayBitmap(android.graphics.Canvas, android.graphics.Point, org.mapsforge.android.maps.Projection, byte)
+	 */
+	@Override
+	protected void drawOverlayBitmap(Canvas canvas, Point drawPosition, Projection projection, byte drawZoomLevel) {
+		handler.removeCallbacks(task);
+		handler.post(task);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.photos;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * a memory cache of decoded photos that discards the least recently used photos 
+ * once the photos use more than a maximum number of bytes
+ */
+public class PhotoCache {
+	
+	/*
+	 * private class level variables
+	 */
+	private final long maxBytes;
+	private long size = 0;
+	
+	// photos in the order they were used, least recently used first
+	private final LinkedHashMap<String, Bitmap> photos = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	
+	/**
+	 * construct a new photo cache
+	 * 
+	 * @param maxBytes the maximum number of bytes used by the photos in the cache
+	 */
+	public PhotoCache(long maxBytes) {
+		
+		if(maxBytes <= 0) {
+			throw new IllegalArgumentException("the maxBytes parameter must be greater than zero");
+		}
+		
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * get a photo from the cache, marking it as the most recently used photo
+	 * 
+	 * @param key the key of the photo
+	 * @return the photo or null if it isn't in the cache
+	 */
+	public synchronized Bitmap get(String key) {
+		return photos.get(key);
+	}
+	
+	/**
+	 * add a photo to the cache, discarding the least recently used photos if required
+	 * 
+	 * @param key the key of the photo
+	 * @param photo the photo
+	 */
+	public synchronized void put(String key, Bitmap photo) {
+		
+		if(key == null || photo == null) {
+			throw new IllegalArgumentException("all parameters are required");
+		}
+		
+		Bitmap mOld = photos.put(key, photo);
+		
+		if(mOld != null) {
+			size -= getSize(mOld);
+		}
+		
+		size += getSize(photo);
+		
+		// discard the least recently used photos, but never the one just added
+		Iterator<Map.Entry<String, Bitmap>> mIterator = photos.entrySet().iterator();
+		
+		while(size > maxBytes && photos.size() > 1) {
+			
+			Map.Entry<String, Bitmap> mEntry = mIterator.next();
+			
+			size -= getSize(mEntry.getValue());
+			mIterator.remove();
+		}
+	}
+	
+	/**
+	 * remove the photos with keys that start with a prefix
+	 * 
+	 * @param prefix the start of the keys of the photos to remove
+	 */
+	public synchronized void removeAll(String prefix) {
+		
+		Iterator<Map.Entry<String, Bitmap>> mIterator = photos.entrySet().iterator();
+		
+		while(mIterator.hasNext()) {
+			
+			Map.Entry<String, Bitmap> mEntry = mIterator.next();
+			
+			if(mEntry.getKey().startsWith(prefix) == true) {
+				size -= getSize(mEntry.getValue());
+				mIterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * remove all of the photos from the cache
+	 */
+	public synchronized void clear() {
+		photos.clear();
+		size = 0;
+	}
+	
+	/**
+	 * @return the number of bytes used by the photos in the cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	// the number of bytes used by a photo
+	private static long getSize(Bitmap photo) {
+		return (long) photo.getRowBytes() * photo.getHeight();
+	}
+}
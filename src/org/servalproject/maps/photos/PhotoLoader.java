@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.photos;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.servalproject.maps.rhizome.Rhizome;
+import org.servalproject.maps.utils.FileUtils;
+import org.servalproject.maps.utils.MediaUtils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+import android.util.Log;
+import android.widget.ImageView;
+
+/**
+ * load POI photos into image views without blocking the UI thread
+ * 
+ * photos are decoded on a background thread at no more than twice the size of the view, 
+ * decoded photos are kept in a memory cache bounded by the size of the heap, 
+ * and thumbnails are kept in a disk cache so a photo is only decoded from the camera image once
+ * 
+ * if a photo received from another phone hasn't arrived yet the thumbnail shared before it is shown
+ */
+public class PhotoLoader {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final boolean V_LOG = false;
+	private static final String TAG = "PhotoLoader";
+	
+	// share of the heap used by the memory cache
+	private static final int HEAP_SHARE = 8;
+	
+	// name of the directory in the application cache used for thumbnails
+	private static final String THUMBNAIL_DIR = "photos";
+	
+	// maximum size of the thumbnails on disk
+	private static final long MAX_DISK_BYTES = 4 * 1024 * 1024;
+	
+	private static final int THUMBNAIL_QUALITY = 85;
+	
+	/*
+	 * private class level variables
+	 */
+	private static PhotoLoader instance = null;
+	
+	private final Context context;
+	private final PhotoCache cache;
+	private final File thumbnailDir;
+	
+	/*
+	 * construct a new photo loader
+	 */
+	private PhotoLoader(Context context) {
+		
+		this.context = context.getApplicationContext();
+		
+		cache = new PhotoCache(Runtime.getRuntime().maxMemory() / HEAP_SHARE);
+		thumbnailDir = new File(this.context.getCacheDir(), THUMBNAIL_DIR);
+	}
+	
+	/**
+	 * get the photo loader shared by all of the activities
+	 * 
+	 * @param context a context used to find the photos
+	 * @return the shared photo loader
+	 */
+	public static synchronized PhotoLoader getInstance(Context context) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
+		
+		if(instance == null) {
+			instance = new PhotoLoader(context);
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * load a photo into an image view, cancelling any photo already being loaded into it, 
+	 * a cached photo is shown straight away otherwise it is shown once it has been decoded
+	 * 
+	 * @param photoName the name of the photo file
+	 * @param view the view to show the photo in, its visibility is not changed
+	 * @param width the width of the view in pixels
+	 * @param height the height of the view in pixels
+	 */
+	public void load(String photoName, ImageView view, int width, int height) {
+		
+		if(TextUtils.isEmpty(photoName) == true) {
+			throw new IllegalArgumentException("the photoName parameter is required");
+		}
+		
+		if(view == null) {
+			throw new IllegalArgumentException("the view parameter is required");
+		}
+		
+		if(width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("the width and height parameters must be greater than zero");
+		}
+		
+		cancel(view);
+		
+		String mKey = getThumbnailName(photoName, width, height);
+		Bitmap mPhoto = cache.get(mKey);
+		
+		if(mPhoto != null) {
+			view.setImageBitmap(mPhoto);
+			return;
+		}
+		
+		view.setImageDrawable(null);
+		
+		PhotoTask mTask = new PhotoTask(view, photoName, mKey, width, height);
+		view.setTag(mTask);
+		mTask.execute();
+	}
+	
+	/**
+	 * cancel the photo being loaded into an image view
+	 * 
+	 * @param view the image view
+	 */
+	public void cancel(ImageView view) {
+		
+		if(view.getTag() instanceof PhotoTask) {
+			((PhotoTask) view.getTag()).stop();
+			view.setTag(null);
+		}
+	}
+	
+	/**
+	 * remove the cached copies of a photo, so that a photo that replaces its thumbnail is decoded again
+	 * 
+	 * @param photoName the name of the photo file
+	 */
+	public void remove(String photoName) {
+		
+		String mPrefix = getBaseName(photoName) + "-";
+		
+		cache.removeAll(mPrefix);
+		
+		File[] mFiles = thumbnailDir.listFiles();
+		
+		if(mFiles != null) {
+			for(File mFile : mFiles) {
+				if(mFile.getName().startsWith(mPrefix) == true) {
+					mFile.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * remove all of the photos from the memory and disk caches
+	 */
+	public void clear() {
+		
+		cache.clear();
+		
+		File[] mFiles = thumbnailDir.listFiles();
+		
+		if(mFiles != null) {
+			for(File mFile : mFiles) {
+				mFile.delete();
+			}
+		}
+	}
+	
+	/**
+	 * find a photo in the media store, or in Rhizome if it hasn't been copied to the media store, 
+	 * or the thumbnail of the photo in Rhizome if the photo hasn't been received yet
+	 * 
+	 * @param context a context used to find the Rhizome data store
+	 * @param photoName the name of the photo file
+	 * @return the path to the photo or null if it can't be found
+	 */
+	public static String findPhoto(Context context, String photoName) {
+		
+		String mPath = MediaUtils.getMediaStore() + photoName;
+		
+		if(FileUtils.isFileReadable(mPath) == true) {
+			return mPath;
+		}
+		
+		try {
+			return Rhizome.checkForFile(context, photoName);
+		} catch (FileNotFoundException e) {
+			// the photo may not have been received yet
+		}
+		
+		if(photoName.startsWith(MediaUtils.PHOTO_FILE_PREFIX) == false) {
+			return null;
+		}
+		
+		try {
+			return Rhizome.checkForFile(context, MediaUtils.getThumbnailName(photoName));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * calculate the power of two used to reduce the size of a photo as it is decoded 
+	 * so that it is no smaller than the requested size
+	 * 
+	 * @param photoWidth the width of the photo
+	 * @param photoHeight the height of the photo
+	 * @param width the requested width
+	 * @param height the requested height
+	 * @return the sample size for the bitmap options
+	 */
+	public static int calculateSampleSize(int photoWidth, int photoHeight, int width, int height) {
+		
+		int mSampleSize = 1;
+		
+		while(photoWidth / (mSampleSize * 2) >= width && photoHeight / (mSampleSize * 2) >= height) {
+			mSampleSize *= 2;
+		}
+		
+		return mSampleSize;
+	}
+	
+	// the name of the thumbnail of a photo at a size, also used as the key in the memory cache
+	private static String getThumbnailName(String photoName, int width, int height) {
+		return getBaseName(photoName) + "-" + width + "x" + height + ".jpg";
+	}
+	
+	// the name of a photo without the extension
+	private static String getBaseName(String photoName) {
+		
+		int mExtension = photoName.lastIndexOf('.');
+		
+		if(mExtension != -1) {
+			return photoName.substring(0, mExtension);
+		}
+		
+		return photoName;
+	}
+	
+	/*
+	 * decode a photo at a size, returning null if the decoding is cancelled or fails
+	 */
+	private Bitmap decode(String path, int width, int height, BitmapFactory.Options options) {
+		
+		// read the size of the photo without decoding it
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		
+		if(options.mCancel == true || options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+		
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, width, height);
+		
+		try {
+			return BitmapFactory.decodeFile(path, options);
+		} catch (OutOfMemoryError e) {
+			Log.e(TAG, "not enough memory to decode '" + path + "' with sample size " + options.inSampleSize);
+			return null;
+		}
+	}
+	
+	/*
+	 * save a thumbnail to the disk cache, removing the oldest thumbnails if the cache is too large
+	 */
+	private void saveThumbnail(File file, Bitmap photo) {
+		
+		if(thumbnailDir.isDirectory() == false && thumbnailDir.mkdirs() == false) {
+			Log.e(TAG, "unable to create the thumbnail directory: " + thumbnailDir);
+			return;
+		}
+		
+		// write to a temporary file so an incomplete thumbnail is never read
+		File mTemp = new File(thumbnailDir, file.getName() + ".tmp");
+		
+		try {
+			FileOutputStream mOutput = new FileOutputStream(mTemp);
+			
+			try {
+				photo.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, mOutput);
+			} finally {
+				mOutput.close();
+			}
+			
+			if(mTemp.renameTo(file) == false) {
+				mTemp.delete();
+				return;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "unable to save thumbnail: " + file, e);
+			mTemp.delete();
+			return;
+		}
+		
+		File[] mFiles = thumbnailDir.listFiles();
+		
+		if(mFiles == null) {
+			return;
+		}
+		
+		long mSize = 0;
+		
+		for(File mFile : mFiles) {
+			mSize += mFile.length();
+		}
+		
+		if(mSize <= MAX_DISK_BYTES) {
+			return;
+		}
+		
+		// remove the least recently created thumbnails
+		Arrays.sort(mFiles, new Comparator<File>() {
+			
+			/*
+			 * (non-Javadoc)
+			 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+			 */
+			@Override
+			public int compare(File first, File second) {
+				return first.lastModified() < second.lastModified() ? -1 : (first.lastModified() == second.lastModified() ? 0 : 1);
+			}
+		});
+		
+		for(int i = 0; i < mFiles.length && mSize > MAX_DISK_BYTES; i++) {
+			
+			if(mFiles[i].equals(file) == false) {
+				mSize -= mFiles[i].length();
+				mFiles[i].delete();
+			}
+		}
+	}
+	
+	/*
+	 * load a photo in the background and show it in the view if the task hasn't been cancelled
+	 */
+	private class PhotoTask extends AsyncTask<Void, Void, Bitmap> {
+		
+		// the view may be gone before the photo is decoded
+		private final WeakReference<ImageView> view;
+		
+		private final String photoName;
+		private final String key;
+		private final int width;
+		private final int height;
+		
+		private final BitmapFactory.Options options = new BitmapFactory.Options();
+		
+		PhotoTask(ImageView view, String photoName, String key, int width, int height) {
+			this.view = new WeakReference<ImageView>(view);
+			this.photoName = photoName;
+			this.key = key;
+			this.width = width;
+			this.height = height;
+		}
+		
+		/*
+		 * cancel the task and any decoding in progress
+		 */
+		void stop() {
+			cancel(false);
+			options.requestCancelDecode();
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see android.os.AsyncTask#doInBackground(Params[])
+		 */
+		@Override
+		protected Bitmap doInBackground(Void... params) {
+			
+			long mStartTime = System.currentTimeMillis();
+			
+			// use the thumbnail if it has already been made
+			File mThumbnail = new File(thumbnailDir, key);
+			
+			if(mThumbnail.canRead() == true) {
+				
+				Bitmap mPhoto = BitmapFactory.decodeFile(mThumbnail.getPath(), options);
+				
+				if(mPhoto != null) {
+					
+					if(V_LOG) {
+						Log.v(TAG, "decoded thumbnail '" + key + "' in " + (System.currentTimeMillis() - mStartTime) + "ms");
+					}
+					
+					return mPhoto;
+				}
+			}
+			
+			if(isCancelled() == true) {
+				return null;
+			}
+			
+			String mPath = findPhoto(context, photoName);
+			
+			if(mPath == null || isCancelled() == true) {
+				return null;
+			}
+			
+			Bitmap mPhoto = decode(mPath, width, height, options);
+			
+			if(mPhoto == null) {
+				return null;
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "decoded '" + mPath + "' with sample size " + options.inSampleSize + " to " + mPhoto.getWidth() + "x" + mPhoto.getHeight() + " in " + (System.currentTimeMillis() - mStartTime) + "ms");
+			}
+			
+			// keep the thumbnail even if the task has been cancelled, as the photo will probably be shown again
+			saveThumbnail(mThumbnail, mPhoto);
+			
+			return mPhoto;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+		 */
+		@Override
+		protected void onPostExecute(Bitmap result) {
+			
+			if(result == null) {
+				return;
+			}
+			
+			cache.put(key, result);
+			
+			ImageView mView = view.get();
+			
+			// only show the photo if the view is still waiting for it
+			if(mView != null && mView.getTag() == this && isCancelled() == false) {
+				mView.setImageBitmap(result);
+				mView.setTag(null);
+			}
+		}
+	}
+}
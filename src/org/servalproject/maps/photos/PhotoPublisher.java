@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.photos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.servalproject.maps.R;
+import org.servalproject.maps.rhizome.Rhizome;
+import org.servalproject.maps.utils.FileUtils;
+import org.servalproject.maps.utils.MediaUtils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * publish a POI photo to Rhizome as a small thumbnail followed later by a recompressed copy of the photo
+ * 
+ * the thumbnail is published with the POI file so other phones can show it straight away, 
+ * the copy of the photo is scaled and compressed to a maximum size and published after a delay 
+ * so it doesn't hold up the POI files and thumbnails of other phones, 
+ * the camera image is left in the media store
+ * 
+ * the photos are decoded and compressed on a thread of their own so they don't hold up the binary files
+ */
+public class PhotoPublisher {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final boolean V_LOG = false;
+	private static final String TAG = "PhotoPublisher";
+	
+	// longest side of the thumbnail in pixels and its JPEG quality
+	private static final int THUMBNAIL_SIZE = 320;
+	private static final int THUMBNAIL_QUALITY = 70;
+	
+	// longest side of the published photo in pixels
+	private static final int PHOTO_SIZE = 1280;
+	
+	// the published photo is compressed with lower qualities until it is no larger than the maximum size
+	private static final int MAX_PHOTO_BYTES = 300 * 1024;
+	private static final int PHOTO_QUALITY = 85;
+	private static final int MIN_PHOTO_QUALITY = 45;
+	private static final int QUALITY_STEP = 10;
+	
+	// number of milliseconds to wait after the thumbnail is published before the photo is published
+	private static final long PHOTO_DELAY = 10 * 60 * 1000;
+	
+	/*
+	 * private class level variables
+	 */
+	private static Handler handler = null;
+	
+	/**
+	 * publish the thumbnail and a recompressed copy of a photo in the media store, 
+	 * publishing the photo itself if the copies can't be made, 
+	 * the copies are made on the thread used for photos so this method returns straight away
+	 * 
+	 * @param context a context used to access system resources
+	 * @param photoName the name of the photo file in the media store
+	 */
+	public static void publish(Context context, final String photoName) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
+		
+		if(TextUtils.isEmpty(photoName) == true || photoName.startsWith(MediaUtils.PHOTO_FILE_PREFIX) == false) {
+			throw new IllegalArgumentException("the photoName parameter must be the name of a Serval Maps photo");
+		}
+		
+		final Context mContext = context.getApplicationContext();
+		
+		getHandler().post(new Runnable() {
+			public void run() {
+				prepare(mContext, photoName);
+			}
+		});
+	}
+	
+	/*
+	 * get the handler for the thread used for photos, starting it the first time
+	 */
+	private static synchronized Handler getHandler() {
+		
+		if(handler == null) {
+			HandlerThread mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+			mThread.start();
+			
+			handler = new Handler(mThread.getLooper());
+		}
+		
+		return handler;
+	}
+	
+	/*
+	 * make and publish the copies of a photo, called on the thread used for photos
+	 */
+	private static void prepare(Context context, String photoName) {
+		
+		String mPhotoPath = MediaUtils.getMediaStore() + photoName;
+		
+		if(FileUtils.isFileReadable(mPhotoPath) == false) {
+			Log.e(TAG, "unable to access the photo '" + mPhotoPath + "'");
+			return;
+		}
+		
+		// the copies are published from the directory used for the binary files
+		String mOutputPath = Environment.getExternalStorageDirectory().getPath();
+		mOutputPath += context.getString(R.string.system_path_binary_data);
+		
+		if(FileUtils.isDirectoryWritable(mOutputPath) == false) {
+			Log.e(TAG, "unable to access the required output directory");
+			Rhizome.addFile(context, mPhotoPath);
+			return;
+		}
+		
+		long mStartTime = System.currentTimeMillis();
+		
+		Bitmap mPhoto = decode(mPhotoPath);
+		
+		if(mPhoto == null) {
+			Rhizome.addFile(context, mPhotoPath);
+			return;
+		}
+		
+		try {
+			// publish the thumbnail with the POI file
+			File mThumbnail = new File(mOutputPath, MediaUtils.getThumbnailName(photoName));
+			
+			Bitmap mScaled = scale(mPhoto, THUMBNAIL_SIZE);
+			write(mThumbnail, compress(mScaled, THUMBNAIL_QUALITY));
+			
+			if(mScaled != mPhoto) {
+				mScaled.recycle();
+			}
+			
+			Rhizome.addFile(context, mThumbnail.getPath());
+			
+			// publish the photo later, using the camera image if it is smaller than the copy
+			File mCopy = new File(mOutputPath, photoName);
+			
+			mScaled = scale(mPhoto, PHOTO_SIZE);
+			
+			int mQuality = PHOTO_QUALITY;
+			byte[] mBytes = compress(mScaled, mQuality);
+			
+			while(mBytes.length > MAX_PHOTO_BYTES && mQuality - QUALITY_STEP >= MIN_PHOTO_QUALITY) {
+				mQuality -= QUALITY_STEP;
+				mBytes = compress(mScaled, mQuality);
+			}
+			
+			if(mScaled != mPhoto) {
+				mScaled.recycle();
+			}
+			
+			long mPhotoLength = new File(mPhotoPath).length();
+			
+			if(mBytes.length < mPhotoLength) {
+				write(mCopy, mBytes);
+				Rhizome.addFile(context, mCopy.getPath(), PHOTO_DELAY);
+			} else {
+				Rhizome.addFile(context, mPhotoPath, PHOTO_DELAY);
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "prepared '" + photoName + "' in " + (System.currentTimeMillis() - mStartTime) + "ms, " 
+						+ "camera image " + mPhotoLength + " bytes, thumbnail " + mThumbnail.length() + " bytes, " 
+						+ "photo " + Math.min(mBytes.length, mPhotoLength) + " bytes at quality " + mQuality);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "unable to prepare the copies of '" + photoName + "' publishing the photo instead", e);
+			Rhizome.addFile(context, mPhotoPath);
+		} catch (OutOfMemoryError e) {
+			Log.e(TAG, "not enough memory to prepare the copies of '" + photoName + "' publishing the photo instead");
+			Rhizome.addFile(context, mPhotoPath);
+		} finally {
+			mPhoto.recycle();
+		}
+	}
+	
+	/*
+	 * decode a photo at no less than the size of the published photo, returning null if it can't be decoded
+	 */
+	private static Bitmap decode(String path) {
+		
+		BitmapFactory.Options mOptions = new BitmapFactory.Options();
+		
+		// read the size of the photo without decoding it
+		mOptions.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, mOptions);
+		
+		if(mOptions.outWidth <= 0 || mOptions.outHeight <= 0) {
+			Log.e(TAG, "unable to read the size of the photo '" + path + "'");
+			return null;
+		}
+		
+		int mLongest = Math.max(mOptions.outWidth, mOptions.outHeight);
+		
+		mOptions.inJustDecodeBounds = false;
+		mOptions.inSampleSize = PhotoLoader.calculateSampleSize(mLongest, mLongest, PHOTO_SIZE, PHOTO_SIZE);
+		
+		// photos have no transparency so use half the memory
+		mOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+		
+		try {
+			return BitmapFactory.decodeFile(path, mOptions);
+		} catch (OutOfMemoryError e) {
+			Log.e(TAG, "not enough memory to decode '" + path + "' with sample size " + mOptions.inSampleSize);
+			return null;
+		}
+	}
+	
+	/*
+	 * scale a photo so that its longest side is no more than a size, returning the photo if it is small enough
+	 */
+	private static Bitmap scale(Bitmap photo, int size) {
+		
+		int mLongest = Math.max(photo.getWidth(), photo.getHeight());
+		
+		if(mLongest <= size) {
+			return photo;
+		}
+		
+		return Bitmap.createScaledBitmap(
+				photo, 
+				Math.max(photo.getWidth() * size / mLongest, 1), 
+				Math.max(photo.getHeight() * size / mLongest, 1), 
+				true);
+	}
+	
+	/*
+	 * compress a photo to a JPEG image
+	 */
+	private static byte[] compress(Bitmap photo, int quality) {
+		
+		ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+		photo.compress(Bitmap.CompressFormat.JPEG, quality, mOutput);
+		
+		return mOutput.toByteArray();
+	}
+	
+	/*
+	 * write a file in a single write to a temporary file that replaces it, 
+	 * so that Rhizome never reads an incomplete image
+	 */
+	private static void write(File file, byte[] bytes) throws IOException {
+		
+		File mTemp = new File(file.getPath() + ".tmp");
+		FileOutputStream mOutput = new FileOutputStream(mTemp);
+		
+		try {
+			mOutput.write(bytes);
+			mOutput.getFD().sync();
+		} finally {
+			mOutput.close();
+		}
+		
+		if(mTemp.renameTo(file) == false) {
+			mTemp.delete();
+			throw new IOException("unable to replace '" + file + "'");
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.io.OutputStream;
 import org.servalproject.maps.provider.LocationsContract;
 import org.servalproject.maps.provider.PointsOfInterestContract;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 
 /**
@@ -106,4 +107,68 @@ public class BinaryFileContract {
 		// write the message
 		mMessageBuilder.build().writeDelimitedTo(output);
 	}
+	
+	/**
+	 * build a binary location record from the values used to create a location record
+	 * 
+	 * @param values the values used to create the location record
+	 * @return the location message
+	 */
+	public static LocationMessage.Message buildLocationMessage(ContentValues values) {
+		
+		if(values == null) {
+			throw new IllegalArgumentException("the values parameter is required");
+		}
+		
+		LocationMessage.Message.Builder mMessageBuilder = LocationMessage.Message.newBuilder();
+		
+		// populate the message
+		mMessageBuilder.setPhoneNumber(values.getAsString(LocationsContract.Table.PHONE_NUMBER));
+		mMessageBuilder.setSubsciberId(values.getAsString(LocationsContract.Table.SUBSCRIBER_ID));
+		mMessageBuilder.setLatitude(values.getAsDouble(LocationsContract.Table.LATITUDE));
+		mMessageBuilder.setLongitude(values.getAsDouble(LocationsContract.Table.LONGITUDE));
+		mMessageBuilder.setTimestamp(values.getAsLong(LocationsContract.Table.TIMESTAMP));
+		mMessageBuilder.setTimeZone(values.getAsString(LocationsContract.Table.TIMEZONE));
+		
+		return mMessageBuilder.build();
+	}
+	
+	/**
+	 * build a binary point of interest record from the values used to create a point of interest record
+	 * 
+	 * @param values the values used to create the point of interest record
+	 * @return the point of interest message
+	 */
+	public static PointOfInterestMessage.Message buildPointOfInterestMessage(ContentValues values) {
+		
+		if(values == null) {
+			throw new IllegalArgumentException("the values parameter is required");
+		}
+		
+		PointOfInterestMessage.Message.Builder mMessageBuilder = PointOfInterestMessage.Message.newBuilder();
+		
+		// populate the message
+		mMessageBuilder.setPhoneNumber(values.getAsString(PointsOfInterestContract.Table.PHONE_NUMBER));
+		mMessageBuilder.setSubsciberId(values.getAsString(PointsOfInterestContract.Table.SUBSCRIBER_ID));
+		mMessageBuilder.setLatitude(values.getAsDouble(PointsOfInterestContract.Table.LATITUDE));
+		mMessageBuilder.setLongitude(values.getAsDouble(PointsOfInterestContract.Table.LONGITUDE));
+		mMessageBuilder.setTimestamp(values.getAsLong(PointsOfInterestContract.Table.TIMESTAMP));
+		mMessageBuilder.setTimeZone(values.getAsString(PointsOfInterestContract.Table.TIMEZONE));
+		mMessageBuilder.setTitle(values.getAsString(PointsOfInterestContract.Table.TITLE));
+		mMessageBuilder.setDescription(values.getAsString(PointsOfInterestContract.Table.DESCRIPTION));
+		
+		// use the default category if one isn't specified
+		if(values.containsKey(PointsOfInterestContract.Table.CATEGORY)) {
+			mMessageBuilder.setCategory(values.getAsLong(PointsOfInterestContract.Table.CATEGORY));
+		} else {
+			mMessageBuilder.setCategory(PointsOfInterestContract.DEFAULT_CATEGORY);
+		}
+		
+		// check to see if a photo is associated with this poi
+		if(values.getAsString(PointsOfInterestContract.Table.PHOTO) != null) {
+			mMessageBuilder.setPhoto(values.getAsString(PointsOfInterestContract.Table.PHOTO));
+		}
+		
+		return mMessageBuilder.build();
+	}
 }
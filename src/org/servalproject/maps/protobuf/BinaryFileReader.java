@@ -21,12 +21,16 @@ package org.servalproject.maps.protobuf;
 
 import java.io.File;
 
+import org.servalproject.maps.R;
 import org.servalproject.maps.ServalMaps;
 import org.servalproject.maps.utils.FileUtils;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
+import android.widget.Toast;
 
 /**
  * read a google protocol buffer based binary file
@@ -41,12 +45,14 @@ public class BinaryFileReader {
 	//private static final boolean V_LOG = true;
 	
 	/**
-	 * read a file containing location messages and add them to the database
+	 * read a file containing location messages and add them to the database, 
+	 * the user is told if the import can't be queued
 	 * 
 	 * @param context a context used to get a contentResolver and other objects
 	 * @param filePath the full path to the binary POI file
+	 * @return true if the import was queued, false if it wasn't
 	 */
-	public static void readLocations(Context context, String filePath) {
+	public static boolean readLocations(Context context, String filePath) {
 		
 		// check the parameters
 		if(context == null) {
@@ -59,7 +65,7 @@ public class BinaryFileReader {
 		
 		if(FileUtils.isFileReadable(filePath) == false) {
 			Log.e(TAG, "invalid file path: " + filePath);
-			return;
+			return false;
 		}
 		
 		// check to see if the file path is to our own file
@@ -73,19 +79,25 @@ public class BinaryFileReader {
 		
 		if(mFileParts[0].equals(mServalMaps.getPhoneNumber()) == false) {
 			LocationReadWorker mWorker = new LocationReadWorker(context, filePath);
-			Thread mWorkerThread = new Thread(mWorker, "LocationImportWorker");
-			mWorkerThread.start();
+			
+			if(ImportScheduler.getInstance().submit(filePath, ImportScheduler.PRIORITY_LOCATIONS, null, mWorker) == false) {
+				importRejected(context, filePath);
+				return false;
+			}
 		}
 		
-		
+		return true;
 	}
 	
 	/**
-	 * read a file containing POI messages and add them to the database
+	 * read a file containing POI messages and add them to the database, 
+	 * the user is told if the import can't be queued
+	 * 
 	 * @param context a context used to get a contentResolver and other objects
 	 * @param filePath the full path to the binary POI file
+	 * @return true if the import was queued, false if it wasn't
 	 */
-	public static void readPointsOfInterest(Context context, String filePath) {
+	public static boolean readPointsOfInterest(Context context, String filePath) {
 		
 		// check the parameters
 		if(context == null) {
@@ -98,7 +110,7 @@ public class BinaryFileReader {
 		
 		if(FileUtils.isFileReadable(filePath) == false) {
 			Log.e(TAG, "invalid file path: " + filePath);
-			return;
+			return false;
 		}
 		
 		// check to see if the file path is to our own file
@@ -112,9 +124,29 @@ public class BinaryFileReader {
 		
 		if(mFileParts[0].equals(mServalMaps.getPhoneNumber()) == false) {
 			PointsOfInterestWorker mWorker = new PointsOfInterestWorker(context, filePath);
-			Thread mWorkerThread = new Thread(mWorker, "PointsOfInterestImportWorker");
-			mWorkerThread.start();
+			
+			if(ImportScheduler.getInstance().submit(filePath, ImportScheduler.PRIORITY_POINTS_OF_INTEREST, null, mWorker) == false) {
+				importRejected(context, filePath);
+				return false;
+			}
 		}
+		
+		return true;
+	}
+	
+	/*
+	 * log an import that couldn't be queued and tell the user so they can try again later, 
+	 * the toast is shown on the main thread as the import may have been started on any thread
+	 */
+	private static void importRejected(final Context context, String filePath) {
+		
+		Log.e(TAG, "unable to import '" + filePath + "' as the import queue is full");
+		
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			public void run() {
+				Toast.makeText(context.getApplicationContext(), R.string.system_import_toast_queue_full, Toast.LENGTH_LONG).show();
+			}
+		});
 	}
 
 }
@@ -19,28 +19,50 @@
  */
 package org.servalproject.maps.protobuf;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.TimeZone;
 
 import org.servalproject.maps.R;
+import org.servalproject.maps.photos.PhotoPublisher;
 import org.servalproject.maps.provider.LocationsContract;
 import org.servalproject.maps.provider.PointsOfInterestContract;
 import org.servalproject.maps.rhizome.Rhizome;
 import org.servalproject.maps.utils.FileUtils;
-import org.servalproject.maps.utils.MediaUtils;
 import org.servalproject.maps.utils.TimeUtils;
 
-import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.google.protobuf.MessageLite;
+
 /**
- * write a google protocol buffer based binary file 
+ * write google protocol buffer based binary files 
  * containing location or point of interest information
+ * 
+ * the files are kept open and written using a buffer on a dedicated thread, 
+ * a new file is started each hour and buffered records are flushed to the file 
+ * after a short delay or when enough records are waiting
+ * 
+ * if the preferences are set location records are written as location batches, one for each flush, 
+ * and the records written by each flush are compressed into a block, 
+ * otherwise the records are written as individual messages that older versions can read
+ * 
+ * blocks have checksums and sync records so corrupt records can be skipped and files read in pieces, 
+ * location batches that aren't compressed are written in stored blocks for the same reason, 
+ * files of individual messages have neither as older versions couldn't read them
  */
 public class BinaryFileWriter {
 	
@@ -48,165 +70,528 @@ public class BinaryFileWriter {
 	 * private class level constants
 	 */
 	private static final String TAG = "BinaryFileWriter";
-	//private static final boolean V_LOG = false;
+	private static final boolean V_LOG = false;
+	
+	// size of the buffer used for each file
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	// number of milliseconds to wait after a write before flushing the buffered records
+	private static final int FLUSH_DELAY = 5 * 1000;
+	
+	// number of buffered location records that cause an immediate flush
+	private static final int LOCATION_FLUSH_RECORDS = 50;
+	
+	// minimum number of milliseconds between syncs of a file to the storage device
+	private static final int SYNC_INTERVAL = 60 * 1000;
+	
+	private static final long MILLISECONDS_PER_HOUR = 60 * 60 * 1000;
+	
+	/*
+	 * private class level variables
+	 */
+	private static BinaryFileWriter instance = null;
+	
+	private final Context context;
+	private final Handler handler;
+	
+	// the location file is only flushed once a number of records are waiting, 
+	// POIs are created by the user so are always flushed straight away
+	private final LogFile locationFile = new LogFile(BinaryFileContract.LOCATION_EXT, LOCATION_FLUSH_RECORDS);
+	private final LogFile poiFile = new LogFile(BinaryFileContract.POI_EXT, 1);
+	
+	// private constructor, use the static methods
+	private BinaryFileWriter(Context context) {
+		
+		this.context = context.getApplicationContext();
+		
+		HandlerThread mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		
+		handler = new Handler(mThread.getLooper());
+	}
+	
+	// get the single instance of the writer, creating it if required
+	private static synchronized BinaryFileWriter getInstance(Context context) {
+		
+		if(instance == null) {
+			instance = new BinaryFileWriter(context);
+		}
+		
+		return instance;
+	}
 	
 	/**
 	 * write a location message to the file
 	 * 
-	 * @param context a context object used to get a content resolver object
-	 * @param recordId the unique record identifier for the location record
+	 * @param context a context object used to get access to system resources
+	 * @param values the values used to create the location record
 	 * 
 	 * @throws IllegalArgumentException if the context parameter is null
-	 * @throws IllegalArgumentException if a record cannot be found
+	 * @throws IllegalArgumentException if the values parameter is null
 	 */
-	public static void writeLocation(Context context, String recordId) {
+	public static void writeLocation(Context context, ContentValues values) {
 		
 		if(context == null) {
 			throw new IllegalArgumentException("the context parameter is required");
 		}
 		
-		// get the path for the output files
-		String mOutputPath = Environment.getExternalStorageDirectory().getPath();
-		mOutputPath += context.getString(R.string.system_path_binary_data);
+		if(values == null) {
+			throw new IllegalArgumentException("the values parameter is required");
+		}
 		
-		// test the path
-		if(FileUtils.isDirectoryWritable(mOutputPath) == false) {
-			Log.e(TAG, "unable to access the required output directory");
-			return;
+		final String mPhoneNumber = values.getAsString(LocationsContract.Table.PHONE_NUMBER);
+		final String mSubscriberId = values.getAsString(LocationsContract.Table.SUBSCRIBER_ID);
+		final String mTimeZone = values.getAsString(LocationsContract.Table.TIMEZONE);
+		final double mLatitude = values.getAsDouble(LocationsContract.Table.LATITUDE);
+		final double mLongitude = values.getAsDouble(LocationsContract.Table.LONGITUDE);
+		final long mTimestamp = values.getAsLong(LocationsContract.Table.TIMESTAMP);
+		
+		final BinaryFileWriter mWriter = getInstance(context);
+		
+		mWriter.handler.post(new Runnable() {
+			public void run() {
+				mWriter.locationFile.writeLocation(mPhoneNumber, mSubscriberId, mTimeZone, mLatitude, mLongitude, mTimestamp);
+			}
+		});
+	}
+	
+	/**
+	 * write a POI message to the file
+	 * 
+	 * @param context a context object used to get access to system resources
+	 * @param values the values used to create the POI record
+	 * 
+	 * @throws IllegalArgumentException if the context parameter is null
+	 * @throws IllegalArgumentException if the values parameter is null
+	 */
+	public static void writePointOfInterest(Context context, ContentValues values) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
 		}
 		
-		// get the record
-		ContentResolver mContentResolver = context.getContentResolver();
+		if(values == null) {
+			throw new IllegalArgumentException("the values parameter is required");
+		}
 		
-		Uri mContentUri = Uri.parse(LocationsContract.CONTENT_URI.toString() + "/" + recordId);
+		final String mPhoneNumber = values.getAsString(PointsOfInterestContract.Table.PHONE_NUMBER);
+		final String mPhotoName = values.getAsString(PointsOfInterestContract.Table.PHOTO);
+		final MessageLite mMessage = BinaryFileContract.buildPointOfInterestMessage(values);
 		
-		Cursor mCursor = mContentResolver.query(mContentUri, null, null, null, null);
+		final BinaryFileWriter mWriter = getInstance(context);
 		
-		// check on the content
-		if(mCursor.getCount() == 0) {
-			Log.e(TAG, "the supplied recordId does not match any records");
+		mWriter.handler.post(new Runnable() {
+			public void run() {
+				
+				mWriter.poiFile.write(mPhoneNumber, mMessage);
+				
+				// check to see if a photo is associated with this poi
+				if(mPhotoName != null) {
+					
+					// add a thumbnail and a smaller copy of the image to Rhizome, 
+					// the copies are made on another thread as it takes a while
+					try {
+						PhotoPublisher.publish(mWriter.context, mPhotoName);
+					} catch (IllegalArgumentException e) {
+						Log.e(TAG, "unable to add the photo to Rhizome", e);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * flush any buffered records and close the files, 
+	 * the files are opened again if more records are written
+	 */
+	public static void close() {
+		
+		final BinaryFileWriter mWriter;
+		
+		synchronized(BinaryFileWriter.class) {
+			mWriter = instance;
+		}
+		
+		if(mWriter == null) {
 			return;
 		}
 		
-		// build the message
-		mCursor.moveToFirst();
+		mWriter.handler.post(new Runnable() {
+			public void run() {
+				mWriter.locationFile.close();
+				mWriter.poiFile.close();
+				
+				// publish the closed files without waiting for the publish window, delayed photos wait until they are due
+				Rhizome.publishPending(mWriter.context);
+			}
+		});
+	}
+	
+	// get the number of the hour in local time that a time falls in
+	private static long getHour(long time) {
+		return (time + TimeZone.getDefault().getOffset(time)) / MILLISECONDS_PER_HOUR;
+	}
+	
+	/*
+	 * check the end of an existing file for a partial record left by a crash and remove it, 
+	 * each record starts with its length as a varint so the file can be checked without parsing the records
+	 */
+	private static void recoverTail(File file) throws IOException {
 		
-		// determine the file name
-		String mFileName = mCursor.getString(mCursor.getColumnIndex(LocationsContract.Table.PHONE_NUMBER));
-		mFileName = mFileName.replace(" ", "");
-		mFileName = mFileName.replace("-", "");
+		if(file.exists() == false || file.length() == 0) {
+			return;
+		}
 		
-		mFileName = mFileName + "-" + TimeUtils.getTodayWithHour() + BinaryFileContract.LOCATION_EXT;
+		RandomAccessFile mFile = new RandomAccessFile(file, "rw");
 		
-		FileOutputStream mOutput = null;
-
 		try {
-			mOutput = new FileOutputStream(mOutputPath + mFileName, true);
+			long mLength = mFile.length();
+			long mPosition = 0;
+			long mNext;
 			
-			BinaryFileContract.writeLocationRecord(mCursor, mOutput);
+			int mByte;
+			int mShift;
+			long mRecordLength;
 			
-			// add the file to rhizome
-			Rhizome.addFile(context, mOutputPath + mFileName);
-			
-		} catch (FileNotFoundException e) {
-			Log.e(TAG, "unable to create the output file", e);
-		} catch (IOException e) {
-			Log.e(TAG, "unable to write to the output file", e);
-		} finally {
-			// play nice and tidy up
-			try {
-				if(mOutput != null) {
-					mOutput.close();
+			while(mPosition < mLength) {
+				
+				mFile.seek(mPosition);
+				
+				// read the varint length of the record
+				mRecordLength = 0;
+				mShift = 0;
+				
+				do {
+					mByte = mFile.read();
+					
+					if(mByte == -1) {
+						break;
+					}
+					
+					mRecordLength |= (long) (mByte & 0x7F) << mShift;
+					mShift += 7;
+				} while((mByte & 0x80) != 0 && mShift < 35);
+				
+				if(mByte == -1 || (mByte & 0x80) != 0) {
+					// the length is incomplete or invalid
+					break;
 				}
-			} catch (IOException e) {
-				Log.e(TAG, "unable to close the output file", e);
+				
+				mNext = mFile.getFilePointer() + mRecordLength;
+				
+				if(mNext > mLength) {
+					// the record is incomplete
+					break;
+				}
+				
+				mPosition = mNext;
 			}
-			mCursor.close();
+			
+			if(mPosition < mLength) {
+				Log.w(TAG, "removing " + (mLength - mPosition) + " bytes of incomplete record from the end of '" + file.getName() + "'");
+				mFile.setLength(mPosition);
+			}
+			
+		} finally {
+			mFile.close();
 		}
 	}
 	
-	/**
-	 * write a POI message to the file
-	 * 
-	 * @param context a context object used to get a content resolver object
-	 * @param recordId the unique record identifier for the location record
-	 * 
-	 * @throws IllegalArgumentException if the context parameter is null
-	 * @throws IllegalArgumentException if a record cannot be found
+	/*
+	 * an open binary file of one type of record
 	 */
-	public static void writePointOfInterest(Context context, String recordId) {
+	private class LogFile {
 		
-		if(context == null) {
-			throw new IllegalArgumentException("the context parameter is required");
-		}
+		private final String extension;
+		private final int flushRecords;
 		
-		// get the path for the output files
-		String mOutputPath = Environment.getExternalStorageDirectory().getPath();
-		mOutputPath += context.getString(R.string.system_path_binary_data);
+		private String filePath = null;
+		private FileOutputStream fileOutput = null;
+		private OutputStream output = null;
+		private BlockOutputStream blockOutput = null;
 		
-		// test the path
-		if(FileUtils.isDirectoryWritable(mOutputPath) == false) {
-			Log.e(TAG, "unable to access the required output directory");
-			return;
-		}
+		// are location records written as batches to the open file
+		private boolean batchLocations = false;
 		
-		// get the record
-		ContentResolver mContentResolver = context.getContentResolver();
+		private String phoneNumber = null;
+		private long hour = -1;
 		
-		Uri mContentUri = Uri.parse(PointsOfInterestContract.CONTENT_URI.toString() + "/" + recordId);
+		private int pendingRecords = 0;
+		private long lastSync = 0;
 		
-		Cursor mCursor = mContentResolver.query(mContentUri, null, null, null, null);
+		// location records waiting to be written as a single batch
+		private final LocationBatch locationBatch = new LocationBatch();
 		
-		// check on the content
-		if(mCursor.getCount() == 0) {
-			Log.e(TAG, "unable to access the required output directory");
-			return;
+		// task used to flush the file after a delay
+		private final Runnable flushTask = new Runnable() {
+			public void run() {
+				if(flush() == false) {
+					close();
+				}
+			}
+		};
+		
+		private LogFile(String extension, int flushRecords) {
+			this.extension = extension;
+			this.flushRecords = flushRecords;
 		}
 		
-		// build the message
-		mCursor.moveToFirst();
+		// write a record to the file, starting a new file if required
+		private void write(String phoneNumber, MessageLite message) {
+			
+			if(prepare(phoneNumber) == false) {
+				return;
+			}
+			
+			try {
+				message.writeDelimitedTo(output);
+				countRecord();
+			} catch (IOException e) {
+				Log.e(TAG, "unable to write to the output file", e);
+				close();
+				return;
+			}
+			
+			recordWritten();
+		}
 		
-		String mPhotoName = mCursor.getString(mCursor.getColumnIndex(PointsOfInterestContract.Table.PHOTO)); 
+		// add a location record to the batch written when the file is flushed, starting a new file if required, 
+		// or write the record as a location message if batches aren't used
+		private void writeLocation(String phoneNumber, String subscriberId, String timeZone, double latitude, double longitude, long timestamp) {
+			
+			if(prepare(phoneNumber) == false) {
+				return;
+			}
+			
+			if(batchLocations == false) {
+				
+				LocationMessage.Message.Builder mMessageBuilder = LocationMessage.Message.newBuilder();
+				
+				mMessageBuilder.setPhoneNumber(phoneNumber);
+				mMessageBuilder.setSubsciberId(subscriberId);
+				mMessageBuilder.setLatitude(latitude);
+				mMessageBuilder.setLongitude(longitude);
+				mMessageBuilder.setTimestamp(timestamp);
+				mMessageBuilder.setTimeZone(timeZone);
+				
+				write(phoneNumber, mMessageBuilder.build());
+				return;
+			}
+			
+			// a batch only holds records with the same subscriber id and time zone
+			if(locationBatch.isFrom(phoneNumber, subscriberId, timeZone) == false) {
+				
+				if(writeLocationBatch() == false) {
+					close();
+					return;
+				}
+				
+				locationBatch.reset(phoneNumber, subscriberId, timeZone);
+			}
+			
+			locationBatch.add(latitude, longitude, timestamp);
+			
+			recordWritten();
+		}
 		
-		// check to see if a photo is associated with this poi
-		if(mPhotoName != null) {
+		// write the waiting location records to the file as a batch
+		private boolean writeLocationBatch() {
+			
+			if(locationBatch.size() == 0) {
+				return true;
+			}
 			
-			// add the image to Rhizome
-			Rhizome.addFile(context, MediaUtils.getMediaStore() + mPhotoName);
+			try {
+				locationBatch.writeDelimitedTo(output);
+				countRecord();
+			} catch (IOException e) {
+				Log.e(TAG, "unable to write to the output file", e);
+				return false;
+			} finally {
+				locationBatch.reset(null, null, null);
+			}
+			
+			return true;
 		}
 		
-		// determine the file name
-		String mFileName = mCursor.getString(mCursor.getColumnIndex(LocationsContract.Table.PHONE_NUMBER));
-		mFileName = mFileName.replace(" ", "");
-		mFileName = mFileName.replace("-", "");
+		// count a record written to a compressed block
+		private void countRecord() {
+			
+			if(blockOutput != null) {
+				blockOutput.recordWritten();
+			}
+		}
 		
-		mFileName = mFileName + "-" + TimeUtils.getTodayWithHour() + BinaryFileContract.POI_EXT;
+		// make sure the file for the current hour and phone number is open
+		private boolean prepare(String phoneNumber) {
+			
+			if(phoneNumber == null) {
+				Log.e(TAG, "unable to write a record without a phone number");
+				return false;
+			}
+			
+			long mHour = getHour(System.currentTimeMillis());
+			
+			// start a new file each hour
+			if(output == null || mHour != hour || phoneNumber.equals(this.phoneNumber) == false) {
+				close();
+				
+				if(open(phoneNumber) == false) {
+					return false;
+				}
+				
+				hour = mHour;
+			}
+			
+			return true;
+		}
 		
-		// open the file and write the data
-		FileOutputStream mOutput = null;
-		try {
-			mOutput = new FileOutputStream(mOutputPath + mFileName, true);
+		// count a record that has been written and flush the file if required
+		private void recordWritten() {
 			
-			BinaryFileContract.writeLocationRecord(mCursor , mOutput);
+			pendingRecords++;
 			
-			// add the file to rhizome
-			Rhizome.addFile(context, mOutputPath + mFileName);
+			if(pendingRecords >= flushRecords) {
+				if(flush() == false) {
+					close();
+				}
+			} else {
+				handler.removeCallbacks(flushTask);
+				handler.postDelayed(flushTask, FLUSH_DELAY);
+			}
+		}
+		
+		// open the file for the current hour
+		private boolean open(String phoneNumber) {
+			
+			// get the path for the output files
+			String mOutputPath = Environment.getExternalStorageDirectory().getPath();
+			mOutputPath += context.getString(R.string.system_path_binary_data);
+			
+			// test the path
+			if(FileUtils.isDirectoryWritable(mOutputPath) == false) {
+				Log.e(TAG, "unable to access the required output directory");
+				return false;
+			}
+			
+			// determine the file name
+			String mFileName = phoneNumber.replace(" ", "");
+			mFileName = mFileName.replace("-", "");
+			
+			mFileName = mFileName + "-" + TimeUtils.getTodayWithHour() + extension;
 			
-		} catch (FileNotFoundException e) {
-			Log.e(TAG, "unable to create the output file", e);
-		} catch (IOException e) {
-			Log.e(TAG, "unable to write to the output file", e);
-		} finally {
-			// play nice and tidy up
 			try {
-				if(mOutput != null) {
-					mOutput.close();
+				// make sure a crash didn't leave part of a record at the end of the file
+				recoverTail(new File(mOutputPath + mFileName));
+				
+				fileOutput = new FileOutputStream(mOutputPath + mFileName, true);
+				
+				SharedPreferences mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+				
+				// older versions can't read batches so they are only written if required
+				batchLocations = extension.equals(BinaryFileContract.LOCATION_EXT) 
+						&& mPreferences.getBoolean("preferences_rhizome_batch", false);
+				
+				// each flush writes a compressed block if required, 
+				// or a stored block if older versions can't read the file anyway so it has checksums and sync records, 
+				// the block is written in one go so it doesn't need another buffer
+				if(mPreferences.getBoolean("preferences_rhizome_compress", false) == true) {
+					blockOutput = new BlockOutputStream(fileOutput, BlockOutputStream.CODEC_DEFLATE);
+					output = blockOutput;
+				} else if(batchLocations == true) {
+					blockOutput = new BlockOutputStream(fileOutput, BlockOutputStream.CODEC_STORED);
+					output = blockOutput;
+				} else {
+					output = new BufferedOutputStream(fileOutput, BUFFER_SIZE);
 				}
+			} catch (FileNotFoundException e) {
+				Log.e(TAG, "unable to create the output file", e);
+				return false;
+			} catch (IOException e) {
+				Log.e(TAG, "unable to check the output file", e);
+				return false;
+			}
+			
+			filePath = mOutputPath + mFileName;
+			this.phoneNumber = phoneNumber;
+			lastSync = System.currentTimeMillis();
+			
+			if(V_LOG) {
+				Log.v(TAG, "opened file '" + filePath + "'");
+			}
+			
+			return true;
+		}
+		
+		// write the buffered records to the file and add it to rhizome, 
+		// returns false if the records couldn't be written and the caller should close the file
+		private boolean flush() {
+			
+			handler.removeCallbacks(flushTask);
+			
+			if(output == null || pendingRecords == 0) {
+				return true;
+			}
+			
+			// the waiting location records are written as a single batch
+			if(writeLocationBatch() == false) {
+				pendingRecords = 0;
+				return false;
+			}
+			
+			try {
+				output.flush();
+				
+				// make sure the records are on the storage device from time to time
+				if(System.currentTimeMillis() - lastSync >= SYNC_INTERVAL) {
+					fileOutput.getFD().sync();
+					lastSync = System.currentTimeMillis();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "unable to write to the output file", e);
+				pendingRecords = 0;
+				return false;
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "flushed " + pendingRecords + " records to '" + filePath + "'");
+			}
+			
+			pendingRecords = 0;
+			
+			// add the file to rhizome
+			try {
+				Rhizome.addFile(context, filePath);
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "unable to add the file to Rhizome", e);
+			}
+			
+			return true;
+		}
+		
+		// flush and close the file, the file is closed even if the flush fails
+		private void close() {
+			
+			if(output == null) {
+				return;
+			}
+			
+			flush();
+			
+			try {
+				fileOutput.getFD().sync();
+				output.close();
 			} catch (IOException e) {
 				Log.e(TAG, "unable to close the output file", e);
 			}
-			mCursor.close();
+			
+			output = null;
+			blockOutput = null;
+			fileOutput = null;
+			batchLocations = false;
+			filePath = null;
+			phoneNumber = null;
+			hour = -1;
 		}
 	}
-
-}  
\ No newline at end of file
+}
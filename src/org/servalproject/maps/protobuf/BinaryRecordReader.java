@@ -0,0 +1,688 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.provider.PointsOfInterestContract;
+import org.servalproject.maps.utils.ByteBufferInputStream;
+import org.servalproject.maps.utils.FileUtils;
+import org.servalproject.maps.utils.HashUtils;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * read the length delimited records in a binary file a batch at a time
+ * 
+ * the file is mapped or read into memory and read by a single coded input stream, 
+ * each record is merged into a builder that is reused for every record 
+ * rather than creating a new stream and message for each one
+ * 
+ * location files can contain location messages, location batches or a mixture of both, 
+ * and any of the records in a file can be in blocks that are compressed or stored as they are
+ * 
+ * if a record is corrupt the reader skips to the next sync record, 
+ * an error is only reported if there isn't one as the end of the file may not have been written yet, 
+ * files of plain messages that older versions can read don't have sync records
+ */
+public class BinaryRecordReader {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "BinaryRecordReader";
+	
+	// largest uncompressed block that will be read, to guard against a corrupt block header
+	private static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+	
+	/*
+	 * private class level variables
+	 */
+	private final ByteBuffer buffer;
+	private CodedInputStream input;
+	
+	// offset in the file of the start of the buffer
+	private final long start;
+	
+	// true if the buffer ends at the end of the file rather than at a sync record
+	private final boolean endOfFile;
+	
+	// offset in the file of the next record, and of the file record containing the current record
+	private long offset;
+	private long recordOffset;
+	
+	// number of corrupt bytes skipped
+	private long skippedBytes = 0;
+	
+	// builders reused for every record
+	private LocationMessage.Message.Builder locationBuilder = null;
+	private PointOfInterestMessage.Message.Builder pointOfInterestBuilder = null;
+	
+	// the last location batch read and the index of the next record in it to return
+	private LocationBatch locationBatch = null;
+	private int batchIndex = 0;
+	
+	// the records in the last block read
+	private Inflater inflater = null;
+	private CRC32 checksum = null;
+	private byte[] blockBytes = null;
+	private int blockLength = 0;
+	private CodedInputStream blockInput = null;
+	
+	// the stream the current record is read from, either the file or the last block, 
+	// and the position of the current record in it
+	private CodedInputStream source = null;
+	private int recordStart;
+	
+	/**
+	 * open a binary file for reading
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @throws IOException if the file can't be mapped into memory
+	 */
+	public BinaryRecordReader(String filePath, long offset) throws IOException {
+		this(filePath, offset, -1);
+	}
+	
+	/**
+	 * open a piece of a binary file for reading
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @param end the offset of a sync record where reading stops, as returned by split, or -1 to read to the end of the file
+	 * @throws IOException if the file can't be mapped into memory
+	 */
+	public BinaryRecordReader(String filePath, long offset, long end) throws IOException {
+		
+		if(TextUtils.isEmpty(filePath) == true) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		long mLength = new File(filePath).length();
+		
+		if(offset < 0 || offset > mLength) {
+			throw new IllegalArgumentException("the offset parameter must be between 0 and the length of the file");
+		}
+		
+		if(end == -1) {
+			end = mLength;
+		} else if(end < offset || end > mLength) {
+			throw new IllegalArgumentException("the end parameter must be between the offset and the length of the file");
+		}
+		
+		buffer = FileUtils.mapFile(filePath, offset, end - offset);
+		input = CodedInputStream.newInstance(new ByteBufferInputStream(buffer));
+		
+		this.start = offset;
+		this.offset = offset;
+		this.recordOffset = offset;
+		this.endOfFile = end == mLength;
+	}
+	
+	/**
+	 * read the records in part of a file that is already in memory
+	 * 
+	 * @param buffer the bytes of the file from its position to its limit, which are read without changing its position
+	 * @param offset the offset in the file of the byte at the position of the buffer
+	 * @param endOfFile true if the buffer ends at the end of the file rather than at a sync record
+	 */
+	public BinaryRecordReader(ByteBuffer buffer, long offset, boolean endOfFile) {
+		
+		if(buffer == null) {
+			throw new IllegalArgumentException("the buffer parameter is required");
+		}
+		
+		if(offset < 0) {
+			throw new IllegalArgumentException("the offset parameter must not be negative");
+		}
+		
+		this.buffer = buffer.slice();
+		input = CodedInputStream.newInstance(new ByteBufferInputStream(this.buffer));
+		
+		this.start = offset;
+		this.offset = offset;
+		this.recordOffset = offset;
+		this.endOfFile = endOfFile;
+	}
+	
+	/**
+	 * find the offsets where a binary file can be split into pieces that can be read at the same time, 
+	 * each piece starts at a sync record apart from the first
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @param pieceSize the minimum size of a piece in bytes
+	 * @return the offset of the start of each piece followed by the length of the file
+	 * @throws IOException if the file can't be mapped into memory
+	 */
+	public static long[] split(String filePath, long offset, int pieceSize) throws IOException {
+		
+		if(TextUtils.isEmpty(filePath) == true) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(pieceSize <= 0) {
+			throw new IllegalArgumentException("the pieceSize parameter must be greater than zero");
+		}
+		
+		long mLength = new File(filePath).length();
+		
+		if(offset < 0 || offset > mLength) {
+			throw new IllegalArgumentException("the offset parameter must be between 0 and the length of the file");
+		}
+		
+		return split(FileUtils.mapFile(filePath, offset, mLength - offset), offset, pieceSize);
+	}
+	
+	/**
+	 * find the offsets where part of a binary file in memory can be split into pieces that can be read at the same time, 
+	 * each piece starts at a sync record apart from the first
+	 * 
+	 * @param buffer the bytes of the file from its position to its limit, which are read without changing its position
+	 * @param offset the offset in the file of the byte at the position of the buffer
+	 * @param pieceSize the minimum size of a piece in bytes
+	 * @return the offset of the start of each piece followed by the offset of the end of the buffer
+	 */
+	public static long[] split(ByteBuffer buffer, long offset, int pieceSize) {
+		
+		if(buffer == null) {
+			throw new IllegalArgumentException("the buffer parameter is required");
+		}
+		
+		if(pieceSize <= 0) {
+			throw new IllegalArgumentException("the pieceSize parameter must be greater than zero");
+		}
+		
+		ByteBuffer mBuffer = buffer.slice();
+		
+		ArrayList<Long> mOffsets = new ArrayList<Long>();
+		mOffsets.add(offset);
+		
+		// look for a sync record at least a piece after the start of the last piece
+		int mSync = findSync(mBuffer, pieceSize);
+		
+		while(mSync != -1) {
+			mOffsets.add(offset + mSync);
+			mSync = findSync(mBuffer, mSync + pieceSize);
+		}
+		
+		mOffsets.add(offset + mBuffer.limit());
+		
+		long[] mPieces = new long[mOffsets.size()];
+		
+		for(int i = 0; i < mPieces.length; i++) {
+			mPieces[i] = mOffsets.get(i);
+		}
+		
+		return mPieces;
+	}
+	
+	/*
+	 * find the position of the next sync record in a buffer, returning -1 if there isn't one
+	 */
+	private static int findSync(ByteBuffer buffer, int from) {
+		
+		byte[] mSync = BlockOutputStream.SYNC_RECORD;
+		int mLast = buffer.limit() - mSync.length;
+		
+		for(int i = Math.max(from, 0); i <= mLast; i++) {
+			
+			if(buffer.get(i) != mSync[0]) {
+				continue;
+			}
+			
+			int mMatched = 1;
+			
+			while(mMatched < mSync.length && buffer.get(i + mMatched) == mSync[mMatched]) {
+				mMatched++;
+			}
+			
+			if(mMatched == mSync.length) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * get the offset in the file of the next record to read, 
+	 * which is the end of the last complete record read, 
+	 * all of the records in a location batch or compressed block are returned before the next record is read
+	 * 
+	 * @return the offset of the next record
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return the number of bytes of corrupt records skipped
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+	
+	/**
+	 * read the next batch of location records
+	 * 
+	 * @param batch the list the records are added to
+	 * @param maxRecords the maximum number of records to add to the batch
+	 * @return the number of records added, zero at the end of the file
+	 * @throws IOException if a record can't be read, the records read before it remain in the batch
+	 */
+	public int readLocations(ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+		
+		if(locationBuilder == null) {
+			locationBuilder = LocationMessage.Message.newBuilder();
+			locationBatch = new LocationBatch();
+		}
+		
+		int mCount = 0;
+		
+		while(mCount < maxRecords) {
+			
+			// return the rest of the last location batch before reading the next record
+			if(batchIndex < locationBatch.size()) {
+				
+				batch.add(buildLocation(
+						locationBatch.getPhoneNumber(), 
+						locationBatch.getSubscriberId(), 
+						locationBatch.getLatitude(batchIndex), 
+						locationBatch.getLongitude(batchIndex), 
+						locationBatch.getTimestamp(batchIndex), 
+						locationBatch.getTimeZone()));
+				
+				batchIndex++;
+				mCount++;
+				continue;
+			}
+			
+			try {
+				int mSize = startRecord();
+				
+				if(mSize == -1) {
+					break;
+				}
+				
+				int mLimit = source.pushLimit(mSize);
+				
+				if(isLocationBatch(mSize) == true) {
+					// a batch of records, which are returned by the following iterations
+					locationBatch.readFrom(source);
+					batchIndex = 0;
+				} else {
+					// a single location message
+					locationBuilder.clear().mergeFrom(source);
+					
+					if(locationBuilder.isInitialized() == false) {
+						throw new InvalidProtocolBufferException("location record at byte " + recordOffset + " is missing required fields");
+					}
+					
+					batch.add(buildLocation(
+							locationBuilder.getPhoneNumber(), 
+							locationBuilder.getSubsciberId(), 
+							locationBuilder.getLatitude(), 
+							locationBuilder.getLongitude(), 
+							locationBuilder.getTimestamp(), 
+							locationBuilder.getTimeZone()));
+					
+					mCount++;
+				}
+				
+				endRecord(mSize, mLimit);
+			} catch (IOException e) {
+				resync(e);
+			}
+		}
+		
+		return mCount;
+	}
+	
+	// build the values for a location record
+	private ContentValues buildLocation(String phoneNumber, String subscriberId, double latitude, double longitude, long timestamp, String timeZone) {
+		
+		ContentValues mValues = new ContentValues();
+		
+		mValues.put(LocationsContract.Table.PHONE_NUMBER, phoneNumber);
+		mValues.put(LocationsContract.Table.SUBSCRIBER_ID, subscriberId);
+		mValues.put(LocationsContract.Table.LATITUDE, latitude);
+		mValues.put(LocationsContract.Table.LONGITUDE, longitude);
+		mValues.put(LocationsContract.Table.TIMESTAMP, timestamp);
+		mValues.put(LocationsContract.Table.TIMEZONE, timeZone);
+		mValues.put(LocationsContract.Table.HASH, HashUtils.hashLocationMessage(phoneNumber, latitude, longitude, timestamp));
+		
+		return mValues;
+	}
+	
+	/**
+	 * read the next batch of point of interest records
+	 * 
+	 * @param batch the list the records are added to
+	 * @param maxRecords the maximum number of records to add to the batch
+	 * @return the number of records added, zero at the end of the file
+	 * @throws IOException if a record can't be read, the records read before it remain in the batch
+	 */
+	public int readPointsOfInterest(ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+		
+		if(pointOfInterestBuilder == null) {
+			pointOfInterestBuilder = PointOfInterestMessage.Message.newBuilder();
+		}
+		
+		int mCount = 0;
+		
+		while(mCount < maxRecords) {
+			
+			try {
+				int mSize = startRecord();
+				
+				if(mSize == -1) {
+					break;
+				}
+				
+				int mLimit = source.pushLimit(mSize);
+				
+				pointOfInterestBuilder.clear().mergeFrom(source);
+				
+				if(pointOfInterestBuilder.isInitialized() == false) {
+					throw new InvalidProtocolBufferException("point of interest record at byte " + recordOffset + " is missing required fields");
+				}
+				
+				endRecord(mSize, mLimit);
+			} catch (IOException e) {
+				resync(e);
+				continue;
+			}
+			
+			ContentValues mValues = new ContentValues();
+			
+			mValues.put(PointsOfInterestContract.Table.PHONE_NUMBER, pointOfInterestBuilder.getPhoneNumber());
+			mValues.put(PointsOfInterestContract.Table.SUBSCRIBER_ID, pointOfInterestBuilder.getSubsciberId());
+			mValues.put(PointsOfInterestContract.Table.LATITUDE, pointOfInterestBuilder.getLatitude());
+			mValues.put(PointsOfInterestContract.Table.LONGITUDE, pointOfInterestBuilder.getLongitude());
+			mValues.put(PointsOfInterestContract.Table.TIMESTAMP, pointOfInterestBuilder.getTimestamp());
+			mValues.put(PointsOfInterestContract.Table.TIMEZONE, pointOfInterestBuilder.getTimeZone());
+			mValues.put(PointsOfInterestContract.Table.TITLE, pointOfInterestBuilder.getTitle());
+			mValues.put(PointsOfInterestContract.Table.DESCRIPTION, pointOfInterestBuilder.getDescription());
+			mValues.put(PointsOfInterestContract.Table.CATEGORY, pointOfInterestBuilder.getCategory());
+			mValues.put(PointsOfInterestContract.Table.PHOTO, pointOfInterestBuilder.getPhoto());
+			mValues.put(PointsOfInterestContract.Table.HASH, HashUtils.hashPointOfInterestMessage(
+					pointOfInterestBuilder.getPhoneNumber(), 
+					pointOfInterestBuilder.getLatitude(), 
+					pointOfInterestBuilder.getLongitude(), 
+					pointOfInterestBuilder.getTimestamp(), 
+					pointOfInterestBuilder.getTitle(), 
+					pointOfInterestBuilder.getDescription()));
+			
+			batch.add(mValues);
+			mCount++;
+		}
+		
+		return mCount;
+	}
+	
+	/**
+	 * release the resources used to read compressed blocks
+	 */
+	public void close() {
+		
+		if(inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+	
+	/*
+	 * skip from the file record containing a corrupt record to the next sync record, 
+	 * or to the end of the piece if there isn't one, throwing the exception at the end of the file
+	 */
+	private void resync(IOException exception) throws IOException {
+		
+		int mSync = findSync(buffer, (int) (recordOffset - start) + 1);
+		
+		if(mSync == -1) {
+			
+			if(endOfFile == true) {
+				throw exception;
+			}
+			
+			mSync = buffer.limit();
+		}
+		
+		long mSkipped = start + mSync - recordOffset;
+		skippedBytes += mSkipped;
+		
+		Log.w(TAG, "skipped " + mSkipped + " bytes of corrupt records from byte " + recordOffset + ": " + exception.getMessage());
+		
+		// discard the rest of the current block and location batch
+		blockInput = null;
+		
+		if(locationBatch != null) {
+			batchIndex = locationBatch.size();
+		}
+		
+		// read on from the sync record
+		offset = start + mSync;
+		recordOffset = offset;
+		
+		buffer.position(mSync);
+		input = CodedInputStream.newInstance(new ByteBufferInputStream(buffer));
+	}
+	
+	/*
+	 * read the length of the next record, returning -1 at the end of the file, 
+	 * the records in a compressed block are read before the next record in the file
+	 */
+	private int startRecord() throws IOException {
+		
+		while(true) {
+			
+			if(blockInput != null) {
+				
+				if(blockInput.isAtEnd() == false) {
+					source = blockInput;
+					
+					int mSize = blockInput.readRawVarint32();
+					recordStart = blockInput.getTotalBytesRead();
+					
+					return mSize;
+				}
+				
+				blockInput = null;
+			}
+			
+			if(input.isAtEnd() == true) {
+				return -1;
+			}
+			
+			source = input;
+			recordOffset = offset;
+			
+			int mSize = input.readRawVarint32();
+			recordStart = (int) (offset - start) + CodedOutputStream.computeRawVarint32Size(mSize);
+			
+			int mMarker = peek(mSize);
+			
+			if(mMarker == BlockOutputStream.SYNC_MARKER) {
+				// sync records only mark the start of a block
+				int mLimit = input.pushLimit(mSize);
+				input.skipRawBytes(mSize);
+				endRecord(mSize, mLimit);
+			} else if(mMarker == BlockOutputStream.MARKER) {
+				readBlock(mSize);
+			} else {
+				return mSize;
+			}
+		}
+	}
+	
+	/*
+	 * look at the first byte of the current record without reading it
+	 */
+	private int peek(int size) throws IOException {
+		
+		if(size == 0) {
+			return -1;
+		}
+		
+		if(source == blockInput) {
+			
+			if(recordStart >= blockLength) {
+				throw new InvalidProtocolBufferException("record in compressed block is incomplete");
+			}
+			
+			return blockBytes[recordStart];
+		}
+		
+		if(recordStart >= buffer.limit()) {
+			throw new InvalidProtocolBufferException("record at byte " + offset + " is incomplete");
+		}
+		
+		return buffer.get(recordStart);
+	}
+	
+	/*
+	 * check to see if the current record is a location batch
+	 */
+	private boolean isLocationBatch(int size) throws IOException {
+		return peek(size) == LocationBatch.MARKER;
+	}
+	
+	/*
+	 * read a compressed or stored block and prepare to read the records in it
+	 */
+	private void readBlock(int size) throws IOException {
+		
+		long mBlockOffset = offset;
+		
+		int mLimit = input.pushLimit(size);
+		
+		input.readRawByte();
+		int mCodec = input.readRawVarint32();
+		input.readRawVarint32();
+		int mLength = input.readRawVarint32();
+		int mChecksum = input.readRawLittleEndian32();
+		
+		byte[] mCompressed = input.readRawBytes(input.getBytesUntilLimit());
+		
+		endRecord(size, mLimit);
+		
+		if(checksum == null) {
+			checksum = new CRC32();
+		}
+		
+		checksum.reset();
+		checksum.update(mCompressed);
+		
+		if((int) checksum.getValue() != mChecksum) {
+			throw new InvalidProtocolBufferException("block at byte " + mBlockOffset + " has an invalid checksum");
+		}
+		
+		if(mCodec == BlockOutputStream.CODEC_STORED) {
+			
+			// the records are read straight from the block
+			if(mLength != mCompressed.length) {
+				throw new InvalidProtocolBufferException("stored block at byte " + mBlockOffset + " has an invalid length");
+			}
+			
+			blockBytes = mCompressed;
+			blockLength = mLength;
+			blockInput = CodedInputStream.newInstance(blockBytes, 0, mLength);
+			return;
+		}
+		
+		if(mCodec != BlockOutputStream.CODEC_DEFLATE) {
+			// a codec from a later version of the software, skip the block
+			return;
+		}
+		
+		if(mLength < 0 || mLength > MAX_BLOCK_SIZE) {
+			throw new InvalidProtocolBufferException("compressed block at byte " + mBlockOffset + " has an invalid length");
+		}
+		
+		if(blockBytes == null || blockBytes.length < mLength) {
+			blockBytes = new byte[mLength];
+		}
+		
+		if(inflater == null) {
+			inflater = new Inflater();
+		}
+		
+		// decompress the records
+		inflater.reset();
+		inflater.setInput(mCompressed);
+		
+		int mInflated = 0;
+		
+		try {
+			while(mInflated < mLength && inflater.finished() == false) {
+				
+				int mCount = inflater.inflate(blockBytes, mInflated, mLength - mInflated);
+				
+				if(mCount == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				
+				mInflated += mCount;
+			}
+		} catch (DataFormatException e) {
+			throw new InvalidProtocolBufferException("compressed block at byte " + mBlockOffset + " is corrupt");
+		}
+		
+		if(mInflated != mLength) {
+			throw new InvalidProtocolBufferException("compressed block at byte " + mBlockOffset + " is incomplete");
+		}
+		
+		blockLength = mLength;
+		blockInput = CodedInputStream.newInstance(blockBytes, 0, mLength);
+	}
+	
+	/*
+	 * finish reading a record and move on to the start of the next one
+	 */
+	private void endRecord(int size, int oldLimit) {
+		
+		source.popLimit(oldLimit);
+		
+		// records in a block are part of the block record in the file
+		if(source == input) {
+			
+			// don't let the total size of the file count against the message size limit
+			input.resetSizeCounter();
+			
+			// keep track of the start of the next record
+			offset += CodedOutputStream.computeRawVarint32Size(size) + size;
+		}
+	}
+}
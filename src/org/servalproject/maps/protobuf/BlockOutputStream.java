@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * an output stream that writes the records written to it in blocks, compressed or stored as they are, 
+ * a block of the records written since the last block is written each time the stream is flushed 
+ * so the stream must only be flushed between records
+ * 
+ * a block is written length delimited in the same way as the records it contains 
+ * and starts with a marker byte which is never the first byte of a record, 
+ * followed by the codec, the number of records, the uncompressed length, 
+ * a CRC32 checksum of the records as written and the records
+ * 
+ * each block is preceded by a sync record so that a reader can find the next block 
+ * after a corrupt record, and a file can be split into pieces at the sync records
+ * 
+ * older versions of the software can't read blocks, so files of plain location and POI messages 
+ * are written without blocks and have neither checksums nor sync records
+ */
+public class BlockOutputStream extends OutputStream {
+	
+	/**
+	 * the first byte of a compressed block
+	 */
+	public static final int MARKER = 1;
+	
+	/**
+	 * the codec used for blocks of records that aren't compressed
+	 */
+	public static final int CODEC_STORED = 0;
+	
+	/**
+	 * the codec used for blocks compressed with DEFLATE
+	 */
+	public static final int CODEC_DEFLATE = 1;
+	
+	/**
+	 * the first byte of a sync record
+	 */
+	public static final int SYNC_MARKER = 2;
+	
+	/*
+	 * package level constants
+	 */
+	
+	// a complete sync record, including the length, the bytes after the marker are chosen at random
+	static final byte[] SYNC_RECORD = {
+		0x11, SYNC_MARKER, 
+		(byte) 0x8d, (byte) 0x3f, (byte) 0xa6, (byte) 0x51, (byte) 0xe2, (byte) 0x07, (byte) 0xc9, (byte) 0x74, 
+		(byte) 0x1b, (byte) 0xb0, (byte) 0x6e, (byte) 0xd5, (byte) 0x28, (byte) 0x93, (byte) 0xf7, (byte) 0x4a
+	};
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// initial size of the buffers used for the records in a block
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	/*
+	 * private class level variables
+	 */
+	private final OutputStream output;
+	private final int codec;
+	private final Deflater deflater;
+	
+	private final ByteArrayOutputStream records = new ByteArrayOutputStream(BUFFER_SIZE);
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream(BUFFER_SIZE);
+	private final byte[] deflated = new byte[BUFFER_SIZE];
+	private final CRC32 checksum = new CRC32();
+	
+	private int recordCount = 0;
+	
+	/**
+	 * construct a new stream that writes compressed blocks to an output stream
+	 * 
+	 * @param output the output stream the blocks are written to
+	 */
+	public BlockOutputStream(OutputStream output) {
+		this(output, CODEC_DEFLATE);
+	}
+	
+	/**
+	 * construct a new stream that writes blocks to an output stream
+	 * 
+	 * @param output the output stream the blocks are written to
+	 * @param codec the codec used for the blocks, either CODEC_DEFLATE or CODEC_STORED
+	 */
+	public BlockOutputStream(OutputStream output, int codec) {
+		
+		if(output == null) {
+			throw new IllegalArgumentException("the output parameter is required");
+		}
+		
+		if(codec != CODEC_DEFLATE && codec != CODEC_STORED) {
+			throw new IllegalArgumentException("the codec parameter must be CODEC_DEFLATE or CODEC_STORED");
+		}
+		
+		this.output = output;
+		this.codec = codec;
+		
+		if(codec == CODEC_DEFLATE) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		} else {
+			deflater = null;
+		}
+	}
+	
+	/**
+	 * count a record written to the stream, the count is stored in the block header
+	 */
+	public void recordWritten() {
+		recordCount++;
+	}
+	
+	/**
+	 * @return the number of records written since the last block
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int value) {
+		records.write(value);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length) {
+		records.write(bytes, offset, length);
+	}
+	
+	/*
+	 * write a block of the records written since the last block and flush the output stream
+	 * 
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		
+		if(records.size() > 0) {
+			
+			block.reset();
+			
+			if(codec == CODEC_DEFLATE) {
+				
+				// compress the records
+				deflater.reset();
+				deflater.setInput(records.toByteArray());
+				deflater.finish();
+				
+				while(deflater.finished() == false) {
+					block.write(deflated, 0, deflater.deflate(deflated));
+				}
+			} else {
+				records.writeTo(block);
+			}
+			
+			checksum.reset();
+			checksum.update(block.toByteArray());
+			
+			// write the sync record and block in a single write so a partial block is only left by a crash
+			ByteArrayOutputStream mBlock = new ByteArrayOutputStream(SYNC_RECORD.length + block.size() + 24);
+			CodedOutputStream mOutput = CodedOutputStream.newInstance(mBlock);
+			
+			int mSize = 1 
+					+ CodedOutputStream.computeRawVarint32Size(codec) 
+					+ CodedOutputStream.computeRawVarint32Size(recordCount) 
+					+ CodedOutputStream.computeRawVarint32Size(records.size()) 
+					+ CodedOutputStream.LITTLE_ENDIAN_32_SIZE 
+					+ block.size();
+			
+			mOutput.writeRawBytes(SYNC_RECORD);
+			mOutput.writeRawVarint32(mSize);
+			mOutput.writeRawByte(MARKER);
+			mOutput.writeRawVarint32(codec);
+			mOutput.writeRawVarint32(recordCount);
+			mOutput.writeRawVarint32(records.size());
+			mOutput.writeRawLittleEndian32((int) checksum.getValue());
+			mOutput.flush();
+			
+			block.writeTo(mBlock);
+			mBlock.writeTo(output);
+			
+			records.reset();
+			recordCount = 0;
+		}
+		
+		output.flush();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		
+		try {
+			flush();
+		} finally {
+			if(deflater != null) {
+				deflater.end();
+			}
+			output.close();
+		}
+	}
+}
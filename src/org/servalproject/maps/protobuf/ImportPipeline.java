@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * import the records from a binary file into the database in two stages
+ * 
+ * a parser thread reads batches of records from the file while the calling thread writes them to the database, 
+ * the parser runs on the threads shared by the imports, owned by the import scheduler, 
+ * the stages are connected by a bounded queue so the parser waits when the database falls behind, 
+ * the time spent by each stage working and waiting is recorded to show which stage is slower
+ */
+public class ImportPipeline {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "ImportPipeline";
+	
+	// number of batches the parser can read ahead of the database
+	private static final int QUEUE_SIZE = 4;
+	
+	/*
+	 * private class level variables
+	 */
+	private final ContentResolver contentResolver;
+	private final Uri contentUri;
+	private final String hashColumn;
+	private final int batchSize;
+	private final ExecutorService executor;
+	
+	private final ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+	
+	// offset in the file of the record after the last record written to the database
+	private long offset;
+	
+	private int readCount = 0;
+	private int recordCount = 0;
+	
+	// time spent by each stage in milliseconds, the parser times are only read once the parser has finished
+	private long parseTime = 0;
+	private long parserWaitTime = 0;
+	private long writeTime = 0;
+	private long writerWaitTime = 0;
+	
+	// the error that stopped the parser
+	private IOException parseException = null;
+	
+	// any other error that stopped the parser, rethrown by the writer
+	private Throwable parseError = null;
+	
+	// the thread running the parser, only set while it is parsing
+	private Thread parserThread = null;
+	
+	// set when the writer has stopped so a parser that hasn't started doesn't read the file
+	private boolean stopped = false;
+	
+	// released when the parser has stopped using the source
+	private final CountDownLatch parserStopped = new CountDownLatch(1);
+	
+	/**
+	 * construct a new import pipeline
+	 * 
+	 * @param contentResolver the content resolver used to write the records
+	 * @param contentUri the uri the records are written to
+	 * @param hashColumn the column containing the hash used to skip records already in the database
+	 * @param batchSize the number of records written to the database in a single transaction, 
+	 * unless the source returns larger batches
+	 */
+	public ImportPipeline(ContentResolver contentResolver, Uri contentUri, String hashColumn, int batchSize) {
+		this(contentResolver, contentUri, hashColumn, batchSize, ImportScheduler.getInstance().getParserExecutor());
+	}
+	
+	/**
+	 * construct a new import pipeline
+	 * 
+	 * @param contentResolver the content resolver used to write the records
+	 * @param contentUri the uri the records are written to
+	 * @param hashColumn the column containing the hash used to skip records already in the database
+	 * @param batchSize the number of records written to the database in a single transaction, 
+	 * unless the source returns larger batches
+	 * @param executor the threads used to run the parser
+	 */
+	public ImportPipeline(ContentResolver contentResolver, Uri contentUri, String hashColumn, int batchSize, ExecutorService executor) {
+		
+		if(contentResolver == null) {
+			throw new IllegalArgumentException("the contentResolver parameter is required");
+		}
+		
+		if(contentUri == null) {
+			throw new IllegalArgumentException("the contentUri parameter is required");
+		}
+		
+		if(TextUtils.isEmpty(hashColumn) == true) {
+			throw new IllegalArgumentException("the hashColumn parameter is required");
+		}
+		
+		if(batchSize <= 0) {
+			throw new IllegalArgumentException("the batchSize parameter must be greater than zero");
+		}
+		
+		if(executor == null) {
+			throw new IllegalArgumentException("the executor parameter is required");
+		}
+		
+		this.contentResolver = contentResolver;
+		this.contentUri = contentUri;
+		this.hashColumn = hashColumn;
+		this.batchSize = batchSize;
+		this.executor = executor;
+	}
+	
+	/**
+	 * import all of the records from a source, returning when they have been written to the database
+	 * 
+	 * @param source the source of the records
+	 * @throws IOException if a record can't be read, the records read before it are written to the database
+	 * @throws InterruptedException if the calling thread is interrupted
+	 * @throws RuntimeException if the parser failed, the records read before it are written to the database
+	 */
+	public void run(final RecordSource source) throws IOException, InterruptedException {
+		
+		if(source == null) {
+			throw new IllegalArgumentException("the source parameter is required");
+		}
+		
+		offset = source.getOffset();
+		
+		executor.execute(new Runnable() {
+			
+			/*
+			 * (non-Javadoc)
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run() {
+				parse(source);
+			}
+		});
+		
+		try {
+			while(true) {
+				
+				long mStartTime = System.currentTimeMillis();
+				Batch mBatch = queue.take();
+				writerWaitTime += System.currentTimeMillis() - mStartTime;
+				
+				if(mBatch.records == null) {
+					break;
+				}
+				
+				mStartTime = System.currentTimeMillis();
+				recordCount += write(mBatch.records);
+				writeTime += System.currentTimeMillis() - mStartTime;
+				
+				offset = mBatch.offset;
+			}
+		} finally {
+			// stop the parser if the database can't be written, 
+			// and wait for it so the caller can close the source
+			synchronized(this) {
+				stopped = true;
+				
+				if(parserThread != null) {
+					parserThread.interrupt();
+				}
+			}
+			
+			parserStopped.await();
+		}
+		
+		if(parseError instanceof RuntimeException) {
+			throw (RuntimeException) parseError;
+		}
+		
+		if(parseError instanceof Error) {
+			throw (Error) parseError;
+		}
+		
+		if(parseException != null) {
+			throw parseException;
+		}
+	}
+	
+	/*
+	 * read batches of records from the source until the end of the file, an error, or the pipeline is stopped
+	 */
+	private void parse(RecordSource source) {
+		
+		// don't compete with the UI thread for the CPU
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		
+		synchronized(this) {
+			parserThread = Thread.currentThread();
+		}
+		
+		try {
+			while(isStopped() == false) {
+				
+				ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>(batchSize);
+				
+				long mStartTime = System.currentTimeMillis();
+				
+				try {
+					source.read(mRecords, batchSize);
+				} catch (IOException e) {
+					// pass on the records read before the error
+					parseException = e;
+				} finally {
+					parseTime += System.currentTimeMillis() - mStartTime;
+				}
+				
+				if(mRecords.size() > 0) {
+					readCount += mRecords.size();
+					
+					// wait for space in the queue if the database is behind
+					mStartTime = System.currentTimeMillis();
+					queue.put(new Batch(mRecords, source.getOffset()));
+					parserWaitTime += System.currentTimeMillis() - mStartTime;
+				}
+				
+				if(mRecords.size() == 0 || parseException != null) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			// the writer has stopped
+			Log.w(TAG, "import stopped before all of the records were read");
+		} catch (Throwable t) {
+			// passed on to the writer, which would otherwise wait for the last batch forever
+			Log.e(TAG, "unable to parse the records", t);
+			parseError = t;
+		} finally {
+			// tell the writer there are no more batches, unless it has stopped
+			try {
+				if(isStopped() == false) {
+					queue.put(new Batch(null, source.getOffset()));
+				}
+			} catch (InterruptedException e) {
+				Log.w(TAG, "import stopped before all of the records were read");
+			}
+			
+			// don't let the writer interrupt the next task run by this thread
+			synchronized(this) {
+				parserThread = null;
+			}
+			
+			Thread.interrupted();
+			parserStopped.countDown();
+		}
+	}
+	
+	/*
+	 * check if the writer has stopped
+	 */
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+	
+	/*
+	 * write a batch of records to the database in a single transaction
+	 */
+	private int write(ArrayList<ContentValues> batch) {
+		
+		// skip the records already in the database without sending them to the provider
+		KnownRecords.getInstance(contentUri, hashColumn).removeKnown(contentResolver, batch);
+		
+		if(batch.size() == 0) {
+			return 0;
+		}
+		
+		int mCount = contentResolver.bulkInsert(contentUri, batch.toArray(new ContentValues[batch.size()]));
+		
+		// give any other threads waiting on the provider a chance to run
+		Thread.yield();
+		
+		return mCount;
+	}
+	
+	/**
+	 * get the offset in the file of the record after the last record written to the database
+	 * 
+	 * @return the offset of the next record to import
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return the number of records read from the file
+	 */
+	public int getReadCount() {
+		return readCount;
+	}
+	
+	/**
+	 * @return the number of records written to the database, which excludes records already in the database
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+	
+	/**
+	 * @return the time in milliseconds the parser spent reading records
+	 */
+	public long getParseTime() {
+		return parseTime;
+	}
+	
+	/**
+	 * @return the time in milliseconds the parser spent waiting for the database to catch up
+	 */
+	public long getParserWaitTime() {
+		return parserWaitTime;
+	}
+	
+	/**
+	 * @return the time in milliseconds spent writing records to the database
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+	
+	/**
+	 * @return the time in milliseconds the database spent waiting for the parser
+	 */
+	public long getWriterWaitTime() {
+		return writerWaitTime;
+	}
+	
+	/*
+	 * describe the stage timings for logging
+	 * 
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "parse " + parseTime + "ms (waited " + parserWaitTime + "ms for the database), " 
+				+ "write " + writeTime + "ms (waited " + writerWaitTime + "ms for the parser)";
+	}
+	
+	/*
+	 * a batch of records and the offset of the record after them, 
+	 * the last batch has no records
+	 */
+	private static class Batch {
+		
+		final ArrayList<ContentValues> records;
+		final long offset;
+		
+		Batch(ArrayList<ContentValues> records, long offset) {
+			this.records = records;
+			this.offset = offset;
+		}
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * schedule the import of binary files on a small number of background threads
+ * 
+ * the queue is bounded, a task for a file that is already queued replaces the queued task, 
+ * point of interest files are imported before location files and newer files before older ones
+ * 
+ * when the queue is full a new task replaces the last task in the queue if that task has a lower priority, 
+ * so point of interest files and photos, which aren't imported again from a saved offset, are only rejected 
+ * when the queue is full of point of interest files and photos
+ * 
+ * the scheduler also owns the threads that parse files while they are imported and read pieces of files, 
+ * these are shared by all of the imports so the number of threads doesn't grow with the number of files
+ */
+public class ImportScheduler {
+	
+	/**
+	 * priority of tasks importing point of interest files
+	 */
+	public static final int PRIORITY_POINTS_OF_INTEREST = 0;
+	
+	/**
+	 * priority of tasks copying photos, which like point of interest files aren't received again
+	 */
+	public static final int PRIORITY_PHOTOS = 0;
+	
+	/**
+	 * priority of tasks importing location files
+	 */
+	public static final int PRIORITY_LOCATIONS = 1;
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "ImportScheduler";
+	private static final boolean V_LOG = false;
+	
+	// maximum number of threads importing files
+	private static final int THREAD_COUNT = 2;
+	
+	// maximum number of tasks waiting to be run
+	private static final int QUEUE_CAPACITY = 64;
+	
+	// number of milliseconds an idle thread waits for a new task before it stops
+	private static final long IDLE_TIMEOUT = 30 * 1000;
+	
+	// maximum number of threads reading pieces of files
+	private static final int MAX_READER_THREAD_COUNT = 4;
+	
+	/*
+	 * private class level variables
+	 */
+	private static ImportScheduler instance = null;
+	
+	private final int threadCount;
+	private final int capacity;
+	
+	private final int readerThreadCount;
+	
+	private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+	private final HashMap<String, Task> queuedTasks = new HashMap<String, Task>();
+	
+	private int runningThreads = 0;
+	private int idleThreads = 0;
+	private long sequence = 0;
+	
+	// statistics about the queue
+	private long startedCount = 0;
+	private long mergedCount = 0;
+	private long rejectedCount = 0;
+	private long totalWait = 0;
+	private long maxWait = 0;
+	
+	// threads shared by the imports, created when first used
+	private ExecutorService parserExecutor = null;
+	private ExecutorService readerExecutor = null;
+	
+	/**
+	 * construct a new import scheduler
+	 * 
+	 * @param threadCount the maximum number of threads importing files
+	 * @param capacity the maximum number of tasks waiting to be run
+	 */
+	public ImportScheduler(int threadCount, int capacity) {
+		
+		if(threadCount <= 0) {
+			throw new IllegalArgumentException("the threadCount parameter must be greater than zero");
+		}
+		
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("the capacity parameter must be greater than zero");
+		}
+		
+		this.threadCount = threadCount;
+		this.capacity = capacity;
+		
+		readerThreadCount = Math.min(Runtime.getRuntime().availableProcessors(), MAX_READER_THREAD_COUNT);
+	}
+	
+	/**
+	 * get the import scheduler shared by the application
+	 * 
+	 * @return the shared import scheduler
+	 */
+	public static synchronized ImportScheduler getInstance() {
+		
+		if(instance == null) {
+			instance = new ImportScheduler(THREAD_COUNT, QUEUE_CAPACITY);
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * submit a task to import a file, if a task for the same file is waiting to run it is replaced by this one, 
+	 * if the queue is full the last task in the queue is dropped to make room for this one if it has a lower priority
+	 * 
+	 * @param key identifies the file the task imports
+	 * @param priority the priority of the task, lower values are run first
+	 * @param sourceTime a string that sorts in the same order as the times covered by files, newer files are run first
+	 * @param task the task to run
+	 * @return true if the task was queued, false if the queue is full of tasks with the same or a higher priority
+	 */
+	public synchronized boolean submit(String key, int priority, String sourceTime, Runnable task) {
+		
+		if(key == null) {
+			throw new IllegalArgumentException("the key parameter is required");
+		}
+		
+		if(task == null) {
+			throw new IllegalArgumentException("the task parameter is required");
+		}
+		
+		Task mTask = queuedTasks.get(key);
+		
+		if(mTask != null) {
+			// merge with the queued task, keeping its place in the queue and the time it has been waiting
+			queue.remove(mTask);
+			mTask = new Task(key, priority, sourceTime, mTask.sequence, mTask.queuedTime, task);
+			mergedCount++;
+		} else {
+			mTask = new Task(key, priority, sourceTime, sequence++, System.currentTimeMillis(), task);
+			
+			if(queue.size() >= capacity) {
+				
+				// drop the task that would be run last if it has a lower priority than the new task
+				Task mLast = getLast();
+				
+				if(mLast.priority <= priority) {
+					rejectedCount++;
+					Log.w(TAG, "import queue is full, unable to queue '" + key + "'");
+					return false;
+				}
+				
+				queue.remove(mLast);
+				queuedTasks.remove(mLast.key);
+				rejectedCount++;
+				Log.w(TAG, "import queue is full, dropped '" + mLast.key + "' to queue '" + key + "'");
+			}
+		}
+		
+		queue.add(mTask);
+		queuedTasks.put(key, mTask);
+		
+		// start a new thread if none are waiting for a task
+		if(idleThreads == 0 && runningThreads < threadCount) {
+			runningThreads++;
+			new Thread(runner, TAG).start();
+		} else {
+			notify();
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, "queued '" + key + "' queue depth: " + queue.size());
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * get the threads used to parse files while the records are written to the database, 
+	 * there is one for each thread running tasks so a parser never waits for another import
+	 * 
+	 * @return the threads used to parse files
+	 */
+	public synchronized ExecutorService getParserExecutor() {
+		
+		if(parserExecutor == null) {
+			parserExecutor = newExecutor(threadCount, "ImportParser");
+		}
+		
+		return parserExecutor;
+	}
+	
+	/**
+	 * get the threads used to read pieces of files, 
+	 * the tasks must not wait for other tasks using the same threads
+	 * 
+	 * @return the threads used to read pieces of files
+	 */
+	public synchronized ExecutorService getReaderExecutor() {
+		
+		if(readerExecutor == null) {
+			readerExecutor = newExecutor(readerThreadCount, "ImportReader");
+		}
+		
+		return readerExecutor;
+	}
+	
+	/**
+	 * @return the number of threads used to read pieces of files
+	 */
+	public int getReaderThreadCount() {
+		return readerThreadCount;
+	}
+	
+	/*
+	 * create a fixed number of shared threads that stop when they are idle where supported
+	 */
+	private static ExecutorService newExecutor(int threadCount, final String name) {
+		
+		ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 
+				IDLE_TIMEOUT, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), 
+				new ThreadFactory() {
+					
+					/*
+					 * (non-Javadoc)
+					 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+					 */
+					@Override
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, name);
+					}
+				});
+		
+		// the method isn't available in the api level we build against so use reflection, 
+		// without it the idle threads are kept
+		try {
+			Method mMethod = ThreadPoolExecutor.class.getMethod("allowCoreThreadTimeOut", boolean.class);
+			mMethod.invoke(mExecutor, true);
+		} catch (Exception e) {
+			Log.w(TAG, "unable to stop idle threads", e);
+		}
+		
+		return mExecutor;
+	}
+	
+	/**
+	 * get the number of tasks waiting to run
+	 * 
+	 * @return the number of tasks waiting to run
+	 */
+	public synchronized int getQueueDepth() {
+		return queue.size();
+	}
+	
+	/**
+	 * get the average time tasks waited before they were run
+	 * 
+	 * @return the average wait time in milliseconds
+	 */
+	public synchronized long getAverageWait() {
+		
+		if(startedCount == 0) {
+			return 0;
+		}
+		
+		return totalWait / startedCount;
+	}
+	
+	/**
+	 * get the longest time a task waited before it was run
+	 * 
+	 * @return the longest wait time in milliseconds
+	 */
+	public synchronized long getMaxWait() {
+		return maxWait;
+	}
+	
+	/**
+	 * get the number of tasks that were merged with a task already waiting to run
+	 * 
+	 * @return the number of merged tasks
+	 */
+	public synchronized long getMergedCount() {
+		return mergedCount;
+	}
+	
+	/**
+	 * get the number of tasks that were rejected because the queue was full
+	 * 
+	 * @return the number of rejected tasks
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+	
+	// get the task in the queue that would be run last
+	private Task getLast() {
+		
+		Task mLast = null;
+		
+		for(Task mTask : queue) {
+			if(mLast == null || mTask.compareTo(mLast) > 0) {
+				mLast = mTask;
+			}
+		}
+		
+		return mLast;
+	}
+	
+	// get the next task to run, waiting for one if necessary, returns null if the thread should stop
+	private synchronized Task take() {
+		
+		long mIdleStart = System.currentTimeMillis();
+		
+		while(queue.isEmpty()) {
+			
+			long mRemaining = IDLE_TIMEOUT - (System.currentTimeMillis() - mIdleStart);
+			
+			if(mRemaining <= 0) {
+				runningThreads--;
+				return null;
+			}
+			
+			idleThreads++;
+			try {
+				wait(mRemaining);
+			} catch (InterruptedException e) {
+				runningThreads--;
+				return null;
+			} finally {
+				idleThreads--;
+			}
+		}
+		
+		Task mTask = queue.poll();
+		queuedTasks.remove(mTask.key);
+		
+		long mWait = System.currentTimeMillis() - mTask.queuedTime;
+		startedCount++;
+		totalWait += mWait;
+		maxWait = Math.max(maxWait, mWait);
+		
+		if(V_LOG) {
+			Log.v(TAG, "starting '" + mTask.key + "' after waiting " + mWait + "ms, queue depth: " 
+					+ queue.size() + " average wait: " + (totalWait / startedCount) + "ms max wait: " + maxWait + "ms");
+		}
+		
+		return mTask;
+	}
+	
+	// run tasks from the queue until there are no more
+	private final Runnable runner = new Runnable() {
+		
+		public void run() {
+			
+			// don't compete with the UI thread for the CPU
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			
+			Task mTask;
+			
+			while((mTask = take()) != null) {
+				// keep the thread running after any failure, otherwise it is lost from the count of running threads 
+				// and no thread is left to run the queued tasks
+				try {
+					mTask.task.run();
+				} catch (Throwable t) {
+					Log.e(TAG, "unable to import '" + mTask.key + "'", t);
+				}
+			}
+		}
+	};
+	
+	/*
+	 * a task waiting in the queue
+	 */
+	private static class Task implements Comparable<Task> {
+		
+		private final String key;
+		private final int priority;
+		private final String sourceTime;
+		private final long sequence;
+		private final long queuedTime;
+		private final Runnable task;
+		
+		private Task(String key, int priority, String sourceTime, long sequence, long queuedTime, Runnable task) {
+			this.key = key;
+			this.priority = priority;
+			this.sourceTime = sourceTime == null ? "" : sourceTime;
+			this.sequence = sequence;
+			this.queuedTime = queuedTime;
+			this.task = task;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Task another) {
+			
+			if(priority != another.priority) {
+				return priority < another.priority ? -1 : 1;
+			}
+			
+			// newer files first
+			int mCompare = another.sourceTime.compareTo(sourceTime);
+			
+			if(mCompare != 0) {
+				return mCompare;
+			}
+			
+			// otherwise in the order they were queued
+			if(sequence != another.sequence) {
+				return sequence < another.sequence ? -1 : 1;
+			}
+			
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.servalproject.maps.utils.BloomFilter;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * keep track of the hashes of the records in a table so that imported records already 
+ * in the database can be skipped before they are sent to the content provider
+ * 
+ * a bloom filter over the hashes answers most checks for new records without a query, 
+ * any hash the filter may contain is checked against the hash index in a single query per batch
+ */
+public class KnownRecords {
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "KnownRecords";
+	private static final boolean V_LOG = false;
+	
+	// target false positive rate of the bloom filter
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	
+	// minimum number of hashes the bloom filter is sized for
+	private static final int MIN_CAPACITY = 10000;
+	
+	// maximum number of hashes in a single query, below the sqlite limit on parameters
+	private static final int MAX_QUERY_HASHES = 500;
+	
+	/*
+	 * private class level variables
+	 */
+	private static final HashMap<Uri, KnownRecords> instances = new HashMap<Uri, KnownRecords>();
+	
+	private final Uri contentUri;
+	private final String hashColumn;
+	
+	private BloomFilter filter = null;
+	
+	// statistics about how well the filter is working
+	private long checkedCount = 0;
+	private long negativeCount = 0;
+	private long falsePositiveCount = 0;
+	
+	// private constructor, use the getInstance method
+	private KnownRecords(Uri contentUri, String hashColumn) {
+		this.contentUri = contentUri;
+		this.hashColumn = hashColumn;
+	}
+	
+	/**
+	 * get the known records for a table
+	 * 
+	 * @param contentUri the content uri of the table
+	 * @param hashColumn the name of the column containing the record hashes
+	 * @return the known records for the table
+	 */
+	public static synchronized KnownRecords getInstance(Uri contentUri, String hashColumn) {
+		
+		if(contentUri == null) {
+			throw new IllegalArgumentException("the contentUri parameter is required");
+		}
+		
+		if(hashColumn == null) {
+			throw new IllegalArgumentException("the hashColumn parameter is required");
+		}
+		
+		KnownRecords mKnownRecords = instances.get(contentUri);
+		
+		if(mKnownRecords == null) {
+			mKnownRecords = new KnownRecords(contentUri, hashColumn);
+			instances.put(contentUri, mKnownRecords);
+		}
+		
+		return mKnownRecords;
+	}
+	
+	/**
+	 * remove the records that are already in the database from a batch, 
+	 * the remaining records are treated as known from now on
+	 * 
+	 * @param contentResolver the content resolver used to query the database
+	 * @param batch the batch of records, each one containing a hash
+	 * @return the number of records removed from the batch
+	 */
+	public synchronized int removeKnown(ContentResolver contentResolver, ArrayList<ContentValues> batch) {
+		
+		if(filter == null || filter.getCount() > filter.getCapacity()) {
+			loadFilter(contentResolver);
+		}
+		
+		// find the records that may already be in the database
+		ArrayList<String> mCandidates = new ArrayList<String>();
+		
+		for(ContentValues mValues : batch) {
+			
+			String mHash = mValues.getAsString(hashColumn);
+			
+			if(filter.mightContain(mHash) == true) {
+				mCandidates.add(mHash);
+			}
+		}
+		
+		checkedCount += batch.size();
+		negativeCount += batch.size() - mCandidates.size();
+		
+		// check the candidates against the database
+		HashSet<String> mExisting = findExisting(contentResolver, mCandidates);
+		falsePositiveCount += mCandidates.size() - mExisting.size();
+		
+		int mRemoved = 0;
+		
+		for(int i = batch.size() - 1; i >= 0; i--) {
+			
+			String mHash = batch.get(i).getAsString(hashColumn);
+			
+			if(mExisting.contains(mHash) == true) {
+				batch.remove(i);
+				mRemoved++;
+			} else {
+				filter.add(mHash);
+			}
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, contentUri + " checked: " + checkedCount + " definitely new: " + negativeCount 
+					+ " false positives: " + falsePositiveCount + " (" + getFalsePositiveRate() + ")");
+		}
+		
+		return mRemoved;
+	}
+	
+	/**
+	 * get the rate at which the bloom filter reports that a new record may be known
+	 * 
+	 * @return the false positive rate
+	 */
+	public synchronized double getFalsePositiveRate() {
+		
+		long mNew = negativeCount + falsePositiveCount;
+		
+		if(mNew == 0) {
+			return 0;
+		}
+		
+		return (double) falsePositiveCount / mNew;
+	}
+	
+	// build the bloom filter from the hashes already in the database
+	private void loadFilter(ContentResolver contentResolver) {
+		
+		long mStartTime = System.currentTimeMillis();
+		
+		String[] mProjection = {hashColumn};
+		String mSelection = hashColumn + " IS NOT NULL";
+		
+		Cursor mCursor = contentResolver.query(contentUri, mProjection, mSelection, null, null);
+		
+		if(mCursor == null) {
+			filter = new BloomFilter(MIN_CAPACITY, FALSE_POSITIVE_RATE);
+			return;
+		}
+		
+		try {
+			// leave room for the database to double in size before the filter is rebuilt
+			filter = new BloomFilter(Math.max(mCursor.getCount() * 2, MIN_CAPACITY), FALSE_POSITIVE_RATE);
+			
+			while(mCursor.moveToNext()) {
+				filter.add(mCursor.getString(0));
+			}
+		} finally {
+			mCursor.close();
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, "loaded " + filter.getCount() + " hashes from " + contentUri + " in " + (System.currentTimeMillis() - mStartTime) + "ms");
+		}
+	}
+	
+	// find which of a list of hashes are in the database
+	private HashSet<String> findExisting(ContentResolver contentResolver, ArrayList<String> hashes) {
+		
+		HashSet<String> mExisting = new HashSet<String>();
+		
+		for(int mStart = 0; mStart < hashes.size(); mStart += MAX_QUERY_HASHES) {
+			
+			int mEnd = Math.min(mStart + MAX_QUERY_HASHES, hashes.size());
+			
+			StringBuilder mSelection = new StringBuilder(hashColumn + " IN (");
+			
+			for(int i = mStart; i < mEnd; i++) {
+				mSelection.append(i == mStart ? "?" : ", ?");
+			}
+			mSelection.append(")");
+			
+			String[] mProjection = {hashColumn};
+			String[] mSelectionArgs = hashes.subList(mStart, mEnd).toArray(new String[mEnd - mStart]);
+			
+			Cursor mCursor = contentResolver.query(contentUri, mProjection, mSelection.toString(), mSelectionArgs, null);
+			
+			if(mCursor == null) {
+				continue;
+			}
+			
+			try {
+				while(mCursor.moveToNext()) {
+					mExisting.add(mCursor.getString(0));
+				}
+			} finally {
+				mCursor.close();
+			}
+		}
+		
+		return mExisting;
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * a batch of location records from a single phone in a compact columnar format
+ * 
+ * the phone number, subscriber id and time zone are written once for the batch, 
+ * followed by the latitudes, the longitudes and then the timestamps, 
+ * each as the zigzag encoded difference from the previous value, 
+ * with the coordinates in fixed point units of 1e-7 degrees
+ * 
+ * batches are written length delimited in the same way as location messages 
+ * and can be mixed with them in the same file, a batch starts with a zero byte 
+ * which is never the first byte of a location message as it isn't a valid field tag
+ */
+public class LocationBatch {
+	
+	/**
+	 * the first byte of a batch record
+	 */
+	public static final int MARKER = 0;
+	
+	/**
+	 * the version of the format written by this class
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * number of fixed point units in a degree
+	 */
+	public static final double COORDINATE_SCALE = 1e7;
+	
+	/*
+	 * private class level constants
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/*
+	 * private class level variables
+	 */
+	private String phoneNumber = null;
+	private String subscriberId = null;
+	private String timeZone = null;
+	
+	private long[] latitudes = new long[INITIAL_CAPACITY];
+	private long[] longitudes = new long[INITIAL_CAPACITY];
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+	
+	private int count = 0;
+	
+	/**
+	 * convert a coordinate into fixed point units
+	 * 
+	 * @param degrees the coordinate in degrees
+	 * @return the coordinate in fixed point units
+	 */
+	public static long toFixedPoint(double degrees) {
+		return Math.round(degrees * COORDINATE_SCALE);
+	}
+	
+	/**
+	 * convert a coordinate in fixed point units into degrees
+	 * 
+	 * @param units the coordinate in fixed point units
+	 * @return the coordinate in degrees
+	 */
+	public static double fromFixedPoint(long units) {
+		return units / COORDINATE_SCALE;
+	}
+	
+	/**
+	 * round a coordinate to the precision stored in a batch, 
+	 * so that a record read from a batch is the same as the record that was written
+	 * 
+	 * @param degrees the coordinate in degrees
+	 * @return the rounded coordinate in degrees
+	 */
+	public static double round(double degrees) {
+		return fromFixedPoint(toFixedPoint(degrees));
+	}
+	
+	/**
+	 * remove the records from the batch and set the phone the following records are from
+	 * 
+	 * @param phoneNumber the phone number
+	 * @param subscriberId the subscriber id
+	 * @param timeZone the time zone of the timestamps
+	 */
+	public void reset(String phoneNumber, String subscriberId, String timeZone) {
+		
+		this.phoneNumber = phoneNumber;
+		this.subscriberId = subscriberId;
+		this.timeZone = timeZone;
+		
+		count = 0;
+	}
+	
+	/**
+	 * check to see if records from a phone can be added to this batch
+	 * 
+	 * @param phoneNumber the phone number
+	 * @param subscriberId the subscriber id
+	 * @param timeZone the time zone of the timestamps
+	 * @return true if the records are from the same phone as the batch
+	 */
+	public boolean isFrom(String phoneNumber, String subscriberId, String timeZone) {
+		return equals(this.phoneNumber, phoneNumber) 
+				&& equals(this.subscriberId, subscriberId) 
+				&& equals(this.timeZone, timeZone);
+	}
+	
+	/**
+	 * add a record to the batch
+	 * 
+	 * @param latitude the latitude in degrees
+	 * @param longitude the longitude in degrees
+	 * @param timestamp the timestamp
+	 */
+	public void add(double latitude, double longitude, long timestamp) {
+		
+		if(count == timestamps.length) {
+			grow(count * 2);
+		}
+		
+		latitudes[count] = toFixedPoint(latitude);
+		longitudes[count] = toFixedPoint(longitude);
+		timestamps[count] = timestamp;
+		
+		count++;
+	}
+	
+	/**
+	 * @return the number of records in the batch
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * @return the phone number of the records in the batch
+	 */
+	public String getPhoneNumber() {
+		return phoneNumber;
+	}
+	
+	/**
+	 * @return the subscriber id of the records in the batch
+	 */
+	public String getSubscriberId() {
+		return subscriberId;
+	}
+	
+	/**
+	 * @return the time zone of the timestamps in the batch
+	 */
+	public String getTimeZone() {
+		return timeZone;
+	}
+	
+	/**
+	 * @param index the index of the record
+	 * @return the latitude of the record in degrees
+	 */
+	public double getLatitude(int index) {
+		return fromFixedPoint(latitudes[index]);
+	}
+	
+	/**
+	 * @param index the index of the record
+	 * @return the longitude of the record in degrees
+	 */
+	public double getLongitude(int index) {
+		return fromFixedPoint(longitudes[index]);
+	}
+	
+	/**
+	 * @param index the index of the record
+	 * @return the timestamp of the record
+	 */
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+	
+	/**
+	 * write the batch to an output stream preceded by its length
+	 * 
+	 * @param output the output stream
+	 * @throws IOException if the write operation fails
+	 */
+	public void writeDelimitedTo(OutputStream output) throws IOException {
+		
+		// work out the size of the batch so it can be written first
+		int mSize = 1 + CodedOutputStream.computeRawVarint32Size(VERSION);
+		mSize += CodedOutputStream.computeStringSizeNoTag(nullToEmpty(phoneNumber));
+		mSize += CodedOutputStream.computeStringSizeNoTag(nullToEmpty(subscriberId));
+		mSize += CodedOutputStream.computeStringSizeNoTag(nullToEmpty(timeZone));
+		mSize += CodedOutputStream.computeRawVarint32Size(count);
+		mSize += computeDeltasSize(latitudes);
+		mSize += computeDeltasSize(longitudes);
+		mSize += computeDeltasSize(timestamps);
+		
+		CodedOutputStream mOutput = CodedOutputStream.newInstance(output);
+		
+		mOutput.writeRawVarint32(mSize);
+		mOutput.writeRawByte(MARKER);
+		mOutput.writeRawVarint32(VERSION);
+		mOutput.writeStringNoTag(nullToEmpty(phoneNumber));
+		mOutput.writeStringNoTag(nullToEmpty(subscriberId));
+		mOutput.writeStringNoTag(nullToEmpty(timeZone));
+		mOutput.writeRawVarint32(count);
+		writeDeltas(mOutput, latitudes);
+		writeDeltas(mOutput, longitudes);
+		writeDeltas(mOutput, timestamps);
+		
+		mOutput.flush();
+	}
+	
+	/**
+	 * replace the contents of the batch with a batch read from an input stream, 
+	 * the input stream must be limited to the length of the batch
+	 * 
+	 * @param input the input stream positioned at the marker byte
+	 * @return true if the batch was read, false if it was skipped as it is a later version of the format
+	 * @throws IOException if the batch can't be read
+	 */
+	public boolean readFrom(CodedInputStream input) throws IOException {
+		
+		if(input.readRawByte() != MARKER) {
+			throw new InvalidProtocolBufferException("location batch doesn't start with the marker byte");
+		}
+		
+		count = 0;
+		
+		int mVersion = input.readRawVarint32();
+		
+		if(mVersion > VERSION) {
+			// a later version of the format, leave it to later versions of the software
+			input.skipRawBytes(input.getBytesUntilLimit());
+			count = 0;
+			return false;
+		}
+		
+		phoneNumber = input.readString();
+		subscriberId = input.readString();
+		timeZone = input.readString();
+		
+		int mCount = input.readRawVarint32();
+		
+		// each value takes at least one byte
+		if(mCount < 0 || mCount > input.getBytesUntilLimit()) {
+			throw new InvalidProtocolBufferException("location batch has an invalid number of records");
+		}
+		
+		if(mCount > timestamps.length) {
+			grow(mCount);
+		}
+		
+		count = mCount;
+		
+		readDeltas(input, latitudes);
+		readDeltas(input, longitudes);
+		readDeltas(input, timestamps);
+		
+		return true;
+	}
+	
+	// make room for more records
+	private void grow(int capacity) {
+		
+		long[] mLatitudes = new long[capacity];
+		long[] mLongitudes = new long[capacity];
+		long[] mTimestamps = new long[capacity];
+		
+		System.arraycopy(latitudes, 0, mLatitudes, 0, count);
+		System.arraycopy(longitudes, 0, mLongitudes, 0, count);
+		System.arraycopy(timestamps, 0, mTimestamps, 0, count);
+		
+		latitudes = mLatitudes;
+		longitudes = mLongitudes;
+		timestamps = mTimestamps;
+	}
+	
+	// get the number of bytes used to write a column of values as differences
+	private int computeDeltasSize(long[] values) {
+		
+		int mSize = 0;
+		long mPrevious = 0;
+		
+		for(int i = 0; i < count; i++) {
+			mSize += CodedOutputStream.computeSInt64SizeNoTag(values[i] - mPrevious);
+			mPrevious = values[i];
+		}
+		
+		return mSize;
+	}
+	
+	// write a column of values as the differences between them
+	private void writeDeltas(CodedOutputStream output, long[] values) throws IOException {
+		
+		long mPrevious = 0;
+		
+		for(int i = 0; i < count; i++) {
+			output.writeSInt64NoTag(values[i] - mPrevious);
+			mPrevious = values[i];
+		}
+	}
+	
+	// read a column of values written as the differences between them
+	private void readDeltas(CodedInputStream input, long[] values) throws IOException {
+		
+		long mPrevious = 0;
+		
+		for(int i = 0; i < count; i++) {
+			mPrevious += input.readSInt64();
+			values[i] = mPrevious;
+		}
+	}
+	
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+	
+	private static boolean equals(String first, String second) {
+		return first == null ? second == null : first.equals(second);
+	}
+}
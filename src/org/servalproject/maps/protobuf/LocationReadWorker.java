@@ -20,17 +20,18 @@
 package org.servalproject.maps.protobuf;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 
 import org.servalproject.maps.provider.LocationsContract;
+import org.servalproject.maps.rhizome.SyncState;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.os.Debug;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -47,7 +48,9 @@ public class LocationReadWorker implements Runnable {
 	private final String TAG = "LocationReadWorker";
 	private final boolean V_LOG = false;
 	
-	private final long sleepTime = 300;
+	// number of records written to the database in a single transaction, 
+	// unless all of the records in a piece of the file are read at once
+	private final int BATCH_SIZE = 500;
 	
 	/*
 	 * private class level variables
@@ -55,6 +58,13 @@ public class LocationReadWorker implements Runnable {
 	Context context;
 	String filePath;
 	
+	String sourceName;
+	long sourceVersion;
+	long sourceOffset;
+	
+	// the file is the source file read in place, rather than a copy of the end of it
+	boolean inPlace = false;
+	
 	/**
 	 * construct a new location read worker
 	 * 
@@ -76,18 +86,79 @@ public class LocationReadWorker implements Runnable {
 		this.filePath = filePath;
 		
 	}
+	
+	/**
+	 * construct a new location read worker for the end of a file received from Rhizome, 
+	 * the sync state of the file is updated once the records have been imported
+	 * 
+	 * @param context the context object used to access a content resolver
+	 * @param filePath the path to the binary file containing the end of the source file
+	 * @param sourceName the name of the source file as published in Rhizome
+	 * @param sourceVersion the version of the source file
+	 * @param sourceOffset the offset in the source file of the first byte in the binary file
+	 */
+	public LocationReadWorker(Context context, String filePath, String sourceName, long sourceVersion, long sourceOffset) {
+		
+		this(context, filePath);
+		
+		if(TextUtils.isEmpty(sourceName) == true) {
+			throw new IllegalArgumentException("the sourceName parameter is required");
+		}
+		
+		if(sourceOffset < 0) {
+			throw new IllegalArgumentException("the sourceOffset parameter must not be negative");
+		}
+		
+		this.sourceName = sourceName;
+		this.sourceVersion = sourceVersion;
+		this.sourceOffset = sourceOffset;
+	}
+	
+	/**
+	 * construct a new location read worker for a file received from Rhizome, 
+	 * the sync state of the file is updated once the records have been imported
+	 * 
+	 * @param context the context object used to access a content resolver
+	 * @param filePath the path to the binary file
+	 * @param sourceName the name of the source file as published in Rhizome
+	 * @param sourceVersion the version of the source file
+	 * @param sourceOffset the offset in the source file of the first byte to import
+	 * @param inPlace if true the binary file is the source file, which is read from the offset and not deleted, 
+	 * otherwise it is a copy of the end of the source file which is deleted once it has been read
+	 */
+	public LocationReadWorker(Context context, String filePath, String sourceName, long sourceVersion, long sourceOffset, boolean inPlace) {
+		
+		this(context, filePath, sourceName, sourceVersion, sourceOffset);
+		
+		this.inPlace = inPlace;
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
 	@Override
 	public void run() {
 		
-		// try and open the file
-		FileInputStream mInput = null;
-		try {
-			mInput = new FileInputStream(filePath);
-		} catch (FileNotFoundException e) {
-			Log.e(TAG, "unable to open file: " + filePath, e);
-			return;
+		// don't compete with the UI thread for the CPU
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		
+		if(sourceName == null) {
+			readRecords(null);
+		} else {
+			// only import from one version of a file at a time
+			SyncState mSyncState = SyncState.getInstance(context);
+			
+			synchronized(mSyncState.getLock(sourceName)) {
+				readRecords(mSyncState);
+			}
 		}
+	}
+	
+	/*
+	 * read the records from the file, skipping any already imported according to the sync state
+	 */
+	private void readRecords(SyncState syncState) {
 		
 		if(V_LOG) {
 			Log.v(TAG, "reading data from: " + filePath);
@@ -95,110 +166,159 @@ public class LocationReadWorker implements Runnable {
 		
 		// prepare helper variables
 		ContentResolver mContentResolver = context.getContentResolver();
-		ContentValues mNewValues = null;
-		Cursor mCursor = null;
-		LocationMessage.Message mMessage;
 		
-		long mLatestTimeStamp = -1;
+		long mStartTime = System.currentTimeMillis();
+		
+		// records are parsed on other threads so count the allocations made by all threads
+		if(V_LOG) {
+			Debug.resetGlobalAllocSize();
+			Debug.startAllocCounting();
+		}
+		
+		// offset in the source file of the next record and the timestamp of the last record
+		long mOffset = sourceOffset;
+		long mLastTimeStamp = 0;
+		long mVersion = sourceVersion;
 		
 		// loop through the data
 		try {
-			while((mMessage = LocationMessage.Message.parseDelimitedFrom(mInput)) != null) {
+			
+			// offset in the file of the first byte of the source file to read
+			long mStart = inPlace ? sourceOffset : 0;
+			
+			if(syncState != null) {
 				
-				// check to see if we need to get the latest time stamp
-				if(mLatestTimeStamp == -1) {
-					
-					String[] mProjection = {LocationsContract.Table.TIMESTAMP};
-					String mSelection = LocationsContract.Table.PHONE_NUMBER + " = ?";
-					String[] mSelectionArgs = new String[1];
-					mSelectionArgs[0] = mMessage.getPhoneNumber();
-					String mOrderBy = LocationsContract.Table.TIMESTAMP + " DESC";
-					
-					mCursor = mContentResolver.query(
-							LocationsContract.CONTENT_URI,
-							mProjection,
-							mSelection,
-							mSelectionArgs,
-							mOrderBy);
-					
-					if(mCursor.getCount() != 0) {
-						mCursor.moveToFirst();
-						
-						mLatestTimeStamp = mCursor.getLong(mCursor.getColumnIndex(LocationsContract.Table.TIMESTAMP));
-					} else {
-						mLatestTimeStamp = 0;
-					}
-					
-					mCursor.close();
-					mCursor = null;
-				}
+				SyncState.Entry mEntry = syncState.get(sourceName);
 				
-				if(mMessage.getTimestamp() > mLatestTimeStamp) {
-					
-					// add new record
-					mNewValues = new ContentValues();
+				if(mEntry != null) {
 					
-					mNewValues.put(LocationsContract.Table.PHONE_NUMBER, mMessage.getPhoneNumber());
-					mNewValues.put(LocationsContract.Table.SUBSCRIBER_ID, mMessage.getSubsciberId());
-					mNewValues.put(LocationsContract.Table.LATITUDE, mMessage.getLatitude());
-					mNewValues.put(LocationsContract.Table.LONGITUDE, mMessage.getLongitude());
-					mNewValues.put(LocationsContract.Table.TIMESTAMP, mMessage.getTimestamp());
-					mNewValues.put(LocationsContract.Table.TIMEZONE, mMessage.getTimeZone());
-					
-					try {
-						mContentResolver.insert(
-								LocationsContract.CONTENT_URI,
-								mNewValues);
-					} catch (SQLiteException e) {
-						Log.e(TAG, "an error occurred while inserting data", e);
-						break;
+					if(mEntry.offset < sourceOffset) {
+						// records between the imported records and this file are missing, 
+						// they will be included in the next version of the file received
+						Log.w(TAG, "unable to import '" + sourceName + "' from byte " + sourceOffset + " as only " + mEntry.offset + " bytes have been imported");
+						return;
 					}
 					
-					if(V_LOG) {
-						Log.v(TAG, "added new location record to the database");
-					}
-				} else {
-					if(V_LOG) {
-						Log.v(TAG, "skipped an existing location record");
+					// skip any records imported since this file was received
+					if(mEntry.offset > sourceOffset) {
+						mStart += mEntry.offset - sourceOffset;
+						mOffset = mEntry.offset;
 					}
 					
-					// don't hit the CPU so hard so sleep for a bit
-					try {
-						Thread.sleep(sleepTime);
-					}catch (InterruptedException e) {
-						Log.w(TAG, "thread was interrupted unexepectantly");
-					}
-				}
-				
-				mNewValues = null;
-				
-				// don't hit the database so hard with writes to sleep for a bit
-				try {
-					Thread.sleep(sleepTime);
-				}catch (InterruptedException e) {
-					Log.w(TAG, "thread was interrupted unexepectantly");
+					mLastTimeStamp = mEntry.timestamp;
+					mVersion = Math.max(mEntry.version, sourceVersion);
 				}
 			}
-		} catch (IOException e) {
+			
+			if(mStart > new File(filePath).length()) {
+				Log.w(TAG, "unable to read '" + filePath + "' from byte " + mStart + " as it is shorter than that");
+				return;
+			}
+			
+			// large files with compressed blocks are read by more than one thread
+			ParallelRecordReader mReader = new ParallelRecordReader(filePath, mStart, true, inPlace);
+			TimeStampSource mSource = new TimeStampSource(mReader, mLastTimeStamp);
+			
+			// records are parsed while the previous batches are written to the database, 
+			// records already in the database are removed when a batch is written
+			ImportPipeline mPipeline = new ImportPipeline(mContentResolver, LocationsContract.CONTENT_URI, LocationsContract.Table.HASH, BATCH_SIZE);
+			
+			// difference between an offset in the file and the same offset in the source file
+			long mBase = mOffset - mStart;
+			
 			try {
-				Log.e(TAG, "error in parsing record from file at byte: " + mInput.getChannel().position());
-			} catch (IOException e1) {
-				Log.e(TAG, "error in parsing record from file", e1);
+				mPipeline.run(mSource);
+			} catch (IOException e) {
+				// an incomplete record at the end of the file is read again in the next version of the file
+				Log.e(TAG, "error in parsing record from file at byte: " + (mBase + mPipeline.getOffset()));
+			} catch (InterruptedException e) {
+				Log.w(TAG, "import of '" + filePath + "' interrupted");
 				return;
+			} finally {
+				mReader.close();
+			}
+			
+			// keep track of the start of the next record
+			mOffset = mBase + mPipeline.getOffset();
+			mLastTimeStamp = mSource.lastTimeStamp;
+			
+			if(mReader.getSkippedBytes() > 0) {
+				Log.w(TAG, "skipped " + mReader.getSkippedBytes() + " bytes of corrupt records in: " + filePath);
 			}
+			
+			// remember how much of the file has been imported
+			if(syncState != null) {
+				syncState.put(sourceName, mVersion, mOffset, mLastTimeStamp);
+			}
+			
+			if(V_LOG) {
+				long mElapsed = Math.max(System.currentTimeMillis() - mStartTime, 1);
+				Log.v(TAG, "read " + mPipeline.getReadCount() + " and imported " + mPipeline.getRecordCount() + " location records in " + mElapsed + "ms (" + (mPipeline.getReadCount() * 1000 / mElapsed) + " records/sec)");
+				Log.v(TAG, "import stages: " + mPipeline);
+				Log.v(TAG, "allocated " + (Debug.getGlobalAllocSize() / Math.max(mPipeline.getReadCount(), 1)) + " bytes per record read and imported");
+				
+				if(syncState != null) {
+					Log.v(TAG, "read '" + sourceName + "' version " + sourceVersion + " from byte " + sourceOffset + " to byte " + mOffset);
+				}
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "unable to read file: " + filePath, e);
 		} catch (SQLiteException e) {
 			Log.e(TAG, "an error occurred while interfacing with the database", e);
 			return;	
 		} finally {
-			try {
-				mInput.close();
-			} catch (IOException e) {
-				Log.e(TAG, "unable to close input file", e);
+			if(V_LOG) {
+				Debug.stopAllocCounting();
 			}
 			
-			File mFile = new File(filePath);
-			mFile.delete();
+			// only delete copies, the source file belongs to Rhizome
+			if(inPlace == false) {
+				File mFile = new File(filePath);
+				mFile.delete();
+			}
+		}
+	}
+	
+	/*
+	 * a source that keeps track of the latest timestamp of the records read, 
+	 * which is only read once the import has finished
+	 */
+	private static class TimeStampSource implements RecordSource {
+		
+		private final RecordSource source;
+		long lastTimeStamp;
+		
+		TimeStampSource(RecordSource source, long lastTimeStamp) {
+			this.source = source;
+			this.lastTimeStamp = lastTimeStamp;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.servalproject.maps.protobuf.RecordSource#read(java.util.ArrayList, int)
+		 */
+		@Override
+		public int read(ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+			
+			int mStart = batch.size();
+			
+			try {
+				return source.read(batch, maxRecords);
+			} finally {
+				// include the records read before an error
+				for(int i = mStart; i < batch.size(); i++) {
+					lastTimeStamp = Math.max(lastTimeStamp, batch.get(i).getAsLong(LocationsContract.Table.TIMESTAMP));
+				}
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.servalproject.maps.protobuf.RecordSource#getOffset()
+		 */
+		@Override
+		public long getOffset() {
+			return source.getOffset();
 		}
 	}
-
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.servalproject.maps.utils.FileUtils;
+
+import android.content.ContentValues;
+import android.os.Process;
+import android.text.TextUtils;
+
+/**
+ * read the records in a binary file using more than one thread
+ * 
+ * the file is split into pieces at the sync records written before each compressed block, 
+ * the pieces are read at the same time and their records are returned in the order they appear in the file, 
+ * pieces that are too large to hold in memory, such as files without compressed blocks, are read a batch at a time
+ * 
+ * the pieces are read by threads shared with the other imports, owned by the import scheduler
+ * 
+ * the file is mapped into memory once and the pieces are read from the mapped file, 
+ * files that belong to another application are read into memory instead, 
+ * as reading a mapped file that has been truncated kills the process
+ */
+public class ParallelRecordReader implements RecordSource {
+	
+	/*
+	 * private class level constants
+	 */
+	
+	// minimum size of a piece read by another thread
+	private static final int PIECE_SIZE = 16 * 1024;
+	
+	// maximum size of a piece read by another thread
+	private static final int MAX_PIECE_SIZE = 64 * 1024;
+	
+	/*
+	 * private class level variables
+	 */
+	private final String filePath;
+	private final boolean locations;
+	private final int threadCount;
+	
+	// the part of the file being read and the offset in the file of its first byte
+	private final ByteBuffer contents;
+	private final long contentsStart;
+	
+	// offsets of the start of each piece followed by the end of the last piece
+	private final long[] pieces;
+	
+	// index of the next piece to read
+	private int nextPiece = 0;
+	
+	// pieces being read by other threads in the order they appear in the file
+	private final LinkedList<Future<Piece>> pending = new LinkedList<Future<Piece>>();
+	private final ExecutorService executor;
+	
+	// reader for a piece read a batch at a time
+	private BinaryRecordReader reader = null;
+	
+	// offset in the file of the next record to return
+	private long offset;
+	private long skippedBytes = 0;
+	
+	private boolean failed = false;
+	
+	/**
+	 * open a binary file for reading, using the threads shared by the imports
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @param locations true if the file contains location records, false if it contains point of interest records
+	 * @param inPlace true if the file belongs to another application, which may truncate it while it is read
+	 * @throws IOException if the file can't be read into memory
+	 */
+	public ParallelRecordReader(String filePath, long offset, boolean locations, boolean inPlace) throws IOException {
+		this(filePath, offset, locations, inPlace, 
+				ImportScheduler.getInstance().getReaderExecutor(), 
+				ImportScheduler.getInstance().getReaderThreadCount());
+	}
+	
+	/**
+	 * open a binary file for reading
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @param locations true if the file contains location records, false if it contains point of interest records
+	 * @param executor the threads used to read the pieces, which must not be waiting on each other
+	 * @param threadCount the number of threads the executor uses, if it is one the file is read a batch at a time by the calling thread
+	 * @throws IOException if the file can't be mapped into memory
+	 */
+	public ParallelRecordReader(String filePath, long offset, boolean locations, ExecutorService executor, int threadCount) throws IOException {
+		this(filePath, offset, locations, false, executor, threadCount);
+	}
+	
+	/**
+	 * open a binary file for reading
+	 * 
+	 * @param filePath the path to the binary file
+	 * @param offset the offset in the file of the first record to read
+	 * @param locations true if the file contains location records, false if it contains point of interest records
+	 * @param inPlace true if the file belongs to another application, which may truncate it while it is read
+	 * @param executor the threads used to read the pieces, which must not be waiting on each other
+	 * @param threadCount the number of threads the executor uses, if it is one the file is read a batch at a time by the calling thread
+	 * @throws IOException if the file can't be mapped or read into memory
+	 */
+	public ParallelRecordReader(String filePath, long offset, boolean locations, boolean inPlace, ExecutorService executor, int threadCount) throws IOException {
+		
+		if(TextUtils.isEmpty(filePath) == true) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(threadCount < 1) {
+			throw new IllegalArgumentException("the threadCount parameter must be at least one");
+		}
+		
+		if(executor == null && threadCount > 1) {
+			throw new IllegalArgumentException("the executor parameter is required");
+		}
+		
+		this.filePath = filePath;
+		this.locations = locations;
+		this.executor = executor;
+		this.threadCount = threadCount;
+		this.offset = offset;
+		
+		// the size of a file read into memory is taken from the open file so it can't change while it is read
+		if(inPlace == true) {
+			contents = FileUtils.readFile(filePath, offset);
+		} else {
+			contents = FileUtils.mapFile(filePath, offset, new File(filePath).length() - offset);
+		}
+		
+		contentsStart = offset;
+		
+		if(threadCount == 1) {
+			reader = new BinaryRecordReader(contents, offset, true);
+			pieces = new long[0];
+		} else {
+			pieces = BinaryRecordReader.split(contents, offset, PIECE_SIZE);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.protobuf.RecordSource#getOffset()
+	 */
+	@Override
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return the number of bytes of corrupt records skipped
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+	
+	/*
+	 * a batch contains either up to the maximum number of records 
+	 * or all of the records in a piece read by another thread
+	 * 
+	 * (non-Javadoc)
+	 * @see org.servalproject.maps.protobuf.RecordSource#read(java.util.ArrayList, int)
+	 */
+	@Override
+	public int read(ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+		
+		while(failed == false) {
+			
+			// read the current large piece a batch at a time
+			if(reader != null) {
+				
+				int mCount;
+				
+				try {
+					mCount = readRecords(reader, batch, maxRecords);
+				} catch (IOException e) {
+					failed = true;
+					throw e;
+				} finally {
+					offset = reader.getOffset();
+				}
+				
+				if(mCount > 0) {
+					return mCount;
+				}
+				
+				skippedBytes += reader.getSkippedBytes();
+				reader.close();
+				reader = null;
+			}
+			
+			// keep the other threads busy
+			submitPieces();
+			
+			if(pending.isEmpty() == true) {
+				
+				if(nextPiece >= pieces.length - 1) {
+					return 0;
+				}
+				
+				// the next piece is too large to read in one go
+				reader = openPiece(pieces[nextPiece], pieces[nextPiece + 1]);
+				nextPiece++;
+				continue;
+			}
+			
+			Piece mPiece;
+			
+			try {
+				mPiece = pending.removeFirst().get();
+			} catch (InterruptedException e) {
+				failed = true;
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while reading '" + filePath + "'");
+			} catch (ExecutionException e) {
+				failed = true;
+				throw new IOException("unable to read '" + filePath + "': " + e.getCause());
+			}
+			
+			batch.addAll(mPiece.records);
+			offset = mPiece.offset;
+			skippedBytes += mPiece.skippedBytes;
+			
+			if(mPiece.exception != null) {
+				failed = true;
+				throw mPiece.exception;
+			}
+			
+			if(mPiece.records.size() > 0) {
+				return mPiece.records.size();
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * stop reading the file and release the resources used, 
+	 * the shared threads are left running for the other imports
+	 */
+	public void close() {
+		
+		// stop the pieces of this file that haven't been read
+		for(Future<Piece> mPiece : pending) {
+			mPiece.cancel(true);
+		}
+		
+		pending.clear();
+		
+		if(reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+	
+	/*
+	 * give the other threads the pieces up to the next large piece, 
+	 * reading at most one more piece than there are threads to limit the records held in memory
+	 */
+	private void submitPieces() {
+		
+		while(pending.size() <= threadCount && nextPiece < pieces.length - 1) {
+			
+			final long mStart = pieces[nextPiece];
+			final long mEnd = pieces[nextPiece + 1];
+			
+			if(mEnd - mStart > MAX_PIECE_SIZE) {
+				break;
+			}
+			
+			pending.add(executor.submit(new Callable<Piece>() {
+				
+				/*
+				 * (non-Javadoc)
+				 * @see java.util.concurrent.Callable#call()
+				 */
+				@Override
+				public Piece call() throws IOException {
+					
+					// don't compete with the UI thread for the CPU
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					
+					return readPiece(mStart, mEnd);
+				}
+			}));
+			
+			nextPiece++;
+		}
+	}
+	
+	/*
+	 * read all of the records in a piece
+	 */
+	private Piece readPiece(long start, long end) throws IOException {
+		
+		Piece mPiece = new Piece();
+		BinaryRecordReader mReader = openPiece(start, end);
+		
+		try {
+			while(readRecords(mReader, mPiece.records, Integer.MAX_VALUE) > 0) {
+				// keep reading until the end of the piece
+			}
+		} catch (IOException e) {
+			// returned with the records read before it
+			mPiece.exception = e;
+		} finally {
+			mPiece.offset = mReader.getOffset();
+			mPiece.skippedBytes = mReader.getSkippedBytes();
+			mReader.close();
+		}
+		
+		return mPiece;
+	}
+	
+	/*
+	 * open a reader for a piece of the file, which can be called by any of the threads
+	 */
+	private BinaryRecordReader openPiece(long start, long end) {
+		
+		ByteBuffer mPiece = contents.duplicate();
+		mPiece.limit((int) (end - contentsStart));
+		mPiece.position((int) (start - contentsStart));
+		
+		return new BinaryRecordReader(mPiece, start, end == contentsStart + contents.limit());
+	}
+	
+	/*
+	 * read a batch of records of the type in the file
+	 */
+	private int readRecords(BinaryRecordReader reader, ArrayList<ContentValues> batch, int maxRecords) throws IOException {
+		
+		if(locations == true) {
+			return reader.readLocations(batch, maxRecords);
+		} else {
+			return reader.readPointsOfInterest(batch, maxRecords);
+		}
+	}
+	
+	/*
+	 * the records read from a piece
+	 */
+	private static class Piece {
+		
+		ArrayList<ContentValues> records = new ArrayList<ContentValues>();
+		long offset;
+		long skippedBytes;
+		IOException exception = null;
+	}
+}
@@ -20,17 +20,14 @@
 package org.servalproject.maps.protobuf;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import org.servalproject.maps.provider.PointsOfInterestContract;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -42,7 +39,8 @@ public class PointsOfInterestWorker implements Runnable {
 	private final String TAG = "PointsOfInterestWorker";
 	private final boolean V_LOG = false;
 	
-	private final long sleepTime = 300;
+	// number of records written to the database in a single transaction
+	private final int BATCH_SIZE = 100;
 	
 	/*
 	 * private class level variables
@@ -50,6 +48,9 @@ public class PointsOfInterestWorker implements Runnable {
 	Context context;
 	String filePath;
 	
+	// the file is the source file read in place, rather than a copy of it
+	boolean inPlace = false;
+	
 	/**
 	 * construct a new location read worker
 	 * 
@@ -70,129 +71,69 @@ public class PointsOfInterestWorker implements Runnable {
 		this.context = context;
 		this.filePath = filePath;
 	}
+	
+	/**
+	 * construct a new points of interest worker
+	 * 
+	 * @param context the context object used to access a content resolver
+	 * @param filePath the path to the binary file
+	 * @param inPlace if true the binary file is read in place and not deleted, 
+	 * otherwise it is a copy which is deleted once it has been read
+	 */
+	public PointsOfInterestWorker(Context context, String filePath, boolean inPlace) {
+		
+		this(context, filePath);
+		
+		this.inPlace = inPlace;
+	}
 
 	@Override
 	public void run() {
 		
-		// try and open the file
-		FileInputStream mInput = null;
-		try {
-			mInput = new FileInputStream(filePath);
-		} catch (FileNotFoundException e) {
-			Log.e(TAG, "unable to open file: " + filePath, e);
-			return;
-		}
+		// don't compete with the UI thread for the CPU
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 		
 		// prepare helper variables
 		ContentResolver mContentResolver = context.getContentResolver();
-		ContentValues mNewValues = null;
-		Cursor mCursor = null;
-		PointOfInterestMessage.Message mMessage;
 		
-		long mLatestTimeStamp = -1;
+		ParallelRecordReader mReader = null;
+		
+		// records are parsed while the previous batches are written to the database, 
+		// records already in the database are removed when a batch is written
+		ImportPipeline mPipeline = new ImportPipeline(mContentResolver, PointsOfInterestContract.CONTENT_URI, PointsOfInterestContract.Table.HASH, BATCH_SIZE);
 		
 		// loop through the data
 		try {
-			while((mMessage = PointOfInterestMessage.Message.parseDelimitedFrom(mInput)) != null) {
-				
-				// check to see if we need to get the latest time stamp
-				if(mLatestTimeStamp == -1) {
-					
-					String[] mProjection = {PointsOfInterestContract.Table.TIMESTAMP};
-					String mSelection = PointsOfInterestContract.Table.PHONE_NUMBER + " = ?";
-					String[] mSelectionArgs = new String[1];
-					mSelectionArgs[0] = mMessage.getPhoneNumber();
-					String mOrderBy = PointsOfInterestContract.Table.TIMESTAMP + " DESC";
-					
-					mCursor = mContentResolver.query(
-							PointsOfInterestContract.CONTENT_URI,
-							mProjection,
-							mSelection,
-							mSelectionArgs,
-							mOrderBy);
-					
-					if(mCursor.getCount() != 0) {
-						mCursor.moveToFirst();
-						
-						mLatestTimeStamp = mCursor.getLong(mCursor.getColumnIndex(PointsOfInterestContract.Table.TIMESTAMP));
-						
-					} else {
-						mLatestTimeStamp = 0;
-					}
-					
-					mCursor.close();
-					mCursor = null;
-				}
-				
-				if(mMessage.getTimestamp() > mLatestTimeStamp) {
-					
-					// add new record
-					mNewValues = new ContentValues();
-					
-					mNewValues.put(PointsOfInterestContract.Table.PHONE_NUMBER, mMessage.getPhoneNumber());
-					mNewValues.put(PointsOfInterestContract.Table.SUBSCRIBER_ID, mMessage.getSubsciberId());
-					mNewValues.put(PointsOfInterestContract.Table.LATITUDE, mMessage.getLatitude());
-					mNewValues.put(PointsOfInterestContract.Table.LONGITUDE, mMessage.getLongitude());
-					mNewValues.put(PointsOfInterestContract.Table.TIMESTAMP, mMessage.getTimestamp());
-					mNewValues.put(PointsOfInterestContract.Table.TIMEZONE, mMessage.getTimeZone());
-					mNewValues.put(PointsOfInterestContract.Table.TITLE, mMessage.getTitle());
-					mNewValues.put(PointsOfInterestContract.Table.DESCRIPTION, mMessage.getDescription());
-					mNewValues.put(PointsOfInterestContract.Table.CATEGORY, mMessage.getCategory());
-					mNewValues.put(PointsOfInterestContract.Table.PHOTO, mMessage.getPhoto());
-					
-					try {
-						mContentResolver.insert(
-								PointsOfInterestContract.CONTENT_URI,
-								mNewValues);
-					} catch (SQLiteException e) {
-						Log.e(TAG, "an error occurred while inserting data", e);
-						break;
-					}
-					
-					if(V_LOG) {
-						Log.v(TAG, "added new POI record to the database");
-					}
-				} else {
-					if(V_LOG) {
-						Log.v(TAG, "skipped an existing POI record");
-					}
-					
-					// don't hit the CPU so hard so sleep for a bit
-					try {
-						Thread.sleep(sleepTime);
-					}catch (InterruptedException e) {
-						Log.w(TAG, "thread was interrupted unexepectantly");
-					}
-				}
-				
-				mNewValues = null;
-				
-				// don't hit the database so hard with writes to sleep for a bit
-				try {
-					Thread.sleep(sleepTime);
-				}catch (InterruptedException e) {
-					Log.w(TAG, "thread was interrupted unexepectantly");
-				}
+			mReader = new ParallelRecordReader(filePath, 0, false, inPlace);
+			
+			mPipeline.run(mReader);
+			
+			if(V_LOG) {
+				Log.v(TAG, "read " + mPipeline.getReadCount() + " and imported " + mPipeline.getRecordCount() + " POI records");
+				Log.v(TAG, "import stages: " + mPipeline);
 			}
 		} catch (IOException e) {
-			try {
-				Log.e(TAG, "error in parsing record from file at byte: " + mInput.getChannel().position());
-			} catch (IOException e1) {
-				Log.e(TAG, "error in parsing record from file", e1);
-				return;
+			if(mReader == null) {
+				Log.e(TAG, "unable to open file: " + filePath, e);
+			} else {
+				// the records read before the error have been written
+				Log.e(TAG, "error in parsing record from file at byte: " + mPipeline.getOffset());
 			}
+		} catch (InterruptedException e) {
+			Log.w(TAG, "import of '" + filePath + "' interrupted");
 		} catch (SQLiteException e) {
 			Log.e(TAG, "an error occurred while interfacing with the database", e);
 			return;	
-		}finally {
-			try {
-				mInput.close();
-			} catch (IOException e) {
-				Log.e(TAG, "unable to close input file", e);
+		} finally {
+			if(mReader != null) {
+				mReader.close();
 			}
 			
-			File mFile = new File(filePath);
-			mFile.delete();
+			// only delete copies, the source file belongs to Rhizome
+			if(inPlace == false) {
+				File mFile = new File(filePath);
+				mFile.delete();
+			}
 		}
 	}
 }
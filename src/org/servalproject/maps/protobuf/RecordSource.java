@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.protobuf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.ContentValues;
+
+/**
+ * a source of records read from a binary file a batch at a time
+ */
+public interface RecordSource {
+	
+	/**
+	 * read the next batch of records
+	 * 
+	 * @param batch the list the records are added to
+	 * @param maxRecords the maximum number of records to add to the batch
+	 * @return the number of records added, zero at the end of the file
+	 * @throws IOException if a record can't be read, the records read before it remain in the batch
+	 */
+	public int read(ArrayList<ContentValues> batch, int maxRecords) throws IOException;
+	
+	/**
+	 * get the offset in the file of the next record to read, 
+	 * which is the end of the last complete record read
+	 * 
+	 * @return the offset of the next record
+	 */
+	public long getOffset();
+}
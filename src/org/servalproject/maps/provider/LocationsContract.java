@@ -50,6 +50,17 @@ public class LocationsContract {
 	public static final Uri LATEST_CONTENT_URI = Uri.parse("content://" + MapItems.AUTHORITY + "/" + CONTENT_URI_PATH + "/latest");
 	
 	
+	/**
+	 * content URI for the most recent locations data inside a bounding box,
+	 * use {@link #buildLatestBoundingBoxUri(double, double, double, double)} to add the bounds
+	 */
+	public static final Uri LATEST_BBOX_CONTENT_URI = Uri.parse("content://" + MapItems.AUTHORITY + "/" + CONTENT_URI_PATH + "/latest/bbox");
+	
+	/**
+	 * name of the table holding the most recent location record for each phone number
+	 */
+	public static final String LATEST_TABLE_NAME = "latest_locations";
+	
 	/**
 	 * content type for a list of items
 	 */
@@ -60,6 +71,19 @@ public class LocationsContract {
 	 */
 	public static final String CONTENT_TYPE_ITEM = "vnd.android.cursor.item/vnd.org.servalproject.maps.provider.items." + CONTENT_URI_PATH;
 	
+	/**
+	 * build a URI to query for the most recent locations data inside a bounding box
+	 * 
+	 * @param minLatitude the southern edge of the bounding box
+	 * @param minLongitude the western edge of the bounding box
+	 * @param maxLatitude the northern edge of the bounding box
+	 * @param maxLongitude the eastern edge of the bounding box
+	 * @return the URI to use in a query
+	 */
+	public static Uri buildLatestBoundingBoxUri(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		return MapItems.appendBoundingBox(LATEST_BBOX_CONTENT_URI, minLatitude, minLongitude, maxLatitude, maxLongitude);
+	}
+	
 	/**
 	 * table definition
 	 */
@@ -105,6 +129,12 @@ public class LocationsContract {
 		 */
 		public static final String TIMEZONE = "timezone";
 		
+		/**
+		 * hash of the record contents used to detect duplicate records, 
+		 * not included in the list of columns as it is only used internally
+		 */
+		public static final String HASH = "hash";
+		
 		/**
 		 * a list of all of the columns
 		 */
@@ -19,9 +19,18 @@
  */
 package org.servalproject.maps.provider;
 
+import java.lang.reflect.Method;
+
+import org.servalproject.maps.utils.HashUtils;
+
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
 
 public class MainDatabaseHelper extends SQLiteOpenHelper {
 	
@@ -34,7 +43,8 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 			+ LocationsContract.Table.LATITUDE + " REAL, "
 			+ LocationsContract.Table.LONGITUDE + " REAL, "
 			+ LocationsContract.Table.TIMESTAMP + " INTEGER, "
-			+ LocationsContract.Table.TIMEZONE + " TEXT)";
+			+ LocationsContract.Table.TIMEZONE + " TEXT, "
+			+ LocationsContract.Table.HASH + " TEXT)";
 	
 	private final String POI_CREATE = "CREATE TABLE " +
 			PointsOfInterestContract.CONTENT_URI_PATH + " ("
@@ -48,7 +58,42 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 			+ PointsOfInterestContract.Table.TITLE + " TEXT, "
 			+ PointsOfInterestContract.Table.DESCRIPTION + " TEXT, "
 			+ PointsOfInterestContract.Table.CATEGORY + " INTEGER DEFAULT " + PointsOfInterestContract.DEFAULT_CATEGORY + ", "
-			+ PointsOfInterestContract.Table.PHOTO + " TEXT)";
+			+ PointsOfInterestContract.Table.PHOTO + " TEXT, "
+			+ PointsOfInterestContract.Table.HASH + " TEXT)";
+	
+	// one row per phone number, holding a copy of the most recent location record
+	private final String LATEST_LOCATIONS_CREATE = "CREATE TABLE " +
+			LocationsContract.LATEST_TABLE_NAME + " ("
+			+ LocationsContract.Table._ID + " INTEGER, "
+			+ LocationsContract.Table.PHONE_NUMBER + " TEXT PRIMARY KEY, "
+			+ LocationsContract.Table.SUBSCRIBER_ID + " TEXT, "
+			+ LocationsContract.Table.LATITUDE + " REAL, "
+			+ LocationsContract.Table.LONGITUDE + " REAL, "
+			+ LocationsContract.Table.TIMESTAMP + " INTEGER, "
+			+ LocationsContract.Table.TIMEZONE + " TEXT)";
+	
+	// copy of the location columns in the order used by the latest locations sql below
+	private static final String LATEST_LOCATIONS_COLUMNS = 
+			LocationsContract.Table._ID + ", "
+			+ LocationsContract.Table.PHONE_NUMBER + ", "
+			+ LocationsContract.Table.SUBSCRIBER_ID + ", "
+			+ LocationsContract.Table.LATITUDE + ", "
+			+ LocationsContract.Table.LONGITUDE + ", "
+			+ LocationsContract.Table.TIMESTAMP + ", "
+			+ LocationsContract.Table.TIMEZONE;
+	
+	// replace the latest location for a single phone number, uses the phone_number / timestamp index
+	private static final String LATEST_LOCATIONS_REFRESH = "INSERT OR REPLACE INTO "
+			+ LocationsContract.LATEST_TABLE_NAME + " (" + LATEST_LOCATIONS_COLUMNS + ") "
+			+ "SELECT " + LATEST_LOCATIONS_COLUMNS + " FROM " + LocationsContract.Table.TABLE_NAME
+			+ " WHERE " + LocationsContract.Table.PHONE_NUMBER + " = ?"
+			+ " ORDER BY " + LocationsContract.Table.TIMESTAMP + " DESC, " + LocationsContract.Table._ID + " DESC LIMIT 1";
+	
+	// rebuild the latest locations from scratch, later rows replace earlier ones for the same phone number
+	private static final String LATEST_LOCATIONS_REBUILD = "INSERT OR REPLACE INTO "
+			+ LocationsContract.LATEST_TABLE_NAME + " (" + LATEST_LOCATIONS_COLUMNS + ") "
+			+ "SELECT " + LATEST_LOCATIONS_COLUMNS + " FROM " + LocationsContract.Table.TABLE_NAME
+			+ " ORDER BY " + LocationsContract.Table.TIMESTAMP + " ASC, " + LocationsContract.Table._ID + " ASC";
 	
 	private final String LOCATIONS_INDEX = "CREATE INDEX locations_timestamp_desc ON "
 			+ LocationsContract.CONTENT_URI_PATH + " ("
@@ -60,9 +105,78 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 			+ PointsOfInterestContract.Table.PHONE_NUMBER + " ASC, "
 			+ PointsOfInterestContract.Table.TIMESTAMP + " DESC)";
 	
+	// unique indexes on the record hashes so that duplicate records are ignored
+	private final String LOCATIONS_HASH_INDEX = "CREATE UNIQUE INDEX locations_hash ON "
+			+ LocationsContract.CONTENT_URI_PATH + " ("
+			+ LocationsContract.Table.HASH + ")";
+	
+	private final String POI_HASH_INDEX = "CREATE UNIQUE INDEX poi_hash ON "
+			+ PointsOfInterestContract.CONTENT_URI_PATH + " ("
+			+ PointsOfInterestContract.Table.HASH + ")";
+	
+	private final String LOCATIONS_HASH_ADD = "ALTER TABLE " + LocationsContract.CONTENT_URI_PATH 
+			+ " ADD COLUMN " + LocationsContract.Table.HASH + " TEXT";
+	
+	private final String POI_HASH_ADD = "ALTER TABLE " + PointsOfInterestContract.CONTENT_URI_PATH 
+			+ " ADD COLUMN " + PointsOfInterestContract.Table.HASH + " TEXT";
+	
+	private final String POI_HASH_CLEAR = "UPDATE " + PointsOfInterestContract.CONTENT_URI_PATH 
+			+ " SET " + PointsOfInterestContract.Table.HASH + " = NULL";
+	
+	/**
+	 * name of the r*tree virtual table used as a spatial index over the POI table
+	 */
+	static final String POI_SPATIAL_INDEX = "poi_spatial_index";
+	
+	/**
+	 * column names used by the POI spatial index
+	 */
+	static final String SPATIAL_MIN_LATITUDE = "min_latitude";
+	static final String SPATIAL_MAX_LATITUDE = "max_latitude";
+	static final String SPATIAL_MIN_LONGITUDE = "min_longitude";
+	static final String SPATIAL_MAX_LONGITUDE = "max_longitude";
+	
+	private final String POI_SPATIAL_CREATE = "CREATE VIRTUAL TABLE " + POI_SPATIAL_INDEX + " USING rtree("
+			+ PointsOfInterestContract.Table._ID + ", "
+			+ SPATIAL_MIN_LATITUDE + ", "
+			+ SPATIAL_MAX_LATITUDE + ", "
+			+ SPATIAL_MIN_LONGITUDE + ", "
+			+ SPATIAL_MAX_LONGITUDE + ")";
+	
+	// keep the spatial index in step with the POI table whichever way records are added or removed
+	private final String POI_SPATIAL_INSERT_TRIGGER = "CREATE TRIGGER poi_spatial_insert AFTER INSERT ON "
+			+ PointsOfInterestContract.Table.TABLE_NAME + " BEGIN INSERT INTO " + POI_SPATIAL_INDEX + " VALUES ("
+			+ "NEW." + PointsOfInterestContract.Table._ID + ", "
+			+ "NEW." + PointsOfInterestContract.Table.LATITUDE + ", "
+			+ "NEW." + PointsOfInterestContract.Table.LATITUDE + ", "
+			+ "NEW." + PointsOfInterestContract.Table.LONGITUDE + ", "
+			+ "NEW." + PointsOfInterestContract.Table.LONGITUDE + "); END";
+	
+	private final String POI_SPATIAL_DELETE_TRIGGER = "CREATE TRIGGER poi_spatial_delete AFTER DELETE ON "
+			+ PointsOfInterestContract.Table.TABLE_NAME + " BEGIN DELETE FROM " + POI_SPATIAL_INDEX 
+			+ " WHERE " + PointsOfInterestContract.Table._ID + " = OLD." + PointsOfInterestContract.Table._ID + "; END";
+	
+	private final String POI_SPATIAL_POPULATE = "INSERT INTO " + POI_SPATIAL_INDEX + " SELECT "
+			+ PointsOfInterestContract.Table._ID + ", "
+			+ PointsOfInterestContract.Table.LATITUDE + ", "
+			+ PointsOfInterestContract.Table.LATITUDE + ", "
+			+ PointsOfInterestContract.Table.LONGITUDE + ", "
+			+ PointsOfInterestContract.Table.LONGITUDE + " FROM " + PointsOfInterestContract.Table.TABLE_NAME;
+	
+	// used when the sqlite library on the device doesn't include the r*tree module
+	private final String POI_COORDINATES_INDEX = "CREATE INDEX poi_coordinates ON "
+			+ PointsOfInterestContract.CONTENT_URI_PATH + " ("
+			+ PointsOfInterestContract.Table.LATITUDE + " ASC, "
+			+ PointsOfInterestContract.Table.LONGITUDE + " ASC)";
+	
+	private final String TAG = "MainDatabaseHelper";
+	
+	// first api level that supports write-ahead logging
+	private final int WAL_MIN_SDK = 11;
+	
 	// declare public class constants
 	public static final String DB_NAME = "serval-maps.db";
-	public static final int DB_VERSION = 1;
+	public static final int DB_VERSION = 5;
 	
 	/**
 	 * Constructs a new MainDatabaseHelper object
@@ -79,14 +193,205 @@ public class MainDatabaseHelper extends SQLiteOpenHelper {
 		// create the database tables
 		db.execSQL(LOCATIONS_CREATE);
 		db.execSQL(POI_CREATE);
+		db.execSQL(LATEST_LOCATIONS_CREATE);
 		
 		db.execSQL(LOCATIONS_INDEX);
 		db.execSQL(POI_INDEX);
+		db.execSQL(LOCATIONS_HASH_INDEX);
+		db.execSQL(POI_HASH_INDEX);
+		
+		createSpatialIndex(db);
+	}
+
+	/*
+	 * switch the database into write-ahead-log mode where supported so that
+	 * readers can run concurrently with the single writer
+	 * 
+	 * (non-Javadoc)
+	 * @see android.database.sqlite.SQLiteOpenHelper#onOpen(android.database.sqlite.SQLiteDatabase)
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		
+		if(db.isReadOnly() == true || Build.VERSION.SDK_INT < WAL_MIN_SDK) {
+			return;
+		}
+		
+		// the method isn't available in the api level we build against so use reflection
+		try {
+			Method mMethod = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+			mMethod.invoke(db);
+		} catch (Exception e) {
+			Log.w(TAG, "unable to enable write-ahead logging", e);
+		}
 	}
 
 	@Override
-	public void onUpgrade(SQLiteDatabase arg0, int arg1, int arg2) {
-		// TODO Auto-generated method stub
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		
+		if(oldVersion < 2) {
+			// add the latest locations table and populate it from the existing data
+			db.execSQL(LATEST_LOCATIONS_CREATE);
+			db.execSQL(LATEST_LOCATIONS_REBUILD);
+		}
+		
+		if(oldVersion < 3) {
+			// add the spatial index and populate it from the existing data
+			if(createSpatialIndex(db) == true) {
+				db.execSQL(POI_SPATIAL_POPULATE);
+			}
+		}
+		
+		if(oldVersion < 4) {
+			// add the hash columns and populate them from the existing data
+			db.execSQL(LOCATIONS_HASH_ADD);
+			db.execSQL(POI_HASH_ADD);
+			db.execSQL(LOCATIONS_HASH_INDEX);
+			db.execSQL(POI_HASH_INDEX);
+			
+			populateLocationHashes(db);
+		}
+		
+		if(oldVersion < 5) {
+			// the POI hash now includes the timestamp so calculate them again
+			db.execSQL(POI_HASH_CLEAR);
+			
+			populatePointOfInterestHashes(db);
+		}
+	}
+	
+	/*
+	 * calculate the hash of each existing location record, 
+	 * duplicate records are left without a hash so they don't break the unique index
+	 */
+	private void populateLocationHashes(SQLiteDatabase db) {
+		
+		SQLiteStatement mStatement = db.compileStatement("UPDATE OR IGNORE " + LocationsContract.Table.TABLE_NAME
+				+ " SET " + LocationsContract.Table.HASH + " = ? WHERE " + LocationsContract.Table._ID + " = ?");
+		
+		String[] mProjection = {
+				LocationsContract.Table._ID, 
+				LocationsContract.Table.PHONE_NUMBER, 
+				LocationsContract.Table.LATITUDE, 
+				LocationsContract.Table.LONGITUDE, 
+				LocationsContract.Table.TIMESTAMP};
+		
+		Cursor mCursor = db.query(LocationsContract.Table.TABLE_NAME, mProjection, null, null, null, null, null);
+		
+		try {
+			while(mCursor.moveToNext()) {
+				mStatement.bindString(1, HashUtils.hashLocationMessage(
+						mCursor.getString(1), 
+						mCursor.getDouble(2), 
+						mCursor.getDouble(3), 
+						mCursor.getLong(4)));
+				mStatement.bindLong(2, mCursor.getLong(0));
+				mStatement.execute();
+			}
+		} finally {
+			mCursor.close();
+			mStatement.close();
+		}
+	}
+	
+	/*
+	 * calculate the hash of each existing POI record, 
+	 * duplicate records are left without a hash so they don't break the unique index
+	 */
+	private void populatePointOfInterestHashes(SQLiteDatabase db) {
+		
+		SQLiteStatement mStatement = db.compileStatement("UPDATE OR IGNORE " + PointsOfInterestContract.Table.TABLE_NAME
+				+ " SET " + PointsOfInterestContract.Table.HASH + " = ? WHERE " + PointsOfInterestContract.Table._ID + " = ?");
+		
+		String[] mProjection = {
+				PointsOfInterestContract.Table._ID, 
+				PointsOfInterestContract.Table.PHONE_NUMBER, 
+				PointsOfInterestContract.Table.LATITUDE, 
+				PointsOfInterestContract.Table.LONGITUDE, 
+				PointsOfInterestContract.Table.TIMESTAMP, 
+				PointsOfInterestContract.Table.TITLE,
+				PointsOfInterestContract.Table.DESCRIPTION};
+		
+		Cursor mCursor = db.query(PointsOfInterestContract.Table.TABLE_NAME, mProjection, null, null, null, null, null);
+		
+		try {
+			while(mCursor.moveToNext()) {
+				mStatement.bindString(1, HashUtils.hashPointOfInterestMessage(
+						mCursor.getString(1), 
+						mCursor.getDouble(2), 
+						mCursor.getDouble(3), 
+						mCursor.getLong(4), 
+						mCursor.getString(5),
+						mCursor.getString(6)));
+				mStatement.bindLong(2, mCursor.getLong(0));
+				mStatement.execute();
+			}
+		} finally {
+			mCursor.close();
+			mStatement.close();
+		}
+	}
+	
+	/*
+	 * create the spatial index over the POI table, falling back to a plain coordinate index
+	 * if r*tree support isn't available, returns true if the r*tree was created
+	 */
+	private boolean createSpatialIndex(SQLiteDatabase db) {
+		
+		try {
+			db.execSQL(POI_SPATIAL_CREATE);
+		} catch (SQLException e) {
+			Log.w(TAG, "r*tree module not available, using a coordinate index instead", e);
+			db.execSQL(POI_COORDINATES_INDEX);
+			return false;
+		}
+		
+		db.execSQL(POI_SPATIAL_INSERT_TRIGGER);
+		db.execSQL(POI_SPATIAL_DELETE_TRIGGER);
+		
+		return true;
+	}
+	
+	/**
+	 * check to see if the r*tree spatial index over the POI table is available
+	 * 
+	 * @param db the database to check
+	 * @return true if the spatial index is available
+	 */
+	static boolean hasSpatialIndex(SQLiteDatabase db) {
+		
+		Cursor mCursor = db.rawQuery(
+				"SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?", 
+				new String[]{POI_SPATIAL_INDEX});
+		
+		try {
+			return mCursor.getCount() > 0;
+		} finally {
+			mCursor.close();
+		}
+	}
+	
+	/**
+	 * update the latest location record for a phone number,
+	 * must be called after new location records are added for the phone number
+	 * 
+	 * @param db the database to update
+	 * @param phoneNumber the phone number that has new location records
+	 */
+	static void refreshLatestLocation(SQLiteDatabase db, String phoneNumber) {
+		db.execSQL(LATEST_LOCATIONS_REFRESH, new Object[]{phoneNumber});
+	}
+	
+	/**
+	 * rebuild all of the latest location records,
+	 * must be called after location records are deleted
+	 * 
+	 * @param db the database to update
+	 */
+	static void rebuildLatestLocations(SQLiteDatabase db) {
+		db.execSQL("DELETE FROM " + LocationsContract.LATEST_TABLE_NAME);
+		db.execSQL(LATEST_LOCATIONS_REBUILD);
 	}
 
 }
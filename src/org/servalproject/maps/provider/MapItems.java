@@ -19,6 +19,10 @@
  */
 package org.servalproject.maps.provider;
 
+import java.util.HashSet;
+
+import org.servalproject.maps.utils.HashUtils;
+
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -39,6 +43,26 @@ public class MapItems extends ContentProvider {
 	 */
 	public static final String AUTHORITY = "org.servalproject.maps.provider.items";
 	
+	/**
+	 * query parameter holding the southern edge of a bounding box query
+	 */
+	public static final String MIN_LATITUDE_PARAM = "min_latitude";
+	
+	/**
+	 * query parameter holding the western edge of a bounding box query
+	 */
+	public static final String MIN_LONGITUDE_PARAM = "min_longitude";
+	
+	/**
+	 * query parameter holding the northern edge of a bounding box query
+	 */
+	public static final String MAX_LATITUDE_PARAM = "max_latitude";
+	
+	/**
+	 * query parameter holding the eastern edge of a bounding box query
+	 */
+	public static final String MAX_LONGITUDE_PARAM = "max_longitude";
+	
 	// private class level constants
 	private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 	
@@ -48,13 +72,21 @@ public class MapItems extends ContentProvider {
 	
 	private final int POI_LIST_URI = 4;
 	private final int POI_ITEM_URI = 5;
+	private final int POI_BBOX_URI = 6;
+	
+	private final int LOCATION_LATEST_BBOX_URI = 7;
 	
 	private final String TAG = "MapItems";
 	//private final boolean V_LOG = true;
 	
 	// private class level variables
 	private MainDatabaseHelper databaseHelper;
-	private SQLiteDatabase database;
+	
+	// serialises all writes so that readers never wait behind more than one writer
+	private final Object writeLock = new Object();
+	
+	// is the r*tree spatial index available, determined on first use
+	private volatile Boolean spatialIndex = null;
 	
 	/*
 	 * undertake initialisation tasks
@@ -70,9 +102,11 @@ public class MapItems extends ContentProvider {
 		uriMatcher.addURI(MapItems.AUTHORITY, LocationsContract.CONTENT_URI_PATH, LOCATION_LIST_URI);
 		uriMatcher.addURI(MapItems.AUTHORITY, LocationsContract.CONTENT_URI_PATH + "/#", LOCATION_ITEM_URI);
 		uriMatcher.addURI(MapItems.AUTHORITY, LocationsContract.CONTENT_URI_PATH + "/latest", LOCATION_LATEST_LIST_URI);
+		uriMatcher.addURI(MapItems.AUTHORITY, LocationsContract.CONTENT_URI_PATH + "/latest/bbox", LOCATION_LATEST_BBOX_URI);
 		
 		uriMatcher.addURI(MapItems.AUTHORITY, PointsOfInterestContract.CONTENT_URI_PATH, POI_LIST_URI);
 		uriMatcher.addURI(MapItems.AUTHORITY, PointsOfInterestContract.CONTENT_URI_PATH + "/#", POI_ITEM_URI);
+		uriMatcher.addURI(MapItems.AUTHORITY, PointsOfInterestContract.CONTENT_URI_PATH + "/bbox", POI_BBOX_URI);
 		
 		// create the database connection
 		databaseHelper = new MainDatabaseHelper(getContext());
@@ -86,7 +120,7 @@ public class MapItems extends ContentProvider {
 	 * @see android.content.ContentProvider#query(android.net.Uri, java.lang.String[], java.lang.String, java.lang.String[], java.lang.String)
 	 */
 	@Override
-	public synchronized Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 		
 		int mMatchedUri = -1;
 		Cursor mResults = null;
@@ -113,6 +147,17 @@ public class MapItems extends ContentProvider {
 			// uri matches the group by for latest records
 			mMatchedUri = LOCATION_LATEST_LIST_URI;
 			break;
+		case LOCATION_LATEST_BBOX_URI:
+			// uri matches the latest records inside a bounding box, the table only has one row per phone number
+			selection = addToSelection(
+					LocationsContract.Table.LATITUDE + " >= ? AND "
+					+ LocationsContract.Table.LATITUDE + " <= ? AND "
+					+ LocationsContract.Table.LONGITUDE + " >= ? AND "
+					+ LocationsContract.Table.LONGITUDE + " <= ?",
+					selection);
+			selectionArgs = addToSelectionArgs(getBoundingBox(uri), selectionArgs);
+			mMatchedUri = LOCATION_LATEST_LIST_URI;
+			break;
 		case POI_LIST_URI:
 			// uri matches all of the table
 			if(TextUtils.isEmpty(sortOrder) == true) {
@@ -129,43 +174,134 @@ public class MapItems extends ContentProvider {
 			}
 			mMatchedUri = POI_ITEM_URI;
 			break;
+		case POI_BBOX_URI:
+			// uri matches the records inside a bounding box
+			if(isSpatialIndexAvailable() == true) {
+				selection = addToSelection(
+						PointsOfInterestContract.Table._ID + " IN (SELECT " + PointsOfInterestContract.Table._ID 
+						+ " FROM " + MainDatabaseHelper.POI_SPATIAL_INDEX + " WHERE "
+						+ MainDatabaseHelper.SPATIAL_MAX_LATITUDE + " >= ? AND "
+						+ MainDatabaseHelper.SPATIAL_MIN_LATITUDE + " <= ? AND "
+						+ MainDatabaseHelper.SPATIAL_MAX_LONGITUDE + " >= ? AND "
+						+ MainDatabaseHelper.SPATIAL_MIN_LONGITUDE + " <= ?)",
+						selection);
+			} else {
+				selection = addToSelection(
+						PointsOfInterestContract.Table.LATITUDE + " >= ? AND "
+						+ PointsOfInterestContract.Table.LATITUDE + " <= ? AND "
+						+ PointsOfInterestContract.Table.LONGITUDE + " >= ? AND "
+						+ PointsOfInterestContract.Table.LONGITUDE + " <= ?",
+						selection);
+			}
+			selectionArgs = addToSelectionArgs(getBoundingBox(uri), selectionArgs);
+			mMatchedUri = POI_LIST_URI;
+			break;
 		default:
 			// unknown uri found
 			Log.e(TAG, "unknown URI detected on query: " + uri.toString());
 			throw new IllegalArgumentException("unknwon URI detected");
 		}
 		
-		// get a connection to the database
-		database = databaseHelper.getReadableDatabase();
+		// get the shared connection to the database
+		SQLiteDatabase mDatabase = databaseHelper.getReadableDatabase();
 		
 		if(mMatchedUri == LOCATION_LATEST_LIST_URI) {
-			// get the latest location records
-			
-			String[] mColumns = new String[6];
-			mColumns[0] = LocationsContract.Table._ID;
-			mColumns[1] = LocationsContract.Table.PHONE_NUMBER;
-			mColumns[2] = LocationsContract.Table.LATITUDE;
-			mColumns[3] = LocationsContract.Table.LONGITUDE;
-			mColumns[4] = LocationsContract.Table.TIMESTAMP;
-			mColumns[5] = "MAX(" + LocationsContract.Table.TIMESTAMP + ")";
-			
-			mResults = database.query(LocationsContract.Table.TABLE_NAME, mColumns, null, null, LocationsContract.Table.PHONE_NUMBER, null, null);
-			
+			// get the latest location records, maintained by insert so there is one row per phone number
+			mResults = mDatabase.query(LocationsContract.LATEST_TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
 		} else if (mMatchedUri == LOCATION_LIST_URI || mMatchedUri == LOCATION_ITEM_URI){
 			// execute the query as provided
-			mResults = database.query(LocationsContract.CONTENT_URI_PATH, projection, selection, selectionArgs, null, null, sortOrder);
+			mResults = mDatabase.query(LocationsContract.CONTENT_URI_PATH, projection, selection, selectionArgs, null, null, sortOrder);
 		} else if(mMatchedUri == POI_LIST_URI || mMatchedUri == POI_ITEM_URI) {
 			// execute the query as provided
-			mResults = database.query(PointsOfInterestContract.CONTENT_URI_PATH, projection, selection, selectionArgs, null, null, sortOrder);
+			mResults = mDatabase.query(PointsOfInterestContract.CONTENT_URI_PATH, projection, selection, selectionArgs, null, null, sortOrder);
 		}
 		
-		// play nice and tidy up
-		//database.close();
-				
 		// return the results
 		return mResults;
 	}
 	
+	/**
+	 * add the bounding box query parameters to a URI
+	 * 
+	 * @param uri the bounding box content URI
+	 * @param minLatitude the southern edge of the bounding box
+	 * @param minLongitude the western edge of the bounding box
+	 * @param maxLatitude the northern edge of the bounding box
+	 * @param maxLongitude the eastern edge of the bounding box
+	 * @return the URI with the bounding box query parameters added
+	 */
+	public static Uri appendBoundingBox(Uri uri, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		
+		return uri.buildUpon()
+				.appendQueryParameter(MIN_LATITUDE_PARAM, Double.toString(minLatitude))
+				.appendQueryParameter(MIN_LONGITUDE_PARAM, Double.toString(minLongitude))
+				.appendQueryParameter(MAX_LATITUDE_PARAM, Double.toString(maxLatitude))
+				.appendQueryParameter(MAX_LONGITUDE_PARAM, Double.toString(maxLongitude))
+				.build();
+	}
+	
+	/*
+	 * get the bounding box from the uri in the order min lat, max lat, min lng, max lng
+	 */
+	private String[] getBoundingBox(Uri uri) {
+		
+		String[] mParams = {MIN_LATITUDE_PARAM, MAX_LATITUDE_PARAM, MIN_LONGITUDE_PARAM, MAX_LONGITUDE_PARAM};
+		String[] mBoundingBox = new String[mParams.length];
+		
+		for(int i = 0; i < mParams.length; i++) {
+			
+			String mValue = uri.getQueryParameter(mParams[i]);
+			
+			if(TextUtils.isEmpty(mValue) == true) {
+				Log.e(TAG, "missing bounding box parameter '" + mParams[i] + "' in URI: " + uri.toString());
+				throw new IllegalArgumentException("the '" + mParams[i] + "' query parameter is required");
+			}
+			
+			// make sure only numbers make it into the query
+			try {
+				mBoundingBox[i] = Double.toString(Double.parseDouble(mValue));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("the '" + mParams[i] + "' query parameter must be a number");
+			}
+		}
+		
+		return mBoundingBox;
+	}
+	
+	// add a clause to the start of a selection
+	private String addToSelection(String clause, String selection) {
+		
+		if(TextUtils.isEmpty(selection) == true) {
+			return clause;
+		} else {
+			return clause + " AND (" + selection + ")";
+		}
+	}
+	
+	// add arguments to the start of the selection arguments
+	private String[] addToSelectionArgs(String[] args, String[] selectionArgs) {
+		
+		if(selectionArgs == null || selectionArgs.length == 0) {
+			return args;
+		}
+		
+		String[] mArgs = new String[args.length + selectionArgs.length];
+		System.arraycopy(args, 0, mArgs, 0, args.length);
+		System.arraycopy(selectionArgs, 0, mArgs, args.length, selectionArgs.length);
+		
+		return mArgs;
+	}
+	
+	// determine if the r*tree spatial index is available
+	private boolean isSpatialIndexAvailable() {
+		
+		if(spatialIndex == null) {
+			spatialIndex = MainDatabaseHelper.hasSpatialIndex(databaseHelper.getReadableDatabase());
+		}
+		
+		return spatialIndex;
+	}
+	
 	/*
 	 * insert data into the database
 	 * 
@@ -173,7 +309,7 @@ public class MapItems extends ContentProvider {
 	 * @see android.content.ContentProvider#insert(android.net.Uri, android.content.ContentValues)
 	 */
 	@Override
-	public synchronized Uri insert(Uri uri, ContentValues values) {
+	public Uri insert(Uri uri, ContentValues values) {
 		
 		Uri mResults = null;
 		String mTable = null;
@@ -195,13 +331,32 @@ public class MapItems extends ContentProvider {
 			throw new IllegalArgumentException("unknwon URI detected");
 		}
 		
-		// get a connection to the database
-		database = databaseHelper.getWritableDatabase();
+		// get the shared connection to the database
+		SQLiteDatabase mDatabase = databaseHelper.getWritableDatabase();
 		
-		long mId = database.insertOrThrow(mTable, null, values);
+		long mId;
 		
-		// play nice and tidy up
-		database.close();
+		addHash(mContentUri, values);
+		
+		synchronized(writeLock) {
+			mDatabase.beginTransaction();
+			try {
+				// a record that is already in the database is ignored
+				mId = mDatabase.insertWithOnConflict(mTable, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+				
+				if(mId == -1) {
+					return null;
+				}
+				
+				// keep the latest location for this phone number up to date
+				if(mContentUri == LocationsContract.CONTENT_URI) {
+					MainDatabaseHelper.refreshLatestLocation(mDatabase, values.getAsString(LocationsContract.Table.PHONE_NUMBER));
+				}
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+			}
+		}
 		
 		mResults = ContentUris.withAppendedId(mContentUri, mId);
 		getContext().getContentResolver().notifyChange(mResults, null);
@@ -209,12 +364,116 @@ public class MapItems extends ContentProvider {
 		return mResults;
 	}
 	
+	/*
+	 * insert a batch of records into the database using a single transaction
+	 * 
+	 * (non-Javadoc)
+	 * @see android.content.ContentProvider#bulkInsert(android.net.Uri, android.content.ContentValues[])
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		
+		String mTable = null;
+		Uri mContentUri = null;
+		int mCount = 0;
+		
+		// chose the table name
+		switch(uriMatcher.match(uri)) {
+		case LOCATION_LIST_URI:
+			mTable = LocationsContract.CONTENT_URI_PATH;
+			mContentUri = LocationsContract.CONTENT_URI;
+			break;
+		case POI_LIST_URI:
+			mTable = PointsOfInterestContract.CONTENT_URI_PATH;
+			mContentUri = PointsOfInterestContract.CONTENT_URI;
+			break;
+		default:
+			// unknown uri found
+			Log.e(TAG, "invalid URI detected for bulk insert: " + uri.toString());
+			throw new IllegalArgumentException("unknwon URI detected");
+		}
+		
+		// track the phone numbers in a batch of location records
+		HashSet<String> mPhoneNumbers = null;
+		
+		if(mContentUri == LocationsContract.CONTENT_URI) {
+			mPhoneNumbers = new HashSet<String>();
+		}
+		
+		// get the shared connection to the database
+		SQLiteDatabase mDatabase = databaseHelper.getWritableDatabase();
+		
+		// add all of the records in one transaction
+		synchronized(writeLock) {
+			mDatabase.beginTransaction();
+			try {
+				for(ContentValues mValues : values) {
+					
+					addHash(mContentUri, mValues);
+					
+					// records that are already in the database are ignored
+					if(mDatabase.insertWithOnConflict(mTable, null, mValues, SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+						continue;
+					}
+					mCount++;
+					
+					if(mPhoneNumbers != null) {
+						mPhoneNumbers.add(mValues.getAsString(LocationsContract.Table.PHONE_NUMBER));
+					}
+				}
+				
+				// update the latest location once for each phone number in the batch
+				if(mPhoneNumbers != null) {
+					for(String mPhoneNumber : mPhoneNumbers) {
+						MainDatabaseHelper.refreshLatestLocation(mDatabase, mPhoneNumber);
+					}
+				}
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+			}
+		}
+		
+		// only notify observers once for the whole batch
+		if(mCount > 0) {
+			getContext().getContentResolver().notifyChange(mContentUri, null);
+		}
+		
+		return mCount;
+	}
+	
+	/*
+	 * add the hash used to detect duplicate records if it hasn't already been calculated
+	 */
+	private void addHash(Uri contentUri, ContentValues values) {
+		
+		if(contentUri == LocationsContract.CONTENT_URI) {
+			if(values.containsKey(LocationsContract.Table.HASH) == false) {
+				values.put(LocationsContract.Table.HASH, HashUtils.hashLocationMessage(
+						values.getAsString(LocationsContract.Table.PHONE_NUMBER), 
+						values.getAsDouble(LocationsContract.Table.LATITUDE), 
+						values.getAsDouble(LocationsContract.Table.LONGITUDE), 
+						values.getAsLong(LocationsContract.Table.TIMESTAMP)));
+			}
+		} else {
+			if(values.containsKey(PointsOfInterestContract.Table.HASH) == false) {
+				values.put(PointsOfInterestContract.Table.HASH, HashUtils.hashPointOfInterestMessage(
+						values.getAsString(PointsOfInterestContract.Table.PHONE_NUMBER), 
+						values.getAsDouble(PointsOfInterestContract.Table.LATITUDE), 
+						values.getAsDouble(PointsOfInterestContract.Table.LONGITUDE), 
+						values.getAsLong(PointsOfInterestContract.Table.TIMESTAMP), 
+						values.getAsString(PointsOfInterestContract.Table.TITLE), 
+						values.getAsString(PointsOfInterestContract.Table.DESCRIPTION)));
+			}
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see android.content.ContentProvider#getType(android.net.Uri)
 	 */
 	@Override
-	public synchronized String getType(Uri uri) {
+	public String getType(Uri uri) {
 		
 		// choose the mime type
 		switch(uriMatcher.match(uri)) {
@@ -224,8 +483,12 @@ public class MapItems extends ContentProvider {
 			return LocationsContract.CONTENT_TYPE_ITEM;
 		case LOCATION_LATEST_LIST_URI:
 			return LocationsContract.CONTENT_TYPE_LIST;
+		case LOCATION_LATEST_BBOX_URI:
+			return LocationsContract.CONTENT_TYPE_LIST;
 		case POI_LIST_URI:
 			return PointsOfInterestContract.CONTENT_TYPE_LIST;
+		case POI_BBOX_URI:
+			return PointsOfInterestContract.CONTENT_TYPE_LIST;
 		case POI_ITEM_URI:
 			return PointsOfInterestContract.CONTENT_TYPE_ITEM;
 		default:
@@ -241,16 +504,15 @@ public class MapItems extends ContentProvider {
 	 * @see android.content.ContentProvider#delete(android.net.Uri, java.lang.String, java.lang.String[])
 	 */
 	@Override
-	public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
 		
-		// get a connection to the database
-		database = databaseHelper.getWritableDatabase();
+		String mTable = null;
 		int count;
 		
 		// determine what type of delete is required
 		switch(uriMatcher.match(uri)) {
 		case LOCATION_LIST_URI:
-			count = database.delete(LocationsContract.Table.TABLE_NAME, selection, selectionArgs);
+			mTable = LocationsContract.Table.TABLE_NAME;
 			break;
 		case LOCATION_ITEM_URI:
 			if(TextUtils.isEmpty(selection) == true) {
@@ -258,10 +520,10 @@ public class MapItems extends ContentProvider {
 				selectionArgs = new String[0];
 				selectionArgs[0] = uri.getLastPathSegment();
 			}
-			count = database.delete(LocationsContract.Table.TABLE_NAME, selection, selectionArgs);
+			mTable = LocationsContract.Table.TABLE_NAME;
 			break;
 		case POI_LIST_URI:
-			count = database.delete(PointsOfInterestContract.Table.TABLE_NAME, selection, selectionArgs);
+			mTable = PointsOfInterestContract.Table.TABLE_NAME;
 			break;
 		case POI_ITEM_URI:
 			if(TextUtils.isEmpty(selection) == true) {
@@ -269,7 +531,7 @@ public class MapItems extends ContentProvider {
 				selectionArgs = new String[0];
 				selectionArgs[0] = uri.getLastPathSegment();
 			}
-			count = database.delete(PointsOfInterestContract.Table.TABLE_NAME, selection, selectionArgs);
+			mTable = PointsOfInterestContract.Table.TABLE_NAME;
 			break;
 		default:
 			// unknown uri found
@@ -277,6 +539,24 @@ public class MapItems extends ContentProvider {
 			throw new IllegalArgumentException("unknwon URI detected");
 		}
 		
+		// get the shared connection to the database
+		SQLiteDatabase mDatabase = databaseHelper.getWritableDatabase();
+		
+		synchronized(writeLock) {
+			mDatabase.beginTransaction();
+			try {
+				count = mDatabase.delete(mTable, selection, selectionArgs);
+				
+				// the latest location for a phone number may have been removed
+				if(count > 0 && mTable.equals(LocationsContract.Table.TABLE_NAME)) {
+					MainDatabaseHelper.rebuildLatestLocations(mDatabase);
+				}
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+			}
+		}
+		
 		getContext().getContentResolver().notifyChange(uri, null);
 		return count;
 	}
@@ -286,7 +566,7 @@ public class MapItems extends ContentProvider {
 	 * @see android.content.ContentProvider#update(android.net.Uri, android.content.ContentValues, java.lang.String, java.lang.String[])
 	 */
 	@Override
-	public synchronized int update(Uri arg0, ContentValues arg1, String arg2, String[] arg3) {
+	public int update(Uri arg0, ContentValues arg1, String arg2, String[] arg3) {
 		//TODO implement code when required
 		throw new UnsupportedOperationException("Not implemented yet");
 	}
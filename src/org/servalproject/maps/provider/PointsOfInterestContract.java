@@ -44,6 +44,12 @@ public class PointsOfInterestContract {
 	 */
 	public static final Uri CONTENT_URI = Uri.parse("content://" + MapItems.AUTHORITY + "/" + CONTENT_URI_PATH);
 	
+	/**
+	 * content URI for the POI data inside a bounding box, 
+	 * use {@link #buildBoundingBoxUri(double, double, double, double)} to add the bounds
+	 */
+	public static final Uri BBOX_CONTENT_URI = Uri.parse("content://" + MapItems.AUTHORITY + "/" + CONTENT_URI_PATH + "/bbox");
+	
 	/**
 	 * content type for a list of items
 	 */
@@ -59,6 +65,19 @@ public class PointsOfInterestContract {
 	 */
 	public static final int DEFAULT_CATEGORY = 0;
 	
+	/**
+	 * build a URI to query for the POI data inside a bounding box
+	 * 
+	 * @param minLatitude the southern edge of the bounding box
+	 * @param minLongitude the western edge of the bounding box
+	 * @param maxLatitude the northern edge of the bounding box
+	 * @param maxLongitude the eastern edge of the bounding box
+	 * @return the URI to use in a query
+	 */
+	public static Uri buildBoundingBoxUri(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		return MapItems.appendBoundingBox(BBOX_CONTENT_URI, minLatitude, minLongitude, maxLatitude, maxLongitude);
+	}
+	
 	/**
 	 * table definition
 	 */
@@ -124,6 +143,12 @@ public class PointsOfInterestContract {
 		 */
 		public static final String PHOTO = "photo";
 		
+		/**
+		 * hash of the record contents used to detect duplicate records, 
+		 * not included in the list of columns as it is only used internally
+		 */
+		public static final String HASH = "hash";
+		
 		/**
 		 * a list of all of the columns
 		 */
@@ -19,7 +19,6 @@
  */
 package org.servalproject.maps.rhizome;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -28,8 +27,6 @@ import org.servalproject.maps.utils.FileUtils;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.os.Environment;
 import android.text.TextUtils;
 import android.util.Log;
@@ -45,12 +42,25 @@ public class Rhizome {
 	private static final String TAG = "Rhizome";
 	
 	/**
-	 * add a file to the Rhizome repository
+	 * add a file to the Rhizome repository, the file is published after a delay 
+	 * so that a file that changes often is only published once
 	 * 
 	 * @param context a context object used to get access to system resources
 	 * @param filePath the full path to the file
 	 */
 	public static void addFile(Context context, String filePath) {
+		addFile(context, filePath, 0);
+	}
+	
+	/**
+	 * add a file to the Rhizome repository after an additional delay, 
+	 * which is used to publish large files after the smaller files that describe them
+	 * 
+	 * @param context a context object used to get access to system resources
+	 * @param filePath the full path to the file
+	 * @param delay the number of milliseconds to wait in addition to the usual delay
+	 */
+	public static void addFile(Context context, String filePath, long delay) {
 		
 		// check on the parameters
 		if(context == null) {
@@ -61,15 +71,27 @@ public class Rhizome {
 			throw new IllegalArgumentException("unable to access the specified file '" + filePath + "'");
 		}
 		
-		// get access to the preferences
-		SharedPreferences mPreferences = context.getSharedPreferences("rhizome", Context.MODE_PRIVATE);
-		
-		String mVersionName = new File(filePath).getName() + "-version";
+		RhizomePublisher.getInstance(context).requestPublish(filePath, delay);
+	}
+	
+	/**
+	 * publish any files that are waiting to be added to the Rhizome repository straight away, 
+	 * other than those added with an additional delay which are still published when they are due
+	 * 
+	 * @param context a context object used to get access to system resources
+	 */
+	public static void publishPending(Context context) {
 		
-		Long mVersion = mPreferences.getLong(mVersionName, 0);
+		// check on the parameters
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
 		
-		// increment the version
-		mVersion++;
+		RhizomePublisher.getInstance(context).publishPending();
+	}
+	
+	// send the intent to add a file to the Rhizome repository
+	static void publishFile(Context context, String filePath, long version) {
 		
 		// get the name identifier
 		String mName = context.getString(R.string.app_name);
@@ -77,14 +99,9 @@ public class Rhizome {
 		// build the intent
 		Intent mIntent = new Intent("org.servalproject.rhizome.ADD_FILE");
 		mIntent.putExtra("path", filePath);
-		mIntent.putExtra("version", mVersion);
+		mIntent.putExtra("version", version);
 		mIntent.putExtra("author", mName);
 		context.getApplicationContext().startService(mIntent);
-		
-		// update version
-		Editor mEditor = mPreferences.edit();
-		mEditor.putLong(mVersionName, mVersion);
-		mEditor.commit();
 	}
 	
 	/**
@@ -22,11 +22,12 @@ package org.servalproject.maps.rhizome;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
 
 import org.servalproject.maps.R;
 import org.servalproject.maps.ServalMaps;
+import org.servalproject.maps.photos.PhotoLoader;
 import org.servalproject.maps.protobuf.BinaryFileContract;
+import org.servalproject.maps.protobuf.ImportScheduler;
 import org.servalproject.maps.protobuf.LocationReadWorker;
 import org.servalproject.maps.protobuf.PointsOfInterestWorker;
 import org.servalproject.maps.utils.FileUtils;
@@ -47,28 +48,31 @@ public class RhizomeBroadcastReceiver extends BroadcastReceiver {
 	/*
 	 * private class level constants
 	 */
-	private final boolean V_LOG = false;
-	private final String TAG = "RhizomeBroadcastReceiver";
+	private static final boolean V_LOG = false;
+	private static final String TAG = "RhizomeBroadcastReceiver";
+	
+	// largest part of a file read in place, which is read into memory rather than copied
+	private static final long MAX_IN_PLACE_LENGTH = 1024 * 1024;
 	
 	/*
 	 * private class level variables
 	 */
-	ExecutorService executor;
+	ImportScheduler scheduler;
 	
 	/**
-	 * constructor a new instance of this receiver providing it an executor service
+	 * constructor a new instance of this receiver providing it an import scheduler
 	 * used to manage the data import threads
 	 * 
-	 * @param executor used to manage the execution of data import threads
-	 * @throws IllegalArgumentException if executor is null
+	 * @param scheduler used to manage the execution of data import threads
+	 * @throws IllegalArgumentException if scheduler is null
 	 */
-	public RhizomeBroadcastReceiver(ExecutorService executor) {
+	public RhizomeBroadcastReceiver(ImportScheduler scheduler) {
 		
-		if(executor == null) {
-			throw new IllegalArgumentException("the executor parameter is required");
+		if(scheduler == null) {
+			throw new IllegalArgumentException("the scheduler parameter is required");
 		}
 		
-		this.executor = executor;
+		this.scheduler = scheduler;
 		
 	}
 
@@ -107,58 +111,283 @@ public class RhizomeBroadcastReceiver extends BroadcastReceiver {
 			return;
 		}
 		
+		// get the binary data directory
+		String mDataPath = Environment.getExternalStorageDirectory().getPath();
+		mDataPath += context.getString(R.string.system_path_binary_data);
+		
 		// is it one of our images?
 		if(mFileName.startsWith(MediaUtils.PHOTO_FILE_PREFIX) && mFileName.endsWith(".jpg")) {
-			// this is a serval maps photo
-			try {
-				FileUtils.copyFileToDir(mFilePath, MediaUtils.getMediaStore());
-				Log.d(TAG, MediaUtils.getMediaStore());
-			} catch (IOException e) {
-				Log.e(TAG, "unable to copy file", e);
-				return;
+			// this is a serval maps photo, copied on an import thread to keep the file system off the main thread
+			scheduler.submit(
+					mFileName, 
+					ImportScheduler.PRIORITY_PHOTOS, 
+					null, 
+					new PhotoImport(context, mFilePath, mFileName, mDataPath));
+		} else if(mFileName.startsWith(MediaUtils.THUMBNAIL_FILE_PREFIX) && mFileName.endsWith(".jpg")) {
+			// this is the thumbnail of a serval maps photo, which is shown from Rhizome until the photo is received
+			if(V_LOG) {
+				Log.v(TAG, "thumbnail '" + mFileName + "' received");
 			}
 		}
 		
-		// get the binary data directory
-		String mDataPath = Environment.getExternalStorageDirectory().getPath();
-		mDataPath += context.getString(R.string.system_path_binary_data);
+		long mVersion = mBundle.getLong("version");
 		
+		// queue the import, a file delivered again while it is waiting is only read once
 		if(mFilePath.endsWith(BinaryFileContract.LOCATION_EXT) == true) {
 			// this is a binary location file
+			scheduler.submit(
+					mFileName, 
+					ImportScheduler.PRIORITY_LOCATIONS, 
+					getSourceTime(mFileName), 
+					new LocationImport(context, mFilePath, mFileName, mVersion, mDataPath));
+			
+		} else if(mFilePath.endsWith(BinaryFileContract.POI_EXT) == true) {
+			// this is a binary POI file
+			scheduler.submit(
+					mFileName, 
+					ImportScheduler.PRIORITY_POINTS_OF_INTEREST, 
+					getSourceTime(mFileName), 
+					new PointsOfInterestImport(context, mFilePath, mDataPath, mVersion));
+		}
+		
+		if(V_LOG) {
+			Log.v(TAG, "received intent with action: " + intent.getAction());
+			Log.v(TAG, "file name: " + mBundle.getString("path"));
+			Log.v(TAG, "version: " + Long.toString(mBundle.getLong("version")));
+			Log.v(TAG, "name: " + mBundle.getString("name"));
+		}
+	}
+	
+	// get the date and hour part of a binary file name, which sorts in time order
+	private String getSourceTime(String fileName) {
+		
+		int mStart = fileName.indexOf('-');
+		int mEnd = fileName.lastIndexOf('.');
+		
+		if(mStart == -1 || mEnd <= mStart) {
+			return null;
+		}
+		
+		return fileName.substring(mStart + 1, mEnd);
+	}
+	
+	/*
+	 * the size and modification time of a file when a version of it is delivered, 
+	 * if they are the same when the file is imported it is the delivered version 
+	 * and can be read in place, otherwise Rhizome may be writing a newer version 
+	 * and a copy is read instead
+	 * 
+	 * the file may still change after it is checked, so a file read in place is read into memory 
+	 * through a single open file rather than mapped, a mapped file that is truncated kills the process
+	 */
+	private static class FileSnapshot {
+		
+		private final File file;
+		private final long length;
+		private final long lastModified;
+		
+		private FileSnapshot(String filePath) {
+			file = new File(filePath);
+			length = file.length();
+			lastModified = file.lastModified();
+		}
+		
+		private boolean isUnchanged() {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+	}
+	
+	/*
+	 * copy a photo into the media store
+	 */
+	private static class PhotoImport implements Runnable {
+		
+		private final Context context;
+		private final String filePath;
+		private final String fileName;
+		private final String dataPath;
+		
+		private PhotoImport(Context context, String filePath, String fileName, String dataPath) {
+			this.context = context.getApplicationContext();
+			this.filePath = filePath;
+			this.fileName = fileName;
+			this.dataPath = dataPath;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			
+			// the name is the hash of its POI so a photo in the media store with the same name is the same photo, 
+			// possibly our own camera image which must not be replaced
+			File mPhoto = new File(MediaUtils.getMediaStore(), fileName);
+			
+			if(mPhoto.exists() == true) {
+				if(V_LOG) {
+					Log.v(TAG, "photo '" + fileName + "' is already in the media store");
+				}
+				return;
+			}
+			
+			if(new File(dataPath, fileName).exists() == true) {
+				// this is the copy of one of our own photos that we published
+				if(V_LOG) {
+					Log.v(TAG, "photo '" + fileName + "' was published by this phone");
+				}
+				return;
+			}
 			
-			// copy and process the file
+			// copy to a temporary file first so an incomplete copy is never taken for the photo
 			try {
+				File mCopy = new File(FileUtils.copyFileToDirWithTmpName(filePath, MediaUtils.getMediaStore()));
 				
-				String mDataFile = FileUtils.copyFileToDirWithTmpName(mFilePath, mDataPath);				
-				LocationReadWorker mWorker = new LocationReadWorker(context, mDataFile);
-				executor.submit(mWorker);
-
+				if(mCopy.renameTo(mPhoto) == false) {
+					mCopy.delete();
+					Log.e(TAG, "unable to rename the copy of '" + fileName + "'");
+					return;
+				}
 			} catch (IOException e) {
 				Log.e(TAG, "unable to copy file", e);
 				return;
 			}
-
-		} else if(mFilePath.endsWith(BinaryFileContract.POI_EXT) == true) {
-			// this is a binary POI file
 			
-			// copy and process the file
+			// the photo replaces any copies made from its thumbnail
+			PhotoLoader.getInstance(context).remove(fileName);
+		}
+	}
+	
+	/*
+	 * import the records added to a location file since it was last imported
+	 */
+	private static class LocationImport implements Runnable {
+		
+		private final Context context;
+		private final String filePath;
+		private final String fileName;
+		private final long version;
+		private final String dataPath;
+		private final FileSnapshot snapshot;
+		
+		private LocationImport(Context context, String filePath, String fileName, long version, String dataPath) {
+			this.context = context.getApplicationContext();
+			this.filePath = filePath;
+			this.fileName = fileName;
+			this.version = version;
+			this.dataPath = dataPath;
+			this.snapshot = new FileSnapshot(filePath);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			
+			SyncState mSyncState = SyncState.getInstance(context);
+			
+			// the state is checked and reset under the lock the read worker updates it with, 
+			// so another import of the file can't change it in between
+			synchronized(mSyncState.getLock(fileName)) {
+				importNewRecords(mSyncState);
+			}
+		}
+		
+		// import the part of the file that hasn't already been imported
+		private void importNewRecords(SyncState syncState) {
+			
+			// work out how much of the file has already been imported
+			long mLength = new File(filePath).length();
+			long mOffset = 0;
+			
+			SyncState.Entry mEntry = syncState.get(fileName);
+			
+			if(mEntry != null) {
+				if(version < mEntry.version) {
+					// a newer version of this file has already been imported
+					if(V_LOG) {
+						Log.v(TAG, "ignoring old version " + version + " of '" + fileName + "'");
+					}
+					return;
+				} else if(mLength < mEntry.offset) {
+					// the file has been replaced, read it again from the start
+					// records already imported are skipped using their hash
+					syncState.put(fileName, version, 0, mEntry.timestamp);
+				} else if(mLength == mEntry.offset) {
+					// no new records in this version of the file
+					if(V_LOG) {
+						Log.v(TAG, "no new records in version " + version + " of '" + fileName + "'");
+					}
+					return;
+				} else {
+					mOffset = mEntry.offset;
+				}
+			}
+			
+			// read the new part of the file in place unless it is changing or too large to hold in memory
+			if(snapshot.isUnchanged() == true && mLength - mOffset <= MAX_IN_PLACE_LENGTH) {
+				new LocationReadWorker(context, filePath, fileName, version, mOffset, true).run();
+				return;
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "'" + fileName + "' has changed since version " + version + " was delivered or is too large to read in place, reading a copy");
+			}
+			
 			try {
-				
-				String mDataFile = FileUtils.copyFileToDirWithTmpName(mFilePath, mDataPath);
-				PointsOfInterestWorker mWorker = new PointsOfInterestWorker(context, mDataFile);
-				executor.submit(mWorker);
-
+				String mDataFile = FileUtils.copyFileTailToDirWithTmpName(filePath, dataPath, mOffset);
+				new LocationReadWorker(context, mDataFile, fileName, version, mOffset).run();
 			} catch (IOException e) {
 				Log.e(TAG, "unable to copy file", e);
-				return;
 			}
 		}
+	}
+	
+	/*
+	 * import a points of interest file
+	 */
+	private static class PointsOfInterestImport implements Runnable {
 		
-		if(V_LOG) {
-			Log.v(TAG, "received intent with action: " + intent.getAction());
-			Log.v(TAG, "file name: " + mBundle.getString("path"));
-			Log.v(TAG, "version: " + Long.toString(mBundle.getLong("version")));
-			Log.v(TAG, "name: " + mBundle.getString("name"));
+		private final Context context;
+		private final String filePath;
+		private final String dataPath;
+		private final long version;
+		private final FileSnapshot snapshot;
+		
+		private PointsOfInterestImport(Context context, String filePath, String dataPath, long version) {
+			this.context = context.getApplicationContext();
+			this.filePath = filePath;
+			this.dataPath = dataPath;
+			this.version = version;
+			this.snapshot = new FileSnapshot(filePath);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			
+			// read the file in place unless it is changing or too large to hold in memory
+			if(snapshot.isUnchanged() == true && new File(filePath).length() <= MAX_IN_PLACE_LENGTH) {
+				new PointsOfInterestWorker(context, filePath, true).run();
+				return;
+			}
+			
+			if(V_LOG) {
+				Log.v(TAG, "'" + filePath + "' has changed since version " + version + " was delivered or is too large to read in place, reading a copy");
+			}
+			
+			try {
+				String mDataFile = FileUtils.copyFileToDirWithTmpName(filePath, dataPath);
+				new PointsOfInterestWorker(context, mDataFile).run();
+			} catch (IOException e) {
+				Log.e(TAG, "unable to copy file", e);
+			}
 		}
 	}
 }
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.rhizome;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.servalproject.maps.utils.FileUtils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * publish files to the Rhizome repository, coalescing repeated requests to publish the same file
+ * 
+ * a file is published once the publish window has passed since it was first changed, or straight 
+ * away if enough data has been added to it, so that Rhizome only hashes and announces it once
+ * 
+ * files published after an additional delay are stored in the preferences with the time they are due, 
+ * so they are published after the process is restarted and the time the phone spends asleep is counted
+ */
+public class RhizomePublisher {
+	
+	/**
+	 * the name of the preferences used to store Rhizome related values
+	 */
+	public static final String PREFERENCES_NAME = "rhizome";
+	
+	/**
+	 * the name of the preference used to store the number of files published
+	 */
+	public static final String PUBLISH_COUNT = "publish-count";
+	
+	/**
+	 * the name of the preference used to store the number of publish requests that were coalesced
+	 */
+	public static final String COALESCED_COUNT = "coalesced-count";
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String TAG = "RhizomePublisher";
+	private static final boolean V_LOG = false;
+	
+	private static final String VERSION_SUFFIX = "-version";
+	
+	// prefix of the preferences storing the time a delayed file is due to be published
+	private static final String DELAYED_PREFIX = "delayed-";
+	
+	// number of milliseconds to wait before publishing a changed file
+	private static final long DEFAULT_PUBLISH_WINDOW = 60 * 1000;
+	
+	// number of bytes added to a file since it was published that cause it to be published straight away
+	private static final long PUBLISH_SIZE_THRESHOLD = 64 * 1024;
+	
+	/*
+	 * private class level variables
+	 */
+	private static RhizomePublisher instance = null;
+	
+	private final Context context;
+	private final Handler handler;
+	private final SharedPreferences preferences;
+	
+	// the following are only used on the publisher thread
+	private final HashMap<String, Long> versions = new HashMap<String, Long>();
+	private final HashMap<String, Long> publishedLengths = new HashMap<String, Long>();
+	private final HashMap<String, PendingFile> pendingFiles = new HashMap<String, PendingFile>();
+	
+	private volatile long publishCount;
+	private volatile long coalescedCount;
+	
+	// private constructor, use the getInstance method
+	private RhizomePublisher(Context context) {
+		
+		this.context = context.getApplicationContext();
+		
+		preferences = this.context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+		
+		publishCount = preferences.getLong(PUBLISH_COUNT, 0);
+		coalescedCount = preferences.getLong(COALESCED_COUNT, 0);
+		
+		HandlerThread mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		
+		handler = new Handler(mThread.getLooper());
+		
+		// queue the delayed files that weren't published before the process stopped
+		handler.post(new Runnable() {
+			public void run() {
+				restoreDelayed();
+			}
+		});
+	}
+	
+	/**
+	 * get the single instance of the publisher
+	 * 
+	 * @param context a context object used to get access to system resources
+	 * @return the publisher
+	 */
+	public static synchronized RhizomePublisher getInstance(Context context) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
+		
+		if(instance == null) {
+			instance = new RhizomePublisher(context);
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * request that a file is published, the file is published after the publish window 
+	 * and any further requests for the same file before then are coalesced
+	 * 
+	 * @param filePath the full path to the file
+	 */
+	public void requestPublish(final String filePath) {
+		requestPublish(filePath, 0);
+	}
+	
+	/**
+	 * request that a file is published after an additional delay, 
+	 * the file isn't published before then because of its size
+	 * 
+	 * @param filePath the full path to the file
+	 * @param delay the number of milliseconds to wait in addition to the publish window
+	 */
+	public void requestPublish(final String filePath, final long delay) {
+		
+		if(filePath == null) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(delay < 0) {
+			throw new IllegalArgumentException("the delay parameter must not be negative");
+		}
+		
+		handler.post(new Runnable() {
+			public void run() {
+				schedulePublish(filePath, delay);
+			}
+		});
+	}
+	
+	/**
+	 * publish the files that are waiting for the publish window without waiting for it, 
+	 * files published after an additional delay are still published when they are due
+	 */
+	public void publishPending() {
+		
+		handler.post(new Runnable() {
+			public void run() {
+				
+				PendingFile[] mPendingFiles = pendingFiles.values().toArray(new PendingFile[pendingFiles.size()]);
+				
+				for(PendingFile mPendingFile : mPendingFiles) {
+					// delayed files, such as full size photos, are held back to keep the first publish small
+					if(mPendingFile.dueTime == 0) {
+						publish(mPendingFile);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * get the number of files that have been published
+	 * 
+	 * @return the number of files that have been published
+	 */
+	public long getPublishCount() {
+		return publishCount;
+	}
+	
+	/**
+	 * get the number of publish requests that were coalesced into another publish
+	 * 
+	 * @return the number of publish requests that were coalesced
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+	
+	// schedule a file to be published, called on the publisher thread
+	private void schedulePublish(String filePath, long delay) {
+		
+		// the uptime clock stops while the phone is asleep so check the delayed files against the real time
+		publishDue();
+		
+		PendingFile mPendingFile = pendingFiles.get(filePath);
+		
+		if(mPendingFile == null) {
+			mPendingFile = new PendingFile(filePath);
+			pendingFiles.put(filePath, mPendingFile);
+			
+			if(delay > 0) {
+				// remember the file in case the process stops before it is published
+				mPendingFile.dueTime = System.currentTimeMillis() + getPublishWindow() + delay;
+				
+				Editor mEditor = preferences.edit();
+				mEditor.putLong(DELAYED_PREFIX + filePath, mPendingFile.dueTime);
+				mEditor.commit();
+			}
+			
+			handler.postAtTime(mPendingFile, SystemClock.uptimeMillis() + getPublishWindow() + delay);
+		} else {
+			// the file is already waiting to be published
+			mPendingFile.coalesced++;
+			coalescedCount++;
+		}
+		
+		// files published later are large on purpose
+		if(delay > 0) {
+			return;
+		}
+		
+		// publish straight away if a lot of data is waiting
+		Long mPublishedLength = publishedLengths.get(filePath);
+		
+		if(mPublishedLength == null) {
+			mPublishedLength = 0l;
+		}
+		
+		if(new File(filePath).length() - mPublishedLength >= PUBLISH_SIZE_THRESHOLD) {
+			publish(mPendingFile);
+		}
+	}
+	
+	// queue the delayed files stored in the preferences, called on the publisher thread
+	private void restoreDelayed() {
+		
+		long mNow = System.currentTimeMillis();
+		
+		for(Map.Entry<String, ?> mEntry : preferences.getAll().entrySet()) {
+			
+			if(mEntry.getKey().startsWith(DELAYED_PREFIX) == false || mEntry.getValue() instanceof Long == false) {
+				continue;
+			}
+			
+			String mFilePath = mEntry.getKey().substring(DELAYED_PREFIX.length());
+			
+			if(pendingFiles.containsKey(mFilePath) == true) {
+				continue;
+			}
+			
+			PendingFile mPendingFile = new PendingFile(mFilePath);
+			mPendingFile.dueTime = (Long) mEntry.getValue();
+			pendingFiles.put(mFilePath, mPendingFile);
+			
+			// files that became due while the process was stopped wait for the publish window
+			long mDelay = Math.max(mPendingFile.dueTime - mNow, getPublishWindow());
+			handler.postAtTime(mPendingFile, SystemClock.uptimeMillis() + mDelay);
+			
+			if(V_LOG) {
+				Log.v(TAG, "restored '" + mFilePath + "' to be published in " + mDelay + "ms");
+			}
+		}
+	}
+	
+	// publish the delayed files that are due, called on the publisher thread
+	private void publishDue() {
+		
+		long mNow = System.currentTimeMillis();
+		
+		PendingFile[] mPendingFiles = pendingFiles.values().toArray(new PendingFile[pendingFiles.size()]);
+		
+		for(PendingFile mPendingFile : mPendingFiles) {
+			if(mPendingFile.dueTime > 0 && mPendingFile.dueTime <= mNow) {
+				publish(mPendingFile);
+			}
+		}
+	}
+	
+	// publish a file, called on the publisher thread
+	private void publish(PendingFile pendingFile) {
+		
+		handler.removeCallbacks(pendingFile);
+		pendingFiles.remove(pendingFile.filePath);
+		
+		if(pendingFile.dueTime > 0) {
+			Editor mEditor = preferences.edit();
+			mEditor.remove(DELAYED_PREFIX + pendingFile.filePath);
+			mEditor.commit();
+		}
+		
+		if(FileUtils.isFileReadable(pendingFile.filePath) == false) {
+			Log.e(TAG, "unable to access the specified file '" + pendingFile.filePath + "'");
+			return;
+		}
+		
+		String mVersionName = new File(pendingFile.filePath).getName() + VERSION_SUFFIX;
+		
+		// get the current version, only reading the preferences the first time
+		Long mVersion = versions.get(mVersionName);
+		
+		if(mVersion == null) {
+			mVersion = preferences.getLong(mVersionName, 0);
+		}
+		
+		// increment the version
+		mVersion++;
+		versions.put(mVersionName, mVersion);
+		
+		Rhizome.publishFile(context, pendingFile.filePath, mVersion);
+		
+		publishedLengths.put(pendingFile.filePath, new File(pendingFile.filePath).length());
+		publishCount++;
+		
+		// store the version and the metrics, this is on the publisher thread so the caller isn't held up
+		Editor mEditor = preferences.edit();
+		mEditor.putLong(mVersionName, mVersion);
+		mEditor.putLong(PUBLISH_COUNT, publishCount);
+		mEditor.putLong(COALESCED_COUNT, coalescedCount);
+		mEditor.commit();
+		
+		if(V_LOG) {
+			Log.v(TAG, "published '" + pendingFile.filePath + "' version " + mVersion 
+					+ " coalescing " + pendingFile.coalesced + " requests, total published: " 
+					+ publishCount + " total coalesced: " + coalescedCount);
+		}
+	}
+	
+	// get the publish window from the preferences
+	private long getPublishWindow() {
+		
+		String mPreference = PreferenceManager.getDefaultSharedPreferences(context).getString("preferences_rhizome_publish_interval", null);
+		
+		if(mPreference == null) {
+			return DEFAULT_PUBLISH_WINDOW;
+		}
+		
+		try {
+			return Long.parseLong(mPreference);
+		} catch (NumberFormatException e) {
+			Log.e(TAG, "invalid publish interval preference '" + mPreference + "'", e);
+			return DEFAULT_PUBLISH_WINDOW;
+		}
+	}
+	
+	/*
+	 * a file waiting to be published
+	 */
+	private class PendingFile implements Runnable {
+		
+		private final String filePath;
+		private int coalesced = 0;
+		
+		// the real time a delayed file is due to be published, zero if it isn't delayed
+		private long dueTime = 0;
+		
+		private PendingFile(String filePath) {
+			this.filePath = filePath;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			publish(this);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.rhizome;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.text.TextUtils;
+
+/**
+ * remember how much of each binary file received from Rhizome has already been imported
+ * so that later versions of the same file only need the new records to be read
+ */
+public class SyncState {
+	
+	/**
+	 * the name of the preferences used to store the sync state
+	 */
+	public static final String PREFERENCES_NAME = "rhizome-sync";
+	
+	/*
+	 * private class level constants
+	 */
+	private static final String VERSION_SUFFIX = "-version";
+	private static final String OFFSET_SUFFIX = "-offset";
+	private static final String TIMESTAMP_SUFFIX = "-timestamp";
+	
+	// remove the state of files that haven't had a new record for this long
+	private static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000l;
+	
+	/*
+	 * private class level variables
+	 */
+	private static SyncState instance = null;
+	
+	private final SharedPreferences preferences;
+	
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private final HashMap<String, Object> locks = new HashMap<String, Object>();
+	
+	// private constructor, use the getInstance method
+	private SyncState(Context context) {
+		
+		preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+		
+		// load the stored state, ignoring the state of old files
+		long mOldest = System.currentTimeMillis() - MAX_AGE;
+		Editor mEditor = preferences.edit();
+		boolean mPruned = false;
+		
+		for(Map.Entry<String, ?> mPreference : preferences.getAll().entrySet()) {
+			
+			if(mPreference.getKey().endsWith(TIMESTAMP_SUFFIX) == false) {
+				continue;
+			}
+			
+			String mFileName = mPreference.getKey().substring(0, mPreference.getKey().length() - TIMESTAMP_SUFFIX.length());
+			long mTimestamp = (Long) mPreference.getValue();
+			
+			if(mTimestamp < mOldest) {
+				mEditor.remove(mFileName + VERSION_SUFFIX);
+				mEditor.remove(mFileName + OFFSET_SUFFIX);
+				mEditor.remove(mFileName + TIMESTAMP_SUFFIX);
+				mPruned = true;
+			} else {
+				entries.put(mFileName, new Entry(
+						preferences.getLong(mFileName + VERSION_SUFFIX, 0),
+						preferences.getLong(mFileName + OFFSET_SUFFIX, 0),
+						mTimestamp));
+			}
+		}
+		
+		if(mPruned) {
+			mEditor.commit();
+		}
+	}
+	
+	/**
+	 * get the single instance of the sync state
+	 * 
+	 * @param context a context object used to get access to system resources
+	 * @return the sync state
+	 */
+	public static synchronized SyncState getInstance(Context context) {
+		
+		if(context == null) {
+			throw new IllegalArgumentException("the context parameter is required");
+		}
+		
+		if(instance == null) {
+			instance = new SyncState(context);
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * get the state of a file
+	 * 
+	 * @param fileName the name of the file as published in Rhizome
+	 * @return the state of the file or null if nothing has been imported from it
+	 */
+	public synchronized Entry get(String fileName) {
+		
+		if(TextUtils.isEmpty(fileName) == true) {
+			throw new IllegalArgumentException("the fileName parameter is required");
+		}
+		
+		return entries.get(fileName);
+	}
+	
+	/**
+	 * store the state of a file after records have been imported from it
+	 * 
+	 * @param fileName the name of the file as published in Rhizome
+	 * @param version the version of the file that was imported
+	 * @param offset the offset of the byte following the last record imported
+	 * @param timestamp the timestamp of the last record imported
+	 */
+	public synchronized void put(String fileName, long version, long offset, long timestamp) {
+		
+		if(TextUtils.isEmpty(fileName) == true) {
+			throw new IllegalArgumentException("the fileName parameter is required");
+		}
+		
+		entries.put(fileName, new Entry(version, offset, timestamp));
+		
+		Editor mEditor = preferences.edit();
+		mEditor.putLong(fileName + VERSION_SUFFIX, version);
+		mEditor.putLong(fileName + OFFSET_SUFFIX, offset);
+		mEditor.putLong(fileName + TIMESTAMP_SUFFIX, timestamp);
+		mEditor.commit();
+	}
+	
+	/**
+	 * get the object used to make sure only one import from a file runs at a time
+	 * 
+	 * @param fileName the name of the file as published in Rhizome
+	 * @return the object to synchronize on while importing from the file
+	 */
+	public synchronized Object getLock(String fileName) {
+		
+		if(TextUtils.isEmpty(fileName) == true) {
+			throw new IllegalArgumentException("the fileName parameter is required");
+		}
+		
+		Object mLock = locks.get(fileName);
+		
+		if(mLock == null) {
+			mLock = new Object();
+			locks.put(fileName, mLock);
+		}
+		
+		return mLock;
+	}
+	
+	/**
+	 * the state of a single file
+	 */
+	public static class Entry {
+		
+		/**
+		 * the version of the file that was imported
+		 */
+		public final long version;
+		
+		/**
+		 * the offset of the byte following the last record imported
+		 */
+		public final long offset;
+		
+		/**
+		 * the timestamp of the last record imported
+		 */
+		public final long timestamp;
+		
+		private Entry(long version, long offset, long timestamp) {
+			this.version = version;
+			this.offset = offset;
+			this.timestamp = timestamp;
+		}
+	}
+}
@@ -20,14 +20,15 @@
 package org.servalproject.maps.services;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.servalproject.maps.R;
 import org.servalproject.maps.location.JsonLocationWriter;
 import org.servalproject.maps.location.LocationCollector;
 import org.servalproject.maps.location.MockLocations;
+import org.servalproject.maps.protobuf.BinaryFileWriter;
+import org.servalproject.maps.protobuf.ImportScheduler;
 import org.servalproject.maps.rhizome.RhizomeBroadcastReceiver;
+import org.servalproject.maps.rhizome.RhizomePublisher;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -63,8 +64,6 @@ public class CoreService extends Service {
 	private final boolean V_LOG = false;
 	private final String  TAG = "CoreService";
 
-	private final int THREAD_POOL_SIZE = 2;
-
 	// class level variables
 	private LocationCollector locationCollector;
 	private LocationManager locationManager;
@@ -77,8 +76,6 @@ public class CoreService extends Service {
 
 	private RhizomeBroadcastReceiver rhizomeBroadcastReceiver = null;
 	
-	private ExecutorService executor = null;
-	
 	private Long uptimeStart;
 
 	/*
@@ -142,15 +139,15 @@ public class CoreService extends Service {
 			Log.v(TAG, "Service Created");
 		}
 		
-		// create the executor service with the required thread pool
-		executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-
-		// register for the Rhizome related broadcasts
-		rhizomeBroadcastReceiver = new RhizomeBroadcastReceiver(executor);
+		// register for the Rhizome related broadcasts, imports use the shared bounded scheduler
+		rhizomeBroadcastReceiver = new RhizomeBroadcastReceiver(ImportScheduler.getInstance());
 
 		IntentFilter mBroadcastFilter = new IntentFilter();
 		mBroadcastFilter.addAction("org.servalproject.rhizome.RECIEVE_FILE");
 		registerReceiver(rhizomeBroadcastReceiver, mBroadcastFilter);
+		
+		// queue any photos that were waiting to be published when the process last stopped
+		RhizomePublisher.getInstance(this);
 
 	}
 
@@ -335,9 +332,8 @@ public class CoreService extends Service {
 
 		unregisterReceiver(rhizomeBroadcastReceiver);
 		
-		if(executor != null) {
-			executor.shutdown();
-		}
+		// make sure all of the binary log records are written
+		BinaryFileWriter.close();
 		
 		// update the uptime count
 		long mUptime = System.currentTimeMillis() - uptimeStart;
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.utils;
+
+/**
+ * a bloom filter over the hex string hashes created by the HashUtils class, 
+ * used to tell quickly if a record definitely hasn't been seen before
+ */
+public class BloomFilter {
+	
+	/*
+	 * private class level variables
+	 */
+	private final long[] bits;
+	private final int bitCount;
+	private final int hashCount;
+	private final int capacity;
+	
+	private int count = 0;
+	
+	/**
+	 * construct a new bloom filter
+	 * 
+	 * @param capacity the number of hashes that can be added before the false positive rate rises above the target
+	 * @param falsePositiveRate the target false positive rate
+	 */
+	public BloomFilter(int capacity, double falsePositiveRate) {
+		
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("the capacity parameter must be greater than zero");
+		}
+		
+		if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("the falsePositiveRate parameter must be between 0 and 1");
+		}
+		
+		// optimal number of bits and hash functions for the capacity and false positive rate
+		long mBitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		mBitCount = Math.min(Math.max(mBitCount, 64), Integer.MAX_VALUE - 64);
+		
+		this.bits = new long[(int) ((mBitCount + 63) / 64)];
+		this.bitCount = bits.length * 64;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * add a hash to the filter
+	 * 
+	 * @param hash a hex string hash of at least 32 characters
+	 */
+	public void add(String hash) {
+		
+		long mHash1 = parseHex(hash, 0);
+		long mHash2 = parseHex(hash, 16);
+		
+		for(int i = 0; i < hashCount; i++) {
+			int mBit = getBit(mHash1, mHash2, i);
+			bits[mBit >>> 6] |= 1l << (mBit & 63);
+		}
+		
+		count++;
+	}
+	
+	/**
+	 * check to see if a hash may have been added to the filter
+	 * 
+	 * @param hash a hex string hash of at least 32 characters
+	 * @return false if the hash has definitely not been added, true if it may have been added
+	 */
+	public boolean mightContain(String hash) {
+		
+		long mHash1 = parseHex(hash, 0);
+		long mHash2 = parseHex(hash, 16);
+		
+		for(int i = 0; i < hashCount; i++) {
+			int mBit = getBit(mHash1, mHash2, i);
+			
+			if((bits[mBit >>> 6] & (1l << (mBit & 63))) == 0) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * get the number of hashes added to the filter
+	 * 
+	 * @return the number of hashes added to the filter
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * get the number of hashes the filter was sized for
+	 * 
+	 * @return the number of hashes the filter was sized for
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	// derive the bit for the hash function from the two halves of the hash using double hashing
+	private int getBit(long hash1, long hash2, int index) {
+		
+		long mCombined = hash1 + index * hash2;
+		
+		return (int) ((mCombined & Long.MAX_VALUE) % bitCount);
+	}
+	
+	// parse 16 hex characters into a long
+	private static long parseHex(String hash, int start) {
+		
+		if(hash == null || hash.length() < start + 16) {
+			throw new IllegalArgumentException("the hash parameter must be a hex string of at least 32 characters");
+		}
+		
+		long mValue = 0;
+		
+		for(int i = start; i < start + 16; i++) {
+			mValue = (mValue << 4) | Character.digit(hash.charAt(i), 16);
+		}
+		
+		return mValue;
+	}
+}
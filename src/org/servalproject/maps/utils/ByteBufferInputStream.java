@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 The Serval Project
+ *
+ * This file is part of the Serval Maps Software
+ *
+ * Serval Maps Software is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.servalproject.maps.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * an input stream that reads from a byte buffer, such as a memory mapped file, 
+ * without copying the contents of the buffer
+ */
+public class ByteBufferInputStream extends InputStream {
+	
+	/*
+	 * private class level variables
+	 */
+	private final ByteBuffer buffer;
+	
+	/**
+	 * construct a new input stream that reads from the current position to the limit of the buffer
+	 * 
+	 * @param buffer the buffer to read from
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		
+		if(buffer == null) {
+			throw new IllegalArgumentException("the buffer parameter is required");
+		}
+		
+		this.buffer = buffer;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() {
+		
+		if(buffer.hasRemaining() == false) {
+			return -1;
+		}
+		
+		return buffer.get() & 0xFF;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] bytes, int offset, int length) {
+		
+		if(length == 0) {
+			return 0;
+		}
+		
+		if(buffer.hasRemaining() == false) {
+			return -1;
+		}
+		
+		length = Math.min(length, buffer.remaining());
+		buffer.get(bytes, offset, length);
+		
+		return length;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#skip(long)
+	 */
+	@Override
+	public long skip(long count) {
+		
+		int mCount = (int) Math.max(Math.min(count, buffer.remaining()), 0);
+		buffer.position(buffer.position() + mCount);
+		
+		return mCount;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
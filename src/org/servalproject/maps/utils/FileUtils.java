@@ -24,6 +24,8 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 import org.servalproject.maps.protobuf.BinaryFileContract;
@@ -155,6 +157,19 @@ public class FileUtils {
 	 * @throws IOException 
 	 */
 	public static String copyFileToDirWithTmpName(String filePath, String dirPath) throws IOException {
+		return copyFileTailToDirWithTmpName(filePath, dirPath, 0);
+	}
+	
+	/**
+	 * copies the end of a file, starting at the specified offset, into a directory
+	 * 
+	 * @param filePath path to the source file
+	 * @param dirPath path to the destination directory
+	 * @param offset the number of bytes at the start of the source file to skip
+	 * @return the full path of the destination file
+	 * @throws IOException 
+	 */
+	public static String copyFileTailToDirWithTmpName(String filePath, String dirPath, long offset) throws IOException {
 		
 		// check the parameters
 		if(TextUtils.isEmpty(filePath) == true) {
@@ -173,6 +188,10 @@ public class FileUtils {
 			throw new IOException("unable to access the destination directory");
 		}
 		
+		if(offset < 0) {
+			throw new IllegalArgumentException("the offset parameter must not be negative");
+		}
+		
 		String mFileName = new File(filePath).getName();
 		
 		File mOutputFile = null;
@@ -189,7 +208,8 @@ public class FileUtils {
 		FileChannel mInputChannel = new FileInputStream(filePath).getChannel();
 		FileChannel mOutputChannel = new FileOutputStream(mOutputFile).getChannel();
 		
-		mOutputChannel.transferFrom(mInputChannel, 0, mInputChannel.size());
+		mInputChannel.position(offset);
+		mOutputChannel.transferFrom(mInputChannel, 0, Math.max(mInputChannel.size() - offset, 0));
 		
 		// play nice and tidy up
 		mInputChannel.close();
@@ -198,6 +218,94 @@ public class FileUtils {
 		return mOutputFile.getCanonicalPath();
 	}
 	
+	/**
+	 * map part of a file into memory, read only, so that it can be read in place without copying it
+	 * 
+	 * @param filePath path to the file
+	 * @param offset the number of bytes at the start of the file to skip
+	 * @param length the number of bytes to map
+	 * @return a buffer containing the mapped part of the file
+	 * @throws IOException if the file can't be mapped
+	 */
+	public static MappedByteBuffer mapFile(String filePath, long offset, long length) throws IOException {
+		
+		// check the parameters
+		if(TextUtils.isEmpty(filePath) == true) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(offset < 0) {
+			throw new IllegalArgumentException("the offset parameter must not be negative");
+		}
+		
+		if(length < 0 || length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("the length parameter must be between 0 and " + Integer.MAX_VALUE);
+		}
+		
+		FileInputStream mInput = new FileInputStream(filePath);
+		
+		try {
+			FileChannel mChannel = mInput.getChannel();
+			
+			if(offset + length > mChannel.size()) {
+				throw new IOException("unable to map " + length + " bytes from byte " + offset + " of a " + mChannel.size() + " byte file");
+			}
+			
+			// the mapping remains valid after the channel is closed
+			return mChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		} finally {
+			mInput.close();
+		}
+	}
+	
+	/**
+	 * read the end of a file into memory, for files that another application may truncate while they are read, 
+	 * which kills the process if the file is mapped into memory instead
+	 * 
+	 * @param filePath path to the file
+	 * @param offset the number of bytes at the start of the file to skip
+	 * @return a buffer containing the rest of the file, the length is taken from the open file 
+	 * and the buffer ends early if the file is truncated while it is read
+	 * @throws IOException if the file can't be read
+	 */
+	public static ByteBuffer readFile(String filePath, long offset) throws IOException {
+		
+		// check the parameters
+		if(TextUtils.isEmpty(filePath) == true) {
+			throw new IllegalArgumentException("the filePath parameter is required");
+		}
+		
+		if(offset < 0) {
+			throw new IllegalArgumentException("the offset parameter must not be negative");
+		}
+		
+		FileInputStream mInput = new FileInputStream(filePath);
+		
+		try {
+			FileChannel mChannel = mInput.getChannel();
+			long mLength = mChannel.size() - offset;
+			
+			if(mLength < 0 || mLength > Integer.MAX_VALUE) {
+				throw new IOException("unable to read from byte " + offset + " of a " + mChannel.size() + " byte file");
+			}
+			
+			ByteBuffer mBuffer = ByteBuffer.allocate((int) mLength);
+			
+			while(mBuffer.hasRemaining() == true) {
+				if(mChannel.read(mBuffer, offset + mBuffer.position()) == -1) {
+					// the file has been truncated
+					break;
+				}
+			}
+			
+			mBuffer.flip();
+			
+			return mBuffer;
+		} finally {
+			mInput.close();
+		}
+	}
+	
 	/**
 	 * delete all files in a directory
 	 * 
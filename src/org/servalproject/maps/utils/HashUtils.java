@@ -57,13 +57,14 @@ public class HashUtils {
 	 * @param phone the phone number
 	 * @param latitude the latitude coordinate
 	 * @param longitude the longitude coordinate
+	 * @param time the timestamp
 	 * @param title the title of the POI
 	 * @param description the description of the POI
 	 * @return a string representation of the hash
 	 */
-	public static String hashPointOfInterestMessage(String phone, double latitude, double longitude, String title, String description) {
+	public static String hashPointOfInterestMessage(String phone, double latitude, double longitude, long time, String title, String description) {
 		
-		String mToHash = phone + Double.toString(latitude) + Double.toString(longitude) + title + description;
+		String mToHash = phone + Double.toString(latitude) + Double.toString(longitude) + Long.toString(time) + title + description;
 		
 		return createHash(mToHash);
 	}
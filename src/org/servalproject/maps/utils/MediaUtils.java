@@ -43,6 +43,26 @@ public class MediaUtils {
 	 * common prefix for all Serval Maps photos
 	 */
 	public static final String PHOTO_FILE_PREFIX = "smaps-photo-";
+	
+	/**
+	 * common prefix for the thumbnails of Serval Maps photos shared using Rhizome
+	 */
+	public static final String THUMBNAIL_FILE_PREFIX = "smaps-thumb-";
+	
+	/**
+	 * get the name of the thumbnail shared using Rhizome for a photo
+	 * 
+	 * @param photoName the name of the photo file
+	 * @return the name of the thumbnail file
+	 */
+	public static String getThumbnailName(String photoName) {
+		
+		if(photoName == null || photoName.startsWith(PHOTO_FILE_PREFIX) == false) {
+			throw new IllegalArgumentException("the photoName parameter must be the name of a Serval Maps photo");
+		}
+		
+		return THUMBNAIL_FILE_PREFIX + photoName.substring(PHOTO_FILE_PREFIX.length());
+	}
 
 	/**
 	 * get the path to the media store, 